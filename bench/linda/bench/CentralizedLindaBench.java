@@ -0,0 +1,134 @@
+package linda.bench;
+
+import linda.Linda;
+import linda.Tuple;
+import linda.shm.CentralizedLinda;
+import linda.shm.TupleStore;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Opérations d'un CentralizedLinda selon la taille de l'espace, le nombre d'attentes en cours et le stockage.
+ * L'espace contient spaceSize tuples ("fill", i) ; les attentes sont des read futurs (String, Double) de même
+ * arité, jamais satisfaits, que chaque écriture de cette arité doit examiner.
+ * write et take vont par paire pour garder la taille de l'espace constante.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CentralizedLindaBench {
+
+    @Param({ "0", "1000", "100000" })
+    public int spaceSize;
+
+    @Param({ "0", "100", "10000" })
+    public int waiters;
+
+    @Param({ "heap", "offheap" })
+    public String store;
+
+    private CentralizedLinda linda;
+    private Tuple readTemplate;
+    private Tuple readAllTemplate;
+    private Tuple readAllWildcardTemplate;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        System.setProperty(TupleStore.PROPERTY, this.store);
+        this.linda = new CentralizedLinda();
+        for (int i = 0; i < this.spaceSize; i++) {
+            this.linda.write(new Tuple("fill", i));
+        }
+        for (int i = 0; i < this.waiters; i++) {
+            this.linda.eventRegister(Linda.eventMode.READ, Linda.eventTiming.FUTURE,
+                    new Tuple(String.class, Double.class), t -> { });
+        }
+        this.readTemplate = new Tuple("fill", this.spaceSize / 2);
+        // Un seul résultat : mesure la recherche par l'index et non la copie du résultat
+        this.readAllTemplate = new Tuple("fill", 0);
+        // Tous les tuples de remplissage : mesure aussi la copie de spaceSize résultats
+        this.readAllWildcardTemplate = new Tuple("fill", Integer.class);
+    }
+
+    /**
+     * Numéro propre à chaque thread, pour que les paires write/take de threads différents ne se croisent pas
+     */
+    @State(Scope.Thread)
+    public static class Key {
+        private static int next = 0;
+        private Tuple tuple;
+        private Tuple template;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            int key;
+            synchronized (Key.class) {
+                key = next++;
+            }
+            this.tuple = new Tuple("bench", key);
+            this.template = new Tuple("bench", key);
+        }
+    }
+
+    @Benchmark
+    public Tuple writeTake(Key key) {
+        this.linda.write(key.tuple);
+        return this.linda.take(key.template);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public Tuple writeTakeContended(Key key) {
+        this.linda.write(key.tuple);
+        return this.linda.take(key.template);
+    }
+
+    @Benchmark
+    public Tuple writeTryTake(Key key) {
+        this.linda.write(key.tuple);
+        return this.linda.tryTake(key.template);
+    }
+
+    @Benchmark
+    public Tuple read() {
+        return this.spaceSize == 0 ? null : this.linda.read(this.readTemplate);
+    }
+
+    @Benchmark
+    public Tuple tryReadMiss() {
+        return this.linda.tryRead(new Tuple("missing", 1));
+    }
+
+    @Benchmark
+    public Collection<Tuple> readAllConcrete() {
+        return this.linda.readAll(this.readAllTemplate);
+    }
+
+    @Benchmark
+    public Collection<Tuple> readAllWildcard() {
+        return this.linda.readAll(this.readAllWildcardTemplate);
+    }
+
+    @Benchmark
+    public Collection<Tuple> readNWildcard() {
+        return this.linda.readN(new Tuple("fill", Integer.class), 100);
+    }
+
+}
@@ -0,0 +1,91 @@
+package linda.bench;
+
+import linda.Tuple;
+import linda.server.LindaClient;
+import linda.server.LindaServerImpl;
+import linda.server.NioLindaServer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.rmi.Naming;
+import java.rmi.registry.LocateRegistry;
+import java.rmi.server.ExportException;
+import java.rmi.server.UnicastRemoteObject;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Aller-retour client/serveur en RMI et en NIO, serveur dans le même processus (RMI sur le port 4300, NIO sur 4301)
+ * Mesure le coût du transport et de la sérialisation autour d'opérations qui ne font presque rien côté serveur.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RoundTripBench {
+
+    private static final int PORT = 4300;
+
+    @Param({ "rmi", "nio" })
+    public String transport;
+
+    private LindaServerImpl server;
+    private NioLindaServer nio;
+    private LindaClient client;
+
+    private final Tuple hit = new Tuple("hit", 1);
+    private final Tuple miss = new Tuple("miss", 1);
+    private final Tuple job = new Tuple("job", 1);
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        try {
+            LocateRegistry.createRegistry(PORT);
+        } catch (ExportException e) {
+            // Registre déjà créé par un essai précédent du même processus
+        }
+        this.server = new LindaServerImpl();
+        Naming.rebind("rmi://localhost:" + PORT + "/LindaBench", this.server);
+        this.nio = new NioLindaServer(this.server, PORT + 1);
+        this.nio.start();
+        this.client = new LindaClient(this.transport.equals("nio") ? "nio://localhost:" + (PORT + 1)
+                : "rmi://localhost:" + PORT + "/LindaBench");
+        this.client.write(this.hit);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        this.nio.close();
+        Naming.unbind("rmi://localhost:" + PORT + "/LindaBench");
+        UnicastRemoteObject.unexportObject(this.server, true);
+    }
+
+    @Benchmark
+    public Tuple tryReadHit() {
+        return this.client.tryRead(this.hit);
+    }
+
+    @Benchmark
+    public Tuple tryReadMiss() {
+        return this.client.tryRead(this.miss);
+    }
+
+    @Benchmark
+    public Tuple writeTake() {
+        this.client.write(this.job);
+        return this.client.take(this.job);
+    }
+
+}
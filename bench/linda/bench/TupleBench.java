@@ -0,0 +1,82 @@
+package linda.bench;
+
+import linda.Tuple;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Opérations sur un tuple seul : correspondance à un template, copie, analyse d'une chaîne
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TupleBench {
+
+    private Tuple tuple;
+    private Tuple frozen;
+    private Tuple concreteTemplate;
+    private Tuple wildcardTemplate;
+    private Tuple missTemplate;
+    private Tuple nested;
+    private String printed;
+
+    @Setup
+    public void setUp() {
+        this.tuple = new Tuple("job", 42, "payload-42", 3.5, true);
+        this.frozen = Tuple.frozen("job", 42, "payload-42", 3.5, true);
+        this.concreteTemplate = new Tuple("job", 42, "payload-42", 3.5, true);
+        this.wildcardTemplate = new Tuple(String.class, Integer.class, String.class, Double.class, Boolean.class);
+        this.missTemplate = new Tuple("job", 43, String.class, Double.class, Boolean.class);
+        this.nested = new Tuple("job", new Tuple("step", 1, new Tuple("sub", 2.5)), 42);
+        this.printed = this.tuple.toString();
+    }
+
+    @Benchmark
+    public boolean matchesConcrete() {
+        return this.tuple.matches(this.concreteTemplate);
+    }
+
+    @Benchmark
+    public boolean matchesWildcard() {
+        return this.tuple.matches(this.wildcardTemplate);
+    }
+
+    @Benchmark
+    public boolean matchesMiss() {
+        return this.tuple.matches(this.missTemplate);
+    }
+
+    @Benchmark
+    public Tuple deepclone() {
+        return this.tuple.deepclone();
+    }
+
+    @Benchmark
+    public Tuple deepcloneFrozen() {
+        return this.frozen.deepclone();
+    }
+
+    @Benchmark
+    public Tuple deepcloneNested() {
+        return this.nested.deepclone();
+    }
+
+    @Benchmark
+    public Tuple valueOf() {
+        return Tuple.valueOf(this.printed);
+    }
+
+}
@@ -0,0 +1,27 @@
+package linda;
+
+import java.util.concurrent.CompletableFuture;
+
+/** Non-blocking interface to a Linda implementation.
+ * Each operation returns at once with a future, completed when the operation is done,
+ * so that a single thread may keep many operations in flight and compose them.
+ * Operations in flight are not ordered with respect to each other: chain them (e.g. thenCompose) if order matters.
+ * Beware: non-async dependent stages may run in the thread completing the future (e.g. the writer of the
+ * matching tuple), so they should not block (use the *Async methods of CompletableFuture otherwise).
+ */
+public interface AsyncLinda {
+
+    /** Adds a tuple t to the tuplespace.
+     * The future completes once the tuple is in the tuplespace (or has been given to a pending take/read).
+     * The tuple must not be modified before the future completes. */
+    public CompletableFuture<Void> writeAsync(Tuple t);
+
+    /** Returns a future completed with a tuple matching the template, removed from the tuplespace.
+     * Never blocks. If the future is cancelled before a tuple is found, the tuple is put back. */
+    public CompletableFuture<Tuple> takeAsync(Tuple template);
+
+    /** Returns a future completed with a tuple matching the template, left in the tuplespace.
+     * Never blocks. */
+    public CompletableFuture<Tuple> readAsync(Tuple template);
+
+}
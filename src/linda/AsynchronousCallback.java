@@ -3,21 +3,27 @@ package linda;
 /** The class helps to transform a callback to behave asynchronously.
  * The callback fires exactly once.
  * The callback fires asynchronously with other threads and may do whatever it wants (it may block).
+ * It runs according to the execution mode chosen at startup (see {@link Executions}): a new thread by default.
  * @author philippe.queinnec@enseeiht.fr
  */
 public class AsynchronousCallback implements Callback {
         
     private Callback cb;
 
+    private CallbackDispatcher dispatcher;
+
     public AsynchronousCallback (Callback cb) { this.cb = cb; }
+
+    /** The callback runs on the threads of the dispatcher (bounded threads and queue) instead of a new thread. */
+    public AsynchronousCallback (Callback cb, CallbackDispatcher dispatcher) { this.cb = cb; this.dispatcher = dispatcher; }
         
     /** Asynchronous call: the associated callback is concurrently run and this one immediately returns.
      * */
     public void call(final Tuple t) {
-        new Thread() {
-            public void run() {
-                cb.call(t);
-            }
-        }.start();
+        if (dispatcher != null) {
+            dispatcher.dispatch(cb, t);
+        } else {
+            Executions.executor().execute(() -> cb.call(t));
+        }
     }
 }
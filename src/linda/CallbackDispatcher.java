@@ -0,0 +1,156 @@
+package linda;
+
+import java.util.ArrayDeque;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/** Delivers callbacks with a bounded number of threads and a bounded queue.
+ * Tasks with the same key (e.g. the same callback object) run one at a time, in dispatch order;
+ * tasks with different keys run concurrently on the worker threads.
+ * When the queue is full, the overflow policy decides what happens to a new task:
+ * the dispatching thread (usually a writer) waits for a free slot, the task is dropped, or it runs in the dispatching thread.
+ * Beware: with BLOCK, a callback that itself writes may wait for its own worker; prefer CALLER_RUNS in that case.
+ */
+public class CallbackDispatcher {
+
+    public enum Overflow { BLOCK, DROP, CALLER_RUNS }
+
+    /** Tasks of one key, run one after the other by a single worker at a time. */
+    private static class Serial {
+        private final Queue<Runnable> tasks = new ArrayDeque<>();
+    }
+
+    private final Executor workers;
+    private final Overflow overflow;
+    private final int capacity;
+
+    /** Free places in the queue. */
+    private final Semaphore slots;
+
+    /** Keys having queued or running tasks. Guarded by the map's per-key compute. */
+    private final Map<Object, Serial> serials = new ConcurrentHashMap<>();
+
+    private final AtomicInteger depth = new AtomicInteger(0);
+    private final AtomicInteger maxDepth = new AtomicInteger(0);
+    private final LongAdder delivered = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder callerRuns = new LongAdder();
+
+    /** Creates a dispatcher.
+     * @param threads number of worker threads (in thread mode, see {@link Executions#executor(int, String)}).
+     * @param capacity maximum number of queued tasks.
+     * @param overflow what to do with a task when the queue is full.
+     */
+    public CallbackDispatcher(int threads, int capacity, Overflow overflow) {
+        this.workers = Executions.executor(threads, "linda-dispatcher");
+        this.capacity = capacity;
+        this.overflow = overflow;
+        this.slots = new Semaphore(capacity);
+    }
+
+    /** Delivers a tuple to a callback; calls to the same callback are serialized.
+     * @return false if the call was dropped (queue full with the DROP policy).
+     */
+    public boolean dispatch(Callback callback, Tuple t) {
+        return this.dispatch(callback, () -> callback.call(t));
+    }
+
+    /** Runs a task after the previously dispatched tasks of the same key.
+     * A task run in the caller (CALLER_RUNS on overflow) is not ordered with the queued tasks of its key.
+     * @return false if the task was dropped (queue full with the DROP policy).
+     */
+    public boolean dispatch(Object key, Runnable task) {
+        if (!this.slots.tryAcquire()) {
+            switch (this.overflow) {
+                case DROP:
+                    this.dropped.increment();
+                    return false;
+                case CALLER_RUNS:
+                    this.callerRuns.increment();
+                    this.run(task);
+                    return true;
+                case BLOCK:
+                    this.slots.acquireUninterruptibly();
+                    break;
+            }
+        }
+        int d = this.depth.incrementAndGet();
+        this.maxDepth.accumulateAndGet(d, Math::max);
+        boolean[] idle = new boolean[1];
+        this.serials.compute(key, (k, serial) -> {
+            if (serial == null) {
+                serial = new Serial();
+                idle[0] = true;
+            }
+            serial.tasks.add(task);
+            return serial;
+        });
+        if (idle[0]) {
+            this.workers.execute(() -> this.drain(key));
+        }
+        return true;
+    }
+
+    /** Runs the tasks of a key until none is left. */
+    private void drain(Object key) {
+        while (true) {
+            Runnable[] next = new Runnable[1];
+            this.serials.computeIfPresent(key, (k, serial) -> {
+                next[0] = serial.tasks.poll();
+                return next[0] == null ? null : serial;
+            });
+            if (next[0] == null) {
+                return;
+            }
+            this.depth.decrementAndGet();
+            this.slots.release();
+            this.run(next[0]);
+        }
+    }
+
+    private void run(Runnable task) {
+        try {
+            task.run();
+            this.delivered.increment();
+        } catch (RuntimeException e) {
+            // A failing callback must not stop the other callbacks of its key
+            e.printStackTrace();
+        }
+    }
+
+    /** Returns the number of queued tasks. */
+    public int queueDepth() {
+        return this.depth.get();
+    }
+
+    /** Returns the highest number of queued tasks seen. */
+    public int maxQueueDepth() {
+        return this.maxDepth.get();
+    }
+
+    /** Returns the capacity of the queue. */
+    public int capacity() {
+        return this.capacity;
+    }
+
+    /** Returns the number of tasks run so far. */
+    public long delivered() {
+        return this.delivered.sum();
+    }
+
+    /** Returns the number of tasks dropped because the queue was full. */
+    public long dropped() {
+        return this.dropped.sum();
+    }
+
+    /** Returns the number of tasks run by the dispatching thread because the queue was full. */
+    public long callerRuns() {
+        return this.callerRuns.sum();
+    }
+
+}
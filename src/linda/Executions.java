@@ -0,0 +1,149 @@
+package linda;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/** Execution mode of the tasks started by the Linda implementations (asynchronous callbacks, event notifications...).
+ * Chosen once, at startup, with the system property <code>linda.execution</code>:
+ * <ul>
+ * <li><code>thread</code> (default): one new platform thread per task;</li>
+ * <li><code>virtual</code>: one new virtual thread per task (needs a Java runtime with virtual threads,
+ *     falls back to <code>thread</code> otherwise);</li>
+ * <li><code>pool:N</code>: a shared pool of N daemon threads (tasks beyond N wait in a queue,
+ *     so blocking tasks should not wait for each other).</li>
+ * </ul>
+ * An unknown value is reported on the error stream and <code>thread</code> is used.
+ */
+public final class Executions {
+
+    public enum Mode { THREAD, VIRTUAL, POOL }
+
+    /** Name of the system property selecting the mode. */
+    public static final String PROPERTY = "linda.execution";
+
+    private static final Mode mode;
+    private static final Executor executor;
+
+    static {
+        String value = System.getProperty(PROPERTY, "thread").trim().toLowerCase();
+        Mode m = Mode.THREAD;
+        Executor e = null;
+        if (value.equals("virtual")) {
+            e = virtualThreads();
+            if (e != null) {
+                m = Mode.VIRTUAL;
+            } else {
+                System.err.println("Virtual threads are not available, " + PROPERTY + "=thread used instead");
+            }
+        } else if (value.startsWith("pool:") && poolSize(value) > 0) {
+            e = newPool(poolSize(value), "linda-pool");
+            m = Mode.POOL;
+        } else if (!value.equals("thread")) {
+            // No exception here: thrown from the static initializer, it would make the class unusable for good
+            System.err.println("Unknown " + PROPERTY + ": " + value + " (expected thread, virtual or pool:N),"
+                    + " " + PROPERTY + "=thread used instead");
+        }
+        if (e == null) {
+            e = task -> new Thread(task).start();
+        }
+        mode = m;
+        executor = e;
+    }
+
+    private Executions() {
+    }
+
+    /** Returns the mode chosen at startup. */
+    public static Mode mode() {
+        return mode;
+    }
+
+    /** Returns the executor of the chosen mode. */
+    public static Executor executor() {
+        return executor;
+    }
+
+    /** Returns an executor running at most the given number of tasks at a time: in thread mode, a new pool of that
+     * many daemon threads; otherwise the executor of the chosen mode, limited to that many tasks (the others wait in a queue).
+     * Used by the components that must not start a platform thread per task. */
+    public static Executor executor(int threads, String name) {
+        return mode == Mode.THREAD ? newPool(threads, name) : new Bounded(executor, threads);
+    }
+
+    /** Runs tasks on another executor, at most a given number at a time; each slot runs queued tasks until the queue is empty. */
+    private static final class Bounded implements Executor {
+        private final Executor executor;
+        private final int max;
+        private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger running = new AtomicInteger(0);
+
+        private Bounded(Executor executor, int max) {
+            this.executor = executor;
+            this.max = Math.max(1, max);
+        }
+
+        @Override
+        public void execute(Runnable task) {
+            this.tasks.add(task);
+            this.schedule();
+        }
+
+        /** Takes a free slot, if any, to run the queued tasks. */
+        private void schedule() {
+            while (!this.tasks.isEmpty()) {
+                int n = this.running.get();
+                if (n >= this.max) {
+                    return;
+                }
+                if (this.running.compareAndSet(n, n + 1)) {
+                    this.executor.execute(this::drain);
+                    return;
+                }
+            }
+        }
+
+        private void drain() {
+            try {
+                Runnable task;
+                while ((task = this.tasks.poll()) != null) {
+                    task.run();
+                }
+            } finally {
+                this.running.decrementAndGet();
+                // A task queued between the last poll and the release would otherwise wait for the next one
+                this.schedule();
+            }
+        }
+    }
+
+    /** Returns N for a "pool:N" value, 0 if N is not a positive number. */
+    private static int poolSize(String value) {
+        try {
+            return Math.max(0, Integer.parseInt(value.substring("pool:".length()).trim()));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    private static ExecutorService newPool(int threads, String name) {
+        return Executors.newFixedThreadPool(threads, r -> {
+            Thread thread = new Thread(r, name);
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /** Executors.newVirtualThreadPerTaskExecutor(), looked up by reflection to still compile and run on older runtimes. */
+    private static Executor virtualThreads() {
+        try {
+            return (Executor) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException | UnsupportedOperationException e) {
+            return null;
+        }
+    }
+
+}
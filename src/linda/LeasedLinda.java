@@ -0,0 +1,23 @@
+package linda;
+
+/** Linda implementation whose tuples may be written with a time-to-live.
+ * A leased tuple is removed from the tuplespace when its lease expires, unless the lease is renewed before:
+ * a producer that crashes stops renewing, and its tuples eventually disappear.
+ * An expired tuple is removed like a take (nobody receives it); a tuple taken before expiring ends its lease.
+ * Expiration is checked periodically (every few ms): a tuple may outlive its lease by one period, never less.
+ * Leases are kept in memory only: tuples restored after a restart, or by a backup taking over, have no lease.
+ */
+public interface LeasedLinda {
+
+    /** Returned by {@link #write(Tuple, long)} when the tuple went straight to a pending take. */
+    public static final long NO_LEASE = -1;
+
+    /** Adds a tuple t to the tuplespace for ttlMillis ms.
+     * @return the lease of the tuple, to renew it, or NO_LEASE if a pending take got the tuple at once. */
+    public long write(Tuple t, long ttlMillis);
+
+    /** Renews a lease: the tuple now expires ttlMillis ms from now (sooner or later than before).
+     * @return false if the tuple is no longer in the tuplespace (taken or expired). */
+    public boolean renew(long lease, long ttlMillis);
+
+}
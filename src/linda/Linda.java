@@ -10,6 +10,11 @@ public interface Linda {
     /** Adds a tuple t to the tuplespace. */
     public void write(Tuple t);
 
+    /** Adds all the tuples of the collection to the tuplespace.
+     * Equivalent to a write of each tuple in turn (pending callbacks are fired the same way),
+     * but a remote implementation sends the whole batch at once. */
+    public void writeAll(Collection<Tuple> tuples);
+
     /** Returns a tuple matching the template and removes it from the tuplespace.
      * Blocks if no corresponding tuple is found. */
     public Tuple take(Tuple template);
@@ -40,6 +45,18 @@ public interface Linda {
      */
     public Collection<Tuple> readAll(Tuple template);
 
+    /** Returns at most n tuples matching the template and removes them from the tuplespace.
+     * Returns an empty collection if none found (never blocks).
+     * Same consistency as {@link #takeAll(Tuple)}.
+     */
+    public Collection<Tuple> takeN(Tuple template, int n);
+
+    /** Returns at most n tuples matching the template and leaves them in the tuplespace.
+     * Returns an empty collection if none found (never blocks).
+     * Same consistency as {@link #readAll(Tuple)}.
+     */
+    public Collection<Tuple> readN(Tuple template, int n);
+
     public enum eventMode { READ, TAKE };
     public enum eventTiming { IMMEDIATE, FUTURE };
 
@@ -0,0 +1,131 @@
+package linda;
+
+import java.io.Serializable;
+
+/** A template compiled once into a reusable matcher.
+ * The kind of each template field (primitive value, value, class, nested template) is computed at compilation,
+ * and the fields are checked cheapest first: primitive equalities, then value equalities, then class checks,
+ * then nested templates (themselves compiled). The arity is checked before anything else.
+ * <code>template.compile().matches(t)</code> is equivalent to <code>t.matches(template)</code>.
+ */
+public final class TemplateMatcher {
+
+    /* Nature d'une vérification, dans l'ordre où elles sont faites. */
+    private static final byte PRIMITIVE = 0;
+    private static final byte VALUE = 1;
+    private static final byte CLASS = 2;
+    private static final byte ANY = 3;
+    private static final byte NESTED = 4;
+
+    /** The compiled template. */
+    private final Tuple template;
+
+    /** Expected arity. */
+    private final int arity;
+
+    /** Position checked by each check, cheapest first. */
+    private final int[] positions;
+
+    /** Nature of each check. */
+    private final byte[] checks;
+
+    /** Primitive kind and raw value expected by PRIMITIVE checks. */
+    private final byte[] kinds;
+    private final long[] prims;
+
+    /** Expected value (VALUE), class (CLASS) or compiled nested template (NESTED). */
+    private final Object[] operands;
+
+    /** Compiles a template (see {@link Tuple#compile()}). */
+    TemplateMatcher(Tuple template) {
+        this.template = template;
+        this.arity = template.size();
+        this.positions = new int[this.arity];
+        this.checks = new byte[this.arity];
+        this.kinds = new byte[this.arity];
+        this.prims = new long[this.arity];
+        this.operands = new Object[this.arity];
+        int j = 0;
+        for (byte check = PRIMITIVE; check <= NESTED; check++) {
+            for (int i = 0; i < this.arity; i++) {
+                if (checkOf(template, i) == check) {
+                    this.positions[j] = i;
+                    this.checks[j] = check;
+                    if (check == PRIMITIVE) {
+                        this.kinds[j] = template.kind(i);
+                        this.prims[j] = template.prim(i);
+                    } else if (check == NESTED) {
+                        this.operands[j] = ((Tuple) template.ref(i)).compile();
+                    } else {
+                        this.operands[j] = template.ref(i);
+                    }
+                    j++;
+                }
+            }
+        }
+    }
+
+    /** Returns the nature of the check needed for the i-th field of the template. */
+    private static byte checkOf(Tuple template, int i) {
+        if (template.kind(i) != Tuple.REF)
+          return PRIMITIVE;
+        Serializable c = template.ref(i);
+        if (c instanceof Tuple)
+          return NESTED;
+        else if (c == Object.class)
+          return ANY;
+        else if (c instanceof Class)
+          return CLASS;
+        return VALUE;
+    }
+
+    /** Returns the compiled template. */
+    public Tuple getTemplate() {
+        return this.template;
+    }
+
+    /** Returns true if the tuple matches the compiled template (see {@link Tuple#matches(Tuple)}). */
+    public boolean matches(Tuple t) {
+        if (t.size() != this.arity)
+          return false;
+        for (int j = 0; j < this.arity; j++) {
+            int i = this.positions[j];
+            byte kind = t.kind(i);
+            switch (this.checks[j]) {
+                case PRIMITIVE:
+                    if (kind != this.kinds[j] || t.prim(i) != this.prims[j])
+                      return false;
+                    break;
+                case VALUE:
+                    if (kind != Tuple.REF || t.ref(i) == null || ! t.ref(i).equals(this.operands[j]))
+                      return false;
+                    break;
+                case CLASS:
+                    Class<?> cls = (Class<?>) this.operands[j];
+                    if (kind != Tuple.REF) {
+                        if (! cls.isAssignableFrom(Tuple.boxedClass(kind)))
+                          return false;
+                    } else {
+                        Serializable c = t.ref(i);
+                        if (c instanceof Class ? ! cls.isAssignableFrom((Class<?>) c) : ! cls.isInstance(c))
+                          return false;
+                    }
+                    break;
+                case ANY:
+                    if (kind == Tuple.REF && t.ref(i) == null)
+                      return false;
+                    break;
+                default:
+                    if (kind != Tuple.REF || ! (t.ref(i) instanceof Tuple) || ! ((TemplateMatcher) this.operands[j]).matches((Tuple) t.ref(i)))
+                      return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public String toString() {
+        return this.template.toString();
+    }
+
+}
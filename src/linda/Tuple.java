@@ -1,19 +1,52 @@
 package linda;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.io.Serializable;
-import java.util.Iterator;
-import java.util.LinkedList;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.RandomAccess;
+import java.util.Set;
 import java.util.StringTokenizer;
 
 /** Representation of a tuple.
+ * A tuple is a compact array-backed list of components. int, long and double components are kept
+ * unboxed in primitive slots; {@link #get(int)} boxes them on demand, {@link #getInt(int)},
+ * {@link #getLong(int)} and {@link #getDouble(int)} read them without boxing.
  * @author philippe.queinnec@enseeiht.fr
  */
-public class Tuple extends LinkedList<Serializable> implements Serializable {
+public class Tuple extends AbstractList<Serializable> implements RandomAccess, Serializable {
 
-    private static final long serialVersionUID = 1L;
+    private static final long serialVersionUID = 2L;
+
+    /* Nature d'une case : référence (values) ou primitive non boxée (prims). */
+    static final byte REF = 0;
+    static final byte INT = 1;
+    static final byte LONG = 2;
+    static final byte DOUBLE = 3;
+
+    /** Reference components (null in a primitive slot). */
+    private transient Serializable[] values;
+
+    /** Kind of each slot, allocated with {@link #prims} on the first primitive component (null: all references). */
+    private transient byte[] kinds;
+
+    /** Primitive components: int and long values, double raw bits (Double.doubleToLongBits). */
+    private transient long[] prims;
+
+    /** Number of components. */
+    private transient int size;
+
+    /** Cached hash code, 0 if not computed yet. */
+    private transient int hash;
+
+    /** True once the tuple has been frozen: it can no longer be modified and is shared instead of copied. */
+    private boolean frozen = false;
 
     /** Creates a new tuple.
      * Example :
@@ -21,11 +54,47 @@ public class Tuple extends LinkedList<Serializable> implements Serializable {
      * new Tuple(4, Integer.class, "foo".getclass(), Boolean.class)  -> [ 4 ?Integer ?String ?Boolean ]
      */
     public Tuple(Serializable... components) {
+        this.values = new Serializable[components.length];
         for (Serializable c : components) {
             this.add(c);
         }
     }
 
+    /** Creates a new frozen tuple (see {@link #freeze()}).
+     * Example :
+     * Tuple.frozen("Whiteboard", Command.ERASEALL)
+     */
+    public static Tuple frozen(Serializable... components) {
+        return new Tuple(components).freeze();
+    }
+
+    /** Freezes this tuple: any later modification throws UnsupportedOperationException.
+     * A frozen tuple is safely shared by the tuplespace, the callbacks and the callers: {@link #deepclone()} returns it as is.
+     * Nested tuples are frozen too.
+     * @return this tuple
+     * @throws IllegalArgumentException if a component is not known to be immutable (see {@link #deepclone()}),
+     *         in which case the tuple is left unfrozen.
+     */
+    public Tuple freeze() {
+        if (this.frozen)
+          return this;
+        for (Serializable c : this) {
+            if (! (c instanceof Tuple) && ! isImmutable(c))
+              throw new IllegalArgumentException("Cannot freeze a tuple holding a mutable component: " + c);
+        }
+        for (Serializable c : this) {
+            if (c instanceof Tuple)
+              ((Tuple) c).freeze();
+        }
+        this.frozen = true;
+        return this;
+    }
+
+    /** Returns true if this tuple is frozen (see {@link #freeze()}). */
+    public boolean isFrozen() {
+        return this.frozen;
+    }
+
     private static boolean matches(Serializable thiscomponent, Serializable templatecomponent) {
         if (templatecomponent instanceof Tuple) {
             if (! (thiscomponent instanceof Tuple))
@@ -58,46 +127,357 @@ public class Tuple extends LinkedList<Serializable> implements Serializable {
      *   @param template the template which this tuple is compared to.
      */
     public boolean matches(Tuple template) {
-        if (this.size() != template.size())
+        if (this.size != template.size)
           return false;
-        Iterator<Serializable> itthis = this.iterator();
-        Iterator<Serializable> itmotif = template.iterator();
-        while (itthis.hasNext()) {
-            Serializable othis = itthis.next();
-            Serializable omotif = itmotif.next();
-            if (! matches(othis, omotif))
+        for (int i = 0; i < this.size; i++) {
+            if (! matchesAt(i, template))
               return false;
         }
         return true;
     }
 
+    /** Returns true if the i-th component of this tuple matches the i-th component of the template. */
+    private boolean matchesAt(int i, Tuple template) {
+        byte kind = this.kind(i);
+        byte templatekind = template.kind(i);
+        if (templatekind != REF)
+          return kind == templatekind && this.prims[i] == template.prims[i];
+        Serializable templatecomponent = template.values[i];
+        if (kind != REF) {
+            // une valeur primitive ne peut correspondre qu'à une classe (une valeur égale serait aussi primitive)
+            return templatecomponent instanceof Class && ((Class<?>) templatecomponent).isAssignableFrom(boxedClass(kind));
+        }
+        return matches(this.values[i], templatecomponent);
+    }
+
+    /** Compiles this tuple, seen as a template, into a reusable matcher (see {@link TemplateMatcher}). */
+    public TemplateMatcher compile() {
+        return new TemplateMatcher(this);
+    }
+
     /** Returns true if this tuple (seen as a template) contains <code>t</code>.
      * This is the reverse of {@link #matches(Tuple)}. */
     public boolean contains(Tuple t) {
         return t.matches(this);
     }
 
+    /** Component classes whose instances are immutable, hence shared instead of copied by {@link #deepclone()}.
+     * Only final classes are listed, so that a mutable subclass cannot sneak in. */
+    private static final Set<Class<?>> IMMUTABLE_CLASSES = new HashSet<>(Arrays.asList(
+            String.class, Integer.class, Long.class, Short.class, Byte.class, Character.class,
+            Boolean.class, Float.class, Double.class, BigInteger.class, BigDecimal.class));
+
     /**
      * Returns a deep copy of the tuple.
+     * Immutable components (boxed primitives, strings, classes, enums) are shared, nested tuples are copied
+     * recursively, and only the other components are copied through serialization.
      * @return a deep copy of this object
      */
     /* Les éléments types sont représentés par des instances de Class, qui n'est pas cloneable.
-     * Le plus simple de passer par une sérialisation/desérialisation ce qui marche pour toutes les classes qui implantent serializable.
+     * Sérialiser tout le tuple coûte cher : on ne passe par une sérialisation/désérialisation
+     * que pour les composants qu'on ne sait pas copier (objets Serializable potentiellement mutables).
      */
     public Tuple deepclone() {
-        Tuple copy = null;
+        if (this.frozen)
+          return this;
+        Tuple copy = new Tuple();
+        copy.values = new Serializable[this.size];
+        for (int i = 0; i < this.size; i++) {
+            copy.values[i] = deepclone(this.values[i]);
+        }
+        if (this.kinds != null) {
+            copy.kinds = Arrays.copyOf(this.kinds, this.size);
+            copy.prims = Arrays.copyOf(this.prims, this.size);
+        }
+        copy.size = this.size;
+        return copy;
+    }
+
+    /** Returns true if the component is known to be immutable. */
+    private static boolean isImmutable(Serializable c) {
+        return c == null || c instanceof Class || c instanceof Enum || IMMUTABLE_CLASSES.contains(c.getClass());
+    }
+
+    /** Returns a deep copy of a component (the component itself if it is immutable). */
+    private static Serializable deepclone(Serializable c) {
+        if (isImmutable(c)) {
+            return c;
+        } else if (c instanceof Tuple) {
+            return ((Tuple) c).deepclone();
+        }
+        Serializable copy = null;
         try {
             ByteArrayOutputStream buf = new ByteArrayOutputStream();
             ObjectOutputStream out = new ObjectOutputStream (buf);
-            out.writeObject (this);
+            out.writeObject (c);
             ObjectInputStream in = new ObjectInputStream (new ByteArrayInputStream (buf.toByteArray()));
-            copy = (Tuple) in.readObject();
+            copy = (Serializable) in.readObject();
         } catch (Exception e) {
             e.printStackTrace();
         }
         return copy;
     }
 
+    /* Accès et modifications de la représentation compacte.
+     * Toutes les modifications passent par add(int, c), set et remove(int), qui refusent de modifier un tuple gelé
+     * (AbstractList et ses itérateurs s'appuient sur ces trois méthodes).
+     */
+
+    byte kind(int i) {
+        return this.kinds == null ? REF : this.kinds[i];
+    }
+
+    private static byte kindOf(Serializable c) {
+        if (c instanceof Integer)
+          return INT;
+        else if (c instanceof Long)
+          return LONG;
+        else if (c instanceof Double)
+          return DOUBLE;
+        return REF;
+    }
+
+    /** Raw primitive slot i (int or long value, double bits). */
+    long prim(int i) {
+        return this.prims[i];
+    }
+
+    /** Reference slot i (null in a primitive slot). */
+    Serializable ref(int i) {
+        return this.values[i];
+    }
+
+    static Class<?> boxedClass(byte kind) {
+        return kind == INT ? Integer.class : kind == LONG ? Long.class : Double.class;
+    }
+
+    /** Allocates the primitive slots if needed. */
+    private void primitiveSlots() {
+        if (this.kinds == null) {
+            this.kinds = new byte[this.values.length];
+            this.prims = new long[this.values.length];
+        }
+    }
+
+    /** Stores a component in slot i, unboxing it if possible. */
+    private void store(int i, Serializable c) {
+        byte kind = kindOf(c);
+        if (kind == REF) {
+            this.values[i] = c;
+            if (this.kinds != null)
+              this.kinds[i] = REF;
+        } else {
+            this.primitiveSlots();
+            this.values[i] = null;
+            this.kinds[i] = kind;
+            if (kind == INT)
+              this.prims[i] = (Integer) c;
+            else if (kind == LONG)
+              this.prims[i] = (Long) c;
+            else
+              this.prims[i] = Double.doubleToLongBits((Double) c);
+        }
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (this.values.length < capacity) {
+            int newCapacity = Math.max(capacity, this.values.length + (this.values.length >> 1) + 1);
+            this.values = Arrays.copyOf(this.values, newCapacity);
+            if (this.kinds != null) {
+                this.kinds = Arrays.copyOf(this.kinds, newCapacity);
+                this.prims = Arrays.copyOf(this.prims, newCapacity);
+            }
+        }
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= this.size)
+          throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + this.size);
+    }
+
+    private void checkNotFrozen() {
+        if (this.frozen)
+          throw new UnsupportedOperationException("Frozen tuple " + this);
+    }
+
+    @Override
+    public int size() {
+        return this.size;
+    }
+
+    @Override
+    public Serializable get(int index) {
+        this.checkIndex(index);
+        switch (this.kind(index)) {
+            case INT:
+                return (int) this.prims[index];
+            case LONG:
+                return this.prims[index];
+            case DOUBLE:
+                return Double.longBitsToDouble(this.prims[index]);
+            default:
+                return this.values[index];
+        }
+    }
+
+    /** Returns the i-th component, which must be an Integer, without boxing it. */
+    public int getInt(int index) {
+        this.checkIndex(index);
+        return this.kind(index) == INT ? (int) this.prims[index] : (Integer) this.get(index);
+    }
+
+    /** Returns the i-th component, which must be a Long, without boxing it. */
+    public long getLong(int index) {
+        this.checkIndex(index);
+        return this.kind(index) == LONG ? this.prims[index] : (Long) this.get(index);
+    }
+
+    /** Returns the i-th component, which must be a Double, without boxing it. */
+    public double getDouble(int index) {
+        this.checkIndex(index);
+        return this.kind(index) == DOUBLE ? Double.longBitsToDouble(this.prims[index]) : (Double) this.get(index);
+    }
+
+    @Override
+    public void add(int index, Serializable c) {
+        this.checkNotFrozen();
+        if (index < 0 || index > this.size)
+          throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + this.size);
+        this.ensureCapacity(this.size + 1);
+        int moved = this.size - index;
+        if (moved > 0) {
+            System.arraycopy(this.values, index, this.values, index + 1, moved);
+            if (this.kinds != null) {
+                System.arraycopy(this.kinds, index, this.kinds, index + 1, moved);
+                System.arraycopy(this.prims, index, this.prims, index + 1, moved);
+            }
+        }
+        this.store(index, c);
+        this.size++;
+        this.modCount++;
+        this.hash = 0;
+    }
+
+    @Override
+    public Serializable set(int index, Serializable c) {
+        this.checkNotFrozen();
+        Serializable old = this.get(index);
+        this.store(index, c);
+        this.hash = 0;
+        return old;
+    }
+
+    @Override
+    public Serializable remove(int index) {
+        this.checkNotFrozen();
+        Serializable old = this.get(index);
+        int moved = this.size - index - 1;
+        if (moved > 0) {
+            System.arraycopy(this.values, index + 1, this.values, index, moved);
+            if (this.kinds != null) {
+                System.arraycopy(this.kinds, index + 1, this.kinds, index, moved);
+                System.arraycopy(this.prims, index + 1, this.prims, index, moved);
+            }
+        }
+        this.values[--this.size] = null;
+        this.modCount++;
+        this.hash = 0;
+        return old;
+    }
+
+    @Override
+    public void clear() {
+        this.checkNotFrozen();
+        Arrays.fill(this.values, 0, this.size, null);
+        this.size = 0;
+        this.modCount++;
+        this.hash = 0;
+    }
+
+    /** Returns the hash code of this tuple, as specified by {@link java.util.List#hashCode()}.
+     * It is cached when the tuple only holds immutable components. */
+    @Override
+    public int hashCode() {
+        if (this.hash != 0)
+          return this.hash;
+        int h = 1;
+        boolean cacheable = true;
+        for (int i = 0; i < this.size; i++) {
+            int ch;
+            switch (this.kind(i)) {
+                case INT:
+                    ch = Integer.hashCode((int) this.prims[i]);
+                    break;
+                case LONG:
+                case DOUBLE:
+                    ch = Long.hashCode(this.prims[i]);
+                    break;
+                default:
+                    Serializable c = this.values[i];
+                    ch = c == null ? 0 : c.hashCode();
+                    cacheable &= this.frozen || isImmutable(c);
+            }
+            h = 31 * h + ch;
+        }
+        if (cacheable)
+          this.hash = h;
+        return h;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (o == this)
+          return true;
+        if (! (o instanceof Tuple))
+          return super.equals(o);
+        Tuple other = (Tuple) o;
+        if (this.size != other.size || (this.hash != 0 && other.hash != 0 && this.hash != other.hash))
+          return false;
+        for (int i = 0; i < this.size; i++) {
+            byte kind = this.kind(i);
+            if (kind != other.kind(i))
+              return false;
+            if (kind == REF) {
+                Serializable c = this.values[i];
+                if (c == null ? other.values[i] != null : ! c.equals(other.values[i]))
+                  return false;
+            } else if (this.prims[i] != other.prims[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        out.defaultWriteObject();
+        out.writeInt(this.size);
+        for (int i = 0; i < this.size; i++) {
+            byte kind = this.kind(i);
+            out.writeByte(kind);
+            if (kind == REF)
+              out.writeObject(this.values[i]);
+            else
+              out.writeLong(this.prims[i]);
+        }
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        int n = in.readInt();
+        this.values = new Serializable[n];
+        for (int i = 0; i < n; i++) {
+            byte kind = in.readByte();
+            if (kind == REF) {
+                this.values[i] = (Serializable) in.readObject();
+            } else {
+                this.primitiveSlots();
+                this.kinds[i] = kind;
+                this.prims[i] = in.readLong();
+            }
+        }
+        this.size = n;
+    }
+
     /** Returns a string representation of this tuple.
      * @return a string representation of this tuple.
      */
@@ -0,0 +1,296 @@
+package linda;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+/** Compact binary encoding of tuples, used by the non-RMI transports and the persistence files.
+ * Common components (int, long, double, String, boolean, char, short, byte, float, Class, enums,
+ * nested tuples) get a one-byte tag followed by a compact value (variable-length integers);
+ * any other Serializable component falls back to Java serialization.
+ * Frozen tuples are decoded frozen.
+ */
+public final class TupleCodec {
+
+    /* Étiquettes des composants. */
+    private static final byte NULL = 0;
+    private static final byte INT = 1;
+    private static final byte LONG = 2;
+    private static final byte DOUBLE = 3;
+    private static final byte STRING = 4;
+    private static final byte TRUE = 5;
+    private static final byte FALSE = 6;
+    private static final byte CHAR = 7;
+    private static final byte SHORT = 8;
+    private static final byte BYTE = 9;
+    private static final byte FLOAT = 10;
+    private static final byte CLASS = 11;
+    private static final byte ENUM = 12;
+    private static final byte TUPLE = 13;
+    private static final byte SERIALIZED = 14;
+
+    /** Primitive classes, which Class.forName cannot load. */
+    private static final Map<String, Class<?>> PRIMITIVE_CLASSES = new HashMap<>();
+    static {
+        for (Class<?> c : new Class<?>[] { int.class, long.class, double.class, float.class, short.class,
+                                           byte.class, char.class, boolean.class, void.class }) {
+            PRIMITIVE_CLASSES.put(c.getName(), c);
+        }
+    }
+
+    private TupleCodec() {
+    }
+
+    /** Writes a tuple. */
+    public static void writeTuple(DataOutput out, Tuple t) throws IOException {
+        int size = t.size();
+        writeVarLong(out, ((long) size << 1) | (t.isFrozen() ? 1 : 0));
+        for (int i = 0; i < size; i++) {
+            writeField(out, t, i);
+        }
+    }
+
+    /** Writes a tuple like {@link #writeTuple(DataOutput, Tuple)}, and records in <code>offsets</code>
+     * (of length size + 1) where each component starts, relative to the start of the tuple, followed by its end.
+     * Components with a canonical encoding can then be compared without decoding the tuple. */
+    public static void writeTuple(DataOutputStream out, Tuple t, int[] offsets) throws IOException {
+        int start = out.size();
+        int size = t.size();
+        writeVarLong(out, ((long) size << 1) | (t.isFrozen() ? 1 : 0));
+        for (int i = 0; i < size; i++) {
+            offsets[i] = out.size() - start;
+            writeField(out, t, i);
+        }
+        offsets[size] = out.size() - start;
+    }
+
+    /** Returns true if two such components are equal exactly when their encodings are equal. */
+    public static boolean isCanonical(Serializable c) {
+        return c == null || c instanceof Integer || c instanceof Long || c instanceof Double || c instanceof String
+                || c instanceof Boolean || c instanceof Character || c instanceof Short || c instanceof Byte
+                || c instanceof Float || c instanceof Class || c instanceof Enum;
+    }
+
+    private static void writeField(DataOutput out, Tuple t, int i) throws IOException {
+        byte kind = t.kind(i);
+        if (kind == Tuple.INT) {
+            out.writeByte(INT);
+            writeVarLong(out, zigzag((int) t.prim(i)));
+        } else if (kind == Tuple.LONG) {
+            out.writeByte(LONG);
+            writeVarLong(out, zigzag(t.prim(i)));
+        } else if (kind == Tuple.DOUBLE) {
+            out.writeByte(DOUBLE);
+            out.writeLong(t.prim(i));
+        } else {
+            writeComponent(out, t.ref(i));
+        }
+    }
+
+    private static void writeComponent(DataOutput out, Serializable c) throws IOException {
+        if (c == null) {
+            out.writeByte(NULL);
+        } else if (c instanceof String) {
+            out.writeByte(STRING);
+            writeString(out, (String) c);
+        } else if (c instanceof Boolean) {
+            out.writeByte((Boolean) c ? TRUE : FALSE);
+        } else if (c instanceof Character) {
+            out.writeByte(CHAR);
+            out.writeChar((Character) c);
+        } else if (c instanceof Short) {
+            out.writeByte(SHORT);
+            out.writeShort((Short) c);
+        } else if (c instanceof Byte) {
+            out.writeByte(BYTE);
+            out.writeByte((Byte) c);
+        } else if (c instanceof Float) {
+            out.writeByte(FLOAT);
+            out.writeFloat((Float) c);
+        } else if (c instanceof Class) {
+            out.writeByte(CLASS);
+            writeString(out, ((Class<?>) c).getName());
+        } else if (c instanceof Enum) {
+            out.writeByte(ENUM);
+            writeString(out, ((Enum<?>) c).getDeclaringClass().getName());
+            writeString(out, ((Enum<?>) c).name());
+        } else if (c instanceof Tuple) {
+            out.writeByte(TUPLE);
+            writeTuple(out, (Tuple) c);
+        } else {
+            out.writeByte(SERIALIZED);
+            ByteArrayOutputStream buf = new ByteArrayOutputStream();
+            ObjectOutputStream oos = new ObjectOutputStream(buf);
+            oos.writeObject(c);
+            oos.close();
+            writeVarLong(out, buf.size());
+            out.write(buf.toByteArray());
+        }
+    }
+
+    /** Reads a tuple written by {@link #writeTuple(DataOutput, Tuple)}. */
+    public static Tuple readTuple(DataInput in) throws IOException {
+        long header = readVarLong(in);
+        int size = (int) (header >>> 1);
+        Tuple t = new Tuple();
+        for (int i = 0; i < size; i++) {
+            t.add(readComponent(in));
+        }
+        if ((header & 1) != 0)
+          t.freeze();
+        return t;
+    }
+
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    private static Serializable readComponent(DataInput in) throws IOException {
+        byte tag = in.readByte();
+        switch (tag) {
+            case NULL:
+                return null;
+            case INT:
+                return (int) unzigzag(readVarLong(in));
+            case LONG:
+                return unzigzag(readVarLong(in));
+            case DOUBLE:
+                return Double.longBitsToDouble(in.readLong());
+            case STRING:
+                return readString(in);
+            case TRUE:
+                return true;
+            case FALSE:
+                return false;
+            case CHAR:
+                return in.readChar();
+            case SHORT:
+                return in.readShort();
+            case BYTE:
+                return in.readByte();
+            case FLOAT:
+                return in.readFloat();
+            case CLASS:
+                return loadClass(readString(in));
+            case ENUM:
+                Class enumClass = loadClass(readString(in));
+                return Enum.valueOf(enumClass, readString(in));
+            case TUPLE:
+                return readTuple(in);
+            case SERIALIZED:
+                byte[] bytes = new byte[(int) readVarLong(in)];
+                in.readFully(bytes);
+                try (ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+                    return (Serializable) ois.readObject();
+                } catch (ClassNotFoundException e) {
+                    throw new IOException(e);
+                }
+            default:
+                throw new IOException("Unknown component tag " + tag);
+        }
+    }
+
+    /** Writes a collection of tuples. */
+    public static void writeTuples(DataOutput out, Collection<Tuple> tuples) throws IOException {
+        writeVarLong(out, tuples.size());
+        for (Tuple t : tuples) {
+            writeTuple(out, t);
+        }
+    }
+
+    /** Reads a collection of tuples written by {@link #writeTuples(DataOutput, Collection)}. */
+    public static Collection<Tuple> readTuples(DataInput in) throws IOException {
+        int n = (int) readVarLong(in);
+        Collection<Tuple> tuples = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            tuples.add(readTuple(in));
+        }
+        return tuples;
+    }
+
+    /** Returns the encoded form of a tuple. */
+    public static byte[] encode(Tuple t) {
+        try {
+            ByteArrayOutputStream buf = new ByteArrayOutputStream();
+            writeTuple(new DataOutputStream(buf), t);
+            return buf.toByteArray();
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Cannot encode " + t, e);
+        }
+    }
+
+    /** Decodes a tuple encoded by {@link #encode(Tuple)}. */
+    public static Tuple decode(byte[] bytes) {
+        try {
+            return readTuple(new DataInputStream(new ByteArrayInputStream(bytes)));
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Cannot decode tuple", e);
+        }
+    }
+
+    private static Class<?> loadClass(String name) throws IOException {
+        Class<?> c = PRIMITIVE_CLASSES.get(name);
+        if (c != null)
+          return c;
+        try {
+            return Class.forName(name, false, TupleCodec.class.getClassLoader());
+        } catch (ClassNotFoundException e) {
+            try {
+                return Class.forName(name, false, Thread.currentThread().getContextClassLoader());
+            } catch (ClassNotFoundException e2) {
+                throw new IOException("Unknown class " + name, e2);
+            }
+        }
+    }
+
+    /* Entiers de taille variable (7 bits par octet) et chaînes UTF-8 préfixées par leur longueur. */
+
+    public static void writeVarLong(DataOutput out, long v) throws IOException {
+        while ((v & ~0x7FL) != 0) {
+            out.writeByte((int) ((v & 0x7F) | 0x80));
+            v >>>= 7;
+        }
+        out.writeByte((int) v);
+    }
+
+    public static long readVarLong(DataInput in) throws IOException {
+        long v = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = in.readByte();
+            v |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0)
+              return v;
+        }
+        throw new IOException("Malformed variable-length integer");
+    }
+
+    private static long zigzag(long v) {
+        return (v << 1) ^ (v >> 63);
+    }
+
+    private static long unzigzag(long v) {
+        return (v >>> 1) ^ -(v & 1);
+    }
+
+    public static void writeString(DataOutput out, String s) throws IOException {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        writeVarLong(out, bytes.length);
+        out.write(bytes);
+    }
+
+    public static String readString(DataInput in) throws IOException {
+        byte[] bytes = new byte[(int) readVarLong(in)];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+}
@@ -0,0 +1,110 @@
+package linda.server;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Histogramme de durées en nanosecondes, sans allocation ni verrou à l'enregistrement
+ * Tranches logarithmiques : chaque puissance de deux est coupée en 8 tranches égales (précision de 12,5 %),
+ * de 0 ns à Long.MAX_VALUE. Une lecture pendant des enregistrements est cohérente à quelques mesures près.
+ */
+class LatencyHistogram {
+
+    /**
+     * Nombre de bits de la mantisse : 2^SUB_BITS tranches par puissance de deux
+     */
+    private static final int SUB_BITS = 3;
+    private static final int SUB_COUNT = 1 << SUB_BITS;
+    private static final int BUCKETS = (64 - SUB_BITS) * SUB_COUNT;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+    private final AtomicLong total = new AtomicLong(0);
+    private final AtomicLong max = new AtomicLong(0);
+
+    /**
+     * Renvoie la tranche d'une durée
+     * @param nanos la durée (positive)
+     * @return l'indice de la tranche
+     */
+    private static int bucket(long nanos) {
+        if (nanos < SUB_COUNT) {
+            return (int) nanos;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(nanos);
+        int sub = (int) (nanos >>> (exponent - SUB_BITS)) & (SUB_COUNT - 1);
+        return (exponent - SUB_BITS + 1) * SUB_COUNT + sub;
+    }
+
+    /**
+     * Renvoie la plus grande durée d'une tranche
+     * @param bucket l'indice de la tranche
+     * @return la borne haute (incluse)
+     */
+    private static long upperBound(int bucket) {
+        if (bucket < SUB_COUNT) {
+            return bucket;
+        }
+        int shift = bucket / SUB_COUNT - 1;
+        long lower = (long) (SUB_COUNT + bucket % SUB_COUNT) << shift;
+        return lower + (1L << shift) - 1;
+    }
+
+    /**
+     * Enregistre une durée
+     * @param nanos la durée (une durée négative, horloge non monotone, compte pour 0)
+     */
+    void record(long nanos) {
+        if (nanos < 0) {
+            nanos = 0;
+        }
+        this.buckets.incrementAndGet(bucket(nanos));
+        this.total.addAndGet(nanos);
+        long m = this.max.get();
+        while (nanos > m && !this.max.compareAndSet(m, nanos)) {
+            m = this.max.get();
+        }
+    }
+
+    /**
+     * Calcule les statistiques des durées enregistrées
+     * @return les statistiques
+     */
+    OperationStats stats() {
+        long[] counts = new long[BUCKETS];
+        long count = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] = this.buckets.get(i);
+            count += counts[i];
+        }
+        long max = this.max.get();
+        if (count == 0) {
+            return new OperationStats(0, 0, 0, 0, 0, 0);
+        }
+        return new OperationStats(count, this.total.get() / count, percentile(counts, count, 0.5, max),
+                percentile(counts, count, 0.99, max), percentile(counts, count, 0.999, max), max);
+    }
+
+    private static long percentile(long[] counts, long count, double fraction, long max) {
+        long rank = (long) Math.ceil(count * fraction);
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return Math.min(upperBound(i), max);
+            }
+        }
+        return max;
+    }
+
+    /**
+     * Remet l'histogramme à zéro (les enregistrements concurrents peuvent être perdus)
+     */
+    void reset() {
+        for (int i = 0; i < BUCKETS; i++) {
+            this.buckets.set(i, 0);
+        }
+        this.total.set(0);
+        this.max.set(0);
+    }
+
+}
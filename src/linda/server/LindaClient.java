@@ -1,36 +1,130 @@
 package linda.server;
 
+import linda.AsyncLinda;
 import linda.Callback;
+import linda.Executions;
+import linda.LeasedLinda;
 import linda.Linda;
 import linda.Tuple;
 
+import java.net.URI;
 import java.rmi.Naming;
 import java.rmi.RemoteException;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BooleanSupplier;
 
 /** Client part of a client/server implementation of Linda.
  * It implements the Linda interface and propagates everything to the server it is connected to.
  * */
-public class LindaClient implements Linda {
+public class LindaClient implements Linda, AsyncLinda, LeasedLinda {
+
+    /**
+     * Nombre de threads qui portent les appels RMI des opérations asynchrones
+     */
+    private static final int ASYNC_THREADS = 16;
 
     /**
      * Le linda serveur auquel on est connecté
      */
     private LindaServer lindaServer;
 
+    /**
+     * Écouteur sur lequel le serveur pousse les événements déclenchés
+     * Partagé par tous les enregistrements, recréé s'il a été fermé faute d'événement en attente
+     */
+    private RemoteEventListenerImpl listener;
+
+    /**
+     * Générateur de numéros d'événements
+     */
+    private final AtomicLong eventIds = new AtomicLong(0);
+
+    /**
+     * Exécute les appels RMI des opérations asynchrones (créé au premier usage)
+     * Pool fixe en mode thread, sinon l'exécuteur choisi au démarrage (voir Executions)
+     * Inutile avec le transport NIO, qui envoie les requêtes sans attendre leur réponse
+     */
+    private Executor asyncExecutor;
+
+    /**
+     * Cache local de tryRead et readAll, null s'il n'est pas activé
+     */
+    private volatile NearCache nearCache;
+
     /** Initializes the Linda implementation.
-     *  @param serverURI the URI of the server, e.g. "rmi://localhost:4000/LindaServer" or "//localhost:4000/LindaServer".
+     *  @param serverURI the URI of the server, e.g. "rmi://localhost:4000/LindaServer" or "//localhost:4000/LindaServer",
+     *  or "nio://localhost:4001" for the non-blocking socket transport.
+     *  A named space of the server is addressed by appending its name, e.g. "rmi://localhost:4000/LindaServer/jobs"
+     *  or "nio://localhost:4001/jobs".
      */
     public LindaClient(String serverURI) {
         //  Connexion au serveur de noms (obtention d'un handle)
         try {
             System.out.println("Client called with URI: " + serverURI);
-            this.lindaServer = (LindaServer) Naming.lookup(serverURI);
+            if (serverURI.startsWith("nio:")) {
+                this.lindaServer = new NioLindaClient(serverURI);
+            } else {
+                this.lindaServer = lookup(serverURI);
+            }
         } catch (Exception e) {
             System.err.println(e);
         }
     }
 
+    /**
+     * Client d'un espace déjà obtenu
+     * @param lindaServer l'espace
+     */
+    private LindaClient(LindaServer lindaServer) {
+        this.lindaServer = lindaServer;
+    }
+
+    /**
+     * Cherche un serveur dans le serveur de noms, ou l'un de ses espaces nommés ("//hote:port/serveur/espace")
+     * @param serverURI l'URI RMI
+     * @return le serveur ou l'espace
+     * @throws Exception si la recherche échoue
+     */
+    private static LindaServer lookup(String serverURI) throws Exception {
+        String path = URI.create(serverURI).getPath();
+        int slash = path == null ? -1 : path.indexOf('/', 1);
+        if (slash < 0) {
+            return (LindaServer) Naming.lookup(serverURI);
+        }
+        String space = path.substring(slash + 1);
+        String server = serverURI.substring(0, serverURI.length() - path.length() + slash);
+        return ((LindaServer) Naming.lookup(server)).space(space);
+    }
+
+    /**
+     * Renvoie un client d'un espace nommé du même serveur (créé au premier usage)
+     * Le client renvoyé a sa propre connexion en NIO ; en RMI, il partage celle du serveur
+     * @param name nom de l'espace
+     * @return le client de l'espace, null si le serveur est injoignable
+     */
+    public LindaClient space(String name) {
+        try {
+            return new LindaClient(this.lindaServer.space(name));
+        } catch (RemoteException e) {
+            System.err.println(e);
+        }
+        return null;
+    }
+
+    /**
+     * Renvoie le serveur auquel le client est connecté, pour les appels qui doivent voir ses erreurs
+     * @return le serveur, null si la connexion a échoué
+     */
+    LindaServer server() {
+        return this.lindaServer;
+    }
+
     @Override
     public void write(Tuple t) {
         try {
@@ -40,6 +134,36 @@ public class LindaClient implements Linda {
         }
     }
 
+    @Override
+    public void writeAll(Collection<Tuple> tuples) {
+        try {
+            // Un seul appel distant pour tout le lot (copie dans une liste sérialisable)
+            this.lindaServer.writeAll(new ArrayList<>(tuples));
+        } catch (RemoteException e) {
+            System.err.println(e);
+        }
+    }
+
+    @Override
+    public long write(Tuple t, long ttlMillis) {
+        try {
+            return this.lindaServer.write(t, ttlMillis);
+        } catch (RemoteException e) {
+            System.err.println(e);
+        }
+        return NO_LEASE;
+    }
+
+    @Override
+    public boolean renew(long lease, long ttlMillis) {
+        try {
+            return this.lindaServer.renew(lease, ttlMillis);
+        } catch (RemoteException e) {
+            System.err.println(e);
+        }
+        return false;
+    }
+
     @Override
     public Tuple take(Tuple template) {
         try {
@@ -73,6 +197,10 @@ public class LindaClient implements Linda {
     @Override
     public Tuple tryRead(Tuple template) {
         try {
+            NearCache cache = this.nearCache;
+            if (cache != null) {
+                return cache.tryRead(template);
+            }
             return this.lindaServer.tryRead(template);
         } catch (RemoteException e) {
             System.err.println(e);
@@ -93,6 +221,10 @@ public class LindaClient implements Linda {
     @Override
     public Collection<Tuple> readAll(Tuple template) {
         try {
+            NearCache cache = this.nearCache;
+            if (cache != null) {
+                return cache.readAll(template);
+            }
             return this.lindaServer.readAll(template);
         } catch (RemoteException e) {
             System.err.println(e);
@@ -101,18 +233,250 @@ public class LindaClient implements Linda {
     }
 
     @Override
-    public void eventRegister(eventMode mode, eventTiming timing, Tuple template, Callback callback) {
-        // Création d'un thread pour ne pas bloquer le client
-        new Thread(() -> {
+    public Collection<Tuple> takeN(Tuple template, int n) {
+        try {
+            return this.lindaServer.takeN(template, n);
+        } catch (RemoteException e) {
+            System.err.println(e);
+        }
+        return null;
+    }
+
+    @Override
+    public Collection<Tuple> readN(Tuple template, int n) {
+        try {
+            return this.lindaServer.readN(template, n);
+        } catch (RemoteException e) {
+            System.err.println(e);
+        }
+        return null;
+    }
+
+    @Override
+    public CompletableFuture<Void> writeAsync(Tuple t) {
+        if (this.lindaServer instanceof NioLindaClient) {
+            return ((NioLindaClient) this.lindaServer).writeAsync(t);
+        }
+        return CompletableFuture.runAsync(() -> {
             try {
-                // Ici, waitEvent fait attendre jusqu'à ce qu'un tuple soit trouvé à l'aide d'un sémaphore
-                // Ça évite d'avoir un callback en remote, du moins pour l'instant :)
-                Tuple tuple = LindaClient.this.lindaServer.waitEvent(mode, timing, template);
-                callback.call(tuple);
+                this.lindaServer.write(t);
             } catch (RemoteException e) {
-                System.err.println(e);
+                throw new CompletionException(e);
+            }
+        }, this.asyncExecutor());
+    }
+
+    @Override
+    public CompletableFuture<Tuple> takeAsync(Tuple template) {
+        return this.eventAsync(eventMode.TAKE, template);
+    }
+
+    @Override
+    public CompletableFuture<Tuple> readAsync(Tuple template) {
+        return this.eventAsync(eventMode.READ, template);
+    }
+
+    /**
+     * Lance un take ou un read sans bloquer l'appelant
+     * En NIO, la requête part directement ; en RMI, l'enregistrement est fait par un thread de l'exécuteur
+     * et le serveur pousse le tuple sur l'écouteur du client
+     * Annuler le futur annule l'attente sur le serveur
+     * @param mode read ou take
+     * @param template le template
+     * @return le futur complété avec le tuple trouvé
+     */
+    private CompletableFuture<Tuple> eventAsync(eventMode mode, Tuple template) {
+        CompletableFuture<Tuple> future = new CompletableFuture<>();
+        Callback complete = t -> {
+            // Futur annulé entre-temps : le tuple pris est remis dans l'espace
+            if (!future.complete(t) && mode == eventMode.TAKE) {
+                this.write(t);
             }
-        }).start();
+        };
+        if (this.lindaServer instanceof NioLindaClient) {
+            CompletableFuture<Tuple> request = ((NioLindaClient) this.lindaServer).eventAsync(mode, template);
+            request.whenComplete((t, e) -> {
+                if (e != null) {
+                    future.completeExceptionally(e);
+                } else {
+                    complete.call(t);
+                }
+            });
+            future.whenComplete((t, e) -> {
+                if (future.isCancelled()) {
+                    request.cancel(false);
+                }
+            });
+        } else {
+            // Annulation possible une fois l'enregistrement fait, par celui qui le voit en dernier
+            AtomicReference<BooleanSupplier> registration = new AtomicReference<>();
+            this.asyncExecutor().execute(() -> {
+                try {
+                    BooleanSupplier cancel = this.eventRegisterCancellable(mode, eventTiming.IMMEDIATE, template, complete);
+                    registration.set(cancel);
+                    if (future.isCancelled() && registration.compareAndSet(cancel, null)) {
+                        cancel.getAsBoolean();
+                    }
+                } catch (RemoteException e) {
+                    future.completeExceptionally(e);
+                }
+            });
+            future.whenComplete((t, e) -> {
+                BooleanSupplier cancel = future.isCancelled() ? registration.getAndSet(null) : null;
+                if (cancel != null) {
+                    this.asyncExecutor().execute(cancel::getAsBoolean);
+                }
+            });
+        }
+        return future;
+    }
+
+    private synchronized Executor asyncExecutor() {
+        if (this.asyncExecutor == null) {
+            this.asyncExecutor = Executions.executor(ASYNC_THREADS, "linda-client-async");
+        }
+        return this.asyncExecutor;
+    }
+
+    /**
+     * Active le cache local de tryRead et readAll
+     * Chaque template lu est suivi par le serveur, qui pousse les ajouts et retraits : les lectures répétées
+     * d'un même template ne font plus d'appel distant. Les résultats peuvent être en retard sur le serveur
+     * (y compris sur les écritures de ce client) d'au plus maxStalenessMillis.
+     * Avec RMI, le cache est un objet exporté : appeler disableNearCache pour laisser la JVM se terminer.
+     * @param maxTemplates nombre maximum de templates suivis (les moins récemment lus sont oubliés)
+     * @param maxStalenessMillis âge maximum d'un résultat servi localement
+     */
+    public synchronized void enableNearCache(int maxTemplates, long maxStalenessMillis) {
+        this.disableNearCache();
+        try {
+            this.nearCache = new NearCache(this.lindaServer, maxTemplates, maxStalenessMillis);
+        } catch (RemoteException e) {
+            System.err.println(e);
+        }
+    }
+
+    /**
+     * Désactive le cache local et désabonne ses templates
+     */
+    public synchronized void disableNearCache() {
+        NearCache cache = this.nearCache;
+        if (cache != null) {
+            this.nearCache = null;
+            cache.close();
+        }
+    }
+
+    /**
+     * Parcourt les tuples correspondant au template par paquets, sans les retirer
+     * Seul un paquet est en mémoire à la fois, quel que soit le nombre de résultats
+     * @param template template de tuple à rechercher
+     * @param chunkSize taille des paquets demandés au serveur
+     * @return un curseur (à fermer s'il n'est pas parcouru jusqu'au bout)
+     */
+    public TupleCursor readCursor(Tuple template, int chunkSize) {
+        return this.openCursor(eventMode.READ, template, chunkSize);
+    }
+
+    /**
+     * Retire par paquets les tuples correspondant au template
+     * Seul un paquet est en mémoire à la fois, quel que soit le nombre de résultats
+     * @param template template de tuple à rechercher
+     * @param chunkSize taille des paquets demandés au serveur
+     * @return un curseur (à fermer s'il n'est pas parcouru jusqu'au bout)
+     */
+    public TupleCursor takeCursor(Tuple template, int chunkSize) {
+        return this.openCursor(eventMode.TAKE, template, chunkSize);
+    }
+
+    private TupleCursor openCursor(eventMode mode, Tuple template, int chunkSize) {
+        try {
+            return new TupleCursor(this.lindaServer, this.lindaServer.openCursor(mode, template), chunkSize);
+        } catch (RemoteException e) {
+            System.err.println(e);
+        }
+        return null;
+    }
+
+    @Override
+    public void eventRegister(eventMode mode, eventTiming timing, Tuple template, Callback callback) {
+        try {
+            this.eventRegisterCancellable(mode, timing, template, callback);
+        } catch (RemoteException e) {
+            System.err.println(e);
+        }
+    }
+
+    /**
+     * Enregistre un callback et renvoie de quoi l'annuler (voir ShardedLinda)
+     * @param mode read ou take
+     * @param timing immédiat ou futur
+     * @param template le template
+     * @param callback le callback
+     * @return l'annulation, vraie si le callback ne sera jamais appelé (fausse s'il est déjà déclenché)
+     * @throws RemoteException si l'enregistrement échoue
+     */
+    BooleanSupplier eventRegisterCancellable(eventMode mode, eventTiming timing, Tuple template, Callback callback) throws RemoteException {
+        long eventId = this.eventIds.incrementAndGet();
+        RemoteEventListenerImpl l = this.register(mode, timing, template, callback, eventId);
+        return () -> this.cancel(l, eventId);
+    }
+
+    /**
+     * Enregistre un callback auprès du serveur
+     * Le callback est appelé quand le serveur pousse l'événement sur l'écouteur du client
+     * (aucun thread n'attend côté client ni côté serveur)
+     * @param mode read ou take
+     * @param timing immédiat ou futur
+     * @param template le template
+     * @param callback le callback
+     * @param eventId numéro de l'événement
+     * @return l'écouteur sur lequel le callback est enregistré
+     * @throws RemoteException si l'enregistrement échoue
+     */
+    private RemoteEventListenerImpl register(eventMode mode, eventTiming timing, Tuple template, Callback callback, long eventId) throws RemoteException {
+        RemoteEventListenerImpl l = this.listener(eventId, callback);
+        try {
+            this.lindaServer.eventRegister(mode, timing, template, l, eventId);
+        } catch (RemoteException e) {
+            l.unregister(eventId);
+            throw e;
+        }
+        return l;
+    }
+
+    /**
+     * Annule un événement enregistré auprès du serveur, s'il n'est pas encore déclenché
+     * @param l l'écouteur de l'événement
+     * @param eventId numéro de l'événement
+     * @return vrai si le callback ne sera jamais appelé
+     */
+    private boolean cancel(RemoteEventListenerImpl l, long eventId) {
+        try {
+            if (this.lindaServer.eventCancel(l, eventId)) {
+                l.unregister(eventId);
+                return true;
+            }
+        } catch (RemoteException e) {
+            System.err.println(e);
+        }
+        return false;
+    }
+
+    /**
+     * Enregistre un callback sur l'écouteur du client, exporté au besoin
+     * @param eventId numéro de l'événement
+     * @param callback callback à appeler
+     * @return l'écouteur à transmettre au serveur
+     * @throws RemoteException si l'écouteur ne peut pas être exporté
+     */
+    private synchronized RemoteEventListenerImpl listener(long eventId, Callback callback) throws RemoteException {
+        if (this.listener == null || !this.listener.register(eventId, callback)) {
+            // Avec le transport NIO, l'écouteur reste local (pas d'export RMI)
+            this.listener = new RemoteEventListenerImpl(!(this.lindaServer instanceof NioLindaClient));
+            this.listener.register(eventId, callback);
+        }
+        return this.listener;
     }
 
     @Override
@@ -12,6 +12,17 @@ public interface LindaServer extends Remote {
     /** Adds a tuple t to the tuplespace. */
     void write(Tuple t) throws RemoteException;
 
+    /** Adds all the tuples of the collection to the tuplespace, in a single remote call. */
+    void writeAll(Collection<Tuple> tuples) throws RemoteException;
+
+    /** Adds a tuple t to the tuplespace for ttlMillis ms, unless its lease is renewed (see {@link linda.LeasedLinda}).
+     * @return the lease of the tuple, or LeasedLinda.NO_LEASE if a pending take got the tuple at once. */
+    long write(Tuple t, long ttlMillis) throws RemoteException;
+
+    /** Renews a lease: the tuple now expires ttlMillis ms from now.
+     * @return false if the tuple is no longer in the tuplespace (taken or expired). */
+    boolean renew(long lease, long ttlMillis) throws RemoteException;
+
     /** Returns a tuple matching the template and removes it from the tuplespace.
      * Blocks if no corresponding tuple is found. */
     Tuple take(Tuple template) throws RemoteException;
@@ -42,6 +53,42 @@ public interface LindaServer extends Remote {
      */
     Collection<Tuple> readAll(Tuple template) throws RemoteException;
 
+    /** Returns at most n tuples matching the template and removes them from the tuplespace.
+     * Returns an empty collection if none found (never blocks). */
+    Collection<Tuple> takeN(Tuple template, int n) throws RemoteException;
+
+    /** Returns at most n tuples matching the template and leaves them in the tuplespace.
+     * Returns an empty collection if none found (never blocks). */
+    Collection<Tuple> readN(Tuple template, int n) throws RemoteException;
+
+    /**
+     * Ouvre un curseur côté serveur sur les tuples correspondant au template
+     * Les tuples sont ensuite récupérés par paquets avec nextChunk, la mémoire reste bornée des deux côtés
+     * En mode take, chaque paquet retire les tuples renvoyés
+     * @param mode read ou take
+     * @param template template de tuple à rechercher
+     * @return l'identifiant du curseur
+     * @throws RemoteException
+     */
+    long openCursor(Linda.eventMode mode, Tuple template) throws RemoteException;
+
+    /**
+     * Renvoie le paquet suivant d'un curseur
+     * Un paquet vide signifie que le curseur est épuisé (il est alors fermé)
+     * @param cursor identifiant du curseur
+     * @param max taille maximum du paquet
+     * @return au plus max tuples
+     * @throws RemoteException
+     */
+    Collection<Tuple> nextChunk(long cursor, int max) throws RemoteException;
+
+    /**
+     * Ferme un curseur avant qu'il soit épuisé
+     * @param cursor identifiant du curseur
+     * @throws RemoteException
+     */
+    void closeCursor(long cursor) throws RemoteException;
+
     /**
      * Renvoie un tuple correspond à un template, en take ou en read, immédiatement ou dans le futur
      * Utilise un sémaphore pour attendre qu'un tuple ait été lu ou pris
@@ -53,6 +100,46 @@ public interface LindaServer extends Remote {
      */
     Tuple waitEvent(Linda.eventMode mode, Linda.eventTiming timing, Tuple template) throws RemoteException;
 
+    /**
+     * Enregistre un événement dont le déclenchement sera poussé sur l'écouteur du client
+     * Aucun thread n'est bloqué en attendant le déclenchement
+     * @param mode read ou take
+     * @param timing mode immediate ou future
+     * @param template template de tuple à rechercher
+     * @param listener écouteur du client à notifier
+     * @param eventId numéro de l'événement, renvoyé à l'écouteur
+     * @throws RemoteException
+     */
+    void eventRegister(Linda.eventMode mode, Linda.eventTiming timing, Tuple template, RemoteEventListener listener, long eventId) throws RemoteException;
+
+    /**
+     * Annule un événement enregistré par eventRegister, s'il n'est pas encore déclenché
+     * @param listener l'écouteur passé à eventRegister
+     * @param eventId le numéro de l'événement
+     * @return vrai si l'événement est annulé (il ne sera pas notifié), faux s'il est déjà déclenché ou inconnu
+     * @throws RemoteException
+     */
+    boolean eventCancel(RemoteEventListener listener, long eventId) throws RemoteException;
+
+    /**
+     * Abonne le cache d'un client à un template
+     * Le serveur pousse ensuite sur le cache les ajouts et retraits de tuples correspondant au template
+     * @param template template de tuple à suivre
+     * @param listener cache du client à notifier
+     * @param subscriptionId numéro de l'abonnement, choisi par le client
+     * @return les tuples correspondant au template au moment de l'abonnement
+     * @throws RemoteException
+     */
+    Collection<Tuple> subscribe(Tuple template, RemoteCacheListener listener, long subscriptionId) throws RemoteException;
+
+    /**
+     * Désabonne le cache d'un client
+     * @param listener cache du client
+     * @param subscriptionId numéro de l'abonnement
+     * @throws RemoteException
+     */
+    void unsubscribe(RemoteCacheListener listener, long subscriptionId) throws RemoteException;
+
     /** To debug, prints any information it wants (e.g. the tuples in tuplespace or the registered callbacks), prefixed by <code>prefix</code. */
     void debug(String prefix) throws RemoteException;
 
@@ -68,4 +155,22 @@ public interface LindaServer extends Remote {
      */
     void load(String filePath) throws RemoteException;
 
+    /**
+     * Prend un instantané incrémental de l'espace (modifications depuis le précédent), sans bloquer les écrivains
+     * @return le numéro de l'instantané, -1 si les instantanés ne sont pas activés sur le serveur
+     * @throws RemoteException
+     */
+    long snapshot() throws RemoteException;
+
+    /**
+     * Renvoie un espace nommé du même serveur, créé au premier appel
+     * Chaque espace a son propre stockage et ses attentes : les opérations d'un espace ne ralentissent pas
+     * les autres. Les notifications de tous les espaces partagent les threads du serveur.
+     * L'espace par défaut est celui enregistré par StartServer.
+     * @param name nom de l'espace
+     * @return l'espace
+     * @throws RemoteException si le nombre maximum d'espaces du serveur est atteint
+     */
+    LindaServer space(String name) throws RemoteException;
+
 }
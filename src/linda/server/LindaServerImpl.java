@@ -1,82 +1,820 @@
 package linda.server;
 
-import linda.AsynchronousCallback;
+import linda.Callback;
+import linda.CallbackDispatcher;
 import linda.Linda;
+import linda.TemplateMatcher;
 import linda.Tuple;
 import linda.shm.CentralizedLinda;
+import linda.shm.IncrementalSnapshots;
 import linda.shm.LockedCallback;
+import linda.shm.ReplicationLog;
+import linda.shm.SpaceObserver;
+import linda.shm.WriteAheadLog;
 
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Path;
 import java.rmi.RemoteException;
 import java.rmi.server.UnicastRemoteObject;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
-public class LindaServerImpl extends UnicastRemoteObject implements LindaServer {
+public class LindaServerImpl extends UnicastRemoteObject implements LindaServer, Replication {
+
+    /**
+     * Durée (ms) au-delà de laquelle un curseur inutilisé est fermé
+     */
+    private static final long CURSOR_TIMEOUT = 10 * 60 * 1000;
+
+    /**
+     * Curseur ouvert par un client
+     */
+    private static class Cursor {
+        private final Linda.eventMode mode;
+        private final Tuple template;
+
+        /**
+         * Parcours en cours (mode read uniquement)
+         */
+        private final Iterator<Tuple> iterator;
+
+        /**
+         * Date du dernier accès, pour fermer les curseurs abandonnés
+         */
+        private volatile long lastAccess = System.currentTimeMillis();
+
+        private Cursor(Linda.eventMode mode, Tuple template, Iterator<Tuple> iterator) {
+            this.mode = mode;
+            this.template = template;
+            this.iterator = iterator;
+        }
+    }
+
+    /**
+     * Abonnement du cache d'un client à un template
+     * Identifié par le cache et le numéro choisi par le client
+     */
+    private static class Subscription {
+        private final RemoteCacheListener listener;
+        private final long id;
+        private final TemplateMatcher matcher;
+
+        private Subscription(RemoteCacheListener listener, long id, Tuple template) {
+            this.listener = listener;
+            this.id = id;
+            this.matcher = template == null ? null : template.compile();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Subscription)) {
+                return false;
+            }
+            Subscription s = (Subscription) o;
+            return this.id == s.id && this.listener.equals(s.listener);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(this.listener, this.id);
+        }
+    }
+
+    /**
+     * Événement enregistré par un client, en attente
+     * Identifié par l'écouteur et le numéro choisi par le client
+     */
+    private static class Registration {
+        private final RemoteEventListener listener;
+        private final long id;
+        private final Linda.eventMode mode;
+        private final Tuple template;
+        private final Callback callback;
+
+        private Registration(RemoteEventListener listener, long id, Linda.eventMode mode, Tuple template,
+                             Callback callback) {
+            this.listener = listener;
+            this.id = id;
+            this.mode = mode;
+            this.template = template;
+            this.callback = callback;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Registration)) {
+                return false;
+            }
+            Registration r = (Registration) o;
+            return this.id == r.id && this.listener.equals(r.listener);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(this.listener, this.id);
+        }
+    }
 
     /**
      * L'espace de tuple en mémoire partagé à utiliser
      */
     private Linda linda;
 
+    /**
+     * Curseurs ouverts, par identifiant
+     */
+    private final Map<Long, Cursor> cursors = new ConcurrentHashMap<>();
+
+    /**
+     * Générateur d'identifiants de curseurs
+     */
+    private final AtomicLong cursorIds = new AtomicLong(0);
+
+    /**
+     * Nombre de threads qui poussent les événements déclenchés vers les clients
+     */
+    private static final int NOTIFIER_THREADS = 4;
+
+    /**
+     * Nombre maximum de notifications en attente d'envoi
+     * Au-delà, l'écrivain envoie lui-même la notification (il est ralenti, sans risque d'interblocage
+     * quand un thread du dispatcher remet dans l'espace le tuple d'un client injoignable)
+     */
+    private static final int NOTIFIER_CAPACITY = 10000;
+
+    /**
+     * Nombre maximum d'espaces nommés d'un serveur (propriété système linda.spaces.max)
+     */
+    private static final int MAX_SPACES = Integer.getInteger("linda.spaces.max", 1024);
+
+    /**
+     * Pousse les événements déclenchés vers les clients
+     * Le nombre de threads et la file sont bornés ; les notifications d'un même client sont envoyées dans l'ordre,
+     * une à la fois, si bien qu'un client lent n'occupe qu'un seul thread
+     * Partagé par l'espace par défaut et tous les espaces nommés du serveur
+     */
+    private final CallbackDispatcher notifier;
+
+    /**
+     * Journal des opérations, null si la persistance par journal n'est pas activée
+     */
+    private WriteAheadLog wal;
+
+    /**
+     * Instantanés incrémentaux de l'espace (null si non activés)
+     */
+    private volatile IncrementalSnapshots snapshots;
+
+    /**
+     * Journal de réplication, si le serveur est primaire (null sinon)
+     */
+    private volatile ReplicationLog replicationLog;
+
+    /**
+     * Nombre d'enregistrements conservés par le journal de réplication
+     */
+    private int replicationLogCapacity;
+
+    /**
+     * Réplication depuis un primaire, si le serveur est un secours (null sinon)
+     */
+    private volatile Replicator replicator;
+
+    /**
+     * Âge maximum des données qu'un secours sert lui-même ; au-delà, ses lectures sont transmises au primaire
+     */
+    private long maxStalenessMillis;
+
+    /**
+     * Espaces nommés du serveur, partagés par l'espace par défaut et tous les espaces nommés
+     */
+    private final Map<String, LindaServerImpl> spaces;
+
+    /**
+     * Espace par défaut du serveur (this pour lui-même), qui porte l'état de réplication
+     */
+    private final LindaServerImpl root;
+
+    /**
+     * Nom de l'espace dans les noms JMX ("default" pour l'espace par défaut, sinon son nom entre guillemets)
+     */
+    private final String spaceName;
+
+    /**
+     * Métriques de l'espace
+     */
+    private final SpaceMetrics metrics;
+
+    /**
+     * Nom du serveur dans les noms JMX des métriques, null tant qu'elles ne sont pas publiées
+     */
+    private volatile String mbeanServerName;
+
+    /**
+     * Abonnements des caches clients
+     */
+    private final Set<Subscription> subscriptions = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Événements enregistrés par les clients et pas encore déclenchés (pour eventCancel)
+     */
+    private final Map<Registration, Registration> registrations = new ConcurrentHashMap<>();
+
+    /**
+     * Une notification de cache
+     */
+    private interface CacheNotification {
+        void send(Subscription s) throws RemoteException;
+    }
+
     /**
      * Crée un serveur Linda et l'initialise avec un Linda en mémoire partagée
      * @throws RemoteException si il y a un problème de réseau
      */
     public LindaServerImpl() throws RemoteException {
-        this.linda = new CentralizedLinda();
+        this(null, null);
+    }
+
+    /**
+     * Crée un espace d'un serveur Linda
+     * @param root l'espace par défaut du serveur, null pour créer l'espace par défaut
+     * @param name le nom de l'espace, null pour l'espace par défaut
+     * @throws RemoteException si il y a un problème de réseau
+     */
+    private LindaServerImpl(LindaServerImpl root, String name) throws RemoteException {
+        if (root == null) {
+            this.root = this;
+            this.spaces = new ConcurrentHashMap<>();
+            this.notifier = new CallbackDispatcher(NOTIFIER_THREADS, NOTIFIER_CAPACITY, CallbackDispatcher.Overflow.CALLER_RUNS);
+        } else {
+            this.root = root;
+            this.spaces = root.spaces;
+            this.notifier = root.notifier;
+        }
+        this.spaceName = name == null ? "default" : ObjectName.quote(name);
+        CentralizedLinda centralized = new CentralizedLinda();
+        // Tient à jour les caches abonnés à chaque ajout ou retrait de l'espace
+        centralized.addObserver(new SpaceObserver() {
+            @Override
+            public void written(long id, Tuple t) {
+                LindaServerImpl.this.notifyCaches(t, s -> s.listener.added(s.id, t));
+            }
+
+            @Override
+            public void taken(long id, Tuple t) {
+                LindaServerImpl.this.notifyCaches(t, s -> s.listener.removed(s.id, t));
+            }
+
+            @Override
+            public void reset() {
+                LindaServerImpl.this.notifyCaches(null, s -> s.listener.invalidated(s.id));
+            }
+        });
+        this.linda = centralized;
+        // Seul l'espace par défaut est répliqué
+        this.metrics = new SpaceMetrics(centralized, this.notifier, root == null ? this::replicationStatus : null);
+    }
+
+    /**
+     * Pousse une notification aux caches abonnés concernés par un tuple
+     * Les notifications d'un même client passent par le notifier, dans l'ordre
+     * @param t le tuple ajouté ou retiré, null pour tous les abonnements
+     * @param notification la notification à envoyer
+     */
+    private void notifyCaches(Tuple t, CacheNotification notification) {
+        if (this.subscriptions.isEmpty()) {
+            return;
+        }
+        for (Subscription s : this.subscriptions) {
+            if (t == null || s.matcher.matches(t)) {
+                this.notifier.dispatch(s.listener, () -> {
+                    try {
+                        notification.send(s);
+                    } catch (RemoteException e) {
+                        // Client injoignable : l'abonnement est abandonné
+                        this.subscriptions.remove(s);
+                    }
+                });
+            }
+        }
+    }
+
+    /**
+     * Refuse une modification (ou une attente, que la réplication ne réveillerait pas) sur un serveur de secours
+     * Vaut aussi pour les espaces nommés, qui ne sont pas répliqués : sur un secours, ils restent en lecture seule
+     * @throws RemoteException si le serveur est un secours
+     */
+    private void checkPrimary() throws RemoteException {
+        Replicator r = this.root.replicator;
+        if (r != null) {
+            throw new RemoteException("Read-only backup server, send this operation to the primary");
+        }
+    }
+
+    /**
+     * Renvoie le primaire auquel transmettre une lecture quand la copie d'un secours est trop ancienne
+     * @return le primaire, null pour lire localement (primaire, ou secours assez à jour)
+     * @throws RemoteException si la copie est trop ancienne et qu'aucun primaire n'est joignable
+     */
+    private LindaServer readUpstream() throws RemoteException {
+        Replicator r = this.replicator;
+        if (r == null || r.stalenessMillis() <= this.maxStalenessMillis) {
+            return null;
+        }
+        LindaServer primary = r.primary();
+        if (primary == null) {
+            throw new RemoteException("Backup server is stale and no primary is reachable");
+        }
+        return primary;
     }
 
     @Override
-    public void write(Tuple t) {
+    public void write(Tuple t) throws RemoteException {
+        long start = System.nanoTime();
+        this.checkPrimary();
         this.linda.write(t);
+        this.metrics.record(SpaceMetrics.Op.WRITE, start);
     }
 
     @Override
-    public Tuple take(Tuple template) {
-        return this.linda.take(template);
+    public void writeAll(Collection<Tuple> tuples) throws RemoteException {
+        long start = System.nanoTime();
+        this.checkPrimary();
+        this.linda.writeAll(tuples);
+        this.metrics.record(SpaceMetrics.Op.WRITE_ALL, start);
     }
 
     @Override
-    public Tuple read(Tuple template) {
-        return this.linda.read(template);
+    public long write(Tuple t, long ttlMillis) throws RemoteException {
+        long start = System.nanoTime();
+        this.checkPrimary();
+        long lease = ((CentralizedLinda) this.linda).write(t, ttlMillis);
+        this.metrics.record(SpaceMetrics.Op.WRITE, start);
+        return lease;
     }
 
     @Override
-    public Tuple tryTake(Tuple template) {
-        return this.linda.tryTake(template);
+    public boolean renew(long lease, long ttlMillis) throws RemoteException {
+        long start = System.nanoTime();
+        this.checkPrimary();
+        boolean renewed = ((CentralizedLinda) this.linda).renew(lease, ttlMillis);
+        this.metrics.record(SpaceMetrics.Op.RENEW, start);
+        return renewed;
     }
 
     @Override
-    public Tuple tryRead(Tuple template) {
-        return this.linda.tryRead(template);
+    public Tuple take(Tuple template) throws RemoteException {
+        long start = System.nanoTime();
+        this.checkPrimary();
+        Tuple result = this.linda.take(template);
+        this.metrics.record(SpaceMetrics.Op.TAKE, start);
+        return result;
     }
 
     @Override
-    public Collection<Tuple> takeAll(Tuple template) {
-        return this.linda.takeAll(template);
+    public Tuple read(Tuple template) throws RemoteException {
+        long start = System.nanoTime();
+        this.checkPrimary();
+        Tuple result = this.linda.read(template);
+        this.metrics.record(SpaceMetrics.Op.READ, start);
+        return result;
     }
 
     @Override
-    public Collection<Tuple> readAll(Tuple template) {
-        return this.linda.readAll(template);
+    public Tuple tryTake(Tuple template) throws RemoteException {
+        long start = System.nanoTime();
+        this.checkPrimary();
+        Tuple result = this.linda.tryTake(template);
+        this.metrics.record(SpaceMetrics.Op.TRY_TAKE, start);
+        return result;
+    }
+
+    @Override
+    public Tuple tryRead(Tuple template) throws RemoteException {
+        long start = System.nanoTime();
+        LindaServer primary = this.readUpstream();
+        Tuple result = primary != null ? primary.tryRead(template) : this.linda.tryRead(template);
+        this.metrics.record(SpaceMetrics.Op.TRY_READ, start);
+        return result;
+    }
+
+    @Override
+    public Collection<Tuple> takeAll(Tuple template) throws RemoteException {
+        long start = System.nanoTime();
+        this.checkPrimary();
+        Collection<Tuple> result = this.linda.takeAll(template);
+        this.metrics.record(SpaceMetrics.Op.TAKE_ALL, start);
+        return result;
+    }
+
+    @Override
+    public Collection<Tuple> readAll(Tuple template) throws RemoteException {
+        long start = System.nanoTime();
+        LindaServer primary = this.readUpstream();
+        Collection<Tuple> result = primary != null ? primary.readAll(template) : this.linda.readAll(template);
+        this.metrics.record(SpaceMetrics.Op.READ_ALL, start);
+        return result;
+    }
+
+    @Override
+    public Collection<Tuple> takeN(Tuple template, int n) throws RemoteException {
+        long start = System.nanoTime();
+        this.checkPrimary();
+        Collection<Tuple> result = this.linda.takeN(template, n);
+        this.metrics.record(SpaceMetrics.Op.TAKE_N, start);
+        return result;
+    }
+
+    @Override
+    public Collection<Tuple> readN(Tuple template, int n) throws RemoteException {
+        long start = System.nanoTime();
+        LindaServer primary = this.readUpstream();
+        Collection<Tuple> result = primary != null ? primary.readN(template, n) : this.linda.readN(template, n);
+        this.metrics.record(SpaceMetrics.Op.READ_N, start);
+        return result;
     }
 
     @Override
-    public Tuple waitEvent(Linda.eventMode mode, Linda.eventTiming timing, Tuple template) {
+    public long openCursor(Linda.eventMode mode, Tuple template) throws RemoteException {
+        if (mode == Linda.eventMode.TAKE) {
+            this.checkPrimary();
+        }
+        // Ferme les curseurs abandonnés par des clients disparus
+        long now = System.currentTimeMillis();
+        this.cursors.values().removeIf(c -> now - c.lastAccess > CURSOR_TIMEOUT);
+
+        Iterator<Tuple> iterator = null;
+        if (mode == Linda.eventMode.READ) {
+            iterator = ((CentralizedLinda) this.linda).readIterator(template);
+        }
+        long id = this.cursorIds.incrementAndGet();
+        this.cursors.put(id, new Cursor(mode, template, iterator));
+        return id;
+    }
+
+    @Override
+    public Collection<Tuple> nextChunk(long cursor, int max) {
+        Cursor c = this.cursors.get(cursor);
+        Collection<Tuple> chunk = new ArrayList<>();
+        if (c == null) {
+            return chunk;
+        }
+        synchronized (c) {
+            c.lastAccess = System.currentTimeMillis();
+            if (c.mode == Linda.eventMode.TAKE) {
+                chunk = this.linda.takeN(c.template, max);
+            } else {
+                while (chunk.size() < max && c.iterator.hasNext()) {
+                    chunk.add(c.iterator.next());
+                }
+            }
+        }
+        if (chunk.isEmpty()) {
+            this.cursors.remove(cursor);
+        }
+        return chunk;
+    }
+
+    @Override
+    public void closeCursor(long cursor) {
+        this.cursors.remove(cursor);
+    }
+
+    @Override
+    public Tuple waitEvent(Linda.eventMode mode, Linda.eventTiming timing, Tuple template) throws RemoteException {
+        long start = System.nanoTime();
+        this.checkPrimary();
         // Créer un LockedCallback (Callback implémenté avec un sémaphore)
         LockedCallback lc = new LockedCallback();
         // Enregistre le callback sur le Linda en mémoire partagée
-        this.linda.eventRegister(mode, timing, template, new AsynchronousCallback(lc));
+        // (libérer le sémaphore ne bloque pas : inutile de démarrer un thread par événement)
+        this.linda.eventRegister(mode, timing, template, lc);
         // Attend qu'un tuple ait été lu ou pris
         lc.await();
+        this.metrics.record(SpaceMetrics.Op.WAIT_EVENT, start);
         // Retourne le tuple lu ou pris
         return lc.getTuple();
     }
 
+    @Override
+    public void eventRegister(Linda.eventMode mode, Linda.eventTiming timing, Tuple template, RemoteEventListener listener, long eventId) throws RemoteException {
+        long start = System.nanoTime();
+        this.checkPrimary();
+        Registration key = new Registration(listener, eventId, null, null, null);
+        // Le callback ne fait que confier la notification au notifier : l'écrivain n'est jamais bloqué par le réseau
+        Callback callback = t -> {
+            this.registrations.remove(key);
+            long fired = System.nanoTime();
+            this.notifier.dispatch(listener, () -> {
+                this.metrics.recordDispatch(fired);
+                try {
+                    listener.call(eventId, t);
+                } catch (RemoteException e) {
+                    System.err.println(e);
+                    // Client injoignable : un tuple pris ne doit pas être perdu, on le remet dans l'espace
+                    if (mode == Linda.eventMode.TAKE) {
+                        this.linda.write(t);
+                    }
+                }
+            });
+        };
+        Registration registration = new Registration(listener, eventId, mode, template, callback);
+        this.registrations.put(registration, registration);
+        this.linda.eventRegister(mode, timing, template, callback);
+        this.metrics.record(SpaceMetrics.Op.EVENT_REGISTER, start);
+    }
+
+    @Override
+    public boolean eventCancel(RemoteEventListener listener, long eventId) {
+        Registration r = this.registrations.remove(new Registration(listener, eventId, null, null, null));
+        return r != null && ((CentralizedLinda) this.linda).eventCancel(r.mode, r.template, r.callback);
+    }
+
+    @Override
+    public Collection<Tuple> subscribe(Tuple template, RemoteCacheListener listener, long subscriptionId) {
+        // Abonnement avant la lecture : un ajout concurrent peut être vu deux fois, jamais perdu
+        this.subscriptions.add(new Subscription(listener, subscriptionId, template));
+        return this.linda.readAll(template);
+    }
+
+    @Override
+    public void unsubscribe(RemoteCacheListener listener, long subscriptionId) {
+        this.subscriptions.remove(new Subscription(listener, subscriptionId, null));
+    }
+
+    @Override
+    public LindaServerImpl space(String name) throws RemoteException {
+        LindaServerImpl space = this.spaces.get(name);
+        if (space != null) {
+            return space;
+        }
+        synchronized (this.spaces) {
+            space = this.spaces.get(name);
+            if (space == null) {
+                if (this.spaces.size() >= MAX_SPACES) {
+                    throw new RemoteException("Too many spaces on this server (" + MAX_SPACES + "), cannot create " + name);
+                }
+                space = new LindaServerImpl(this.root, name);
+                this.spaces.put(name, space);
+                String server = this.mbeanServerName;
+                if (server != null) {
+                    space.registerMBean(server);
+                }
+            }
+            return space;
+        }
+    }
+
+    /**
+     * Renvoie les noms des espaces nommés créés sur ce serveur
+     * @return les noms
+     */
+    public Set<String> spaceNames() {
+        return this.spaces.keySet();
+    }
+
+    /**
+     * Publie en JMX les métriques de l'espace par défaut et des espaces nommés, existants et à venir
+     * Noms : linda:type=Space,server=serverName,space=default (ou le nom de l'espace, entre guillemets)
+     * @param serverName nom du serveur dans les noms JMX (plusieurs serveurs peuvent partager une JVM)
+     */
+    public void registerMBeans(String serverName) {
+        synchronized (this.spaces) {
+            this.registerMBean(serverName);
+            for (LindaServerImpl space : this.spaces.values()) {
+                space.registerMBean(serverName);
+            }
+        }
+    }
+
+    /**
+     * Publie les métriques de cet espace (sans effet si elles le sont déjà)
+     * @param serverName nom du serveur dans les noms JMX
+     */
+    private void registerMBean(String serverName) {
+        if (this.mbeanServerName != null) {
+            return;
+        }
+        this.mbeanServerName = serverName;
+        try {
+            MBeanServer mbeans = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName("linda:type=Space,server=" + ObjectName.quote(serverName)
+                    + ",space=" + this.spaceName);
+            if (!mbeans.isRegistered(name)) {
+                mbeans.registerMBean(this.metrics, name);
+            }
+        } catch (JMException e) {
+            System.err.println("Cannot register metrics: " + e);
+        }
+    }
+
+    /**
+     * Renvoie les métriques de l'espace (les mêmes que celles publiées en JMX)
+     * @return les métriques
+     */
+    public SpaceMetricsMXBean getMetrics() {
+        return this.metrics;
+    }
+
     @Override
     public void debug(String prefix) {
         this.linda.debug(prefix);
     }
 
+    /**
+     * Restaure l'espace à partir d'un journal puis journalise chaque ajout et retrait
+     * À appeler avant de rendre le serveur accessible
+     * @param directory répertoire du journal
+     * @param syncIntervalMillis délai maximum avant qu'une opération soit sur disque
+     * @param syncWrites vrai pour que chaque écriture attende d'être sur disque
+     * @param checkpointIntervalMillis âge maximum d'un segment du journal avant d'être replié dans le checkpoint
+     * @throws IOException si le journal ne peut pas être lu ou créé
+     */
+    public void enableWriteAheadLog(Path directory, long syncIntervalMillis, boolean syncWrites,
+                                    long checkpointIntervalMillis) throws IOException {
+        this.wal = WriteAheadLog.open((CentralizedLinda) this.linda, directory, syncIntervalMillis, syncWrites,
+                checkpointIntervalMillis);
+    }
+
+    /**
+     * Vide et ferme le journal
+     */
+    public void closeWriteAheadLog() {
+        if (this.wal != null) {
+            try {
+                this.wal.close();
+            } catch (IOException e) {
+                System.err.println(e);
+            }
+        }
+    }
+
+    /**
+     * Restaure l'espace à partir du dernier instantané puis prend des instantanés incrémentaux
+     * À appeler avant de rendre le serveur accessible ; l'instantané complet se charge en tâche de fond
+     * @param directory répertoire des instantanés
+     * @param intervalMillis délai entre deux instantanés automatiques (0 pour n'en prendre qu'à la demande)
+     * @return complété avec le nombre de tuples restaurés quand l'espace est entièrement restauré
+     * @throws IOException si les instantanés ne peuvent pas être lus ou écrits
+     */
+    public CompletableFuture<Long> enableSnapshots(Path directory, long intervalMillis) throws IOException {
+        IncrementalSnapshots opened = IncrementalSnapshots.open((CentralizedLinda) this.linda, directory);
+        if (intervalMillis > 0) {
+            opened.schedule(intervalMillis);
+        }
+        this.snapshots = opened;
+        return opened.restored();
+    }
+
+    /**
+     * Prend un dernier instantané et arrête les instantanés
+     */
+    public void closeSnapshots() {
+        if (this.snapshots != null) {
+            try {
+                this.snapshots.close();
+            } catch (IOException e) {
+                System.err.println(e);
+            }
+        }
+    }
+
+    @Override
+    public long snapshot() throws RemoteException {
+        IncrementalSnapshots current = this.snapshots;
+        if (current == null) {
+            return -1;
+        }
+        try {
+            return current.snapshot();
+        } catch (IOException e) {
+            throw new RemoteException("Snapshot failed", e);
+        }
+    }
+
+    /**
+     * Fait de ce serveur un primaire : chaque ajout et retrait est journalisé pour les serveurs de secours
+     * @param logCapacity nombre d'enregistrements conservés (un secours plus en retard reprend un état complet)
+     */
+    public synchronized void enableReplication(int logCapacity) {
+        this.replicationLogCapacity = logCapacity;
+        if (this.replicationLog == null) {
+            this.replicationLog = new ReplicationLog((CentralizedLinda) this.linda, logCapacity, 1);
+        }
+    }
+
+    /**
+     * Fait de ce serveur un secours : sa copie de l'espace suit le journal du primaire
+     * Il sert tryRead, readAll et readN tant que sa copie a moins de maxStalenessMillis (au-delà, elles sont
+     * transmises au primaire) et refuse les autres opérations. Il devient primaire si aucun serveur amont
+     * n'est joignable pendant failoverMillis. L'espace doit être vide.
+     * @param upstreams URI RMI du primaire puis des secours prioritaires, par ordre de priorité
+     * @param maxStalenessMillis âge maximum des données servies localement
+     * @param failoverMillis délai sans serveur amont joignable avant de devenir primaire
+     * @param logCapacity taille du journal de réplication une fois primaire
+     */
+    public synchronized void replicateFrom(List<String> upstreams, long maxStalenessMillis, long failoverMillis,
+                                           int logCapacity) {
+        this.replicationLogCapacity = logCapacity;
+        this.maxStalenessMillis = maxStalenessMillis;
+        Replicator r = new Replicator((CentralizedLinda) this.linda, upstreams, failoverMillis, this::promote);
+        this.replicator = r;
+        Thread thread = new Thread(r, "linda-replication");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Promotion d'un secours en primaire (appelée par le réplicateur quand le primaire a disparu)
+     * Les modifications du primaire pas encore répliquées sont perdues (réplication asynchrone)
+     * @param term le mandat du nouveau primaire, supérieur à ceux que le secours a vus
+     */
+    private synchronized void promote(long term) {
+        this.replicationLog = new ReplicationLog((CentralizedLinda) this.linda, this.replicationLogCapacity, term);
+        this.replicator = null;
+        System.out.println("Primary lost, this server is now the primary (term " + term + ").");
+    }
+
+    @Override
+    public synchronized void stepDown(long term, String primaryURI) {
+        ReplicationLog log = this.replicationLog;
+        if (log == null || term <= log.term()) {
+            return;
+        }
+        System.out.println("Primary " + primaryURI + " has a newer term (" + term + " > " + log.term()
+                + "), this server is now a backup.");
+        log.close();
+        this.replicationLog = null;
+        // Les modifications faites depuis la promotion de l'autre primaire sont abandonnées
+        ((CentralizedLinda) this.linda).restore(Collections.emptyList());
+        this.replicateFrom(Collections.singletonList(primaryURI),
+                Long.getLong("linda.replication.maxStaleness", 1000),
+                Long.getLong("linda.replication.failover", 3000), this.replicationLogCapacity);
+    }
+
+    @Override
+    public boolean isPrimary() {
+        return this.replicationLog != null;
+    }
+
+    @Override
+    public ReplicationLog.Batch pull(long after, int max, long waitMillis) throws RemoteException {
+        ReplicationLog log = this.replicationLog;
+        if (log == null) {
+            throw new RemoteException("Not a primary");
+        }
+        try {
+            return log.read(after, max, waitMillis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RemoteException("Interrupted");
+        }
+    }
+
+    @Override
+    public ReplicationLog.Batch fullState(long transfer, int from, int max) throws RemoteException {
+        ReplicationLog log = this.replicationLog;
+        if (log == null) {
+            throw new RemoteException("Not a primary");
+        }
+        return log.full(transfer, from, max);
+    }
+
+    @Override
+    public ReplicationStatus replicationStatus() {
+        Replicator r = this.replicator;
+        if (r != null) {
+            return r.status();
+        }
+        ReplicationLog log = this.replicationLog;
+        if (log == null) {
+            return new ReplicationStatus(ReplicationStatus.Role.STANDALONE, 0, null, 0, 0, 0);
+        }
+        long head = log.head();
+        return new ReplicationStatus(ReplicationStatus.Role.PRIMARY, log.term(), null, head, head, 0);
+    }
+
+    /**
+     * Renvoie le dispatcher des notifications, commun à tous les espaces du serveur (file d'attente, pour les métriques)
+     * @return le dispatcher
+     */
+    public CallbackDispatcher getNotifier() {
+        return this.notifier;
+    }
+
     @Override
     public void save(String filePath) {
         ((CentralizedLinda) this.linda).save(filePath);
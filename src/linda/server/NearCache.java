@@ -0,0 +1,248 @@
+package linda.server;
+
+import linda.TemplateMatcher;
+import linda.Tuple;
+
+import java.rmi.NoSuchObjectException;
+import java.rmi.RemoteException;
+import java.rmi.server.UnicastRemoteObject;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Cache local d'un LindaClient pour tryRead et readAll
+ * Chaque template lu devient un abonnement : le serveur pousse les ajouts et retraits correspondants
+ * et les lectures suivantes sont servies localement.
+ * Mémoire bornée : au-delà de maxTemplates, le template le moins récemment lu est oublié (LRU) et désabonné.
+ * Fraîcheur bornée : un template n'est plus servi localement au-delà de maxStaleness ms après sa dernière
+ * lecture sur le serveur ; il est alors relu. Cela rattrape les notifications croisées avec l'abonnement
+ * (un tuple vu deux fois ou pas du tout) et le délai de propagation des écritures des autres clients.
+ */
+class NearCache implements RemoteCacheListener {
+
+    /**
+     * Résultat d'un template abonné
+     */
+    private static class Entry {
+        private final long id;
+        private final Tuple template;
+        private final TemplateMatcher matcher;
+
+        /**
+         * Tuples correspondant au template, null tant que l'abonnement n'a pas répondu
+         */
+        private List<Tuple> tuples;
+
+        /**
+         * Date de la dernière lecture sur le serveur (ms)
+         */
+        private long loadedAt;
+
+        private Entry(long id, Tuple template) {
+            this.id = id;
+            this.template = template;
+            this.matcher = template.compile();
+        }
+    }
+
+    private final LindaServer server;
+    private final int maxTemplates;
+    private final long maxStaleness;
+
+    /**
+     * Vrai si le cache est exporté en RMI (faux avec le transport NIO)
+     */
+    private final boolean exported;
+
+    /**
+     * Templates abonnés, du moins au plus récemment lu (ordre d'accès)
+     */
+    private final LinkedHashMap<Tuple, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    /**
+     * Mêmes entrées, par numéro d'abonnement
+     */
+    private final Map<Long, Entry> byId = new HashMap<>();
+
+    private final AtomicLong ids = new AtomicLong(0);
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    /**
+     * Crée un cache
+     * @param server le serveur
+     * @param maxTemplates nombre maximum de templates gardés
+     * @param maxStaleness âge maximum (ms) d'un résultat servi localement
+     * @throws RemoteException si le cache ne peut pas être exporté
+     */
+    NearCache(LindaServer server, int maxTemplates, long maxStaleness) throws RemoteException {
+        this.server = server;
+        this.maxTemplates = maxTemplates;
+        this.maxStaleness = maxStaleness;
+        this.exported = !(server instanceof NioLindaClient);
+        if (this.exported) {
+            UnicastRemoteObject.exportObject(this, 0);
+        }
+    }
+
+    /**
+     * Renvoie les tuples correspondant au template, depuis le cache si possible
+     * @param template le template
+     * @return des copies des tuples
+     * @throws RemoteException si le serveur doit être interrogé et ne répond pas
+     */
+    Collection<Tuple> readAll(Tuple template) throws RemoteException {
+        List<Tuple> cached = this.lookup(template, Integer.MAX_VALUE);
+        return cached != null ? cached : this.server.readAll(template);
+    }
+
+    /**
+     * Renvoie un tuple correspondant au template, depuis le cache si possible
+     * @param template le template
+     * @return une copie du tuple, null si aucun
+     * @throws RemoteException si le serveur doit être interrogé et ne répond pas
+     */
+    Tuple tryRead(Tuple template) throws RemoteException {
+        List<Tuple> cached = this.lookup(template, 1);
+        if (cached != null) {
+            return cached.isEmpty() ? null : cached.get(0);
+        }
+        return this.server.tryRead(template);
+    }
+
+    /**
+     * Renvoie au plus max tuples du cache, après avoir abonné ou relu le template au besoin
+     * @return des copies des tuples, null si le cache ne peut pas répondre (abonnement en cours)
+     */
+    private List<Tuple> lookup(Tuple template, int max) throws RemoteException {
+        Entry entry;
+        boolean subscribe = false;
+        List<Entry> evicted = new ArrayList<>();
+        synchronized (this) {
+            entry = this.entries.get(template);
+            if (entry != null && entry.tuples != null && System.currentTimeMillis() - entry.loadedAt <= this.maxStaleness) {
+                this.hits.increment();
+                return copy(entry.tuples, max);
+            }
+            this.misses.increment();
+            if (entry == null) {
+                entry = new Entry(this.ids.incrementAndGet(), template.deepclone());
+                this.entries.put(entry.template, entry);
+                this.byId.put(entry.id, entry);
+                subscribe = true;
+                Iterator<Entry> it = this.entries.values().iterator();
+                while (this.entries.size() > this.maxTemplates) {
+                    Entry eldest = it.next();
+                    it.remove();
+                    this.byId.remove(eldest.id);
+                    evicted.add(eldest);
+                }
+            } else if (entry.tuples == null) {
+                // Abonnement en cours dans un autre thread
+                return null;
+            }
+        }
+        for (Entry e : evicted) {
+            try {
+                this.server.unsubscribe(this, e.id);
+            } catch (RemoteException ex) {
+                System.err.println(ex);
+            }
+        }
+
+        Collection<Tuple> fresh;
+        try {
+            fresh = subscribe ? this.server.subscribe(entry.template, this, entry.id) : this.server.readAll(entry.template);
+        } catch (RemoteException e) {
+            if (subscribe) {
+                synchronized (this) {
+                    this.entries.remove(entry.template);
+                    this.byId.remove(entry.id);
+                }
+            }
+            throw e;
+        }
+        synchronized (this) {
+            entry.tuples = new ArrayList<>(fresh);
+            entry.loadedAt = System.currentTimeMillis();
+            return copy(entry.tuples, max);
+        }
+    }
+
+    private static List<Tuple> copy(List<Tuple> tuples, int max) {
+        List<Tuple> result = new ArrayList<>(Math.min(tuples.size(), max));
+        for (Tuple t : tuples) {
+            if (result.size() >= max) {
+                break;
+            }
+            result.add(t.deepclone());
+        }
+        return result;
+    }
+
+    @Override
+    public synchronized void added(long subscriptionId, Tuple t) {
+        Entry entry = this.byId.get(subscriptionId);
+        if (entry != null && entry.tuples != null && entry.matcher.matches(t)) {
+            entry.tuples.add(t);
+        }
+    }
+
+    @Override
+    public synchronized void removed(long subscriptionId, Tuple t) {
+        Entry entry = this.byId.get(subscriptionId);
+        if (entry != null && entry.tuples != null) {
+            entry.tuples.remove(t);
+        }
+    }
+
+    @Override
+    public synchronized void invalidated(long subscriptionId) {
+        Entry entry = this.byId.get(subscriptionId);
+        if (entry != null) {
+            // Relu à la prochaine lecture
+            entry.loadedAt = 0;
+        }
+    }
+
+    /**
+     * Désabonne tous les templates et arrête de recevoir les notifications
+     */
+    void close() {
+        List<Entry> all;
+        synchronized (this) {
+            all = new ArrayList<>(this.entries.values());
+            this.entries.clear();
+            this.byId.clear();
+        }
+        for (Entry e : all) {
+            try {
+                this.server.unsubscribe(this, e.id);
+            } catch (RemoteException ex) {
+                System.err.println(ex);
+            }
+        }
+        if (this.exported) {
+            try {
+                UnicastRemoteObject.unexportObject(this, true);
+            } catch (NoSuchObjectException e) {
+            }
+        }
+    }
+
+    long hits() {
+        return this.hits.sum();
+    }
+
+    long misses() {
+        return this.misses.sum();
+    }
+
+}
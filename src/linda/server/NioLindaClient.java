@@ -0,0 +1,697 @@
+package linda.server;
+
+import linda.Linda;
+import linda.Tuple;
+import linda.TupleCodec;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.rmi.RemoteException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static linda.server.NioProtocol.*;
+
+/**
+ * Côté client du transport NIO : implémente LindaServer en envoyant des trames à un NioLindaServer
+ * Utilisé par LindaClient pour les URI "nio://hote:port", ou "nio://hote:port/espace" pour un espace nommé.
+ * Une seule connexion est partagée par tous les threads du client : chaque requête porte un numéro,
+ * plusieurs requêtes peuvent être en vol en même temps et un thread lecteur distribue les réponses.
+ */
+public class NioLindaClient implements LindaServer {
+
+    /**
+     * Réponse reçue : opération et contenu
+     */
+    private static class Response {
+        private final byte op;
+        private final DataInputStream body;
+
+        private Response(byte op, DataInputStream body) {
+            this.op = op;
+            this.body = body;
+        }
+    }
+
+    private final InetSocketAddress address;
+    private final SocketChannel channel;
+
+    /**
+     * Générateur de numéros de requêtes
+     */
+    private final AtomicLong requestIds = new AtomicLong(0);
+
+    /**
+     * Requêtes en attente de réponse, par numéro
+     */
+    private final Map<Long, CompletableFuture<Response>> pending = new ConcurrentHashMap<>();
+
+    /**
+     * Début des réponses reçues en plusieurs trames (TUPLES_MORE), par numéro de requête
+     */
+    private final Map<Long, List<Tuple>> partials = new ConcurrentHashMap<>();
+
+    /**
+     * Passe à vrai quand la connexion est fermée ou perdue : les requêtes suivantes échouent aussitôt
+     */
+    private volatile boolean closed = false;
+
+    /**
+     * Écouteurs des événements enregistrés, par numéro d'événement
+     */
+    private final Map<Long, RemoteEventListener> listeners = new ConcurrentHashMap<>();
+
+    /**
+     * Caches abonnés, par numéro d'abonnement
+     */
+    private final Map<Long, RemoteCacheListener> caches = new ConcurrentHashMap<>();
+
+    /**
+     * Appelle les écouteurs dans l'ordre d'arrivée des événements, hors du thread lecteur
+     * (un callback peut lui-même faire des requêtes et attendre leur réponse)
+     */
+    private final ExecutorService events = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "linda-nio-events");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * Se connecte à un serveur NIO
+     * @param serverURI l'URI du serveur, e.g. "nio://localhost:4001" ou "nio://localhost:4001/jobs"
+     * @throws IOException si la connexion échoue
+     */
+    public NioLindaClient(String serverURI) throws IOException {
+        this(address(URI.create(serverURI)), spaceName(URI.create(serverURI)));
+    }
+
+    /**
+     * Se connecte à un espace d'un serveur NIO
+     * @param address l'adresse du serveur
+     * @param space le nom de l'espace, null pour l'espace par défaut
+     * @throws IOException si la connexion échoue
+     */
+    private NioLindaClient(InetSocketAddress address, String space) throws IOException {
+        this.address = address;
+        this.channel = SocketChannel.open(address);
+        this.channel.socket().setTcpNoDelay(true);
+        Thread reader = new Thread(this::readLoop, "linda-nio-reader");
+        reader.setDaemon(true);
+        reader.start();
+        if (space != null) {
+            // Avant toute autre requête : la connexion entière s'adresse à cet espace
+            try {
+                this.call(SPACE, out -> TupleCodec.writeString(out, space));
+            } catch (RemoteException e) {
+                this.close();
+                throw e;
+            }
+        }
+    }
+
+    private static InetSocketAddress address(URI uri) {
+        return new InetSocketAddress(uri.getHost(), uri.getPort());
+    }
+
+    private static String spaceName(URI uri) {
+        String path = uri.getPath();
+        return path == null || path.length() <= 1 ? null : path.substring(1);
+    }
+
+    /**
+     * Ferme la connexion
+     */
+    public void close() {
+        this.fail(new IOException("Connection closed"));
+        this.events.shutdown();
+    }
+
+    /**
+     * Ferme la connexion et fait échouer les requêtes en attente
+     * Une requête enregistrée après coup voit closed et échoue d'elle-même (voir send)
+     * @param cause la cause de l'échec
+     */
+    private void fail(IOException cause) {
+        this.closed = true;
+        try {
+            this.channel.close();
+        } catch (IOException e) {
+        }
+        this.partials.clear();
+        for (Long id : this.pending.keySet()) {
+            CompletableFuture<Response> response = this.pending.remove(id);
+            if (response != null) {
+                response.completeExceptionally(cause);
+            }
+        }
+    }
+
+    /**
+     * Lit les trames reçues et les distribue aux requêtes en attente ou aux écouteurs
+     */
+    private void readLoop() {
+        ByteBuffer length = ByteBuffer.allocate(4);
+        try {
+            while (true) {
+                length.clear();
+                this.readFully(length);
+                int n = length.getInt(0);
+                if (n < HEADER || n > MAX_FRAME) {
+                    throw new IOException("Bad frame length " + n);
+                }
+                byte[] frame = new byte[n];
+                this.readFully(ByteBuffer.wrap(frame));
+                long id = requestId(frame);
+                byte op = op(frame);
+                if (op == EVENT) {
+                    RemoteEventListener listener = this.listeners.remove(id);
+                    if (listener != null) {
+                        Tuple t = TupleCodec.readTuple(body(frame));
+                        this.events.execute(() -> {
+                            try {
+                                listener.call(id, t);
+                            } catch (RemoteException e) {
+                                System.err.println(e);
+                            }
+                        });
+                    }
+                } else if (op == CACHE_ADDED || op == CACHE_REMOVED || op == CACHE_INVALIDATED) {
+                    RemoteCacheListener cache = this.caches.get(id);
+                    if (cache != null) {
+                        Tuple t = op == CACHE_INVALIDATED ? null : TupleCodec.readTuple(body(frame));
+                        this.events.execute(() -> {
+                            try {
+                                if (op == CACHE_ADDED) {
+                                    cache.added(id, t);
+                                } else if (op == CACHE_REMOVED) {
+                                    cache.removed(id, t);
+                                } else {
+                                    cache.invalidated(id);
+                                }
+                            } catch (RemoteException e) {
+                                System.err.println(e);
+                            }
+                        });
+                    }
+                } else if (op == TUPLES_MORE) {
+                    this.partials.computeIfAbsent(id, k -> new ArrayList<>()).addAll(TupleCodec.readTuples(body(frame)));
+                } else {
+                    DataInputStream body = body(frame);
+                    List<Tuple> partial = this.partials.remove(id);
+                    if (partial != null && op == TUPLES) {
+                        // Dernière trame d'une liste : la réponse est la liste entière
+                        partial.addAll(TupleCodec.readTuples(body));
+                        ByteArrayOutputStream whole = new ByteArrayOutputStream();
+                        TupleCodec.writeTuples(new DataOutputStream(whole), partial);
+                        body = new DataInputStream(new ByteArrayInputStream(whole.toByteArray()));
+                    }
+                    CompletableFuture<Response> response = this.pending.remove(id);
+                    if (response != null) {
+                        response.complete(new Response(op, body));
+                    }
+                }
+            }
+        } catch (IOException e) {
+            // Connexion perdue (ou trame invalide, le flux n'est plus lisible) : toutes les requêtes en attente échouent
+            this.fail(e);
+        }
+    }
+
+    private void readFully(ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (this.channel.read(buffer) < 0) {
+                throw new IOException("Connection closed by server");
+            }
+        }
+    }
+
+    /**
+     * Envoie une requête sans attendre sa réponse
+     * @param op opération
+     * @param body contenu
+     * @return la réponse à venir
+     * @throws RemoteException si la requête ne peut pas être envoyée, ou si elle dépasse MAX_FRAME
+     *         (le serveur fermerait la connexion, partagée par toutes les requêtes du client)
+     */
+    private CompletableFuture<Response> send(byte op, Body body) throws RemoteException {
+        return this.send(this.requestIds.incrementAndGet(), op, body);
+    }
+
+    /**
+     * Envoie une requête de numéro déjà choisi sans attendre sa réponse
+     * @param id numéro de la requête (requestIds)
+     * @param op opération
+     * @param body contenu
+     * @return la réponse à venir
+     * @throws RemoteException si la requête ne peut pas être envoyée, ou si elle dépasse MAX_FRAME
+     */
+    private CompletableFuture<Response> send(long id, byte op, Body body) throws RemoteException {
+        CompletableFuture<Response> response = new CompletableFuture<>();
+        this.pending.put(id, response);
+        if (this.closed) {
+            // Connexion fermée avant ou pendant l'enregistrement : personne ne complèterait la réponse
+            this.pending.remove(id);
+            throw new RemoteException("Connection closed");
+        }
+        try {
+            ByteBuffer frame = frame(id, op, body);
+            if (frame.remaining() - 4 > MAX_FRAME) {
+                this.pending.remove(id);
+                throw new RemoteException("Request larger than " + MAX_FRAME + " bytes");
+            }
+            synchronized (this.channel) {
+                while (frame.hasRemaining()) {
+                    this.channel.write(frame);
+                }
+            }
+        } catch (RemoteException e) {
+            throw e;
+        } catch (IOException e) {
+            this.pending.remove(id);
+            throw new RemoteException("Cannot send request", e);
+        }
+        return response;
+    }
+
+    /**
+     * Envoie une requête sans attendre sa réponse
+     * @param op opération
+     * @param body contenu
+     * @return le contenu de la réponse à venir, en échec (RemoteException) si le serveur renvoie une erreur
+     */
+    private CompletableFuture<DataInputStream> request(byte op, Body body) {
+        return this.request(this.requestIds.incrementAndGet(), op, body);
+    }
+
+    /**
+     * Envoie une requête de numéro déjà choisi sans attendre sa réponse
+     * @param id numéro de la requête (requestIds)
+     * @param op opération
+     * @param body contenu
+     * @return le contenu de la réponse à venir, en échec (RemoteException) si le serveur renvoie une erreur
+     */
+    private CompletableFuture<DataInputStream> request(long id, byte op, Body body) {
+        try {
+            return this.send(id, op, body).thenApply(NioLindaClient::unwrap);
+        } catch (RemoteException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    private static DataInputStream unwrap(Response response) {
+        if (response.op == ERROR) {
+            try {
+                throw new CompletionException(new RemoteException(TupleCodec.readString(response.body)));
+            } catch (IOException e) {
+                throw new CompletionException(new RemoteException("Malformed error", e));
+            }
+        }
+        return response.body;
+    }
+
+    /**
+     * Envoie une requête et attend sa réponse
+     * @param op opération
+     * @param body contenu
+     * @return le contenu de la réponse
+     * @throws RemoteException si la requête échoue ou si le serveur renvoie une erreur
+     */
+    private DataInputStream call(byte op, Body body) throws RemoteException {
+        return await(this.request(op, body));
+    }
+
+    /**
+     * Attend la réponse d'une requête
+     * @param response la réponse à venir
+     * @return le contenu de la réponse
+     * @throws RemoteException si la requête échoue ou si le serveur renvoie une erreur
+     */
+    private static DataInputStream await(CompletableFuture<DataInputStream> response) throws RemoteException {
+        try {
+            return response.get();
+        } catch (InterruptedException e) {
+            throw new RemoteException("Request interrupted", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RemoteException) {
+                throw (RemoteException) e.getCause();
+            }
+            throw new RemoteException("Request failed", e.getCause());
+        }
+    }
+
+    /**
+     * Écrit un tuple sans attendre l'accusé de réception
+     * Le futur est complété hors du thread lecteur
+     * @param t le tuple
+     * @return l'accusé à venir
+     */
+    CompletableFuture<Void> writeAsync(Tuple t) {
+        return this.request(WRITE, out -> TupleCodec.writeTuple(out, t)).thenApplyAsync(body -> null, this.events);
+    }
+
+    /**
+     * Lance un take ou un read sans attendre : le serveur répond quand un tuple correspond
+     * Le futur est complété hors du thread lecteur. L'annuler annule l'attente sur le serveur (CANCEL) ;
+     * un tuple pris avant l'annulation est remis dans l'espace.
+     * @param mode read ou take
+     * @param template le template
+     * @return le tuple à venir
+     */
+    CompletableFuture<Tuple> eventAsync(Linda.eventMode mode, Tuple template) {
+        byte op = mode == Linda.eventMode.TAKE ? TAKE : READ;
+        long id = this.requestIds.incrementAndGet();
+        CompletableFuture<Tuple> result = new CompletableFuture<Tuple>() {
+            @Override
+            public boolean cancel(boolean mayInterruptIfRunning) {
+                boolean cancelled = super.cancel(mayInterruptIfRunning);
+                if (cancelled) {
+                    NioLindaClient.this.cancelAsync(id);
+                }
+                return cancelled;
+            }
+        };
+        this.request(id, op, out -> TupleCodec.writeTuple(out, template)).whenCompleteAsync((body, e) -> {
+            if (e != null) {
+                result.completeExceptionally(e);
+                return;
+            }
+            Tuple t;
+            try {
+                t = readNullableTuple(body);
+            } catch (IOException x) {
+                result.completeExceptionally(new RemoteException("Malformed response", x));
+                return;
+            }
+            // Annulé trop tard : le tuple pris est remis dans l'espace
+            if (!result.complete(t) && mode == Linda.eventMode.TAKE && t != null) {
+                this.writeAsync(t);
+            }
+        }, this.events);
+        return result;
+    }
+
+    /**
+     * Annule une attente (TAKE, READ) sans attendre la réponse du serveur
+     * Si l'annulation a lieu, le serveur ne répondra jamais à la requête : elle est oubliée
+     * @param id numéro de la requête à annuler
+     */
+    private void cancelAsync(long id) {
+        this.request(CANCEL, out -> {
+            out.writeBoolean(true);
+            out.writeLong(id);
+        }).thenAccept(body -> {
+            try {
+                if (body.readLong() != 0) {
+                    this.pending.remove(id);
+                }
+            } catch (IOException e) {
+                System.err.println(e);
+            }
+        });
+    }
+
+    private Tuple callTuple(byte op, Body body) throws RemoteException {
+        try {
+            return readNullableTuple(this.call(op, body));
+        } catch (RemoteException e) {
+            throw e;
+        } catch (IOException e) {
+            throw new RemoteException("Malformed response", e);
+        }
+    }
+
+    private Collection<Tuple> callTuples(byte op, Body body) throws RemoteException {
+        try {
+            return TupleCodec.readTuples(this.call(op, body));
+        } catch (RemoteException e) {
+            throw e;
+        } catch (IOException e) {
+            throw new RemoteException("Malformed response", e);
+        }
+    }
+
+    @Override
+    public void write(Tuple t) throws RemoteException {
+        this.call(WRITE, out -> TupleCodec.writeTuple(out, t));
+    }
+
+    @Override
+    public long write(Tuple t, long ttlMillis) throws RemoteException {
+        try {
+            return this.call(WRITE_LEASED, out -> {
+                TupleCodec.writeTuple(out, t);
+                out.writeLong(ttlMillis);
+            }).readLong();
+        } catch (RemoteException e) {
+            throw e;
+        } catch (IOException e) {
+            throw new RemoteException("Malformed response", e);
+        }
+    }
+
+    @Override
+    public boolean renew(long lease, long ttlMillis) throws RemoteException {
+        try {
+            return this.call(RENEW, out -> {
+                out.writeLong(lease);
+                out.writeLong(ttlMillis);
+            }).readLong() != 0;
+        } catch (RemoteException e) {
+            throw e;
+        } catch (IOException e) {
+            throw new RemoteException("Malformed response", e);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * Un lot plus grand qu'une trame est envoyé en plusieurs requêtes WRITE_ALL, exécutées dans l'ordre par
+     * le serveur : si l'une échoue, les tuples des requêtes précédentes restent écrits.
+     */
+    @Override
+    public void writeAll(Collection<Tuple> tuples) throws RemoteException {
+        // Marge pour l'en-tête et le nombre de tuples
+        int limit = MAX_FRAME - HEADER - 16;
+        List<List<byte[]>> parts = new ArrayList<>();
+        List<byte[]> part = new ArrayList<>();
+        long size = 0;
+        for (Tuple t : tuples) {
+            byte[] encoded = TupleCodec.encode(t);
+            if (encoded.length > limit) {
+                throw new RemoteException("Tuple larger than " + MAX_FRAME + " bytes");
+            }
+            if (size + encoded.length > limit) {
+                parts.add(part);
+                part = new ArrayList<>();
+                size = 0;
+            }
+            part.add(encoded);
+            size += encoded.length;
+        }
+        parts.add(part);
+        List<CompletableFuture<DataInputStream>> acks = new ArrayList<>(parts.size());
+        for (List<byte[]> encoded : parts) {
+            acks.add(this.request(WRITE_ALL, out -> {
+                TupleCodec.writeVarLong(out, encoded.size());
+                for (byte[] t : encoded) {
+                    out.write(t);
+                }
+            }));
+        }
+        for (CompletableFuture<DataInputStream> ack : acks) {
+            await(ack);
+        }
+    }
+
+    @Override
+    public Tuple take(Tuple template) throws RemoteException {
+        return this.callTuple(TAKE, out -> TupleCodec.writeTuple(out, template));
+    }
+
+    @Override
+    public Tuple read(Tuple template) throws RemoteException {
+        return this.callTuple(READ, out -> TupleCodec.writeTuple(out, template));
+    }
+
+    @Override
+    public Tuple tryTake(Tuple template) throws RemoteException {
+        return this.callTuple(TRY_TAKE, out -> TupleCodec.writeTuple(out, template));
+    }
+
+    @Override
+    public Tuple tryRead(Tuple template) throws RemoteException {
+        return this.callTuple(TRY_READ, out -> TupleCodec.writeTuple(out, template));
+    }
+
+    @Override
+    public Collection<Tuple> takeAll(Tuple template) throws RemoteException {
+        return this.callTuples(TAKE_ALL, out -> TupleCodec.writeTuple(out, template));
+    }
+
+    @Override
+    public Collection<Tuple> readAll(Tuple template) throws RemoteException {
+        return this.callTuples(READ_ALL, out -> TupleCodec.writeTuple(out, template));
+    }
+
+    @Override
+    public Collection<Tuple> takeN(Tuple template, int n) throws RemoteException {
+        return this.callTuples(TAKE_N, out -> {
+            TupleCodec.writeTuple(out, template);
+            out.writeInt(n);
+        });
+    }
+
+    @Override
+    public Collection<Tuple> readN(Tuple template, int n) throws RemoteException {
+        return this.callTuples(READ_N, out -> {
+            TupleCodec.writeTuple(out, template);
+            out.writeInt(n);
+        });
+    }
+
+    @Override
+    public long openCursor(Linda.eventMode mode, Tuple template) throws RemoteException {
+        try {
+            return this.call(OPEN_CURSOR, out -> {
+                out.writeByte(mode.ordinal());
+                TupleCodec.writeTuple(out, template);
+            }).readLong();
+        } catch (RemoteException e) {
+            throw e;
+        } catch (IOException e) {
+            throw new RemoteException("Malformed response", e);
+        }
+    }
+
+    @Override
+    public Collection<Tuple> nextChunk(long cursor, int max) throws RemoteException {
+        return this.callTuples(NEXT_CHUNK, out -> {
+            out.writeLong(cursor);
+            out.writeInt(max);
+        });
+    }
+
+    @Override
+    public void closeCursor(long cursor) throws RemoteException {
+        this.call(CLOSE_CURSOR, out -> out.writeLong(cursor));
+    }
+
+    @Override
+    public Tuple waitEvent(Linda.eventMode mode, Linda.eventTiming timing, Tuple template) throws RemoteException {
+        return this.callTuple(WAIT_EVENT, out -> {
+            out.writeByte(mode.ordinal());
+            out.writeByte(timing.ordinal());
+            TupleCodec.writeTuple(out, template);
+        });
+    }
+
+    @Override
+    public void eventRegister(Linda.eventMode mode, Linda.eventTiming timing, Tuple template, RemoteEventListener listener, long eventId) throws RemoteException {
+        // L'écouteur reste local : le serveur pousse une trame EVENT sur la connexion partagée
+        this.listeners.put(eventId, listener);
+        try {
+            this.call(EVENT_REGISTER, out -> {
+                out.writeByte(mode.ordinal());
+                out.writeByte(timing.ordinal());
+                TupleCodec.writeTuple(out, template);
+                out.writeLong(eventId);
+            });
+        } catch (RemoteException e) {
+            this.listeners.remove(eventId);
+            throw e;
+        }
+    }
+
+    @Override
+    public boolean eventCancel(RemoteEventListener listener, long eventId) throws RemoteException {
+        try {
+            boolean cancelled = this.call(CANCEL, out -> {
+                out.writeBoolean(false);
+                out.writeLong(eventId);
+            }).readLong() != 0;
+            if (cancelled) {
+                this.listeners.remove(eventId);
+            }
+            return cancelled;
+        } catch (RemoteException e) {
+            throw e;
+        } catch (IOException e) {
+            throw new RemoteException("Malformed response", e);
+        }
+    }
+
+    @Override
+    public Collection<Tuple> subscribe(Tuple template, RemoteCacheListener listener, long subscriptionId) throws RemoteException {
+        // Le cache reste local : le serveur pousse les notifications sur la connexion partagée
+        this.caches.put(subscriptionId, listener);
+        try {
+            return this.callTuples(SUBSCRIBE, out -> {
+                TupleCodec.writeTuple(out, template);
+                out.writeLong(subscriptionId);
+            });
+        } catch (RemoteException e) {
+            this.caches.remove(subscriptionId);
+            throw e;
+        }
+    }
+
+    @Override
+    public void unsubscribe(RemoteCacheListener listener, long subscriptionId) throws RemoteException {
+        this.caches.remove(subscriptionId);
+        this.call(UNSUBSCRIBE, out -> out.writeLong(subscriptionId));
+    }
+
+    @Override
+    public void debug(String prefix) throws RemoteException {
+        this.call(DEBUG, out -> TupleCodec.writeString(out, prefix));
+    }
+
+    @Override
+    public void save(String filePath) throws RemoteException {
+        this.call(SAVE, out -> TupleCodec.writeString(out, filePath));
+    }
+
+    @Override
+    public void load(String filePath) throws RemoteException {
+        this.call(LOAD, out -> TupleCodec.writeString(out, filePath));
+    }
+
+    @Override
+    public long snapshot() throws RemoteException {
+        try {
+            return this.call(SNAPSHOT, null).readLong();
+        } catch (RemoteException e) {
+            throw e;
+        } catch (IOException e) {
+            throw new RemoteException("Malformed response", e);
+        }
+    }
+
+    @Override
+    public LindaServer space(String name) throws RemoteException {
+        try {
+            return new NioLindaClient(this.address, name);
+        } catch (RemoteException e) {
+            throw e;
+        } catch (IOException e) {
+            throw new RemoteException("Cannot connect to " + this.address, e);
+        }
+    }
+
+}
@@ -0,0 +1,597 @@
+package linda.server;
+
+import linda.Linda;
+import linda.Tuple;
+import linda.TupleCodec;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.rmi.RemoteException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static linda.server.NioProtocol.*;
+
+/**
+ * Serveur Linda sur un transport NIO non bloquant (alternative à RMI)
+ * Un seul thread de sélection gère toutes les connexions ; les requêtes sont exécutées par un pool fixe
+ * et les take/read bloquants sont enregistrés comme événements : aucun thread n'attend un tuple.
+ * Les requêtes d'une connexion sont exécutées une à une, dans l'ordre d'arrivée (une connexion n'occupe
+ * qu'un thread du pool à la fois). La file d'envoi d'une connexion est bornée : au-delà de MAX_FRAME octets
+ * en attente, ses requêtes ne sont plus lues ; au-delà de linda.nio.maxQueued octets (1 Go par défaut),
+ * le client ne lit plus ses réponses ni ses événements et la connexion est fermée.
+ * Les requêtes sont déléguées à un LindaServer local, qui peut être partagé avec le transport RMI.
+ * Voir NioProtocol pour le format des trames.
+ */
+public class NioLindaServer {
+
+    /**
+     * Connexion d'un client
+     */
+    private class Connection {
+        private final SocketChannel channel;
+        private final SelectionKey key;
+
+        /**
+         * Octets reçus pas encore découpés en trames
+         */
+        private ByteBuffer in = ByteBuffer.allocate(64 * 1024);
+
+        /**
+         * Trames en attente d'envoi
+         */
+        private final Queue<ByteBuffer> out = new ConcurrentLinkedQueue<>();
+
+        /**
+         * Octets des trames en attente d'envoi
+         */
+        private final AtomicLong queued = new AtomicLong(0);
+
+        /**
+         * Requêtes reçues pas encore exécutées, dans l'ordre d'arrivée
+         */
+        private final Queue<byte[]> requests = new ConcurrentLinkedQueue<>();
+
+        /**
+         * Vrai quand un thread du pool exécute les requêtes de la connexion
+         */
+        private final AtomicBoolean running = new AtomicBoolean(false);
+
+        private volatile boolean closed = false;
+
+        /**
+         * Espace auquel s'adressent les requêtes de la connexion (l'espace par défaut, ou celui choisi par SPACE)
+         */
+        private volatile LindaServer space = NioLindaServer.this.lindaServer;
+
+        /**
+         * Écouteur des événements enregistrés par le client (EVENT_REGISTER) : pousse une trame EVENT
+         * Un seul par connexion, pour que CANCEL retrouve l'enregistrement
+         */
+        private final RemoteEventListener events = (eventId, t) -> NioLindaServer.this.sendEvent(this, eventId, t);
+
+        /**
+         * Écouteur des attentes (TAKE, READ, WAIT_EVENT), enregistrées avec le numéro de la requête :
+         * envoie la réponse à la requête
+         */
+        private final RemoteEventListener awaits = (id, t) -> NioLindaServer.this.sendTuple(this, id, t);
+
+        /**
+         * Cache du client vu par le serveur : pousse les notifications sur la connexion
+         * Un seul par connexion, pour que le désabonnement retrouve l'abonnement
+         */
+        private final RemoteCacheListener cacheListener = new RemoteCacheListener() {
+            @Override
+            public void added(long subscriptionId, Tuple t) throws RemoteException {
+                Connection.this.push(subscriptionId, CACHE_ADDED, out -> TupleCodec.writeTuple(out, t));
+            }
+
+            @Override
+            public void removed(long subscriptionId, Tuple t) throws RemoteException {
+                Connection.this.push(subscriptionId, CACHE_REMOVED, out -> TupleCodec.writeTuple(out, t));
+            }
+
+            @Override
+            public void invalidated(long subscriptionId) throws RemoteException {
+                Connection.this.push(subscriptionId, CACHE_INVALIDATED, null);
+            }
+        };
+
+        private Connection(SocketChannel channel, SelectionKey key) {
+            this.channel = channel;
+            this.key = key;
+        }
+
+        /**
+         * Met une trame en file d'envoi (depuis n'importe quel thread)
+         * @param frame la trame
+         * @throws RemoteException si la connexion est fermée
+         */
+        private void send(ByteBuffer frame) throws RemoteException {
+            if (this.closed) {
+                throw new RemoteException("Connection closed");
+            }
+            if (this.queued.addAndGet(frame.limit()) > MAX_QUEUED) {
+                // Client qui ne lit plus : sa file d'envoi grossirait sans limite
+                this.close();
+                throw new RemoteException("Client too slow, connection closed");
+            }
+            this.out.add(frame);
+            NioLindaServer.this.pendingWrites.add(this);
+            NioLindaServer.this.selector.wakeup();
+        }
+
+        /**
+         * Pousse une trame construite à la demande
+         * @throws RemoteException si la connexion est fermée ou le contenu impossible à encoder
+         */
+        private void push(long id, byte op, Body body) throws RemoteException {
+            try {
+                this.send(frame(id, op, body));
+            } catch (RemoteException e) {
+                throw e;
+            } catch (IOException e) {
+                throw new RemoteException("Cannot encode tuple", e);
+            }
+        }
+
+        /**
+         * Ajoute une requête reçue, exécutée après les précédentes de la connexion (thread de sélection)
+         * @param frame la trame reçue
+         */
+        private void submit(byte[] frame) {
+            this.requests.add(frame);
+            this.schedule();
+        }
+
+        private void schedule() {
+            if (this.running.compareAndSet(false, true)) {
+                NioLindaServer.this.workers.execute(this::drain);
+            }
+        }
+
+        /**
+         * Exécute les requêtes en attente, une à une (thread du pool)
+         * Au plus DRAIN_BATCH requêtes d'affilée : le thread est ensuite rendu aux autres connexions
+         */
+        private void drain() {
+            for (int i = 0; i < DRAIN_BATCH; i++) {
+                byte[] frame = this.requests.poll();
+                if (frame == null) {
+                    break;
+                }
+                NioLindaServer.this.handle(this, frame);
+            }
+            this.running.set(false);
+            // Une requête arrivée après le dernier poll ne trouverait personne pour l'exécuter
+            if (!this.requests.isEmpty()) {
+                this.schedule();
+            }
+        }
+
+        private void close() {
+            this.closed = true;
+            this.key.cancel();
+            try {
+                this.channel.close();
+            } catch (IOException e) {
+            }
+        }
+    }
+
+    /**
+     * Octets en file d'envoi au-delà desquels une connexion est fermée (propriété système linda.nio.maxQueued)
+     */
+    private static final long MAX_QUEUED = Long.getLong("linda.nio.maxQueued", 1L << 30);
+
+    /**
+     * Nombre maximum de requêtes d'une connexion exécutées d'affilée par un thread du pool
+     */
+    private static final int DRAIN_BATCH = 64;
+
+    /**
+     * Le serveur Linda auquel les requêtes sont déléguées
+     */
+    private final LindaServer lindaServer;
+
+    private final Selector selector;
+    private final ServerSocketChannel serverChannel;
+
+    /**
+     * Exécute les requêtes décodées
+     */
+    private final ExecutorService workers;
+
+    /**
+     * Connexions qui ont des trames à envoyer
+     */
+    private final Queue<Connection> pendingWrites = new ConcurrentLinkedQueue<>();
+
+    /**
+     * Crée un serveur NIO et ouvre le port d'écoute
+     * @param lindaServer le serveur Linda local auquel déléguer les requêtes
+     * @param port port d'écoute
+     * @throws IOException si le port ne peut pas être ouvert
+     */
+    public NioLindaServer(LindaServer lindaServer, int port) throws IOException {
+        this.lindaServer = lindaServer;
+        this.selector = Selector.open();
+        this.serverChannel = ServerSocketChannel.open();
+        this.serverChannel.bind(new InetSocketAddress(port));
+        this.serverChannel.configureBlocking(false);
+        this.serverChannel.register(this.selector, SelectionKey.OP_ACCEPT);
+        this.workers = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), r -> {
+            Thread thread = new Thread(r, "linda-nio-worker");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Démarre le thread de sélection
+     */
+    public void start() {
+        Thread thread = new Thread(this::loop, "linda-nio-selector");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Ferme le port d'écoute et toutes les connexions
+     */
+    public void close() {
+        try {
+            for (SelectionKey key : this.selector.keys()) {
+                key.channel().close();
+            }
+            this.selector.close();
+        } catch (IOException e) {
+        }
+        this.workers.shutdown();
+    }
+
+    /**
+     * Boucle de sélection : acceptation, lecture et découpage des trames, envoi des réponses
+     */
+    private void loop() {
+        try {
+            while (this.selector.isOpen()) {
+                this.selector.select();
+                Connection pending;
+                while ((pending = this.pendingWrites.poll()) != null) {
+                    if (!pending.closed) {
+                        this.flush(pending);
+                    }
+                }
+                Iterator<SelectionKey> keys = this.selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if (!key.isValid()) {
+                        continue;
+                    }
+                    if (key.isAcceptable()) {
+                        this.accept();
+                        continue;
+                    }
+                    Connection connection = (Connection) key.attachment();
+                    if (key.isReadable()) {
+                        this.read(connection);
+                    }
+                    if (key.isValid() && key.isWritable()) {
+                        this.flush(connection);
+                    }
+                }
+            }
+        } catch (IOException | ClosedSelectorException e) {
+            // Serveur fermé
+        }
+    }
+
+    private void accept() throws IOException {
+        SocketChannel channel = this.serverChannel.accept();
+        if (channel == null) {
+            return;
+        }
+        channel.configureBlocking(false);
+        channel.socket().setTcpNoDelay(true);
+        SelectionKey key = channel.register(this.selector, SelectionKey.OP_READ);
+        key.attach(new Connection(channel, key));
+    }
+
+    private void read(Connection connection) {
+        try {
+            if (connection.channel.read(connection.in) < 0) {
+                connection.close();
+                return;
+            }
+            ByteBuffer in = connection.in;
+            in.flip();
+            while (in.remaining() >= 4) {
+                int length = in.getInt(in.position());
+                if (length < HEADER || length > MAX_FRAME) {
+                    throw new IOException("Bad frame length " + length);
+                }
+                if (in.remaining() < 4 + length) {
+                    if (in.capacity() < 4 + length) {
+                        // Trame plus grande que le tampon : on l'agrandit
+                        ByteBuffer bigger = ByteBuffer.allocate(4 + length);
+                        bigger.put(in);
+                        bigger.flip();
+                        connection.in = in = bigger;
+                    }
+                    break;
+                }
+                in.getInt();
+                byte[] frame = new byte[length];
+                in.get(frame);
+                connection.submit(frame);
+            }
+            in.compact();
+        } catch (IOException e) {
+            connection.close();
+        }
+    }
+
+    private void flush(Connection connection) {
+        try {
+            ByteBuffer frame;
+            while ((frame = connection.out.peek()) != null) {
+                connection.channel.write(frame);
+                if (frame.hasRemaining()) {
+                    // Le socket est plein : on attend de pouvoir écrire à nouveau
+                    connection.key.interestOps(reading(connection) | SelectionKey.OP_WRITE);
+                    return;
+                }
+                connection.out.poll();
+                connection.queued.addAndGet(-frame.limit());
+            }
+            connection.key.interestOps(reading(connection));
+        } catch (IOException | CancelledKeyException e) {
+            connection.close();
+        }
+    }
+
+    /**
+     * Renvoie l'intérêt en lecture d'une connexion : ses requêtes ne sont plus lues tant que plus de MAX_FRAME
+     * octets attendent d'être envoyés (le client doit d'abord lire ses réponses)
+     */
+    private static int reading(Connection connection) {
+        return connection.queued.get() > MAX_FRAME ? 0 : SelectionKey.OP_READ;
+    }
+
+    /**
+     * Exécute une requête et envoie sa réponse (thread du pool)
+     * @param connection la connexion d'origine
+     * @param frame la trame reçue
+     */
+    private void handle(Connection connection, byte[] frame) {
+        long id = requestId(frame);
+        try {
+            DataInputStream in = body(frame);
+            switch (op(frame)) {
+                case WRITE:
+                    connection.space.write(TupleCodec.readTuple(in));
+                    connection.send(frame(id, OK, null));
+                    break;
+                case WRITE_LEASED:
+                    Tuple leased = TupleCodec.readTuple(in);
+                    long lease = connection.space.write(leased, in.readLong());
+                    connection.send(frame(id, LONG, out -> out.writeLong(lease)));
+                    break;
+                case RENEW:
+                    long renewed = connection.space.renew(in.readLong(), in.readLong()) ? 1 : 0;
+                    connection.send(frame(id, LONG, out -> out.writeLong(renewed)));
+                    break;
+                case WRITE_ALL:
+                    connection.space.writeAll(TupleCodec.readTuples(in));
+                    connection.send(frame(id, OK, null));
+                    break;
+                case TAKE:
+                    this.await(connection, id, Linda.eventMode.TAKE, Linda.eventTiming.IMMEDIATE, TupleCodec.readTuple(in));
+                    break;
+                case READ:
+                    this.await(connection, id, Linda.eventMode.READ, Linda.eventTiming.IMMEDIATE, TupleCodec.readTuple(in));
+                    break;
+                case WAIT_EVENT:
+                    Linda.eventMode waitMode = Linda.eventMode.values()[in.readByte()];
+                    Linda.eventTiming waitTiming = Linda.eventTiming.values()[in.readByte()];
+                    this.await(connection, id, waitMode, waitTiming, TupleCodec.readTuple(in));
+                    break;
+                case TRY_TAKE:
+                    this.sendTuple(connection, id, connection.space.tryTake(TupleCodec.readTuple(in)));
+                    break;
+                case TRY_READ:
+                    this.sendTuple(connection, id, connection.space.tryRead(TupleCodec.readTuple(in)));
+                    break;
+                case TAKE_ALL:
+                    this.sendTaken(connection, id, connection.space.takeAll(TupleCodec.readTuple(in)));
+                    break;
+                case READ_ALL:
+                    this.sendTuples(connection, id, connection.space.readAll(TupleCodec.readTuple(in)));
+                    break;
+                case TAKE_N:
+                    Tuple takeTemplate = TupleCodec.readTuple(in);
+                    this.sendTaken(connection, id, connection.space.takeN(takeTemplate, in.readInt()));
+                    break;
+                case READ_N:
+                    Tuple readTemplate = TupleCodec.readTuple(in);
+                    this.sendTuples(connection, id, connection.space.readN(readTemplate, in.readInt()));
+                    break;
+                case EVENT_REGISTER:
+                    Linda.eventMode mode = Linda.eventMode.values()[in.readByte()];
+                    Linda.eventTiming timing = Linda.eventTiming.values()[in.readByte()];
+                    Tuple template = TupleCodec.readTuple(in);
+                    long eventId = in.readLong();
+                    // L'événement est poussé sur la même connexion, avec le numéro choisi par le client
+                    connection.space.eventRegister(mode, timing, template, connection.events, eventId);
+                    connection.send(frame(id, OK, null));
+                    break;
+                case CANCEL:
+                    boolean awaited = in.readBoolean();
+                    long cancelled = in.readLong();
+                    boolean done = connection.space.eventCancel(awaited ? connection.awaits : connection.events, cancelled);
+                    connection.send(frame(id, LONG, out -> out.writeLong(done ? 1 : 0)));
+                    break;
+                case OPEN_CURSOR:
+                    Linda.eventMode cursorMode = Linda.eventMode.values()[in.readByte()];
+                    long cursor = connection.space.openCursor(cursorMode, TupleCodec.readTuple(in));
+                    connection.send(frame(id, LONG, out -> out.writeLong(cursor)));
+                    break;
+                case NEXT_CHUNK:
+                    long chunkCursor = in.readLong();
+                    this.sendTuples(connection, id, connection.space.nextChunk(chunkCursor, in.readInt()));
+                    break;
+                case CLOSE_CURSOR:
+                    connection.space.closeCursor(in.readLong());
+                    connection.send(frame(id, OK, null));
+                    break;
+                case SUBSCRIBE:
+                    Tuple subscribed = TupleCodec.readTuple(in);
+                    this.sendTuples(connection, id, connection.space.subscribe(subscribed, connection.cacheListener, in.readLong()));
+                    break;
+                case UNSUBSCRIBE:
+                    connection.space.unsubscribe(connection.cacheListener, in.readLong());
+                    connection.send(frame(id, OK, null));
+                    break;
+                case DEBUG:
+                    connection.space.debug(TupleCodec.readString(in));
+                    connection.send(frame(id, OK, null));
+                    break;
+                case SAVE:
+                    connection.space.save(TupleCodec.readString(in));
+                    connection.send(frame(id, OK, null));
+                    break;
+                case LOAD:
+                    connection.space.load(TupleCodec.readString(in));
+                    connection.send(frame(id, OK, null));
+                    break;
+                case SPACE:
+                    connection.space = this.lindaServer.space(TupleCodec.readString(in));
+                    connection.send(frame(id, OK, null));
+                    break;
+                case SNAPSHOT:
+                    long snapshot = connection.space.snapshot();
+                    connection.send(frame(id, LONG, out -> out.writeLong(snapshot)));
+                    break;
+                default:
+                    throw new IOException("Unknown operation " + op(frame));
+            }
+        } catch (Exception e) {
+            try {
+                String message = String.valueOf(e);
+                connection.send(frame(id, ERROR, out -> TupleCodec.writeString(out, message)));
+            } catch (IOException e2) {
+                connection.close();
+            }
+        }
+    }
+
+    /**
+     * Attend un tuple sans bloquer de thread : la réponse est envoyée quand l'événement se déclenche
+     */
+    private void await(Connection connection, long id, Linda.eventMode mode, Linda.eventTiming timing, Tuple template) throws RemoteException {
+        connection.space.eventRegister(mode, timing, template, connection.awaits, id);
+    }
+
+    private void sendTuple(Connection connection, long id, Tuple t) throws RemoteException {
+        try {
+            connection.send(frame(id, TUPLE, out -> writeNullableTuple(out, t)));
+        } catch (RemoteException e) {
+            throw e;
+        } catch (IOException e) {
+            throw new RemoteException("Cannot encode tuple", e);
+        }
+    }
+
+    private void sendTuples(Connection connection, long id, Collection<Tuple> tuples) throws IOException {
+        List<Tuple> unsent = this.sendFrames(connection, id, tuples);
+        if (!unsent.isEmpty()) {
+            throw new IOException("Tuple larger than " + MAX_FRAME + " bytes");
+        }
+    }
+
+    /**
+     * Envoie des tuples retirés de l'espace ; ceux qui ne peuvent pas être envoyés y sont remis
+     */
+    private void sendTaken(Connection connection, long id, Collection<Tuple> tuples) throws IOException {
+        List<Tuple> unsent = this.sendFrames(connection, id, tuples);
+        if (!unsent.isEmpty()) {
+            connection.space.writeAll(unsent);
+            throw new IOException("Tuple larger than " + MAX_FRAME + " bytes, put back");
+        }
+    }
+
+    /**
+     * Envoie une liste de tuples, en une trame TUPLES ou, si elle est trop grande, en plusieurs trames
+     * TUPLES_MORE suivies d'une trame TUPLES
+     * @return les tuples non envoyés (à partir du premier tuple trop grand pour une trame), vide si tout est parti
+     */
+    private List<Tuple> sendFrames(Connection connection, long id, Collection<Tuple> tuples) throws IOException {
+        ByteBuffer single = frame(id, TUPLES, out -> TupleCodec.writeTuples(out, tuples));
+        if (single.remaining() - 4 <= MAX_FRAME) {
+            connection.send(single);
+            return Collections.emptyList();
+        }
+        // Marge pour l'en-tête et le nombre de tuples
+        int limit = MAX_FRAME - HEADER - 16;
+        List<Tuple> remaining = new ArrayList<>(tuples);
+        List<byte[]> part = new ArrayList<>();
+        long size = 0;
+        for (int i = 0; i < remaining.size(); i++) {
+            byte[] encoded = TupleCodec.encode(remaining.get(i));
+            if (encoded.length > limit) {
+                if (!part.isEmpty()) {
+                    this.sendPart(connection, id, TUPLES_MORE, part);
+                }
+                return remaining.subList(i, remaining.size());
+            }
+            if (size + encoded.length > limit) {
+                this.sendPart(connection, id, TUPLES_MORE, part);
+                part.clear();
+                size = 0;
+            }
+            part.add(encoded);
+            size += encoded.length;
+        }
+        this.sendPart(connection, id, TUPLES, part);
+        return Collections.emptyList();
+    }
+
+    private void sendPart(Connection connection, long id, byte op, List<byte[]> encoded) throws IOException {
+        connection.send(frame(id, op, out -> {
+            TupleCodec.writeVarLong(out, encoded.size());
+            for (byte[] t : encoded) {
+                out.write(t);
+            }
+        }));
+    }
+
+    private void sendEvent(Connection connection, long eventId, Tuple t) throws RemoteException {
+        try {
+            connection.send(frame(eventId, EVENT, out -> TupleCodec.writeTuple(out, t)));
+        } catch (RemoteException e) {
+            throw e;
+        } catch (IOException e) {
+            throw new RemoteException("Cannot encode tuple", e);
+        }
+    }
+
+}
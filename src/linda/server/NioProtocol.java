@@ -0,0 +1,150 @@
+package linda.server;
+
+import linda.Tuple;
+import linda.TupleCodec;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Protocole binaire du transport NIO
+ * Une trame : longueur (int, sans compter ces 4 octets), numéro de requête (long), opération (octet), contenu
+ * Le contenu est encodé avec TupleCodec. Chaque réponse reprend le numéro de sa requête :
+ * un client peut envoyer plusieurs requêtes sans attendre (pipelining). Le serveur exécute les requêtes
+ * d'une connexion dans l'ordre d'arrivée, mais les réponses des take/read bloquants arrivent quand un tuple
+ * correspond : les réponses peuvent arriver dans le désordre.
+ * Aucune trame ne dépasse MAX_FRAME : le client refuse d'envoyer une requête plus grande, et découpe un
+ * WRITE_ALL trop grand en plusieurs requêtes.
+ * Les événements poussés par le serveur (EVENT) portent le numéro d'événement choisi par le client,
+ * les notifications de cache (CACHE_*) le numéro d'abonnement.
+ * CANCEL annule un événement (EVENT_REGISTER, par son numéro d'événement) ou une attente (TAKE, READ ou
+ * WAIT_EVENT, par son numéro de requête) pas encore déclenchés : la réponse LONG vaut 1 si l'annulation a eu
+ * lieu (l'attente ne recevra jamais de réponse), 0 si le tuple est déjà parti.
+ * Une liste de tuples trop grande pour une trame est envoyée en plusieurs trames TUPLES_MORE de même numéro,
+ * la dernière étant une trame TUPLES : le résultat d'un readAll ou d'un takeAll n'est pas limité par MAX_FRAME.
+ */
+final class NioProtocol {
+
+    /**
+     * Taille maximum d'une trame (un tuple seul, ou une requête, ne peut pas la dépasser)
+     */
+    static final int MAX_FRAME = 64 << 20;
+
+    /**
+     * Taille de l'en-tête après la longueur (numéro de requête + opération)
+     */
+    static final int HEADER = 9;
+
+    /* Requêtes */
+    static final byte WRITE = 1;
+    static final byte WRITE_ALL = 2;
+    static final byte TAKE = 3;
+    static final byte READ = 4;
+    static final byte TRY_TAKE = 5;
+    static final byte TRY_READ = 6;
+    static final byte TAKE_ALL = 7;
+    static final byte READ_ALL = 8;
+    static final byte TAKE_N = 9;
+    static final byte READ_N = 10;
+    static final byte EVENT_REGISTER = 11;
+    static final byte WAIT_EVENT = 12;
+    static final byte OPEN_CURSOR = 13;
+    static final byte NEXT_CHUNK = 14;
+    static final byte CLOSE_CURSOR = 15;
+    static final byte DEBUG = 16;
+    static final byte SAVE = 17;
+    static final byte LOAD = 18;
+    static final byte SUBSCRIBE = 19;
+    static final byte UNSUBSCRIBE = 20;
+    static final byte SNAPSHOT = 21;
+    static final byte SPACE = 22;
+    static final byte WRITE_LEASED = 23;
+    static final byte RENEW = 24;
+    static final byte CANCEL = 25;
+
+    /* Réponses */
+    static final byte OK = 64;
+    static final byte TUPLE = 65;
+    static final byte TUPLES = 66;
+    static final byte LONG = 67;
+    static final byte EVENT = 68;
+    static final byte ERROR = 69;
+    static final byte TUPLES_MORE = 73;
+
+    /* Notifications de cache, poussées avec le numéro d'abonnement choisi par le client */
+    static final byte CACHE_ADDED = 70;
+    static final byte CACHE_REMOVED = 71;
+    static final byte CACHE_INVALIDATED = 72;
+
+    /**
+     * Écrit le contenu d'une trame
+     */
+    interface Body {
+        void write(DataOutputStream out) throws IOException;
+    }
+
+    private NioProtocol() {
+    }
+
+    /**
+     * Construit une trame prête à être envoyée
+     * @param requestId numéro de requête (ou d'événement)
+     * @param op opération
+     * @param body contenu, null si vide
+     * @return la trame
+     * @throws IOException si le contenu ne peut pas être encodé
+     */
+    static ByteBuffer frame(long requestId, byte op, Body body) throws IOException {
+        ByteArrayOutputStream buf = new ByteArrayOutputStream(64);
+        DataOutputStream out = new DataOutputStream(buf);
+        out.writeInt(0);
+        out.writeLong(requestId);
+        out.writeByte(op);
+        if (body != null) {
+            body.write(out);
+        }
+        out.flush();
+        ByteBuffer frame = ByteBuffer.wrap(buf.toByteArray());
+        frame.putInt(0, frame.remaining() - 4);
+        return frame;
+    }
+
+    /**
+     * Ouvre le contenu d'une trame reçue (sans la longueur)
+     * @param frame la trame, à partir du numéro de requête
+     * @return un flux positionné au début du contenu
+     */
+    static DataInputStream body(byte[] frame) {
+        return new DataInputStream(new ByteArrayInputStream(frame, HEADER, frame.length - HEADER));
+    }
+
+    static long requestId(byte[] frame) {
+        return ByteBuffer.wrap(frame).getLong(0);
+    }
+
+    static byte op(byte[] frame) {
+        return frame[8];
+    }
+
+    /**
+     * Écrit un tuple pouvant être null
+     */
+    static void writeNullableTuple(DataOutputStream out, Tuple t) throws IOException {
+        out.writeBoolean(t != null);
+        if (t != null) {
+            TupleCodec.writeTuple(out, t);
+        }
+    }
+
+    /**
+     * Lit un tuple pouvant être null
+     */
+    static Tuple readNullableTuple(DataInputStream in) throws IOException {
+        return in.readBoolean() ? TupleCodec.readTuple(in) : null;
+    }
+
+}
@@ -0,0 +1,67 @@
+package linda.server;
+
+import java.beans.ConstructorProperties;
+
+/**
+ * Statistiques de durée d'une opération (ou du retard des callbacks), relevées par SpaceMetrics
+ * Les centiles sont la borne haute de la tranche de l'histogramme qui les contient (à 12,5 % près).
+ */
+public class OperationStats {
+
+    private final long count;
+    private final long meanNanos;
+    private final long p50Nanos;
+    private final long p99Nanos;
+    private final long p999Nanos;
+    private final long maxNanos;
+
+    /**
+     * Crée des statistiques
+     * @param count nombre de mesures
+     * @param meanNanos durée moyenne
+     * @param p50Nanos durée médiane
+     * @param p99Nanos 99e centile
+     * @param p999Nanos 99,9e centile
+     * @param maxNanos durée maximum
+     */
+    @ConstructorProperties({ "count", "meanNanos", "p50Nanos", "p99Nanos", "p999Nanos", "maxNanos" })
+    public OperationStats(long count, long meanNanos, long p50Nanos, long p99Nanos, long p999Nanos, long maxNanos) {
+        this.count = count;
+        this.meanNanos = meanNanos;
+        this.p50Nanos = p50Nanos;
+        this.p99Nanos = p99Nanos;
+        this.p999Nanos = p999Nanos;
+        this.maxNanos = maxNanos;
+    }
+
+    public long getCount() {
+        return this.count;
+    }
+
+    public long getMeanNanos() {
+        return this.meanNanos;
+    }
+
+    public long getP50Nanos() {
+        return this.p50Nanos;
+    }
+
+    public long getP99Nanos() {
+        return this.p99Nanos;
+    }
+
+    public long getP999Nanos() {
+        return this.p999Nanos;
+    }
+
+    public long getMaxNanos() {
+        return this.maxNanos;
+    }
+
+    @Override
+    public String toString() {
+        return this.count + " ops, mean " + this.meanNanos + " ns, p50 " + this.p50Nanos + " ns, p99 "
+                + this.p99Nanos + " ns, p99.9 " + this.p999Nanos + " ns, max " + this.maxNanos + " ns";
+    }
+
+}
@@ -0,0 +1,36 @@
+package linda.server;
+
+import linda.Tuple;
+
+import java.rmi.Remote;
+import java.rmi.RemoteException;
+
+/**
+ * Cache d'un client, tenu à jour par le serveur pour les templates auxquels il s'est abonné
+ */
+public interface RemoteCacheListener extends Remote {
+
+    /**
+     * Un tuple correspondant au template de l'abonnement a été ajouté à l'espace
+     * @param subscriptionId numéro de l'abonnement
+     * @param t le tuple ajouté
+     * @throws RemoteException
+     */
+    void added(long subscriptionId, Tuple t) throws RemoteException;
+
+    /**
+     * Un tuple correspondant au template de l'abonnement a été retiré de l'espace
+     * @param subscriptionId numéro de l'abonnement
+     * @param t le tuple retiré
+     * @throws RemoteException
+     */
+    void removed(long subscriptionId, Tuple t) throws RemoteException;
+
+    /**
+     * Le contenu de l'abonnement n'est plus connu (espace rechargé) : il doit être relu
+     * @param subscriptionId numéro de l'abonnement
+     * @throws RemoteException
+     */
+    void invalidated(long subscriptionId) throws RemoteException;
+
+}
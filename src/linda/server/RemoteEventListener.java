@@ -0,0 +1,22 @@
+package linda.server;
+
+import linda.Tuple;
+
+import java.rmi.Remote;
+import java.rmi.RemoteException;
+
+/**
+ * Écouteur distant d'un client, appelé par le serveur quand un événement enregistré se déclenche
+ * Un seul écouteur par client, partagé par tous ses enregistrements (identifiés par un numéro)
+ */
+public interface RemoteEventListener extends Remote {
+
+    /**
+     * Notifie le client qu'un événement s'est déclenché
+     * @param eventId numéro de l'événement, choisi par le client à l'enregistrement
+     * @param t le tuple lu ou pris
+     * @throws RemoteException
+     */
+    void call(long eventId, Tuple t) throws RemoteException;
+
+}
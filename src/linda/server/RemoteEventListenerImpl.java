@@ -0,0 +1,89 @@
+package linda.server;
+
+import linda.Callback;
+import linda.Tuple;
+
+import java.rmi.NoSuchObjectException;
+import java.rmi.RemoteException;
+import java.rmi.server.UnicastRemoteObject;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Écouteur distant d'un LindaClient
+ * Associe chaque numéro d'événement au callback local à appeler
+ * Avec RMI, l'écouteur n'est exporté que tant qu'il reste des événements en attente
+ * (un client sans événement en attente ne garde donc pas la JVM en vie)
+ * Avec le transport NIO, il n'est pas exporté : les événements arrivent par la connexion du client
+ */
+class RemoteEventListenerImpl implements RemoteEventListener {
+
+    /**
+     * Callbacks en attente, par numéro d'événement
+     */
+    private final Map<Long, Callback> callbacks = new HashMap<>();
+
+    /**
+     * Vrai une fois l'écouteur désexporté (il faut alors en créer un nouveau)
+     */
+    private boolean closed = false;
+
+    /**
+     * Vrai si l'écouteur est exporté en RMI
+     */
+    private final boolean exported;
+
+    /**
+     * Crée un écouteur
+     * @param export vrai pour l'exporter en RMI
+     * @throws RemoteException si l'export échoue
+     */
+    RemoteEventListenerImpl(boolean export) throws RemoteException {
+        this.exported = export;
+        if (export) {
+            UnicastRemoteObject.exportObject(this, 0);
+        }
+    }
+
+    /**
+     * Enregistre un callback en attente
+     * @param eventId numéro de l'événement
+     * @param callback callback à appeler quand le serveur notifiera l'événement
+     * @return faux si l'écouteur est déjà fermé
+     */
+    synchronized boolean register(long eventId, Callback callback) {
+        if (this.closed) {
+            return false;
+        }
+        this.callbacks.put(eventId, callback);
+        return true;
+    }
+
+    /**
+     * Retire un callback en attente et ferme l'écouteur s'il n'y en a plus
+     * @param eventId numéro de l'événement
+     * @return le callback retiré, null si inconnu
+     */
+    synchronized Callback unregister(long eventId) {
+        Callback callback = this.callbacks.remove(eventId);
+        if (this.callbacks.isEmpty() && !this.closed) {
+            this.closed = true;
+            if (this.exported) {
+                try {
+                    UnicastRemoteObject.unexportObject(this, true);
+                } catch (NoSuchObjectException e) {
+                }
+            }
+        }
+        return callback;
+    }
+
+    @Override
+    public void call(long eventId, Tuple t) {
+        Callback callback = this.unregister(eventId);
+        if (callback != null) {
+            callback.call(t);
+        }
+    }
+
+}
@@ -0,0 +1,260 @@
+package linda.server;
+
+import linda.Callback;
+import linda.Linda;
+import linda.Tuple;
+
+import java.rmi.RemoteException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Client d'un groupe de serveurs répliqués (un primaire et ses secours, voir LindaServerImpl.replicateFrom)
+ * Les lectures non bloquantes (tryRead, readAll, readN) sont réparties à tour de rôle sur tous les serveurs :
+ * les secours les servent avec un retard borné, d'où le passage à l'échelle des charges de lecture.
+ * Les autres opérations vont au primaire, retrouvé parmi les serveurs quand il ne répond plus : l'opération
+ * est retentée sur le nouveau primaire pendant au plus failoverMillis (une écriture dont la réponse a été
+ * perdue peut donc être faite deux fois). Les callbacks en attente sur un primaire disparu sont perdus.
+ * La réplication est asynchrone : une écriture acquittée par le primaire mais pas encore lue par les secours
+ * est perdue si le primaire tombe. Un primaire isolé par une partition réseau continue d'accepter des
+ * écritures pendant qu'un secours est promu (deux primaires) : parmi plusieurs primaires, le client suit
+ * celui de plus grand mandat et fait redevenir secours les autres, dont les écritures divergentes sont perdues.
+ * URI RMI seulement (la réplication n'a pas de transport NIO).
+ */
+public class ReplicatedLinda implements Linda {
+
+    /**
+     * Délai entre deux recherches du primaire
+     */
+    private static final long RETRY_MILLIS = 100;
+
+    /**
+     * Un appel à un serveur
+     */
+    private interface Call<T> {
+        T call(LindaServer server) throws RemoteException;
+    }
+
+    private final String[] uris;
+    private final LindaClient[] servers;
+    private final long failoverMillis;
+
+    /**
+     * Indice du primaire, -1 s'il doit être recherché
+     */
+    private volatile int primary = -1;
+
+    /**
+     * Premier serveur essayé par la prochaine lecture
+     */
+    private final AtomicInteger nextRead = new AtomicInteger(0);
+
+    /**
+     * Se connecte aux serveurs du groupe
+     * @param failoverMillis durée pendant laquelle une opération est retentée quand le primaire ne répond plus
+     * (plus long que le délai de promotion des secours)
+     * @param serverURIs les URI RMI du primaire et des secours, dans n'importe quel ordre
+     */
+    public ReplicatedLinda(long failoverMillis, String... serverURIs) {
+        this.failoverMillis = failoverMillis;
+        this.uris = serverURIs.clone();
+        this.servers = new LindaClient[serverURIs.length];
+        for (int i = 0; i < serverURIs.length; i++) {
+            this.servers[i] = new LindaClient(serverURIs[i]);
+        }
+    }
+
+    /**
+     * Renvoie l'indice du primaire, recherché au besoin
+     * Le primaire de plus grand mandat est retenu ; les autres primaires sont priés de redevenir secours
+     * @return l'indice, -1 si aucun serveur n'est primaire pour l'instant
+     */
+    private int primary() {
+        int p = this.primary;
+        if (p >= 0) {
+            return p;
+        }
+        long[] terms = new long[this.servers.length];
+        long best = -1;
+        for (int i = 0; i < this.servers.length; i++) {
+            terms[i] = -1;
+            LindaServer server = this.servers[i].server();
+            try {
+                if (server instanceof Replication) {
+                    ReplicationStatus status = ((Replication) server).replicationStatus();
+                    if (status.getRole() == ReplicationStatus.Role.PRIMARY) {
+                        terms[i] = status.getTerm();
+                        if (p < 0 || terms[i] > best) {
+                            p = i;
+                            best = terms[i];
+                        }
+                    }
+                }
+            } catch (RemoteException e) {
+                // Injoignable : serveur suivant
+            }
+        }
+        for (int i = 0; i < this.servers.length; i++) {
+            if (terms[i] >= 0 && terms[i] < best) {
+                try {
+                    ((Replication) this.servers[i].server()).stepDown(best, this.uris[p]);
+                } catch (RemoteException e) {
+                    // Injoignable : il sera revu à la prochaine recherche
+                }
+            }
+        }
+        this.primary = p;
+        return p;
+    }
+
+    /**
+     * Appelle le primaire, en le recherchant tant qu'il ne répond pas (au plus failoverMillis)
+     * @param call l'appel
+     * @return le résultat, null si aucun primaire n'a répondu à temps
+     */
+    private <T> T onPrimary(Call<T> call) {
+        long failedAt = 0;
+        while (true) {
+            int p = this.primary();
+            if (p >= 0) {
+                try {
+                    return call.call(this.servers[p].server());
+                } catch (RemoteException e) {
+                    this.primary = -1;
+                }
+            }
+            long now = System.currentTimeMillis();
+            if (failedAt == 0) {
+                failedAt = now;
+            } else if (now - failedAt > this.failoverMillis) {
+                System.err.println("No primary reachable");
+                return null;
+            }
+            try {
+                Thread.sleep(RETRY_MILLIS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return null;
+            }
+        }
+    }
+
+    /**
+     * Appelle un serveur quelconque, à tour de rôle, en passant au suivant s'il ne répond pas
+     * @param call l'appel
+     * @return le résultat, null si aucun serveur n'a répondu
+     */
+    private <T> T onAny(Call<T> call) {
+        int start = this.nextRead.getAndIncrement();
+        RemoteException last = null;
+        for (int k = 0; k < this.servers.length; k++) {
+            LindaServer server = this.servers[Math.floorMod(start + k, this.servers.length)].server();
+            if (server == null) {
+                continue;
+            }
+            try {
+                return call.call(server);
+            } catch (RemoteException e) {
+                last = e;
+            }
+        }
+        System.err.println(last);
+        return null;
+    }
+
+    @Override
+    public void write(Tuple t) {
+        this.onPrimary(server -> {
+            server.write(t);
+            return null;
+        });
+    }
+
+    @Override
+    public void writeAll(Collection<Tuple> tuples) {
+        ArrayList<Tuple> copy = new ArrayList<>(tuples);
+        this.onPrimary(server -> {
+            server.writeAll(copy);
+            return null;
+        });
+    }
+
+    @Override
+    public Tuple take(Tuple template) {
+        return this.onPrimary(server -> server.take(template));
+    }
+
+    @Override
+    public Tuple read(Tuple template) {
+        return this.onPrimary(server -> server.read(template));
+    }
+
+    @Override
+    public Tuple tryTake(Tuple template) {
+        return this.onPrimary(server -> server.tryTake(template));
+    }
+
+    @Override
+    public Tuple tryRead(Tuple template) {
+        return this.onAny(server -> server.tryRead(template));
+    }
+
+    @Override
+    public Collection<Tuple> takeAll(Tuple template) {
+        return this.onPrimary(server -> server.takeAll(template));
+    }
+
+    @Override
+    public Collection<Tuple> readAll(Tuple template) {
+        return this.onAny(server -> server.readAll(template));
+    }
+
+    @Override
+    public Collection<Tuple> takeN(Tuple template, int n) {
+        return this.onPrimary(server -> server.takeN(template, n));
+    }
+
+    @Override
+    public Collection<Tuple> readN(Tuple template, int n) {
+        return this.onAny(server -> server.readN(template, n));
+    }
+
+    @Override
+    public void eventRegister(eventMode mode, eventTiming timing, Tuple template, Callback callback) {
+        int p = this.primary();
+        if (p < 0) {
+            System.err.println("No primary reachable");
+            return;
+        }
+        this.servers[p].eventRegister(mode, timing, template, callback);
+    }
+
+    /**
+     * Renvoie l'état de réplication de chaque serveur (rôle et retard), null pour un serveur injoignable
+     * @return les états, dans l'ordre des URI
+     */
+    public ReplicationStatus[] status() {
+        ReplicationStatus[] result = new ReplicationStatus[this.servers.length];
+        for (int i = 0; i < this.servers.length; i++) {
+            LindaServer server = this.servers[i].server();
+            try {
+                if (server instanceof Replication) {
+                    result[i] = ((Replication) server).replicationStatus();
+                }
+            } catch (RemoteException e) {
+                // Injoignable
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public void debug(String prefix) {
+        this.onPrimary(server -> {
+            server.debug(prefix);
+            return null;
+        });
+    }
+
+}
@@ -0,0 +1,60 @@
+package linda.server;
+
+import linda.shm.ReplicationLog;
+
+import java.rmi.Remote;
+import java.rmi.RemoteException;
+
+/**
+ * Réplication primaire/secours entre serveurs Linda (RMI seulement)
+ * Un serveur de secours lit en continu le journal du primaire (pull, attente bornée quand il est à jour)
+ * et l'applique à sa copie de l'espace.
+ * La réplication est asynchrone : une modification est acquittée au client avant d'être reçue par les secours,
+ * et celles que le primaire n'a pas encore transmises sont perdues si un secours est promu.
+ */
+public interface Replication extends Remote {
+
+    /**
+     * Renvoie vrai si le serveur est primaire (il accepte les modifications et tient un journal de réplication)
+     * @return vrai pour un primaire
+     * @throws RemoteException
+     */
+    boolean isPrimary() throws RemoteException;
+
+    /**
+     * Renvoie les enregistrements du journal qui suivent un numéro, en attendant s'il n'y en a pas encore
+     * @param after numéro du dernier enregistrement appliqué par le secours
+     * @param max nombre maximum d'enregistrements
+     * @param waitMillis attente maximum s'il n'y a rien de nouveau
+     * @return le lot (à demander en entier si le lot indique une resynchronisation)
+     * @throws RemoteException si le serveur n'est pas primaire
+     */
+    ReplicationLog.Batch pull(long after, int max, long waitMillis) throws RemoteException;
+
+    /**
+     * Renvoie une page de l'état complet de l'espace, à compléter par pull après son numéro
+     * @param transfer identifiant du transfert (Batch.getTransfer de la page précédente), 0 pour en commencer un
+     * @param from nombre d'enregistrements déjà reçus pour ce transfert
+     * @param max nombre maximum d'enregistrements
+     * @return la page (tout recommencer si le lot indique une resynchronisation)
+     * @throws RemoteException si le serveur n'est pas primaire
+     */
+    ReplicationLog.Batch fullState(long transfer, int from, int max) throws RemoteException;
+
+    /**
+     * Signale à un primaire qu'un autre primaire a un mandat plus récent : s'il a un mandat inférieur, il devient
+     * secours du primaire indiqué (ses modifications pas encore répliquées sont perdues)
+     * @param term le mandat de l'autre primaire
+     * @param primaryURI l'URI RMI de l'autre primaire
+     * @throws RemoteException
+     */
+    void stepDown(long term, String primaryURI) throws RemoteException;
+
+    /**
+     * Renvoie l'état de la réplication (rôle et retard)
+     * @return l'état
+     * @throws RemoteException
+     */
+    ReplicationStatus replicationStatus() throws RemoteException;
+
+}
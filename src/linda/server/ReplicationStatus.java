@@ -0,0 +1,85 @@
+package linda.server;
+
+import java.io.Serializable;
+
+/**
+ * État de la réplication d'un serveur : rôle et retard d'un serveur de secours sur son primaire
+ */
+public class ReplicationStatus implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Rôle d'un serveur
+     */
+    public enum Role { STANDALONE, PRIMARY, BACKUP }
+
+    private final Role role;
+    private final long term;
+    private final String upstream;
+    private final long applied;
+    private final long head;
+    private final long stalenessMillis;
+
+    /**
+     * Crée un état
+     * @param role le rôle du serveur
+     * @param term mandat du primaire (le sien pour un primaire, le plus grand vu pour un secours, 0 sinon)
+     * @param upstream URI du primaire suivi (secours seulement, null sinon)
+     * @param applied numéro du dernier enregistrement appliqué (ou écrit, pour un primaire)
+     * @param head dernier numéro connu du journal du primaire
+     * @param stalenessMillis âge des données servies (0 pour un primaire)
+     */
+    public ReplicationStatus(Role role, long term, String upstream, long applied, long head, long stalenessMillis) {
+        this.role = role;
+        this.term = term;
+        this.upstream = upstream;
+        this.applied = applied;
+        this.head = head;
+        this.stalenessMillis = stalenessMillis;
+    }
+
+    public Role getRole() {
+        return this.role;
+    }
+
+    public long getTerm() {
+        return this.term;
+    }
+
+    public String getUpstream() {
+        return this.upstream;
+    }
+
+    public long getApplied() {
+        return this.applied;
+    }
+
+    public long getHead() {
+        return this.head;
+    }
+
+    /**
+     * Renvoie le retard en nombre d'enregistrements du journal
+     * @return le nombre d'enregistrements pas encore appliqués
+     */
+    public long getLagRecords() {
+        return Math.max(0, this.head - this.applied);
+    }
+
+    /**
+     * Renvoie le retard en temps : depuis combien de temps le secours n'a pas vu le primaire sans modification
+     * plus récente que sa copie (à la latence réseau près)
+     * @return l'âge des données servies, en ms
+     */
+    public long getStalenessMillis() {
+        return this.stalenessMillis;
+    }
+
+    @Override
+    public String toString() {
+        return this.role + (this.upstream == null ? "" : " of " + this.upstream) + ", term " + this.term + ", applied " + this.applied
+                + "/" + this.head + " (lag " + this.getLagRecords() + " records, " + this.stalenessMillis + " ms)";
+    }
+
+}
@@ -0,0 +1,251 @@
+package linda.server;
+
+import linda.shm.CentralizedLinda;
+import linda.shm.Replica;
+import linda.shm.ReplicationLog;
+
+import java.io.IOException;
+import java.rmi.Naming;
+import java.rmi.RemoteException;
+import java.util.List;
+import java.util.function.LongConsumer;
+
+/**
+ * Côté secours de la réplication : un thread lit le journal du primaire et l'applique à la copie locale
+ * Les serveurs amont sont donnés par ordre de priorité (le primaire d'origine, puis les secours de rang
+ * inférieur). Quand le primaire suivi ne répond plus, le premier serveur amont joignable qui est primaire
+ * est suivi (état complet, son journal ayant une autre numérotation) ; si un serveur amont est joignable
+ * mais encore secours, on l'attend (il sera promu avant nous). Quand aucun n'est joignable pendant
+ * failoverMillis, le serveur est promu primaire, avec un mandat supérieur à tous ceux qu'il a vus.
+ * Si plusieurs serveurs amont se disent primaires (ancien primaire revenu après une promotion), celui qui a le
+ * plus grand mandat est suivi et les autres sont priés de redevenir secours (Replication.stepDown).
+ */
+class Replicator implements Runnable {
+
+    /**
+     * Nombre maximum d'enregistrements demandés à la fois
+     */
+    private static final int BATCH_RECORDS = 4096;
+
+    /**
+     * Nombre maximum d'enregistrements par page d'un état complet
+     */
+    private static final int FULL_RECORDS = 65536;
+
+    /**
+     * Attente d'une nouvelle modification côté primaire, quand le secours est à jour
+     */
+    private static final long POLL_MILLIS = 200;
+
+    /**
+     * Délai entre deux recherches de primaire
+     */
+    private static final long RETRY_MILLIS = 200;
+
+    private final Replica replica;
+    private final List<String> upstreams;
+    private final long failoverMillis;
+
+    /**
+     * Appelé (dans le thread du réplicateur) pour promouvoir le serveur, avec son nouveau mandat
+     */
+    private final LongConsumer promote;
+
+    /**
+     * Primaire suivi, null pendant une recherche
+     */
+    private volatile LindaServer primary;
+    private volatile String primaryURI;
+
+    /**
+     * Dernier numéro connu du journal du primaire
+     */
+    private volatile long head = 0;
+
+    /**
+     * Plus grand mandat vu chez les serveurs amont
+     */
+    private volatile long term = 0;
+
+    /**
+     * Instant (ms) où la copie a été vue à jour pour la dernière fois, 0 jamais
+     */
+    private volatile long upToDateAt = 0;
+
+    private volatile boolean stopped = false;
+
+    /**
+     * Crée le réplicateur (à démarrer dans un thread)
+     * @param space la copie locale
+     * @param upstreams URI RMI des serveurs amont, par ordre de priorité
+     * @param failoverMillis délai sans serveur amont joignable avant la promotion
+     * @param promote promotion du serveur en primaire, avec son mandat
+     */
+    Replicator(CentralizedLinda space, List<String> upstreams, long failoverMillis, LongConsumer promote) {
+        this.replica = new Replica(space);
+        this.upstreams = upstreams;
+        this.failoverMillis = failoverMillis;
+        this.promote = promote;
+    }
+
+    @Override
+    public void run() {
+        long unreachableSince = 0;
+        while (!this.stopped) {
+            if (this.primary == null) {
+                if (this.connect()) {
+                    unreachableSince = 0;
+                } else {
+                    long now = System.currentTimeMillis();
+                    if (unreachableSince == 0) {
+                        unreachableSince = now;
+                    } else if (now - unreachableSince >= this.failoverMillis && !this.anyReachable()) {
+                        // Un primaire seulement injoignable d'ici (partition) accepte encore des écritures :
+                        // deux primaires coexistent jusqu'à ce que l'ancien, de mandat inférieur, soit vu par un
+                        // secours ou par un client ReplicatedLinda et redevienne secours en perdant ses écritures
+                        this.stopped = true;
+                        this.promote.accept(this.term() + 1);
+                        return;
+                    }
+                    sleep(RETRY_MILLIS);
+                }
+                continue;
+            }
+            try {
+                Replication source = (Replication) this.primary;
+                long sent = System.currentTimeMillis();
+                long applied = this.replica.applied();
+                ReplicationLog.Batch batch = applied < 0
+                        ? source.fullState(this.replica.transfer(), this.replica.received(), FULL_RECORDS)
+                        : source.pull(applied, BATCH_RECORDS, POLL_MILLIS);
+                if (this.replica.apply(batch)) {
+                    this.head = batch.getHead();
+                    if (batch.getSeq() >= batch.getHead()) {
+                        // Lot vide : rien de nouveau jusqu'à la réponse ; sinon à jour depuis la demande
+                        this.upToDateAt = batch.getCount() == 0 && !batch.isFull() ? System.currentTimeMillis() : sent;
+                    }
+                }
+            } catch (RemoteException e) {
+                System.err.println("Lost primary " + this.primaryURI + ": " + e);
+                this.primary = null;
+            } catch (IOException e) {
+                System.err.println("Bad replication batch: " + e);
+                this.primary = null;
+            }
+        }
+    }
+
+    /**
+     * Cherche le serveur amont primaire de plus grand mandat (le premier dans l'ordre de priorité à égalité),
+     * et fait redevenir secours les primaires de mandat inférieur
+     * @return vrai si un primaire a été trouvé
+     */
+    private boolean connect() {
+        Replication best = null;
+        String bestURI = null;
+        long bestTerm = -1;
+        Replication[] primaries = new Replication[this.upstreams.size()];
+        long[] terms = new long[primaries.length];
+        for (int i = 0; i < primaries.length; i++) {
+            try {
+                Object server = Naming.lookup(this.upstreams.get(i));
+                if (server instanceof Replication) {
+                    ReplicationStatus status = ((Replication) server).replicationStatus();
+                    this.term = Math.max(this.term, status.getTerm());
+                    if (status.getRole() == ReplicationStatus.Role.PRIMARY) {
+                        primaries[i] = (Replication) server;
+                        terms[i] = status.getTerm();
+                        if (terms[i] > bestTerm) {
+                            best = primaries[i];
+                            bestURI = this.upstreams.get(i);
+                            bestTerm = terms[i];
+                        }
+                    }
+                }
+            } catch (Exception e) {
+                // Injoignable : serveur suivant
+            }
+        }
+        if (best == null) {
+            return false;
+        }
+        for (int i = 0; i < primaries.length; i++) {
+            if (primaries[i] != null && terms[i] < bestTerm) {
+                try {
+                    primaries[i].stepDown(bestTerm, bestURI);
+                } catch (RemoteException e) {
+                    // Injoignable : il sera revu à la prochaine recherche
+                }
+            }
+        }
+        this.primaryURI = bestURI;
+        this.primary = (LindaServer) best;
+        System.out.println("Replicating from " + bestURI);
+        return true;
+    }
+
+    /**
+     * Renvoie le plus grand mandat vu (serveurs amont et lots reçus)
+     * @return le mandat
+     */
+    long term() {
+        return Math.max(this.term, this.replica.term());
+    }
+
+    /**
+     * Renvoie vrai si un serveur amont répond (primaire ou secours, qui sera promu avant nous)
+     */
+    private boolean anyReachable() {
+        for (String uri : this.upstreams) {
+            try {
+                ((Replication) Naming.lookup(uri)).isPrimary();
+                return true;
+            } catch (Exception e) {
+                // Injoignable : serveur suivant
+            }
+        }
+        return false;
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Renvoie le primaire suivi
+     * @return le primaire, null s'il est en cours de recherche
+     */
+    LindaServer primary() {
+        return this.primary;
+    }
+
+    /**
+     * Renvoie l'âge des données de la copie
+     * @return le temps écoulé depuis que la copie a été vue à jour, Long.MAX_VALUE si elle ne l'a jamais été
+     */
+    long stalenessMillis() {
+        long at = this.upToDateAt;
+        return at == 0 ? Long.MAX_VALUE : System.currentTimeMillis() - at;
+    }
+
+    /**
+     * Renvoie l'état de la réplication
+     * @return l'état
+     */
+    ReplicationStatus status() {
+        return new ReplicationStatus(ReplicationStatus.Role.BACKUP, this.term(), this.primaryURI,
+                this.replica.applied(), this.head, this.stalenessMillis());
+    }
+
+    /**
+     * Arrête la réplication (le lot en cours est terminé)
+     */
+    void stop() {
+        this.stopped = true;
+    }
+
+}
@@ -0,0 +1,351 @@
+package linda.server;
+
+import linda.Callback;
+import linda.Executions;
+import linda.Linda;
+import linda.Tuple;
+import linda.TupleCodec;
+
+import java.io.Serializable;
+import java.rmi.RemoteException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.BooleanSupplier;
+import java.util.function.Function;
+
+/**
+ * Client d'un espace de tuples partitionné sur plusieurs serveurs (shards)
+ * Chaque tuple appartient au shard choisi par le hachage d'un champ clé (position fixée à la création) ;
+ * les tuples trop courts pour avoir ce champ sont répartis selon leur arité. Le hachage porte sur l'encodage
+ * du champ (TupleCodec), identique dans toutes les JVM : tous les clients routent un tuple vers le même shard.
+ * Une opération dont le template a une clé concrète (type à encodage canonique) n'est envoyée qu'à son shard.
+ * Sinon (clé joker ou d'un autre type) elle est diffusée : readAll/takeAll interrogent tous les shards en
+ * parallèle, read/take bloquants attendent le premier shard qui répond (les autres attentes sont annulées :
+ * un tuple pris entre-temps est remis dans son shard ; un shard en échec est ignoré si un autre répond), tryRead/tryTake/readN/takeN les parcourent tour à tour.
+ * Un eventRegister diffusé est de même annulé sur les autres shards dès son premier déclenchement.
+ */
+public class ShardedLinda implements Linda {
+
+    /**
+     * Les clients des shards, dans l'ordre des URI (même ordre pour tous les clients)
+     */
+    private final LindaClient[] shards;
+
+    /**
+     * Position du champ clé
+     */
+    private final int keyPosition;
+
+    /**
+     * Exécute les appels diffusés en parallèle
+     */
+    private final Executor fanOut;
+
+    /**
+     * Marque l'enregistrement d'un shard déjà annulé (ou déclenché)
+     */
+    private static final BooleanSupplier CANCELLED = () -> false;
+
+    /**
+     * Premier shard parcouru par le prochain tryRead/tryTake diffusé (répartit les retraits)
+     */
+    private final AtomicInteger next = new AtomicInteger(0);
+
+    /**
+     * Se connecte aux shards
+     * @param keyPosition position du champ dont le hachage choisit le shard
+     * @param shardURIs les URI des serveurs (voir LindaClient), dans le même ordre pour tous les clients
+     */
+    public ShardedLinda(int keyPosition, String... shardURIs) {
+        if (shardURIs.length == 0) {
+            throw new IllegalArgumentException("No shard");
+        }
+        this.keyPosition = keyPosition;
+        this.shards = new LindaClient[shardURIs.length];
+        for (int i = 0; i < shardURIs.length; i++) {
+            this.shards[i] = new LindaClient(shardURIs[i]);
+        }
+        this.fanOut = Executions.executor(2 * shardURIs.length, "linda-shard");
+    }
+
+    /**
+     * Renvoie le nombre de shards
+     * @return le nombre de shards
+     */
+    public int shardCount() {
+        return this.shards.length;
+    }
+
+    /**
+     * Renvoie le shard d'un tuple
+     * @param t le tuple
+     * @return l'indice du shard
+     */
+    public int shardOf(Tuple t) {
+        if (t.size() <= this.keyPosition) {
+            return Math.floorMod(t.size(), this.shards.length);
+        }
+        byte[] key = TupleCodec.encode(new Tuple(t.get(this.keyPosition)));
+        return Math.floorMod(Arrays.hashCode(key), this.shards.length);
+    }
+
+    /**
+     * Renvoie le seul shard qui peut contenir les tuples correspondant au template
+     * @param template le template
+     * @return l'indice du shard, -1 si tous les shards peuvent en contenir
+     */
+    private int route(Tuple template) {
+        if (template.size() <= this.keyPosition) {
+            return this.shardOf(template);
+        }
+        Serializable key = template.get(this.keyPosition);
+        if (key instanceof Class || !TupleCodec.isCanonical(key)) {
+            return -1;
+        }
+        return this.shardOf(template);
+    }
+
+    @Override
+    public void write(Tuple t) {
+        this.shards[this.shardOf(t)].write(t);
+    }
+
+    @Override
+    public void writeAll(Collection<Tuple> tuples) {
+        List<List<Tuple>> groups = new ArrayList<>(this.shards.length);
+        for (int i = 0; i < this.shards.length; i++) {
+            groups.add(new ArrayList<>());
+        }
+        for (Tuple t : tuples) {
+            groups.get(this.shardOf(t)).add(t);
+        }
+        this.all(i -> {
+            if (!groups.get(i).isEmpty()) {
+                this.shards[i].writeAll(groups.get(i));
+            }
+            return null;
+        });
+    }
+
+    @Override
+    public Tuple take(Tuple template) {
+        int shard = this.route(template);
+        if (shard >= 0) {
+            return this.shards[shard].take(template);
+        }
+        return this.first(eventMode.TAKE, i -> this.shards[i].takeAsync(template));
+    }
+
+    @Override
+    public Tuple read(Tuple template) {
+        int shard = this.route(template);
+        if (shard >= 0) {
+            return this.shards[shard].read(template);
+        }
+        return this.first(eventMode.READ, i -> this.shards[i].readAsync(template));
+    }
+
+    @Override
+    public Tuple tryTake(Tuple template) {
+        int shard = this.route(template);
+        if (shard >= 0) {
+            return this.shards[shard].tryTake(template);
+        }
+        int start = this.next.getAndIncrement();
+        for (int k = 0; k < this.shards.length; k++) {
+            Tuple t = this.shards[Math.floorMod(start + k, this.shards.length)].tryTake(template);
+            if (t != null) {
+                return t;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public Tuple tryRead(Tuple template) {
+        int shard = this.route(template);
+        if (shard >= 0) {
+            return this.shards[shard].tryRead(template);
+        }
+        int start = this.next.getAndIncrement();
+        for (int k = 0; k < this.shards.length; k++) {
+            Tuple t = this.shards[Math.floorMod(start + k, this.shards.length)].tryRead(template);
+            if (t != null) {
+                return t;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public Collection<Tuple> takeAll(Tuple template) {
+        int shard = this.route(template);
+        if (shard >= 0) {
+            return this.shards[shard].takeAll(template);
+        }
+        return this.concat(this.all(i -> this.shards[i].takeAll(template)));
+    }
+
+    @Override
+    public Collection<Tuple> readAll(Tuple template) {
+        int shard = this.route(template);
+        if (shard >= 0) {
+            return this.shards[shard].readAll(template);
+        }
+        return this.concat(this.all(i -> this.shards[i].readAll(template)));
+    }
+
+    @Override
+    public Collection<Tuple> takeN(Tuple template, int n) {
+        int shard = this.route(template);
+        if (shard >= 0) {
+            return this.shards[shard].takeN(template, n);
+        }
+        // Tour à tour, pour ne pas retirer plus de n tuples au total
+        Collection<Tuple> result = new ArrayList<>();
+        for (int k = 0; k < this.shards.length && result.size() < n; k++) {
+            Collection<Tuple> taken = this.shards[k].takeN(template, n - result.size());
+            if (taken != null) {
+                result.addAll(taken);
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public Collection<Tuple> readN(Tuple template, int n) {
+        int shard = this.route(template);
+        if (shard >= 0) {
+            return this.shards[shard].readN(template, n);
+        }
+        Collection<Tuple> result = new ArrayList<>();
+        for (int k = 0; k < this.shards.length && result.size() < n; k++) {
+            Collection<Tuple> read = this.shards[k].readN(template, n - result.size());
+            if (read != null) {
+                result.addAll(read);
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public void eventRegister(eventMode mode, eventTiming timing, Tuple template, Callback callback) {
+        int shard = this.route(template);
+        if (shard >= 0) {
+            this.shards[shard].eventRegister(mode, timing, template, callback);
+            return;
+        }
+        // Enregistré sur tous les shards : le premier déclenchement est transmis et annule les autres
+        // enregistrements ; un tuple pris malgré tout par un autre shard est remis dans son shard
+        AtomicBoolean fired = new AtomicBoolean(false);
+        AtomicReferenceArray<BooleanSupplier> registrations = new AtomicReferenceArray<>(this.shards.length);
+        for (int i = 0; i < this.shards.length; i++) {
+            final int index = i;
+            LindaClient client = this.shards[i];
+            Callback first = t -> {
+                if (fired.compareAndSet(false, true)) {
+                    registrations.set(index, CANCELLED);
+                    this.fanOut.execute(() -> {
+                        for (int k = 0; k < registrations.length(); k++) {
+                            BooleanSupplier cancel = registrations.getAndSet(k, CANCELLED);
+                            if (cancel != null && cancel != CANCELLED) {
+                                cancel.getAsBoolean();
+                            }
+                        }
+                    });
+                    callback.call(t);
+                } else if (mode == eventMode.TAKE) {
+                    client.write(t);
+                }
+            };
+            try {
+                BooleanSupplier cancel = client.eventRegisterCancellable(mode, timing, template, first);
+                // Déjà déclenché sur un autre shard : l'enregistrement arrive trop tard
+                if (!registrations.compareAndSet(index, null, cancel)) {
+                    cancel.getAsBoolean();
+                }
+            } catch (RemoteException e) {
+                System.err.println(e);
+            }
+        }
+    }
+
+    @Override
+    public void debug(String prefix) {
+        for (int i = 0; i < this.shards.length; i++) {
+            this.shards[i].debug(prefix + "[shard " + i + "]");
+        }
+    }
+
+    /**
+     * Appelle une opération sur tous les shards en parallèle et attend tous les résultats
+     * @param call l'opération, selon l'indice du shard
+     * @return les résultats, dans l'ordre des shards
+     */
+    private <T> List<T> all(Function<Integer, T> call) {
+        List<CompletableFuture<T>> futures = new ArrayList<>(this.shards.length);
+        for (int i = 0; i < this.shards.length; i++) {
+            final int shard = i;
+            futures.add(CompletableFuture.supplyAsync(() -> call.apply(shard), this.fanOut));
+        }
+        List<T> results = new ArrayList<>(futures.size());
+        for (CompletableFuture<T> future : futures) {
+            results.add(future.join());
+        }
+        return results;
+    }
+
+    /**
+     * Lance une attente sur tous les shards et renvoie le premier tuple obtenu
+     * Les autres attentes sont annulées, sur leur shard aussi (un take annulé remet son tuple dans l'espace, voir LindaClient) ;
+     * un take terminé malgré tout, trop tard pour être le premier, remet son tuple dans son shard.
+     * Un shard en échec est ignoré tant qu'un autre peut encore répondre.
+     * @param mode read ou take
+     * @param call l'attente asynchrone, selon l'indice du shard
+     * @return le premier tuple obtenu
+     */
+    private Tuple first(eventMode mode, Function<Integer, CompletableFuture<Tuple>> call) {
+        CompletableFuture<Tuple> winner = new CompletableFuture<>();
+        AtomicInteger failures = new AtomicInteger(0);
+        List<CompletableFuture<Tuple>> futures = new ArrayList<>(this.shards.length);
+        for (int i = 0; i < this.shards.length; i++) {
+            LindaClient shard = this.shards[i];
+            CompletableFuture<Tuple> future = call.apply(i);
+            futures.add(future);
+            future.whenComplete((t, e) -> {
+                if (e == null) {
+                    if (!winner.complete(t) && mode == eventMode.TAKE) {
+                        shard.write(t);
+                    }
+                } else if (failures.incrementAndGet() == this.shards.length) {
+                    winner.completeExceptionally(e);
+                }
+            });
+        }
+        try {
+            return winner.join();
+        } finally {
+            for (CompletableFuture<Tuple> future : futures) {
+                future.cancel(false);
+            }
+        }
+    }
+
+    private Collection<Tuple> concat(List<Collection<Tuple>> parts) {
+        Collection<Tuple> result = new ArrayList<>();
+        for (Collection<Tuple> part : parts) {
+            if (part != null) {
+                result.addAll(part);
+            }
+        }
+        return result;
+    }
+
+}
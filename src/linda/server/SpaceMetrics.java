@@ -0,0 +1,129 @@
+package linda.server;
+
+import linda.CallbackDispatcher;
+import linda.shm.CentralizedLinda;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * Métriques d'un espace : compteurs et histogrammes de durée par opération, état de l'espace
+ * L'enregistrement d'une mesure n'alloue rien et ne prend aucun verrou (voir LatencyHistogram) ;
+ * l'état de l'espace (tuples, attentes, file du notifier) est lu à la demande.
+ */
+class SpaceMetrics implements SpaceMetricsMXBean {
+
+    /**
+     * Opérations mesurées
+     */
+    enum Op {
+        WRITE("write"), WRITE_ALL("writeAll"), TAKE("take"), READ("read"), TRY_TAKE("tryTake"), TRY_READ("tryRead"),
+        TAKE_ALL("takeAll"), READ_ALL("readAll"), TAKE_N("takeN"), READ_N("readN"), EVENT_REGISTER("eventRegister"),
+        WAIT_EVENT("waitEvent"), RENEW("renew");
+
+        private final String label;
+
+        Op(String label) {
+            this.label = label;
+        }
+    }
+
+    private static final Op[] OPS = Op.values();
+
+    private final CentralizedLinda space;
+    private final CallbackDispatcher notifier;
+    private final Supplier<ReplicationStatus> replication;
+    private final LatencyHistogram[] operations = new LatencyHistogram[OPS.length];
+    private final LatencyHistogram dispatchLag = new LatencyHistogram();
+
+    /**
+     * Crée les métriques d'un espace
+     * @param space l'espace
+     * @param notifier le notifier qui pousse les événements aux clients
+     * @param replication l'état de réplication du serveur, null pour un espace non répliqué
+     */
+    SpaceMetrics(CentralizedLinda space, CallbackDispatcher notifier, Supplier<ReplicationStatus> replication) {
+        this.space = space;
+        this.notifier = notifier;
+        this.replication = replication;
+        for (int i = 0; i < OPS.length; i++) {
+            this.operations[i] = new LatencyHistogram();
+        }
+    }
+
+    /**
+     * Enregistre une opération terminée
+     * @param op l'opération
+     * @param start instant du début (System.nanoTime)
+     */
+    void record(Op op, long start) {
+        this.operations[op.ordinal()].record(System.nanoTime() - start);
+    }
+
+    /**
+     * Enregistre l'envoi d'une notification
+     * @param fired instant du déclenchement de l'événement (System.nanoTime)
+     */
+    void recordDispatch(long fired) {
+        this.dispatchLag.record(System.nanoTime() - fired);
+    }
+
+    @Override
+    public Map<String, OperationStats> getOperations() {
+        Map<String, OperationStats> result = new LinkedHashMap<>();
+        for (Op op : OPS) {
+            result.put(op.label, this.operations[op.ordinal()].stats());
+        }
+        return result;
+    }
+
+    @Override
+    public OperationStats getCallbackDispatchLag() {
+        return this.dispatchLag.stats();
+    }
+
+    @Override
+    public int getTupleCount() {
+        return this.space.size();
+    }
+
+    @Override
+    public int getPendingReads() {
+        return this.space.pendingReads();
+    }
+
+    @Override
+    public int getPendingTakes() {
+        return this.space.pendingTakes();
+    }
+
+    @Override
+    public int getNotifierQueueDepth() {
+        return this.notifier.queueDepth();
+    }
+
+    @Override
+    public long getNotifierCallerRuns() {
+        return this.notifier.callerRuns();
+    }
+
+    @Override
+    public long getReplicationLagRecords() {
+        return this.replication == null ? 0 : this.replication.get().getLagRecords();
+    }
+
+    @Override
+    public long getReplicationLagMillis() {
+        return this.replication == null ? 0 : this.replication.get().getStalenessMillis();
+    }
+
+    @Override
+    public void reset() {
+        for (LatencyHistogram h : this.operations) {
+            h.reset();
+        }
+        this.dispatchLag.reset();
+    }
+
+}
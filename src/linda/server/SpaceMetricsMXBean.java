@@ -0,0 +1,68 @@
+package linda.server;
+
+import java.util.Map;
+
+/**
+ * Métriques d'un espace d'un serveur Linda, publiées en JMX (jconsole, jmc...) sous le nom
+ * linda:type=Space,server=...,space=... (voir LindaServerImpl.registerMBeans)
+ * Les durées sont mesurées côté serveur, de la réception de l'appel à la réponse : elles comprennent l'attente
+ * des opérations bloquantes (take, read, waitEvent) et le transfert vers le primaire des lectures d'un secours.
+ */
+public interface SpaceMetricsMXBean {
+
+    /**
+     * Renvoie les statistiques de chaque opération, par nom (write, take, tryRead, eventRegister...)
+     * @return les statistiques depuis le démarrage ou la dernière remise à zéro
+     */
+    Map<String, OperationStats> getOperations();
+
+    /**
+     * Renvoie le retard des callbacks distants : du déclenchement d'un événement à l'envoi de la notification
+     * au client par le notifier
+     * @return les statistiques du retard
+     */
+    OperationStats getCallbackDispatchLag();
+
+    /**
+     * Renvoie le nombre de tuples de l'espace
+     */
+    int getTupleCount();
+
+    /**
+     * Renvoie le nombre d'attentes read en cours (read bloquants et événements read enregistrés)
+     */
+    int getPendingReads();
+
+    /**
+     * Renvoie le nombre d'attentes take en cours (take bloquants et événements take enregistrés)
+     */
+    int getPendingTakes();
+
+    /**
+     * Renvoie le nombre de notifications en attente d'envoi aux clients (tous les espaces du serveur)
+     */
+    int getNotifierQueueDepth();
+
+    /**
+     * Renvoie le nombre de notifications envoyées par l'écrivain lui-même, la file du notifier étant pleine
+     */
+    long getNotifierCallerRuns();
+
+    /**
+     * Renvoie le retard de réplication d'un secours, en enregistrements du journal du primaire
+     * (0 pour un primaire, un serveur sans réplication ou un espace nommé, qui n'est pas répliqué)
+     */
+    long getReplicationLagRecords();
+
+    /**
+     * Renvoie le retard de réplication d'un secours, en temps : l'âge des données qu'il sert
+     * (Long.MAX_VALUE tant que sa copie n'a jamais été à jour ; 0 quand l'espace n'est pas un secours)
+     */
+    long getReplicationLagMillis();
+
+    /**
+     * Remet les statistiques des opérations et du retard des callbacks à zéro
+     */
+    void reset();
+
+}
@@ -1,10 +1,13 @@
 package linda.server;
 
+import java.lang.management.ManagementFactory;
 import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.rmi.Naming;
 import java.rmi.RemoteException;
 import java.rmi.registry.LocateRegistry;
+import java.util.Arrays;
+import java.util.List;
 
 /** Création d'un serveur de nom intégré et d'un objet accessible à distance.
  *  Si la création du serveur de nom échoue, on suppose qu'il existe déjà (rmiregistry) et on continue. */
@@ -18,30 +21,127 @@ public class StartServer {
      * Port de l'URI RMI
      */
     private static final int SERVER_PORT = 4000;
+    /**
+     * Nom de l'objet dans le serveur de noms
+     */
+    private static final String SERVER_NAME = "LindaServer";
+
+    /**
+     * Affiche les options et les propriétés système du serveur, puis termine
+     */
+    private static void usage() {
+        System.err.println(String.join(System.lineSeparator(),
+                "Usage: java StartServer [--port port] [--name name] [--primary | --backup-of uri[,uri...]]"
+                        + " [filepath | --wal directory | --snapshot directory]",
+                "",
+                "  --port port          RMI registry port (default " + SERVER_PORT + "), NIO transport on port + 1",
+                "  --name name          RMI name, the server is bound as rmi://localhost:port/name (default " + SERVER_NAME + ")",
+                "  filepath             load the tuples at startup, save them on shutdown (CTRL+C)",
+                "  --wal directory      log every operation (WriteAheadLog), replayed at startup",
+                "  --snapshot directory restore the latest snapshot (IncrementalSnapshots), then take one periodically,",
+                "                       on demand (LindaServer.snapshot) and on shutdown; the full snapshot loads in the",
+                "                       background while requests are served",
+                "  --primary            keep a log of the changes for backup servers",
+                "  --backup-of uris     start empty and follow the primary (RMI URI of the primary, then of the",
+                "                       preferred backups); take over when no upstream answers (see ReplicatedLinda)",
+                "",
+                "Named spaces are created on first use and addressed by appending their name to the URI",
+                "(rmi://localhost:4000/LindaServer/jobs, nio://localhost:4001/jobs). Persistence and replication only",
+                "apply to the default space; named spaces are read-only on a backup.",
+                "Metrics are published in JMX as linda:type=Space,server=name,space=... (see SpaceMetricsMXBean).",
+                "",
+                "System properties:",
+                "  linda.store=heap|offheap          tuple storage (see TupleStore); offheap keeps the tuples encoded",
+                "                                    in direct memory, bounded by -XX:MaxDirectMemorySize",
+                "                                    (default: the maximum heap size)",
+                "  linda.execution=thread|virtual|pool:N  threads running callbacks and notifications (see Executions)",
+                "  linda.spaces.max                  maximum number of named spaces (default 1024)",
+                "  linda.lease.tick                  ms per tick of the lease expiry wheel (default 10)",
+                "  linda.nio.maxQueued               bytes of requests queued per NIO connection before it is closed",
+                "                                    (default 1073741824)",
+                "  linda.wal.syncInterval            ms between log fsyncs (default 10)",
+                "  linda.wal.syncWrites              fsync before acknowledging each write (default false)",
+                "  linda.wal.checkpointInterval      ms between log checkpoints (default 60000)",
+                "  linda.snapshot.interval           ms between incremental snapshots (default 60000)",
+                "  linda.replication.logSize         changes kept for the backups (default 100000)",
+                "  linda.replication.maxStaleness    ms a backup serves reads behind the primary (default 1000)",
+                "  linda.replication.failover        ms without upstream before a backup takes over (default 3000)"));
+        System.exit(1);
+    }
 
     public static void main (String args[]) throws Exception {
+        // Gérer les arguments en ligne de commande
+        int port = SERVER_PORT;
+        String name = SERVER_NAME;
+        String path = null;
+        boolean walOption = false;
+        boolean snapshotOption = false;
+        boolean primary = false;
+        List<String> upstreams = null;
+        for (int i = 0; i < args.length; i++) {
+            boolean hasValue = i + 1 < args.length;
+            if (args[i].equals("--help")) {
+                usage();
+            } else if (args[i].equals("--port") && hasValue) {
+                port = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("--name") && hasValue) {
+                name = args[++i];
+            } else if (args[i].equals("--primary") && upstreams == null) {
+                primary = true;
+            } else if (args[i].equals("--backup-of") && hasValue && !primary) {
+                upstreams = Arrays.asList(args[++i].split(","));
+            } else if (path != null) {
+                // Un seul fichier ou répertoire
+                usage();
+            } else if ((args[i].equals("--wal") || args[i].equals("--snapshot")) && hasValue) {
+                walOption = args[i].equals("--wal");
+                snapshotOption = !walOption;
+                path = args[++i];
+            } else if (args[i].startsWith("--")) {
+                usage();
+            } else {
+                path = args[i];
+            }
+        }
+        final boolean wal = walOption;
+        final boolean snapshots = snapshotOption;
+        final String filePath = wal || snapshots ? null : path;
+        final int nioPort = port + 1;
+
         // Création du serveur de noms
         try {
-            LocateRegistry.createRegistry(SERVER_PORT);
+            LocateRegistry.createRegistry(port);
         } catch (java.rmi.server.ExportException e) {
             System.out.println("A registry is already running, proceeding...");
         }
 
         // Créer le serveur linda
-        LindaServer lindaServer = new LindaServerImpl();
+        LindaServerImpl lindaServerImpl = new LindaServerImpl();
+        LindaServer lindaServer = lindaServerImpl;
 
-        // Si plus d'un argument, erreur
-        if (args.length > 1) {
-            System.err.println("Usage: java StartServer [filepath]");
-            System.exit(1);
+        // Rejouer le journal puis journaliser les opérations suivantes
+        if (wal) {
+            System.out.println("Replaying write-ahead log from " + path + "...");
+            lindaServerImpl.enableWriteAheadLog(Paths.get(path),
+                    Long.getLong("linda.wal.syncInterval", 10),
+                    Boolean.getBoolean("linda.wal.syncWrites"),
+                    Long.getLong("linda.wal.checkpointInterval", 60000));
+            System.out.println("Write-ahead log replayed.");
         }
 
-        // Gérer l'argument en ligne de commande
-        final String filePath;
-        if (args.length == 1) {
-            filePath = args[0];
-        } else {
-            filePath = null;
+        // Restaurer le dernier instantané puis en prendre régulièrement
+        if (snapshots) {
+            System.out.println("Restoring snapshot from " + path + "...");
+            lindaServerImpl.enableSnapshots(Paths.get(path), Long.getLong("linda.snapshot.interval", 60000))
+                    .whenComplete((n, e) -> {
+                        if (e != null) {
+                            System.err.println("Snapshot restore failed: " + e);
+                        } else {
+                            System.out.println(n + " tuples restored after "
+                                    + ManagementFactory.getRuntimeMXBean().getUptime() + " ms.");
+                        }
+                    });
+            System.out.println("Recent changes restored, loading full snapshot in the background...");
         }
 
         // Charger les tuples du fichier (si le fichier existe)
@@ -54,8 +154,24 @@ public class StartServer {
             System.out.println("Tuples loaded.");
         }
 
+        // Réplication : journal pour les secours, ou suivi d'un primaire
+        int logSize = Integer.getInteger("linda.replication.logSize", 100000);
+        if (primary) {
+            lindaServerImpl.enableReplication(logSize);
+        } else if (upstreams != null) {
+            System.out.println("Backup of " + upstreams + "...");
+            lindaServerImpl.replicateFrom(upstreams, Long.getLong("linda.replication.maxStaleness", 1000),
+                    Long.getLong("linda.replication.failover", 3000), logSize);
+        }
+
+        // Métriques en JMX
+        lindaServerImpl.registerMBeans(name);
+
         // Enregistrement de linda dans le serveur de nom
-        Naming.rebind("rmi://" + SERVER_HOST + ":" + SERVER_PORT + "/LindaServer", lindaServer);
+        Naming.rebind("rmi://" + SERVER_HOST + ":" + port + "/" + name, lindaServer);
+
+        // Transport NIO sur le même espace de tuples
+        new NioLindaServer(lindaServer, nioPort).start();
 
         // Intercepter CTRL+C pour sauvegarder les tuples dans le fichier
         Runtime.getRuntime().addShutdownHook(new Thread() {
@@ -72,12 +188,23 @@ public class StartServer {
                     System.out.println("Tuples saved.");
                 }
 
+                // Vider le journal
+                if (wal) {
+                    lindaServerImpl.closeWriteAheadLog();
+                }
+
+                // Dernier instantané
+                if (snapshots) {
+                    lindaServerImpl.closeSnapshots();
+                }
+
                 Runtime.getRuntime().halt(0);
             }
         });
 
         // Service prêt : attente d'appels
-        System.out.println("The system is ready on port: " + SERVER_PORT + ".");
+        System.out.println("The system is ready on port: " + port + " (RMI) and " + nioPort + " (NIO)"
+                + ", accepting requests after " + ManagementFactory.getRuntimeMXBean().getUptime() + " ms.");
     }
 
 }
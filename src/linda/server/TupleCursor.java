@@ -0,0 +1,91 @@
+package linda.server;
+
+import linda.Tuple;
+
+import java.rmi.RemoteException;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Curseur client sur un résultat paginé par le serveur (voir LindaServer.openCursor)
+ * Les tuples sont demandés par paquets au fur et à mesure du parcours
+ */
+public class TupleCursor implements Iterator<Tuple>, AutoCloseable {
+
+    /**
+     * Le serveur qui détient le curseur
+     */
+    private final LindaServer lindaServer;
+
+    /**
+     * Identifiant du curseur côté serveur
+     */
+    private final long cursor;
+
+    /**
+     * Taille des paquets demandés
+     */
+    private final int chunkSize;
+
+    /**
+     * Paquet en cours de parcours
+     */
+    private Iterator<Tuple> chunk = Collections.emptyIterator();
+
+    /**
+     * Vrai quand le serveur a renvoyé un paquet vide (ou que le curseur a été fermé)
+     */
+    private boolean exhausted = false;
+
+    /**
+     * Crée un curseur client
+     * @param lindaServer le serveur qui détient le curseur
+     * @param cursor identifiant du curseur côté serveur
+     * @param chunkSize taille des paquets demandés
+     */
+    TupleCursor(LindaServer lindaServer, long cursor, int chunkSize) {
+        this.lindaServer = lindaServer;
+        this.cursor = cursor;
+        this.chunkSize = chunkSize;
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (!this.chunk.hasNext() && !this.exhausted) {
+            try {
+                this.chunk = this.lindaServer.nextChunk(this.cursor, this.chunkSize).iterator();
+            } catch (RemoteException e) {
+                System.err.println(e);
+                this.chunk = Collections.emptyIterator();
+            }
+            this.exhausted = !this.chunk.hasNext();
+        }
+        return this.chunk.hasNext();
+    }
+
+    @Override
+    public Tuple next() {
+        if (!this.hasNext()) {
+            throw new NoSuchElementException();
+        }
+        return this.chunk.next();
+    }
+
+    /**
+     * Ferme le curseur côté serveur (inutile s'il a été parcouru jusqu'au bout)
+     */
+    @Override
+    public void close() {
+        if (!this.exhausted) {
+            this.exhausted = true;
+            this.chunk = Collections.emptyIterator();
+            try {
+                this.lindaServer.closeCursor(this.cursor);
+            } catch (RemoteException e) {
+                System.err.println(e);
+            }
+        }
+    }
+
+}
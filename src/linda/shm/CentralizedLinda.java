@@ -1,114 +1,251 @@
 package linda.shm;
 
+import linda.AsyncLinda;
 import linda.Callback;
+import linda.CallbackDispatcher;
+import linda.LeasedLinda;
 import linda.Linda;
 import linda.Tuple;
+import linda.shm.EventRegistry.Event;
 
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CopyOnWriteArrayList;
 
 /**
  * Shared memory implementation of Linda.
+ * Les tuples sont copiés (deepclone) à l'écriture et à la lecture, sauf les tuples gelés
+ * (Tuple.freeze) qui sont partagés tels quels entre l'espace, les callbacks et les appelants.
+ * Les callbacks enregistrés par eventRegister sont appelés par l'écrivain, ou par un CallbackDispatcher
+ * si on en fournit un (nombre de threads et file bornés).
+ * Les tuples écrits avec une durée de vie expirent sans parcours de l'espace (voir Leases).
  */
-public class CentralizedLinda implements Linda {
+public class CentralizedLinda implements Linda, AsyncLinda, LeasedLinda {
 
     /**
-     * Classe interne représentant un couple template / callback
+     * L'espace de tuples
+     * Indexé par arité et par valeur des champs pour éviter de parcourir tout l'espace
+     * Gère l'accès concurrent
      */
-    private class Event {
-        /**
-         * Template recherché par le callback
-         */
-        private final Tuple template;
+    private volatile TupleStore tuples;
 
-        /**
-         * Callback à appeler
-         */
-        private final Callback callback;
+    /**
+     * Événements de lecture
+     * Indexés par forme de template : une écriture ne teste que les événements compatibles
+     */
+    private EventRegistry readEvents;
 
-        /**
-         * Crée un event
-         * @param template le template de tuple à rechercher
-         * @param callback le callback à appeler quand on aura trouvé un tuple
-         */
-        public Event(Tuple template, Callback callback) {
-            this.template = template;
-            this.callback = callback;
-        }
+    /**
+     * Événements de retirage (mot inventé)
+     * Servis dans l'ordre d'enregistrement
+     */
+    private EventRegistry takeEvents;
 
-        /**
-         * Renvoie vrai quand tuple correspond au motif recherché a été trouvé
-         * @param tuple le tuple dont on cherche la correspondance
-         * @return vrai quand tuple correspond au motif recherché a été trouvé
-         */
-        public boolean isMatching(Tuple tuple) {
-            return tuple.matches(this.template);
+    /**
+     * Distribue les callbacks des utilisateurs, null pour les appeler dans le thread de l'écrivain
+     */
+    private final CallbackDispatcher dispatcher;
+
+    /**
+     * Observateurs des ajouts et retraits de l'espace
+     */
+    private final List<SpaceObserver> observers = new CopyOnWriteArrayList<>();
+
+    /**
+     * Baux des tuples écrits avec une durée de vie, null tant qu'aucun ne l'a été
+     */
+    private volatile Leases leases;
+
+    /**
+     * Crée un Linda centralisé
+     */
+    public CentralizedLinda() {
+        this(null);
+    }
+
+    /**
+     * Crée un Linda centralisé dont les callbacks sont distribués par un dispatcher
+     * @param dispatcher le dispatcher, null pour appeler les callbacks dans le thread de l'écrivain
+     */
+    public CentralizedLinda(CallbackDispatcher dispatcher) {
+        this.tuples = TupleStore.create();
+        this.readEvents = new EventRegistry();
+        this.takeEvents = new EventRegistry();
+        this.dispatcher = dispatcher;
+    }
+
+    @Override
+    public void write(Tuple t) {
+        this.write(t, true, 0);
+    }
+
+    @Override
+    public long write(Tuple t, long ttlMillis) {
+        if (ttlMillis <= 0) {
+            throw new IllegalArgumentException("Time-to-live must be positive: " + ttlMillis);
         }
+        return this.write(t, true, ttlMillis);
+    }
+
+    @Override
+    public boolean renew(long lease, long ttlMillis) {
+        Leases current = this.leases;
+        return current != null && current.renew(lease, ttlMillis);
+    }
 
-        /**
-         * Appelle le callback
-         * @param t le tuple à envoyer au callback
-         */
-        public void call(Tuple t) {
-            this.callback.call(t);
+    /**
+     * Renvoie les baux de l'espace, créés au premier tuple écrit avec une durée de vie
+     * @return les baux
+     */
+    private Leases leases() {
+        Leases current = this.leases;
+        if (current == null) {
+            synchronized (this.observers) {
+                current = this.leases;
+                if (current == null) {
+                    current = new Leases(this);
+                    this.observers.add(current);
+                    this.leases = current;
+                }
+            }
         }
+        return current;
     }
 
     /**
-     * L'espace de tuples
-     * Version thread-safe de l'ArrayList
-     * Gère l'accès concurrent
+     * Ajoute un tuple restauré depuis un instantané, sans prévenir les observateurs (il est déjà persisté)
+     * Les callbacks en attente sont déclenchés comme pour write
+     * @param t le tuple restauré (stocké sans copie)
      */
-    private Collection<Tuple> tuples;
+    void writeRestored(Tuple t) {
+        this.write(t, false, 0);
+    }
 
     /**
-     * Événements de lecture
+     * Ajoute un tuple répliqué depuis un serveur primaire, sous l'identifiant qu'il y a reçu
+     * Les observateurs sont prévenus ; les callbacks en attente ne sont pas déclenchés (le primaire l'a fait)
+     * @param id identifiant de l'entrée sur le primaire
+     * @param t le tuple répliqué (stocké sans copie)
      */
-    private Collection<Event> readEvents;
+    void writeReplicated(long id, Tuple t) {
+        TupleStore.reserve(id);
+        for (SpaceObserver observer : this.observers) {
+            observer.written(id, t);
+        }
+        this.tuples.add(t, id);
+    }
 
     /**
-     * Événements de retirage (mot inventé)
+     * Retire un tuple répliqué, retiré du serveur primaire
+     * @param id identifiant de l'entrée
+     * @param t le tuple de l'entrée
+     * @return vrai si l'entrée était dans l'espace
      */
-    private Collection<Event> takeEvents;
+    boolean takeReplicated(long id, Tuple t) {
+        return this.removeEntry(id, t);
+    }
 
     /**
-     * Crée un Linda centralisé
+     * Retire une entrée désignée par son identifiant (tuple répliqué ou expiré), en prévenant les observateurs
+     * @param id identifiant de l'entrée
+     * @param t le tuple de l'entrée
+     * @return vrai si l'entrée était dans l'espace
      */
-    public CentralizedLinda() {
-        this.tuples = new CopyOnWriteArrayList<>();
-        this.readEvents = new CopyOnWriteArrayList<>();
-        this.takeEvents = new CopyOnWriteArrayList<>();
+    boolean removeEntry(long id, Tuple t) {
+        TupleStore.Entry entry = this.tuples.removeEntry(t, id);
+        if (entry == null) {
+            return false;
+        }
+        for (SpaceObserver observer : this.observers) {
+            observer.taken(entry.getId(), entry.getTuple());
+        }
+        return true;
     }
 
-    @Override
-    public void write(Tuple t) {
+    /**
+     * Écrit un tuple
+     * @param t le tuple
+     * @param observed vrai pour prévenir les observateurs de l'ajout (faux pour un tuple restauré, stocké sans copie)
+     * @param ttlMillis durée de vie du tuple, 0 pour un tuple sans bail
+     * @return l'identifiant du tuple stocké, NO_LEASE s'il a été donné à un take en attente
+     */
+    private long write(Tuple t, boolean observed, long ttlMillis) {
         // Appelle et retirer les callbacks read en priorité
-        for (Event readEvent : this.readEvents) {
-            if (readEvent.isMatching(t)) {
-                this.readEvents.remove(readEvent);
-                readEvent.call(t.deepclone());
-            }
+        for (Event readEvent : this.readEvents.pollAllMatching(t)) {
+            this.deliver(readEvent, t.deepclone());
         }
 
-        // Appelle et retire au plus un callback take en attente
-        for (Event takeEvent : this.takeEvents) {
-            if (takeEvent.isMatching(t)) {
-                this.takeEvents.remove(takeEvent);
-                takeEvent.call(t.deepclone());
-                return; // si un take a été fait, on quitte la fonction, pas d'écriture
+        // Appelle et retire au plus un callback take en attente (le plus ancien)
+        Event takeEvent = this.takeEvents.pollFirstMatching(t);
+        if (takeEvent != null) {
+            if (!this.deliver(takeEvent, t.deepclone())) {
+                // Callback take abandonné (file du dispatcher pleine) : le tuple ne doit pas être perdu
+                return this.write(t, observed, ttlMillis);
             }
+            return NO_LEASE; // si un take a été fait, on quitte la fonction, pas d'écriture
         }
 
         // Ajoute le tuple à l'espace partagé (pas de take n'a été fait)
-        this.tuples.add(t.deepclone());
+        // Observateurs prévenus avant que le tuple soit visible : son retrait est toujours signalé après son ajout
+        Tuple stored = observed ? t.deepclone() : t;
+        long id = TupleStore.nextId();
+        if (observed) {
+            for (SpaceObserver observer : this.observers) {
+                observer.written(id, stored);
+            }
+        }
+        // Bail donné avant que le tuple soit visible : son retrait met toujours fin au bail
+        if (ttlMillis > 0) {
+            this.leases().add(id, stored, ttlMillis);
+        }
+        this.tuples.add(stored, id);
+        return id;
+    }
+
+    /**
+     * Ajoute un observateur des ajouts et retraits de l'espace
+     * @param observer l'observateur
+     */
+    public void addObserver(SpaceObserver observer) {
+        this.observers.add(observer);
+    }
+
+    /**
+     * Retire un observateur
+     * @param observer l'observateur
+     */
+    public void removeObserver(SpaceObserver observer) {
+        this.observers.remove(observer);
+    }
+
+    /**
+     * Appelle le callback d'un événement déclenché, directement ou par le dispatcher
+     * @param event l'événement
+     * @param t le tuple à transmettre
+     * @return faux si le dispatcher a abandonné l'appel
+     */
+    private boolean deliver(Event event, Tuple t) {
+        if (this.dispatcher == null || event.isDirect()) {
+            event.call(t);
+            return true;
+        }
+        return this.dispatcher.dispatch(event.getCallback(), t);
+    }
+
+    @Override
+    public void writeAll(Collection<Tuple> tuples) {
+        // Une seule passe : chaque tuple réveille les événements intéressés ou rejoint l'espace
+        for (Tuple t : tuples) {
+            this.write(t);
+        }
     }
 
     @Override
     public Tuple take(Tuple template) {
         // Créer un callback et l'enregister
         LockedCallback lc = new LockedCallback();
-        this.eventRegister(eventMode.TAKE, eventTiming.IMMEDIATE, template, lc);
+        this.register(eventMode.TAKE, eventTiming.IMMEDIATE, template, lc, true);
 
         // Attendre que le callback ait été appelé
         lc.await();
@@ -121,7 +258,7 @@ public class CentralizedLinda implements Linda {
     public Tuple read(Tuple template) {
         // Créer un callback et l'enregister
         LockedCallback lc = new LockedCallback();
-        this.eventRegister(eventMode.READ, eventTiming.IMMEDIATE, template, lc);
+        this.register(eventMode.READ, eventTiming.IMMEDIATE, template, lc, true);
 
         // Attendre que le callback ait été appelé
         lc.await();
@@ -131,49 +268,140 @@ public class CentralizedLinda implements Linda {
     }
 
     @Override
-    public Tuple tryTake(Tuple template) {
-        for (Tuple t : this.tuples) {
-            if (t.matches(template)) {
-                this.tuples.remove(t);
-                return t.deepclone();
-            }
+    public CompletableFuture<Void> writeAsync(Tuple t) {
+        // L'écriture ne bloque jamais en mémoire partagée
+        try {
+            this.write(t);
+            return CompletableFuture.completedFuture(null);
+        } catch (RuntimeException e) {
+            return CompletableFuture.failedFuture(e);
         }
-        return null;
     }
 
     @Override
-    public Tuple tryRead(Tuple template) {
-        for (Tuple t : this.tuples) {
-            if (t.matches(template)) {
-                return t.deepclone();
+    public CompletableFuture<Tuple> takeAsync(Tuple template) {
+        return this.eventAsync(eventMode.TAKE, template);
+    }
+
+    @Override
+    public CompletableFuture<Tuple> readAsync(Tuple template) {
+        return this.eventAsync(eventMode.READ, template);
+    }
+
+    /**
+     * Enregistre un événement qui complète un futur au lieu de réveiller un thread
+     * @param mode read ou take
+     * @param template le template
+     * @return le futur complété avec le tuple trouvé
+     */
+    private CompletableFuture<Tuple> eventAsync(eventMode mode, Tuple template) {
+        CompletableFuture<Tuple> future = new CompletableFuture<>();
+        this.register(mode, eventTiming.IMMEDIATE, template, t -> {
+            // Futur annulé entre-temps : le tuple pris est remis dans l'espace
+            if (!future.complete(t) && mode == eventMode.TAKE) {
+                this.write(t);
             }
+        }, true);
+        return future;
+    }
+
+    @Override
+    public Tuple tryTake(Tuple template) {
+        TupleStore.Entry entry = this.tuples.takeEntry(template);
+        if (entry == null) {
+            return null;
+        }
+        for (SpaceObserver observer : this.observers) {
+            observer.taken(entry.getId(), entry.getTuple());
         }
-        return null;
+        return entry.getTuple().deepclone();
+    }
+
+    @Override
+    public Tuple tryRead(Tuple template) {
+        Tuple t = this.tuples.read(template);
+        return t == null ? null : t.deepclone();
     }
 
     @Override
     public Collection<Tuple> takeAll(Tuple template) {
+        return this.takeN(template, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public Collection<Tuple> readAll(Tuple template) {
+        return this.readN(template, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public Collection<Tuple> takeN(Tuple template, int n) {
+        // Un seul parcours de l'index (des tryTake successifs repartiraient chacun du début)
         Collection<Tuple> result = new ArrayList<>();
-        Tuple tuple;
-        while ((tuple = tryTake(template)) != null) {
-            result.add(tuple); // tryTake() appelle déjà deepclone()
+        for (TupleStore.Entry entry : this.tuples.takeEntries(template, n)) {
+            for (SpaceObserver observer : this.observers) {
+                observer.taken(entry.getId(), entry.getTuple());
+            }
+            result.add(entry.getTuple().deepclone());
         }
         return result;
     }
 
     @Override
-    public Collection<Tuple> readAll(Tuple template) {
+    public Collection<Tuple> readN(Tuple template, int n) {
         Collection<Tuple> result = new ArrayList<>();
-        for (Tuple tuple : this.tuples) {
-            if (tuple.matches(template)) {
-                result.add(tuple.deepclone());
-            }
+        for (Tuple tuple : this.tuples.readN(template, n)) {
+            result.add(tuple.deepclone());
         }
         return result;
     }
 
+    /**
+     * Renvoie un itérateur paresseux sur les tuples correspondant au template (sans les retirer)
+     * Les tuples sont copiés un par un, au fur et à mesure du parcours
+     * Faiblement cohérent, comme readAll
+     * @param template le template
+     * @return un itérateur sur des copies des tuples
+     */
+    public Iterator<Tuple> readIterator(Tuple template) {
+        Iterator<Tuple> it = this.tuples.iterator(template);
+        return new Iterator<Tuple>() {
+            @Override
+            public boolean hasNext() {
+                return it.hasNext();
+            }
+
+            @Override
+            public Tuple next() {
+                return it.next().deepclone();
+            }
+        };
+    }
+
     @Override
     public void eventRegister(eventMode mode, eventTiming timing, Tuple template, Callback callback) {
+        this.register(mode, timing, template, callback, false);
+    }
+
+    /**
+     * Annule un callback enregistré par eventRegister, s'il n'est pas encore déclenché
+     * @param mode read ou take, comme à l'enregistrement
+     * @param template le template de l'enregistrement
+     * @param callback le callback enregistré (comparé par identité)
+     * @return vrai si le callback ne sera pas appelé, faux s'il est déjà déclenché (ou inconnu)
+     */
+    public boolean eventCancel(eventMode mode, Tuple template, Callback callback) {
+        return (mode == eventMode.READ ? this.readEvents : this.takeEvents).cancel(template, callback);
+    }
+
+    /**
+     * Enregistre un callback
+     * @param mode read ou take
+     * @param timing immédiat ou futur
+     * @param template le template
+     * @param callback le callback
+     * @param direct vrai pour un callback interne qui ne bloque jamais (jamais confié au dispatcher)
+     */
+    private void register(eventMode mode, eventTiming timing, Tuple template, Callback callback, boolean direct) {
         // Initialise le tuple potentiellement lu ou pris à null
         Tuple tuple = null;
 
@@ -194,9 +422,9 @@ public class CentralizedLinda implements Linda {
         // Si aucun tuple trouvé ou qu'on est pas en mode immediate, ajouter le callback à la liste idoine
         } else {
             if (mode == eventMode.READ) {
-                this.readEvents.add(new Event(template, callback));
+                this.readEvents.add(new Event(template, callback, direct));
             } else if (mode == eventMode.TAKE) {
-                this.takeEvents.add(new Event(template, callback));
+                this.takeEvents.add(new Event(template, callback, direct));
             }
         }
     }
@@ -209,7 +437,7 @@ public class CentralizedLinda implements Linda {
         try {
             FileOutputStream fileWriter = new FileOutputStream(filePath);
             ObjectOutputStream objectWriter = new ObjectOutputStream(fileWriter);
-            objectWriter.writeObject(this.tuples);
+            objectWriter.writeObject(this.tuples.toList());
             objectWriter.close();
             fileWriter.close();
         } catch (IOException e) {
@@ -224,8 +452,9 @@ public class CentralizedLinda implements Linda {
     public void load(String filePath) {
         try {
             FileInputStream fileReader = new FileInputStream(filePath);
-            ObjectInputStream objectReader = new ObjectInputStream(fileReader);
-            this.tuples = (CopyOnWriteArrayList<Tuple>) objectReader.readObject();
+            // Accepte aussi les anciennes sauvegardes (CopyOnWriteArrayList de tuples sérialisés en version 1)
+            ObjectInputStream objectReader = new LegacyTupleInputStream(fileReader);
+            this.restore((Collection<Tuple>) objectReader.readObject());
             objectReader.close();
             fileReader.close();
         } catch (IOException | ClassNotFoundException e) {
@@ -233,13 +462,70 @@ public class CentralizedLinda implements Linda {
         }
     }
 
+    /**
+     * Remplace tout l'espace de tuples (les callbacks en attente sont conservés)
+     * Les observateurs sont prévenus par reset
+     * @param contents les nouveaux tuples (ajoutés sans copie)
+     */
+    public void restore(Collection<Tuple> contents) {
+        TupleStore loaded = TupleStore.create();
+        for (Tuple t : contents) {
+            loaded.add(t);
+        }
+        this.tuples = loaded;
+        for (SpaceObserver observer : this.observers) {
+            observer.reset();
+        }
+    }
+
+    /**
+     * Renvoie les tuples de l'espace, sans copie (à ne pas modifier)
+     * Faiblement cohérent, comme readAll
+     * @return les tuples de l'espace
+     */
+    public Collection<Tuple> contents() {
+        return this.tuples.toList();
+    }
+
+    /**
+     * Renvoie les entrées de l'espace avec leur identifiant (parcours faiblement cohérent, sans verrou)
+     * @return les entrées de l'espace
+     */
+    List<TupleStore.Entry> entries() {
+        return this.tuples.entries();
+    }
+
+    /**
+     * Renvoie le nombre de tuples de l'espace
+     * @return le nombre de tuples
+     */
+    public int size() {
+        return this.tuples.size();
+    }
+
+    /**
+     * Renvoie le nombre d'événements read en attente (y compris les read bloqués)
+     * @return le nombre d'attentes read
+     */
+    public int pendingReads() {
+        return this.readEvents.size();
+    }
+
+    /**
+     * Renvoie le nombre d'événements take en attente (y compris les take bloqués)
+     * @return le nombre d'attentes take
+     */
+    public int pendingTakes() {
+        return this.takeEvents.size();
+    }
+
     @Override
     public void debug(String prefix) {
         /*System.out.println("####### START DEBUG #######");
 
         System.out.println(prefix);
         System.out.println("TUPLES SPACE ("+this.tuples.size()+")");
-        for (Tuple t : this.tuples) {
+        for (Tuple t : this.tuples.toList()) {
             System.out.println(t);
         }
 
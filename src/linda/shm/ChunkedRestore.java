@@ -0,0 +1,111 @@
+package linda.shm;
+
+import linda.Tuple;
+import linda.shm.SnapshotFile.Record;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Restauration parallèle d'une chaîne d'instantanés (voir IncrementalSnapshots)
+ * Les différentiels (peu de tuples, les plus récents) sont décodés en parallèle puis appliqués dans l'ordre :
+ * leurs tuples sont écrits avant le retour, et l'on garde les identifiants retirés ou réécrits.
+ * Les paquets de l'instantané complet (le gros des tuples, sans doublon) sont ensuite décodés et écrits en
+ * tâche de fond, un paquet par tâche sur tous les cœurs, en sautant ces identifiants : l'espace peut
+ * servir des requêtes pendant ce temps (un tuple pas encore chargé réveille les take et read en attente).
+ */
+final class ChunkedRestore {
+
+    private ChunkedRestore() {
+    }
+
+    /**
+     * Restaure les différentiels, puis lance la restauration de l'instantané complet
+     * @param space l'espace à remplir (les observateurs ne sont pas prévenus)
+     * @param deltas les différentiels qui suivent l'instantané complet, par numéro
+     * @param full l'instantané complet
+     * @return le nombre de tuples restaurés, une fois l'instantané complet chargé
+     * @throws IOException si un différentiel est illisible
+     */
+    static CompletableFuture<Long> restore(CentralizedLinda space, Map<Long, Path> deltas, Path full) throws IOException {
+        ExecutorService pool = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), r -> {
+            Thread thread = new Thread(r, "linda-restore");
+            thread.setDaemon(true);
+            return thread;
+        });
+        AtomicLong restored = new AtomicLong();
+
+        // Différentiels : décodage parallèle, application dans l'ordre
+        List<CompletableFuture<List<Record>>> decoded = new ArrayList<>();
+        for (Path p : deltas.values()) {
+            for (byte[] chunk : SnapshotFile.read(p).chunks) {
+                decoded.add(CompletableFuture.supplyAsync(() -> decode(chunk), pool));
+            }
+        }
+        Map<Long, Tuple> recent = new LinkedHashMap<>();
+        Set<Long> skipped = new HashSet<>();
+        try {
+            for (CompletableFuture<List<Record>> f : decoded) {
+                for (Record r : f.join()) {
+                    skipped.add(r.id);
+                    if (r.op == SnapshotFile.PUT) {
+                        recent.put(r.id, r.tuple);
+                    } else {
+                        recent.remove(r.id);
+                    }
+                }
+            }
+        } catch (CompletionException e) {
+            pool.shutdown();
+            throw new IOException("Cannot restore snapshot", e.getCause());
+        }
+        for (Tuple t : recent.values()) {
+            space.writeRestored(t);
+        }
+        restored.addAndGet(recent.size());
+
+        // Instantané complet : un paquet par tâche, lus au fil de l'eau
+        CompletableFuture<Long> done = CompletableFuture.supplyAsync(() -> {
+            List<CompletableFuture<Void>> loaded = new ArrayList<>();
+            try {
+                SnapshotFile.read(full, chunk -> loaded.add(CompletableFuture.runAsync(() -> {
+                    int n = 0;
+                    for (Record r : decode(chunk)) {
+                        if (r.op == SnapshotFile.PUT && !skipped.contains(r.id)) {
+                            space.writeRestored(r.tuple);
+                            n++;
+                        }
+                    }
+                    restored.addAndGet(n);
+                }, pool)));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return loaded;
+        }, pool).thenCompose(loaded -> CompletableFuture.allOf(loaded.toArray(new CompletableFuture<?>[0])))
+          .thenApply(v -> restored.get());
+        done.whenComplete((n, e) -> pool.shutdown());
+        return done;
+    }
+
+    private static List<Record> decode(byte[] chunk) {
+        try {
+            return SnapshotFile.decode(chunk);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+}
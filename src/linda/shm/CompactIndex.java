@@ -0,0 +1,261 @@
+package linda.shm;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Predicate;
+
+/**
+ * Index compact clé entière -> éléments, pour OffHeapTupleStore
+ * Table à adressage ouvert (sondage linéaire), découpée en segments verrouillés indépendamment : une clé
+ * coûte un entier et une référence, sans objet par entrée. Une clé ayant un seul élément le référence
+ * directement ; au-delà de un, ses éléments sont dans un tableau (Bucket).
+ * Les retraits d'un tableau sont paresseux : l'élément retiré (reconnu par le prédicat removed) reste en
+ * place jusqu'à ce que les retirés soient majoritaires, puis le tableau est recopié sans eux. Un tableau
+ * n'est jamais modifié en place en dessous de son nombre d'éléments : une lecture peut donc le parcourir
+ * hors verrou (ajouts concurrents invisibles, éléments retirés à ignorer).
+ * @param <T> type des éléments
+ */
+final class CompactIndex<T> {
+
+    private static final int STRIPES = 64;
+
+    /**
+     * Éléments d'une clé qui en a plusieurs
+     */
+    private static final class Bucket {
+        private Object[] items;
+        private int count;
+        private int dead;
+
+        private Bucket(Object first, Object second) {
+            this.items = new Object[] { first, second, null, null };
+            this.count = 2;
+        }
+    }
+
+    /**
+     * Segment de la table : clés, et pour chaque clé un élément ou un Bucket (null si libre)
+     */
+    private static final class Stripe {
+        private int[] keys = new int[8];
+        private Object[] values = new Object[8];
+        private int size;
+    }
+
+    private final Predicate<? super T> removed;
+    private final Stripe[] stripes = new Stripe[STRIPES];
+
+    /**
+     * Crée un index vide
+     * @param removed reconnaît les éléments retirés (déjà signalés par remove, ou sur le point de l'être)
+     */
+    CompactIndex(Predicate<? super T> removed) {
+        this.removed = removed;
+        for (int i = 0; i < STRIPES; i++) {
+            this.stripes[i] = new Stripe();
+        }
+    }
+
+    private static int mix(int key) {
+        int h = key * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    private static int home(int key, int capacity) {
+        return (mix(key) >>> 6) & (capacity - 1);
+    }
+
+    private Stripe stripe(int key) {
+        return this.stripes[mix(key) & (STRIPES - 1)];
+    }
+
+    /**
+     * Renvoie la case de la clé, ou la case libre où l'insérer
+     */
+    private static int find(Stripe s, int key) {
+        int mask = s.keys.length - 1;
+        int i = home(key, s.keys.length);
+        while (s.values[i] != null && s.keys[i] != key) {
+            i = (i + 1) & mask;
+        }
+        return i;
+    }
+
+    /**
+     * Ajoute un élément à une clé
+     * @param key la clé
+     * @param item l'élément
+     */
+    void add(int key, T item) {
+        Stripe s = this.stripe(key);
+        synchronized (s) {
+            int i = find(s, key);
+            Object value = s.values[i];
+            if (value == null) {
+                s.keys[i] = key;
+                s.values[i] = item;
+                if (++s.size * 4 > s.keys.length * 3) {
+                    resize(s);
+                }
+            } else if (value instanceof Bucket) {
+                Bucket b = (Bucket) value;
+                if (b.count == b.items.length) {
+                    // Nouveau tableau : les lecteurs en cours gardent l'ancien
+                    b.items = Arrays.copyOf(b.items, b.count * 2);
+                }
+                b.items[b.count++] = item;
+            } else {
+                s.values[i] = new Bucket(value, item);
+            }
+        }
+    }
+
+    /**
+     * Retire un élément d'une clé (l'élément doit déjà être reconnu par le prédicat removed)
+     * @param key la clé
+     * @param item l'élément
+     */
+    void remove(int key, T item) {
+        Stripe s = this.stripe(key);
+        synchronized (s) {
+            int i = find(s, key);
+            Object value = s.values[i];
+            if (value == item) {
+                delete(s, i);
+            } else if (value instanceof Bucket) {
+                Bucket b = (Bucket) value;
+                if (++b.dead * 2 > b.count) {
+                    this.compact(b);
+                    if (b.count == 0) {
+                        delete(s, i);
+                    } else if (b.count == 1) {
+                        s.values[i] = b.items[0];
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Recopie un tableau sans ses éléments retirés
+     */
+    @SuppressWarnings("unchecked")
+    private void compact(Bucket b) {
+        Object[] live = new Object[Math.max(4, b.count - b.dead)];
+        int n = 0;
+        for (int k = 0; k < b.count; k++) {
+            if (!this.removed.test((T) b.items[k])) {
+                if (n == live.length) {
+                    live = Arrays.copyOf(live, n * 2);
+                }
+                live[n++] = b.items[k];
+            }
+        }
+        b.items = live;
+        b.count = n;
+        b.dead = 0;
+    }
+
+    /**
+     * Renvoie le nombre approché d'éléments d'une clé (les retraits paresseux sont déduits)
+     * @param key la clé
+     * @return le nombre d'éléments, 0 si la clé est absente
+     */
+    int count(int key) {
+        Stripe s = this.stripe(key);
+        synchronized (s) {
+            Object value = s.values[find(s, key)];
+            if (value == null) {
+                return 0;
+            }
+            return value instanceof Bucket ? ((Bucket) value).count - ((Bucket) value).dead : 1;
+        }
+    }
+
+    /**
+     * Renvoie les éléments d'une clé, sans copie (peut contenir des éléments retirés, à ignorer)
+     * @param key la clé
+     * @return les éléments
+     */
+    @SuppressWarnings("unchecked")
+    List<T> get(int key) {
+        Stripe s = this.stripe(key);
+        synchronized (s) {
+            Object value = s.values[find(s, key)];
+            if (value == null) {
+                return Collections.emptyList();
+            }
+            if (value instanceof Bucket) {
+                Bucket b = (Bucket) value;
+                return (List<T>) Arrays.asList(b.items).subList(0, b.count);
+            }
+            return Collections.singletonList((T) value);
+        }
+    }
+
+    /**
+     * Renvoie une copie de tous les éléments (peut contenir des éléments retirés, à ignorer)
+     * @return les éléments
+     */
+    @SuppressWarnings("unchecked")
+    List<T> values() {
+        List<T> result = new ArrayList<>();
+        for (Stripe s : this.stripes) {
+            synchronized (s) {
+                for (Object value : s.values) {
+                    if (value instanceof Bucket) {
+                        Bucket b = (Bucket) value;
+                        for (int k = 0; k < b.count; k++) {
+                            result.add((T) b.items[k]);
+                        }
+                    } else if (value != null) {
+                        result.add((T) value);
+                    }
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Libère une case en recalant les clés suivantes du même groupe (pas de marque de suppression)
+     */
+    private static void delete(Stripe s, int i) {
+        int mask = s.keys.length - 1;
+        s.values[i] = null;
+        s.size--;
+        int j = i;
+        while (true) {
+            j = (j + 1) & mask;
+            if (s.values[j] == null) {
+                return;
+            }
+            int h = home(s.keys[j], s.keys.length);
+            // La clé en j peut combler le trou en i si sa case d'origine n'est pas entre i (exclu) et j (inclus)
+            boolean between = i <= j ? (i < h && h <= j) : (i < h || h <= j);
+            if (!between) {
+                s.keys[i] = s.keys[j];
+                s.values[i] = s.values[j];
+                s.values[j] = null;
+                i = j;
+            }
+        }
+    }
+
+    private static void resize(Stripe s) {
+        int[] keys = s.keys;
+        Object[] values = s.values;
+        s.keys = new int[keys.length * 2];
+        s.values = new Object[keys.length * 2];
+        for (int k = 0; k < keys.length; k++) {
+            if (values[k] != null) {
+                int i = find(s, keys[k]);
+                s.keys[i] = keys[k];
+                s.values[i] = values[k];
+            }
+        }
+    }
+
+}
@@ -0,0 +1,300 @@
+package linda.shm;
+
+import linda.Callback;
+import linda.TemplateMatcher;
+import linda.Tuple;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Registre des événements en attente (read ou take)
+ * Les événements sont rangés par arité de leur template, puis par le premier champ concret du template
+ * (position et valeur). Les templates sans champ concret vont dans un seau "joker" de leur arité.
+ * Lors d'une écriture, seuls les seaux compatibles avec le tuple écrit sont parcourus :
+ * le seau joker et, pour chaque champ concret du tuple, le seau (position, valeur) correspondant.
+ * Dans un seau, les événements sont conservés dans l'ordre d'enregistrement (FIFO).
+ */
+class EventRegistry {
+
+    /**
+     * Couple template / callback en attente
+     */
+    static class Event {
+        /**
+         * Template recherché par le callback
+         */
+        private final Tuple template;
+
+        /**
+         * Template compilé une fois pour toutes, testé à chaque écriture
+         */
+        private final TemplateMatcher matcher;
+
+        /**
+         * Callback à appeler
+         */
+        private final Callback callback;
+
+        /**
+         * Numéro d'ordre d'enregistrement (FIFO entre seaux)
+         */
+        private long seq;
+
+        /**
+         * Passe à vrai (une seule fois) quand l'événement est déclenché
+         */
+        private final AtomicBoolean fired = new AtomicBoolean(false);
+
+        /**
+         * Vrai pour les callbacks internes qui ne bloquent jamais (take, read, futurs) :
+         * ils sont appelés directement, sans passer par le dispatcher
+         */
+        private final boolean direct;
+
+        /**
+         * Crée un event
+         * @param template le template de tuple à rechercher
+         * @param callback le callback à appeler quand on aura trouvé un tuple
+         * @param direct vrai si le callback doit être appelé directement par l'écrivain
+         */
+        Event(Tuple template, Callback callback, boolean direct) {
+            this.template = template;
+            this.matcher = template.compile();
+            this.callback = callback;
+            this.direct = direct;
+        }
+
+        /**
+         * Renvoie vrai quand tuple correspond au motif recherché a été trouvé
+         * @param tuple le tuple dont on cherche la correspondance
+         * @return vrai quand tuple correspond au motif recherché a été trouvé
+         */
+        boolean isMatching(Tuple tuple) {
+            return this.matcher.matches(tuple);
+        }
+
+        /**
+         * Appelle le callback
+         * @param t le tuple à envoyer au callback
+         */
+        void call(Tuple t) {
+            this.callback.call(t);
+        }
+
+        Callback getCallback() {
+            return this.callback;
+        }
+
+        boolean isDirect() {
+            return this.direct;
+        }
+    }
+
+    /**
+     * Événements d'une même arité de template
+     */
+    private static class Arity {
+        /**
+         * Événements dont le template n'a aucun champ concret
+         */
+        private final Queue<Event> wildcards = new ConcurrentLinkedQueue<>();
+
+        /**
+         * Pour chaque position, les événements dont c'est le premier champ concret, par valeur
+         */
+        private final List<ConcurrentMap<Object, Queue<Event>>> byPosition;
+
+        private Arity(int size) {
+            this.byPosition = new ArrayList<>(size);
+            for (int i = 0; i < size; i++) {
+                this.byPosition.add(new ConcurrentHashMap<>());
+            }
+        }
+    }
+
+    /**
+     * Index par arité
+     */
+    private final ConcurrentMap<Integer, Arity> arities = new ConcurrentHashMap<>();
+
+    /**
+     * Compteur d'ordre d'enregistrement
+     */
+    private final AtomicLong sequence = new AtomicLong(0);
+
+    /**
+     * Nombre d'événements en attente
+     */
+    private final AtomicInteger size = new AtomicInteger(0);
+
+    /**
+     * Renvoie la position du premier champ concret du template (-1 si aucun)
+     * @param template le template
+     * @return la position de la clé d'index
+     */
+    private static int keyPosition(Tuple template) {
+        int i = 0;
+        for (Object field : template) {
+            if (field != null && !(field instanceof Class) && !(field instanceof Tuple)) {
+                return i;
+            }
+            i++;
+        }
+        return -1;
+    }
+
+    /**
+     * Enregistre un événement
+     * @param event l'événement à mettre en attente
+     */
+    void add(Event event) {
+        event.seq = this.sequence.incrementAndGet();
+        Arity arity = this.arities.computeIfAbsent(event.template.size(), Arity::new);
+        this.size.incrementAndGet();
+        int position = keyPosition(event.template);
+        if (position < 0) {
+            arity.wildcards.add(event);
+        } else {
+            arity.byPosition.get(position).compute(event.template.get(position), (k, bucket) -> {
+                if (bucket == null) {
+                    bucket = new ConcurrentLinkedQueue<>();
+                }
+                bucket.add(event);
+                return bucket;
+            });
+        }
+    }
+
+    /**
+     * Renvoie les seaux pouvant contenir des événements intéressés par le tuple
+     * @param tuple le tuple écrit
+     * @return les seaux candidats
+     */
+    private List<Queue<Event>> buckets(Tuple tuple) {
+        Arity arity = this.arities.get(tuple.size());
+        if (arity == null) {
+            return Collections.emptyList();
+        }
+        List<Queue<Event>> result = new ArrayList<>();
+        result.add(arity.wildcards);
+        int i = 0;
+        for (Object field : tuple) {
+            if (field != null && !(field instanceof Class) && !(field instanceof Tuple)) {
+                Queue<Event> bucket = arity.byPosition.get(i).get(field);
+                if (bucket != null) {
+                    result.add(bucket);
+                }
+            }
+            i++;
+        }
+        return result;
+    }
+
+    /**
+     * Retire un événement déclenché (ou annulé) de son seau
+     * @param event l'événement à retirer
+     */
+    private void remove(Event event) {
+        this.size.decrementAndGet();
+        Arity arity = this.arities.get(event.template.size());
+        int position = keyPosition(event.template);
+        if (position < 0) {
+            arity.wildcards.remove(event);
+        } else {
+            arity.byPosition.get(position).computeIfPresent(event.template.get(position), (k, bucket) -> {
+                bucket.remove(event);
+                return bucket.isEmpty() ? null : bucket;
+            });
+        }
+    }
+
+    /**
+     * Retire un événement pas encore déclenché
+     * @param template le template de l'événement
+     * @param callback son callback (comparé par identité)
+     * @return vrai si l'événement a été retiré (il ne sera pas déclenché), faux s'il est déjà déclenché ou inconnu
+     */
+    boolean cancel(Tuple template, Callback callback) {
+        Arity arity = this.arities.get(template.size());
+        if (arity == null) {
+            return false;
+        }
+        int position = keyPosition(template);
+        Queue<Event> bucket = position < 0 ? arity.wildcards
+                : arity.byPosition.get(position).get(template.get(position));
+        if (bucket == null) {
+            return false;
+        }
+        for (Event event : bucket) {
+            if (event.callback == callback && event.fired.compareAndSet(false, true)) {
+                this.remove(event);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Déclenche (retire) tous les événements intéressés par le tuple
+     * @param tuple le tuple écrit
+     * @return les événements retirés, à appeler par l'appelant
+     */
+    List<Event> pollAllMatching(Tuple tuple) {
+        List<Event> result = new ArrayList<>();
+        for (Queue<Event> bucket : this.buckets(tuple)) {
+            for (Event event : bucket) {
+                if (!event.fired.get() && event.isMatching(tuple) && event.fired.compareAndSet(false, true)) {
+                    this.remove(event);
+                    result.add(event);
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Déclenche (retire) le plus ancien événement intéressé par le tuple
+     * @param tuple le tuple écrit
+     * @return l'événement retiré, null si aucun
+     */
+    Event pollFirstMatching(Tuple tuple) {
+        List<Queue<Event>> buckets = this.buckets(tuple);
+        while (true) {
+            // Premier événement intéressé de chaque seau, on garde le plus ancien
+            Event oldest = null;
+            for (Queue<Event> bucket : buckets) {
+                for (Event event : bucket) {
+                    if (!event.fired.get() && event.isMatching(tuple)) {
+                        if (oldest == null || event.seq < oldest.seq) {
+                            oldest = event;
+                        }
+                        break;
+                    }
+                }
+            }
+            if (oldest == null) {
+                return null;
+            }
+            if (oldest.fired.compareAndSet(false, true)) {
+                this.remove(oldest);
+                return oldest;
+            }
+            // Déclenché entre-temps par un autre écrivain : on recommence
+        }
+    }
+
+    /**
+     * Renvoie le nombre d'événements en attente
+     * @return le nombre d'événements
+     */
+    int size() {
+        return this.size.get();
+    }
+
+}
@@ -0,0 +1,321 @@
+package linda.shm;
+
+import linda.TemplateMatcher;
+import linda.Tuple;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+
+/**
+ * Espace de tuples indexé, sur le tas
+ * Les tuples sont rangés par arité, puis pour chaque position par valeur du champ
+ * Un template ne parcourt que le plus petit ensemble de candidats parmi ses champs concrets
+ * Un template ne contenant que des jokers (classes ou tuples imbriqués) parcourt toute son arité
+ * Le template est compilé (TemplateMatcher) une fois par recherche, puis testé sur chaque candidat
+ *
+ * Aucune copie ni verrou global : les index sont des ConcurrentHashMap (verrouillage par clé),
+ * l'ajout et le retrait d'un tuple coûtent O(arité) quelle que soit la taille de l'espace.
+ * Une valeur portée par un seul tuple référence directement son entrée ; au-delà de un, ses entrées
+ * sont dans un ensemble (comme CompactIndex) : un champ de valeur unique ne coûte pas un ensemble.
+ * Un retrait commence par réclamer l'entrée (compare-and-set) : deux take concurrents
+ * ne peuvent pas renvoyer le même tuple.
+ */
+public class HeapTupleStore extends TupleStore {
+
+    /**
+     * Tuples d'une même arité
+     */
+    private static class Arity {
+        /**
+         * Tous les tuples de cette arité, par identifiant (retrait d'une entrée désignée sans parcours)
+         */
+        private final ConcurrentMap<Long, Node> all = new ConcurrentHashMap<>();
+
+        /**
+         * Pour chaque position, les tuples rangés par valeur du champ : une entrée (Node) ou un Set de Node
+         */
+        private final List<ConcurrentMap<Object, Object>> byPosition;
+
+        /**
+         * Crée les index d'une arité
+         * @param size arité des tuples
+         */
+        private Arity(int size) {
+            this.byPosition = new ArrayList<>(size);
+            for (int i = 0; i < size; i++) {
+                this.byPosition.add(new ConcurrentHashMap<>());
+            }
+        }
+    }
+
+    /**
+     * Un tuple stocké, avec son état
+     * L'égalité est celle de l'objet (deux tuples égaux restent deux entrées distinctes)
+     */
+    private static class Node extends Entry {
+        private static final AtomicIntegerFieldUpdater<Node> CLAIMED =
+                AtomicIntegerFieldUpdater.newUpdater(Node.class, "claimed");
+
+        /**
+         * Passe à 1 (une seule fois) quand un take s'approprie le tuple
+         */
+        private volatile int claimed = 0;
+
+        private Node(long id, Tuple tuple) {
+            super(id, tuple);
+        }
+
+        /**
+         * Tente de s'approprier l'entrée
+         * @return vrai si l'appelant est le seul à l'avoir réclamée
+         */
+        private boolean claim() {
+            return CLAIMED.compareAndSet(this, 0, 1);
+        }
+
+        private boolean isClaimed() {
+            return this.claimed != 0;
+        }
+    }
+
+    /**
+     * Index par arité
+     */
+    private final ConcurrentMap<Integer, Arity> arities = new ConcurrentHashMap<>();
+
+    /**
+     * Nombre de tuples stockés
+     */
+    private final AtomicInteger size = new AtomicInteger(0);
+
+    /**
+     * Renvoie vrai si le champ peut servir de clé d'index
+     * Les classes et les tuples imbriqués sont des jokers dans un template ; un champ null n'est pas indexé
+     * (les ConcurrentHashMap refusent les clés null, et un null dans un template ne correspond à aucun tuple)
+     * @param field le champ
+     * @return vrai si le champ est une valeur concrète
+     */
+    private static boolean isConcrete(Object field) {
+        return field != null && !(field instanceof Class) && !(field instanceof Tuple);
+    }
+
+    @Override
+    long add(Tuple tuple, long id) {
+        Node entry = new Node(id, tuple);
+        Arity arity = this.arities.computeIfAbsent(tuple.size(), Arity::new);
+        this.size.incrementAndGet();
+        arity.all.put(id, entry);
+        int i = 0;
+        for (Object field : tuple) {
+            if (isConcrete(field)) {
+                // compute est atomique pour une clé : pas de course avec la suppression d'un seau vide
+                arity.byPosition.get(i).compute(field, (k, bucket) -> {
+                    if (bucket == null) {
+                        return entry;
+                    }
+                    if (bucket instanceof Node) {
+                        Set<Node> set = ConcurrentHashMap.newKeySet();
+                        set.add((Node) bucket);
+                        set.add(entry);
+                        return set;
+                    }
+                    asSet(bucket).add(entry);
+                    return bucket;
+                });
+            }
+            i++;
+        }
+        // Un take a pu réclamer l'entrée (via l'index "all") avant la fin de l'indexation
+        if (entry.isClaimed()) {
+            this.unindex(arity, entry);
+        }
+        return id;
+    }
+
+    /**
+     * Renvoie l'ensemble d'entrées d'un seau de plusieurs tuples
+     * @param bucket le seau
+     * @return ses entrées
+     */
+    @SuppressWarnings("unchecked")
+    private static Set<Node> asSet(Object bucket) {
+        return (Set<Node>) bucket;
+    }
+
+    /**
+     * Renvoie les entrées d'un seau de l'index
+     * @param bucket une entrée ou un ensemble d'entrées
+     * @return les entrées (parcours faiblement cohérent)
+     */
+    private static Collection<Node> entries(Object bucket) {
+        return bucket instanceof Node ? Collections.singletonList((Node) bucket) : asSet(bucket);
+    }
+
+    /**
+     * Renvoie les tuples candidats pour un template
+     * Choisit le plus petit index parmi les champs concrets du template
+     * @param template le template
+     * @return les candidats, vide si aucun tuple ne peut correspondre
+     */
+    private Collection<Node> candidates(Tuple template) {
+        Arity arity = this.arities.get(template.size());
+        if (arity == null) {
+            return Collections.emptySet();
+        }
+        Collection<Node> best = arity.all.values();
+        int bestSize = Integer.MAX_VALUE;
+        int i = 0;
+        for (Object field : template) {
+            if (isConcrete(field)) {
+                Object bucket = arity.byPosition.get(i).get(field);
+                if (bucket == null) {
+                    return Collections.emptySet();
+                }
+                Collection<Node> bucketEntries = entries(bucket);
+                int bucketSize = bucketEntries.size();
+                if (bucketSize < bestSize) {
+                    best = bucketEntries;
+                    bestSize = bucketSize;
+                }
+            }
+            i++;
+        }
+        return best;
+    }
+
+    /**
+     * Retire une entrée réclamée de tous les index (idempotent)
+     * @param arity l'arité de l'entrée
+     * @param entry l'entrée à retirer
+     */
+    private void unindex(Arity arity, Node entry) {
+        arity.all.remove(entry.getId(), entry);
+        int i = 0;
+        for (Object field : entry.getTuple()) {
+            if (isConcrete(field)) {
+                arity.byPosition.get(i).computeIfPresent(field, (k, bucket) -> {
+                    if (bucket == entry) {
+                        return null;
+                    }
+                    if (bucket instanceof Node) {
+                        return bucket;
+                    }
+                    Set<Node> set = asSet(bucket);
+                    set.remove(entry);
+                    if (set.size() > 1) {
+                        return set;
+                    }
+                    // Retour à un seau d'un seul tuple (ou vide)
+                    Iterator<Node> rest = set.iterator();
+                    return rest.hasNext() ? rest.next() : null;
+                });
+            }
+            i++;
+        }
+    }
+
+    @Override
+    public Tuple read(Tuple template) {
+        TemplateMatcher matcher = template.compile();
+        for (Node entry : this.candidates(template)) {
+            if (!entry.isClaimed() && matcher.matches(entry.getTuple())) {
+                return entry.getTuple();
+            }
+        }
+        return null;
+    }
+
+    @Override
+    Entry takeEntry(Tuple template) {
+        TemplateMatcher matcher = template.compile();
+        for (Node entry : this.candidates(template)) {
+            if (!entry.isClaimed() && matcher.matches(entry.getTuple()) && entry.claim()) {
+                this.size.decrementAndGet();
+                this.unindex(this.arities.get(template.size()), entry);
+                return entry;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    Entry removeEntry(Tuple tuple, long id) {
+        Arity arity = this.arities.get(tuple.size());
+        Node entry = arity == null ? null : arity.all.get(id);
+        if (entry == null || !entry.claim()) {
+            return null;
+        }
+        this.size.decrementAndGet();
+        this.unindex(arity, entry);
+        return entry;
+    }
+
+    @Override
+    List<Entry> takeEntries(Tuple template, int n) {
+        TemplateMatcher matcher = template.compile();
+        List<Entry> result = new ArrayList<>();
+        for (Node entry : this.candidates(template)) {
+            if (result.size() >= n) {
+                break;
+            }
+            if (!entry.isClaimed() && matcher.matches(entry.getTuple()) && entry.claim()) {
+                this.size.decrementAndGet();
+                this.unindex(this.arities.get(template.size()), entry);
+                result.add(entry);
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public Iterator<Tuple> iterator(Tuple template) {
+        TemplateMatcher matcher = template.compile();
+        Iterator<Node> candidates = this.candidates(template).iterator();
+        return new Iterator<Tuple>() {
+            private Tuple next = null;
+
+            @Override
+            public boolean hasNext() {
+                while (this.next == null && candidates.hasNext()) {
+                    Node entry = candidates.next();
+                    if (!entry.isClaimed() && matcher.matches(entry.getTuple())) {
+                        this.next = entry.getTuple();
+                    }
+                }
+                return this.next != null;
+            }
+
+            @Override
+            public Tuple next() {
+                if (!this.hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                Tuple result = this.next;
+                this.next = null;
+                return result;
+            }
+        };
+    }
+
+    @Override
+    List<Entry> entries() {
+        List<Entry> result = new ArrayList<>();
+        for (Arity arity : this.arities.values()) {
+            for (Node entry : arity.all.values()) {
+                if (!entry.isClaimed()) {
+                    result.add(entry);
+                }
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public int size() {
+        return this.size.get();
+    }
+
+}
@@ -0,0 +1,336 @@
+package linda.shm;
+
+import linda.Tuple;
+import linda.shm.SnapshotFile.Record;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Instantanés incrémentaux d'un CentralizedLinda, pris sans bloquer write ni take
+ * Observateur de l'espace : l'écrivain ajoute seulement l'identifiant et le tuple modifiés à une liste en mémoire.
+ * Un instantané échange cette liste contre une liste vide (seul moment sous verrou) et l'écrit dans un
+ * fichier différentiel : l'état obtenu en rejouant la chaîne jusqu'à ce fichier est exactement celui de
+ * l'espace au moment de l'échange.
+ * Une chaîne commence par un instantané complet, obtenu en parcourant l'espace sans verrou, suivi de deux
+ * différentiels : les ajouts antérieurs au parcours qu'il n'a pas vus, puis les modifications concurrentes
+ * du parcours ; le rejeu (par identifiant) les applique sans doublon. Après MAX_DELTAS différentiels, ou
+ * quand les différentiels deviennent plus gros que l'instantané complet, un nouvel instantané complet
+ * remplace les fichiers précédents de la chaîne.
+ * À l'ouverture, l'espace est restauré en parallèle (ChunkedRestore) : les différentiels avant le retour,
+ * l'instantané complet en tâche de fond. La nouvelle chaîne commence une fois l'espace entièrement restauré.
+ * Fichiers : snap-chaîne-numéro-full.snap et snap-chaîne-numéro-delta.snap (format SnapshotFile)
+ */
+public class IncrementalSnapshots implements SpaceObserver, Closeable {
+
+    /**
+     * Nombre de différentiels avant un nouvel instantané complet
+     */
+    private static final int MAX_DELTAS = 32;
+
+    /**
+     * Nombre d'enregistrements des différentiels au-delà duquel un nouvel instantané complet est pris,
+     * s'il dépasse aussi la taille du précédent (les différentiels sont restaurés avant d'accepter les requêtes)
+     */
+    private static final long MIN_FULL_RECORDS = 100000;
+
+    private static final String PREFIX = "snap-";
+    private static final String FULL_SUFFIX = "-full.snap";
+    private static final String DELTA_SUFFIX = "-delta.snap";
+
+    private final CentralizedLinda space;
+    private final Path directory;
+
+    /**
+     * Numéro de la chaîne écrite (un par ouverture, les identifiants d'entrée changeant au redémarrage)
+     */
+    private final long chain;
+
+    /**
+     * Protège la liste des modifications et l'indicateur d'instantané complet
+     */
+    private final Object lock = new Object();
+    private List<Record> changes = new ArrayList<>();
+    private boolean fullRequested = true;
+
+    /* Utilisés sous le verrou de l'objet (un instantané à la fois) */
+    private long seq = 0;
+    private int deltas = 0;
+    private long deltaRecords = 0;
+    private long fullRecords = 0;
+    private boolean closed = false;
+
+    private ScheduledExecutorService timer;
+
+    /**
+     * Complété avec le nombre de tuples restaurés quand l'espace est entièrement restauré
+     */
+    private final CompletableFuture<Long> restored = new CompletableFuture<>();
+
+    /**
+     * Restaure l'espace à partir du dernier instantané du répertoire, puis commence une nouvelle chaîne
+     * L'espace doit être vide ; il peut être utilisé dès le retour, pendant que l'instantané complet se charge
+     * @param space l'espace à restaurer et observer
+     * @param directory répertoire des instantanés (créé au besoin)
+     * @return le gestionnaire d'instantanés ouvert
+     * @throws IOException si les instantanés ne peuvent pas être lus ou écrits
+     */
+    public static IncrementalSnapshots open(CentralizedLinda space, Path directory) throws IOException {
+        Files.createDirectories(directory);
+        TreeMap<Long, TreeMap<Long, Path>> chains = chains(directory);
+        long chain = chains.isEmpty() ? 1 : chains.lastKey() + 1;
+        IncrementalSnapshots snapshots = new IncrementalSnapshots(space, directory, chain);
+        space.addObserver(snapshots);
+
+        // Dernière chaîne ayant un instantané complet (une chaîne interrompue avant le sien est ignorée)
+        CompletableFuture<Long> restore = CompletableFuture.completedFuture(0L);
+        for (TreeMap<Long, Path> files : chains.descendingMap().values()) {
+            Long base = lastFull(files);
+            if (base != null) {
+                restore = ChunkedRestore.restore(space, files.tailMap(base, false), files.get(base));
+                break;
+            }
+        }
+
+        // Les anciennes chaînes ne servent plus une fois la nouvelle commencée
+        restore.whenComplete((n, e) -> {
+            if (e != null) {
+                snapshots.restored.completeExceptionally(e);
+                return;
+            }
+            snapshots.restored.complete(n);
+            try {
+                synchronized (snapshots) {
+                    // Fermé entre-temps : le dernier instantané a déjà commencé la nouvelle chaîne
+                    if (!snapshots.closed) {
+                        snapshots.snapshot();
+                    }
+                }
+                for (TreeMap<Long, Path> old : chains.values()) {
+                    for (Path p : old.values()) {
+                        Files.deleteIfExists(p);
+                    }
+                }
+            } catch (IOException e2) {
+                System.err.println("Snapshot failed: " + e2);
+            }
+        });
+        return snapshots;
+    }
+
+    private IncrementalSnapshots(CentralizedLinda space, Path directory, long chain) {
+        this.space = space;
+        this.directory = directory;
+        this.chain = chain;
+    }
+
+    @Override
+    public void written(long id, Tuple t) {
+        Record r = new Record(SnapshotFile.PUT, id, t);
+        synchronized (this.lock) {
+            this.changes.add(r);
+        }
+    }
+
+    @Override
+    public void taken(long id, Tuple t) {
+        Record r = new Record(SnapshotFile.REMOVE, id, null);
+        synchronized (this.lock) {
+            this.changes.add(r);
+        }
+    }
+
+    @Override
+    public void reset() {
+        // L'espace a été remplacé : les modifications de l'ancien contenu ne servent plus
+        synchronized (this.lock) {
+            this.changes = new ArrayList<>();
+            this.fullRequested = true;
+        }
+    }
+
+    /**
+     * Renvoie le futur complété, avec le nombre de tuples restaurés, quand l'espace est entièrement restauré
+     * @return la fin de la restauration
+     */
+    public CompletableFuture<Long> restored() {
+        return this.restored;
+    }
+
+    private void awaitRestored() throws IOException {
+        try {
+            this.restored.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while restoring");
+        } catch (ExecutionException e) {
+            throw new IOException("Restore failed", e.getCause());
+        }
+    }
+
+    /**
+     * Prend un instantané : les modifications depuis le précédent, ou l'espace complet si nécessaire
+     * Attend la fin de la restauration de l'espace
+     * @return le numéro de l'instantané dans la chaîne
+     * @throws IOException si l'écriture échoue
+     */
+    public synchronized long snapshot() throws IOException {
+        this.awaitRestored();
+        if (this.closed) {
+            throw new IOException("Snapshots closed");
+        }
+        List<Record> delta;
+        boolean full;
+        synchronized (this.lock) {
+            delta = this.changes;
+            this.changes = new ArrayList<>();
+            full = this.fullRequested || this.deltas >= MAX_DELTAS
+                    || this.deltaRecords + delta.size() > Math.max(this.fullRecords, MIN_FULL_RECORDS);
+            this.fullRequested = false;
+        }
+        if (!full) {
+            this.deltas++;
+            this.deltaRecords += delta.size();
+            SnapshotFile.write(this.path(++this.seq, false), SnapshotFile.DELTA, this.chain, this.seq, delta.iterator());
+            return this.seq;
+        }
+        // Parcours sans verrou, suivi des ajouts antérieurs à l'échange que le parcours n'a pas vus (signalés
+        // avant l'échange, visibles après), puis des modifications concurrentes du parcours
+        Map<Long, Record> inFlight = new LinkedHashMap<>();
+        for (Record r : delta) {
+            if (r.op == SnapshotFile.PUT) {
+                inFlight.put(r.id, r);
+            } else {
+                inFlight.remove(r.id);
+            }
+        }
+        List<TupleStore.Entry> entries = this.space.entries();
+        if (!inFlight.isEmpty()) {
+            for (TupleStore.Entry e : entries) {
+                inFlight.remove(e.getId());
+            }
+        }
+        Iterator<Record> records = entries.stream().map(e -> new Record(SnapshotFile.PUT, e.getId(), e.getTuple())).iterator();
+        long fullSeq = ++this.seq;
+        SnapshotFile.write(this.path(fullSeq, true), SnapshotFile.FULL, this.chain, fullSeq, records);
+        SnapshotFile.write(this.path(++this.seq, false), SnapshotFile.DELTA, this.chain, this.seq, inFlight.values().iterator());
+        synchronized (this.lock) {
+            delta = this.changes;
+            this.changes = new ArrayList<>();
+        }
+        this.deltas = 2;
+        this.deltaRecords = delta.size();
+        this.fullRecords = entries.size();
+        SnapshotFile.write(this.path(++this.seq, false), SnapshotFile.DELTA, this.chain, this.seq, delta.iterator());
+        // Les fichiers précédents de la chaîne sont couverts par le nouvel instantané complet
+        TreeMap<Long, Path> files = chains(this.directory).get(this.chain);
+        if (files != null) {
+            for (Path p : files.headMap(fullSeq, false).values()) {
+                Files.deleteIfExists(p);
+            }
+        }
+        return this.seq;
+    }
+
+    /**
+     * Prend un instantané toutes les intervalMillis ms (thread démon)
+     * @param intervalMillis délai entre deux instantanés
+     */
+    public synchronized void schedule(long intervalMillis) {
+        if (this.timer != null) {
+            this.timer.shutdown();
+        }
+        this.timer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "linda-snapshots");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.timer.scheduleWithFixedDelay(() -> {
+            try {
+                this.snapshot();
+            } catch (IOException e) {
+                System.err.println("Snapshot failed: " + e);
+            }
+        }, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Arrête l'observation après un dernier instantané
+     * @throws IOException si le dernier instantané échoue
+     */
+    @Override
+    public void close() throws IOException {
+        ScheduledExecutorService timer;
+        synchronized (this) {
+            timer = this.timer;
+        }
+        if (timer != null) {
+            timer.shutdown();
+        }
+        this.space.removeObserver(this);
+        synchronized (this) {
+            if (!this.closed) {
+                this.snapshot();
+                this.closed = true;
+            }
+        }
+    }
+
+    /* Lecture, utilisée à l'ouverture */
+
+    /**
+     * Renvoie le numéro du dernier instantané complet d'une chaîne
+     * @param files les fichiers de la chaîne, par numéro
+     * @return le numéro, null si la chaîne n'a pas d'instantané complet
+     */
+    static Long lastFull(TreeMap<Long, Path> files) {
+        for (Map.Entry<Long, Path> e : files.descendingMap().entrySet()) {
+            if (e.getValue().getFileName().toString().endsWith(FULL_SUFFIX)) {
+                return e.getKey();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Renvoie les fichiers d'instantanés du répertoire, par chaîne puis par numéro
+     */
+    static TreeMap<Long, TreeMap<Long, Path>> chains(Path directory) throws IOException {
+        TreeMap<Long, TreeMap<Long, Path>> result = new TreeMap<>();
+        try (Stream<Path> files = Files.list(directory)) {
+            files.forEach(p -> {
+                String name = p.getFileName().toString();
+                String suffix = name.endsWith(FULL_SUFFIX) ? FULL_SUFFIX : name.endsWith(DELTA_SUFFIX) ? DELTA_SUFFIX : null;
+                if (name.startsWith(PREFIX) && suffix != null) {
+                    String[] parts = name.substring(PREFIX.length(), name.length() - suffix.length()).split("-");
+                    try {
+                        result.computeIfAbsent(Long.parseLong(parts[0]), k -> new TreeMap<>())
+                              .put(Long.parseLong(parts[1]), p);
+                    } catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+                    }
+                }
+            });
+        }
+        return result;
+    }
+
+    private Path path(long seq, boolean full) {
+        return this.directory.resolve(String.format("%s%06d-%06d%s", PREFIX, this.chain, seq, full ? FULL_SUFFIX : DELTA_SUFFIX));
+    }
+
+}
@@ -0,0 +1,188 @@
+package linda.shm;
+
+import linda.Tuple;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Baux des tuples écrits avec une durée de vie (CentralizedLinda.write(t, ttl))
+ * Un thread fait avancer une roue temporelle (TimingWheel) d'un tick toutes les linda.lease.tick ms (10 par
+ * défaut) : l'expiration ne parcourt jamais l'espace, et un tick ne coûte que les baux qui échoient.
+ * Un tuple expiré est retiré de l'espace et de ses index comme par un take (les observateurs sont prévenus :
+ * journal, réplication et caches clients le voient retiré). Un bail prend fin quand son tuple est retiré.
+ * Les baux échus sont relevés sous le verrou de la roue, puis leurs tuples sont retirés (par identifiant)
+ * après l'avoir relâché : une vague d'expirations ne bloque pas les écritures avec bail ni les renouvellements.
+ */
+class Leases implements SpaceObserver {
+
+    /**
+     * Propriété système donnant la durée d'un tick, en ms
+     */
+    static final String TICK_PROPERTY = "linda.lease.tick";
+
+    /**
+     * Bail d'un tuple de l'espace, identifié par l'identifiant du tuple
+     */
+    private static class Lease extends TimingWheel.Timer {
+        private final long id;
+        private final Tuple tuple;
+
+        /**
+         * Passe à vrai quand le tuple est retiré ou que le bail est remplacé
+         */
+        private volatile boolean ended = false;
+
+        private Lease(long id, Tuple tuple, long deadline) {
+            this.id = id;
+            this.tuple = tuple;
+            this.deadline = deadline;
+        }
+    }
+
+    private final CentralizedLinda space;
+    private final long tickNanos;
+    private final long origin = System.nanoTime();
+
+    /**
+     * Baux en cours, par identifiant de tuple
+     */
+    private final Map<Long, Lease> leases = new ConcurrentHashMap<>();
+
+    /**
+     * Protégée par son propre verrou
+     */
+    private final TimingWheel wheel = new TimingWheel(0);
+
+    /**
+     * Baux échus pendant le tick en cours, dont les tuples restent à retirer (thread d'expiration seulement)
+     */
+    private final List<Lease> expired = new ArrayList<>();
+
+    /**
+     * Crée les baux d'un espace et démarre le thread d'expiration
+     * @param space l'espace
+     */
+    Leases(CentralizedLinda space) {
+        this.space = space;
+        this.tickNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(1, Long.getLong(TICK_PROPERTY, 10)));
+        Thread thread = new Thread(this::run, "linda-leases");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Renvoie le tick d'une échéance
+     * @param ttlMillis durée de vie à partir de maintenant
+     * @return le tick à partir duquel le bail est échu (jamais avant la durée de vie)
+     */
+    private long deadline(long ttlMillis) {
+        long nanos = System.nanoTime() - this.origin + TimeUnit.MILLISECONDS.toNanos(Math.max(0, ttlMillis));
+        return (nanos + this.tickNanos - 1) / this.tickNanos;
+    }
+
+    /**
+     * Donne un bail à un tuple, avant qu'il devienne visible
+     * @param id identifiant du tuple
+     * @param t le tuple stocké
+     * @param ttlMillis durée de vie
+     */
+    void add(long id, Tuple t, long ttlMillis) {
+        Lease lease = new Lease(id, t, this.deadline(ttlMillis));
+        this.leases.put(id, lease);
+        synchronized (this.wheel) {
+            this.wheel.add(lease);
+        }
+    }
+
+    /**
+     * Renouvelle un bail
+     * @param id identifiant du tuple
+     * @param ttlMillis nouvelle durée de vie, à partir de maintenant
+     * @return faux si le tuple n'est plus dans l'espace (retiré ou expiré)
+     */
+    boolean renew(long id, long ttlMillis) {
+        Lease lease = this.leases.get(id);
+        if (lease == null) {
+            return false;
+        }
+        long deadline = this.deadline(ttlMillis);
+        if (deadline >= lease.deadline) {
+            // Repoussé : le bail est replacé quand son ancienne case échoit
+            lease.deadline = deadline;
+            return !lease.ended;
+        }
+        // Avancé : un nouveau bail remplace l'ancien, qui sera écarté
+        Lease renewed = new Lease(id, lease.tuple, deadline);
+        if (!this.leases.replace(id, lease, renewed)) {
+            return this.renew(id, ttlMillis);
+        }
+        lease.ended = true;
+        synchronized (this.wheel) {
+            this.wheel.add(renewed);
+        }
+        return true;
+    }
+
+    private void run() {
+        TimingWheel.Expiry expiry = this::expire;
+        while (true) {
+            long now = (System.nanoTime() - this.origin) / this.tickNanos;
+            synchronized (this.wheel) {
+                this.wheel.advance(now, expiry);
+            }
+            for (Lease lease : this.expired) {
+                this.space.removeEntry(lease.id, lease.tuple);
+            }
+            this.expired.clear();
+            long next = this.origin + (now + 1) * this.tickNanos - System.nanoTime();
+            if (next > 0) {
+                try {
+                    TimeUnit.NANOSECONDS.sleep(next);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Met fin à un bail échu ; son tuple sera retiré une fois le verrou de la roue relâché
+     * @return vrai si le bail vient d'être repoussé (il est replacé)
+     */
+    private boolean expire(TimingWheel.Timer timer, long now) {
+        Lease lease = (Lease) timer;
+        if (lease.deadline > now) {
+            return true;
+        }
+        if (!lease.ended && this.leases.remove(lease.id, lease)) {
+            lease.ended = true;
+            this.expired.add(lease);
+        }
+        return false;
+    }
+
+    @Override
+    public void written(long id, Tuple t) {
+    }
+
+    @Override
+    public void taken(long id, Tuple t) {
+        Lease lease = this.leases.remove(id);
+        if (lease != null) {
+            lease.ended = true;
+        }
+    }
+
+    @Override
+    public void reset() {
+        for (Lease lease : this.leases.values()) {
+            lease.ended = true;
+        }
+        this.leases.clear();
+    }
+
+}
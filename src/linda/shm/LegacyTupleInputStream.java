@@ -0,0 +1,46 @@
+package linda.shm;
+
+import linda.Tuple;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectStreamClass;
+import java.io.Serializable;
+import java.util.LinkedList;
+
+/**
+ * Flux de désérialisation qui accepte aussi les tuples des anciennes sauvegardes
+ * Jusqu'à la version 1 de sa forme sérialisée, Tuple héritait de LinkedList : un tel tuple est lu
+ * comme un V1Tuple (même forme), puis remplacé par un Tuple équivalent (readResolve)
+ */
+class LegacyTupleInputStream extends ObjectInputStream {
+
+    /**
+     * Forme sérialisée d'un tuple de version 1 (une LinkedList de ses champs, sans autre donnée)
+     */
+    private static class V1Tuple extends LinkedList<Serializable> {
+        private static final long serialVersionUID = 1L;
+
+        /**
+         * Les tuples imbriqués sont déjà remplacés quand leur tuple englobant est lu
+         * @return le tuple équivalent
+         */
+        private Object readResolve() {
+            return new Tuple(this.toArray(new Serializable[0]));
+        }
+    }
+
+    LegacyTupleInputStream(InputStream in) throws IOException {
+        super(in);
+    }
+
+    @Override
+    protected ObjectStreamClass readClassDescriptor() throws IOException, ClassNotFoundException {
+        ObjectStreamClass desc = super.readClassDescriptor();
+        if (desc.getName().equals(Tuple.class.getName()) && desc.getSerialVersionUID() == 1L) {
+            return ObjectStreamClass.lookup(V1Tuple.class);
+        }
+        return desc;
+    }
+}
@@ -0,0 +1,571 @@
+package linda.shm;
+
+import linda.TemplateMatcher;
+import linda.Tuple;
+import linda.TupleCodec;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+
+/**
+ * Espace de tuples indexé, encodé hors du tas
+ * Les tuples sont encodés (TupleCodec) dans des blocs de mémoire directe, remplis séquentiellement ;
+ * seul un petit descripteur par tuple (identifiant, bloc, position) reste sur le tas, rangé comme dans
+ * HeapTupleStore par arité puis par position et par hachage de la valeur du champ, dans des CompactIndex
+ * (les valeurs elles-mêmes ne sont pas conservées). Le tas ne contient donc qu'un objet par tuple et
+ * quelques tableaux, quelle que soit la taille de l'espace.
+ * Un enregistrement : positions des champs dans l'encodage (arité + 1 entiers), puis le tuple encodé.
+ * Un candidat est d'abord comparé octet par octet aux champs concrets du template (pour les types dont
+ * l'encodage est canonique) ; il n'est décodé que s'il passe cette comparaison, puis testé par le
+ * TemplateMatcher (jokers et autres types).
+ * Chaque bloc compte les octets de ses tuples encore présents. Quand un bloc plein tombe sous le quart de
+ * sa taille, les tuples qui restent sont recopiés dans le bloc courant (leur descripteur change
+ * d'emplacement, sans disparaître des index) ; le bloc est ensuite libéré par le ramasse-miettes, quand plus
+ * aucun descripteur ne le référence. Ce déplacement est fait par le thread qui retire le tuple faisant
+ * passer le bloc sous le seuil (ou qui remplit le bloc) et parcourt les descripteurs de l'espace.
+ * La mémoire directe de la JVM est limitée par -XX:MaxDirectMemorySize (par défaut, la taille maximale du tas).
+ */
+public class OffHeapTupleStore extends TupleStore {
+
+    /**
+     * Taille par défaut d'un bloc
+     */
+    static final int DEFAULT_SLAB_SIZE = 64 << 20;
+
+    /**
+     * Un bloc est vidé de ses derniers tuples quand ils occupent moins de 1 / MIN_OCCUPANCY de sa taille
+     */
+    private static final int MIN_OCCUPANCY = 4;
+
+    /**
+     * Un bloc de mémoire directe
+     */
+    private static final class Slab {
+        private final ByteBuffer buffer;
+
+        /**
+         * Octets des enregistrements encore présents dans le bloc
+         */
+        private final AtomicInteger live = new AtomicInteger(0);
+
+        /**
+         * Vrai quand le bloc n'est plus le bloc courant (il ne reçoit plus de tuples)
+         */
+        private volatile boolean sealed = false;
+
+        /**
+         * Vrai pendant le déplacement des tuples restants
+         */
+        private final AtomicBoolean compacting = new AtomicBoolean(false);
+
+        private Slab(int size) {
+            this.buffer = ByteBuffer.allocateDirect(size);
+        }
+
+        /**
+         * @param live octets encore présents
+         * @return vrai si les tuples restants doivent être déplacés
+         */
+        private boolean isSparse(int live) {
+            return this.sealed && live > 0 && live < this.buffer.capacity() / MIN_OCCUPANCY;
+        }
+    }
+
+    /**
+     * Bloc vide des descripteurs retirés : un index peut garder un descripteur retiré quelque temps (retraits
+     * paresseux de CompactIndex), qui ne doit plus garder son bloc en vie
+     */
+    private static final Slab RELEASED = new Slab(0);
+
+    /**
+     * Un tuple stocké : emplacement de son encodage
+     * L'égalité est celle de l'objet (deux tuples égaux restent deux entrées distinctes)
+     * L'emplacement ne change que sous le verrou du descripteur (déplacement hors d'un bloc presque vide,
+     * ou retrait) ;
+     * version est impaire pendant le changement, pour que les lecteurs ne lisent jamais un bloc et une
+     * position incohérents.
+     */
+    private static final class Slot {
+        private static final AtomicIntegerFieldUpdater<Slot> CLAIMED =
+                AtomicIntegerFieldUpdater.newUpdater(Slot.class, "claimed");
+
+        private final long id;
+
+        /**
+         * Bloc de l'encodage, gardé en vie par ses descripteurs
+         */
+        private volatile Slab slab;
+        private volatile int offset;
+        private final int length;
+
+        /**
+         * Passe à 1 (une seule fois) quand un take s'approprie le tuple
+         */
+        private volatile int claimed = 0;
+
+        /**
+         * Incrémentée avant et après chaque changement d'emplacement
+         */
+        private volatile int version = 0;
+
+        private Slot(long id, Slab slab, int offset, int length) {
+            this.id = id;
+            this.slab = slab;
+            this.offset = offset;
+            this.length = length;
+        }
+
+        /**
+         * Change l'emplacement (sous le verrou du descripteur)
+         */
+        private void move(Slab slab, int offset) {
+            int version = this.version;
+            this.version = version + 1;
+            this.slab = slab;
+            this.offset = offset;
+            this.version = version + 2;
+        }
+
+        private boolean claim() {
+            return CLAIMED.compareAndSet(this, 0, 1);
+        }
+
+        private boolean isClaimed() {
+            return this.claimed != 0;
+        }
+    }
+
+    /**
+     * Tuples d'une même arité
+     */
+    private static class Arity {
+        /**
+         * Tous les tuples de cette arité, par identifiant
+         */
+        private final CompactIndex<Slot> all = new CompactIndex<>(Slot::isClaimed);
+
+        /**
+         * Pour chaque position, les tuples rangés par hachage de la valeur du champ
+         */
+        private final List<CompactIndex<Slot>> byPosition;
+
+        private Arity(int size) {
+            this.byPosition = new ArrayList<>(size);
+            for (int i = 0; i < size; i++) {
+                this.byPosition.add(new CompactIndex<>(Slot::isClaimed));
+            }
+        }
+    }
+
+    /**
+     * Template préparé pour une recherche : encodage des champs à comparer octet par octet et matcher
+     */
+    private static final class Probe {
+        private final TemplateMatcher matcher;
+        private final byte[] bytes;
+        private final int[] offsets;
+        private final boolean[] compared;
+
+        private Probe(Tuple template) {
+            this.matcher = template.compile();
+            this.offsets = new int[template.size() + 1];
+            this.bytes = encode(template, this.offsets);
+            this.compared = new boolean[template.size()];
+            for (int i = 0; i < template.size(); i++) {
+                Serializable field = template.get(i);
+                this.compared[i] = isConcrete(field) && TupleCodec.isCanonical(field);
+            }
+        }
+    }
+
+    private final int slabSize;
+
+    /**
+     * Bloc en cours de remplissage (sa position est le prochain emplacement libre), sous le verrou allocation
+     */
+    private final Object allocation = new Object();
+    private Slab current;
+
+    /**
+     * Index par arité
+     */
+    private final ConcurrentMap<Integer, Arity> arities = new ConcurrentHashMap<>();
+
+    /**
+     * Nombre de tuples stockés
+     */
+    private final AtomicInteger size = new AtomicInteger(0);
+
+    /**
+     * Crée un espace vide
+     * @param slabSize taille d'un bloc de mémoire directe, en octets
+     */
+    public OffHeapTupleStore(int slabSize) {
+        this.slabSize = slabSize;
+    }
+
+    private static boolean isConcrete(Object field) {
+        return field != null && !(field instanceof Class) && !(field instanceof Tuple);
+    }
+
+    private static int key(Object field) {
+        return Objects.hashCode(field);
+    }
+
+    private static int key(Slot slot) {
+        return Long.hashCode(slot.id);
+    }
+
+    private static byte[] encode(Tuple tuple, int[] offsets) {
+        try {
+            ByteArrayOutputStream buf = new ByteArrayOutputStream(64);
+            TupleCodec.writeTuple(new DataOutputStream(buf), tuple, offsets);
+            return buf.toByteArray();
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Cannot encode " + tuple, e);
+        }
+    }
+
+    /**
+     * Réserve un emplacement dans le bloc courant, ou dans un nouveau bloc s'il est plein
+     * @param id identifiant de l'entrée
+     * @param length taille de l'enregistrement
+     * @return le descripteur de l'emplacement
+     */
+    private Slot allocate(long id, int length) {
+        Slab sealed = null;
+        Slot slot;
+        synchronized (this.allocation) {
+            if (this.current == null || this.current.buffer.remaining() < length) {
+                sealed = this.current;
+                if (sealed != null) {
+                    sealed.sealed = true;
+                }
+                this.current = new Slab(Math.max(this.slabSize, length));
+            }
+            int offset = this.current.buffer.position();
+            this.current.buffer.position(offset + length);
+            this.current.live.addAndGet(length);
+            slot = new Slot(id, this.current, offset, length);
+        }
+        // Bloc déjà presque vide quand il est rempli
+        if (sealed != null && sealed.isSparse(sealed.live.get())) {
+            this.compact(sealed);
+        }
+        return slot;
+    }
+
+    /**
+     * Libère la place d'un tuple réclamé, et vide son bloc s'il devient presque vide
+     * @param slot le descripteur réclamé
+     */
+    private void release(Slot slot) {
+        Slab slab;
+        // Attend la fin d'un déplacement en cours : un descripteur réclamé n'est plus déplacé
+        synchronized (slot) {
+            slab = slot.slab;
+            slot.move(RELEASED, 0);
+        }
+        if (slab.isSparse(slab.live.addAndGet(-slot.length))) {
+            this.compact(slab);
+        }
+    }
+
+    /**
+     * Déplace les tuples restants d'un bloc vers le bloc courant
+     * @param slab le bloc presque vide
+     */
+    private void compact(Slab slab) {
+        if (!slab.compacting.compareAndSet(false, true)) {
+            return;
+        }
+        for (Arity arity : this.arities.values()) {
+            for (Slot slot : arity.all.values()) {
+                if (slot.slab == slab) {
+                    this.relocate(slot, slab);
+                }
+            }
+        }
+        // Un tuple indexé pendant le parcours peut être resté : le prochain retrait relancera le déplacement
+        slab.compacting.set(false);
+    }
+
+    /**
+     * Recopie un tuple dans le bloc courant
+     * @param slot le descripteur à déplacer
+     * @param from son bloc actuel
+     */
+    private void relocate(Slot slot, Slab from) {
+        if (slot.isClaimed()) {
+            return;
+        }
+        // Réservé hors du verrou du descripteur : l'allocation peut elle-même vider un autre bloc
+        Slot target = this.allocate(slot.id, slot.length);
+        boolean moved = false;
+        synchronized (slot) {
+            if (!slot.isClaimed() && slot.slab == from) {
+                byte[] bytes = new byte[slot.length];
+                from.buffer.get(slot.offset, bytes);
+                target.slab.buffer.put(target.offset, bytes);
+                slot.move(target.slab, target.offset);
+                moved = true;
+            }
+        }
+        (moved ? from : target.slab).live.addAndGet(-slot.length);
+    }
+
+    @Override
+    long add(Tuple tuple, long id) {
+        int arity = tuple.size();
+        int[] offsets = new int[arity + 1];
+        byte[] bytes = encode(tuple, offsets);
+        int header = 4 * (arity + 1);
+        Slot slot = this.allocate(id, header + bytes.length);
+        // Écritures absolues : plusieurs écrivains remplissent des emplacements disjoints du même bloc
+        ByteBuffer buffer = slot.slab.buffer;
+        for (int i = 0; i <= arity; i++) {
+            buffer.putInt(slot.offset + 4 * i, offsets[i]);
+        }
+        buffer.put(slot.offset + header, bytes);
+
+        Arity index = this.arities.computeIfAbsent(arity, Arity::new);
+        this.size.incrementAndGet();
+        index.all.add(key(slot), slot);
+        for (int i = 0; i < arity; i++) {
+            Serializable field = tuple.get(i);
+            if (isConcrete(field)) {
+                index.byPosition.get(i).add(key(field), slot);
+            }
+        }
+        // Un take a pu réclamer l'entrée (via l'index "all") avant la fin de l'indexation
+        if (slot.isClaimed()) {
+            this.unindex(index, slot, tuple);
+        }
+        return id;
+    }
+
+    /**
+     * Renvoie les tuples candidats pour un template (le plus petit index parmi ses champs concrets)
+     */
+    private Collection<Slot> candidates(Tuple template) {
+        Arity arity = this.arities.get(template.size());
+        if (arity == null) {
+            return Collections.emptySet();
+        }
+        int best = -1;
+        int bestSize = Integer.MAX_VALUE;
+        for (int i = 0; i < template.size(); i++) {
+            Serializable field = template.get(i);
+            if (isConcrete(field)) {
+                int bucketSize = arity.byPosition.get(i).count(key(field));
+                if (bucketSize == 0) {
+                    return Collections.emptySet();
+                }
+                if (bucketSize < bestSize) {
+                    best = i;
+                    bestSize = bucketSize;
+                }
+            }
+        }
+        return best < 0 ? arity.all.values() : arity.byPosition.get(best).get(key(template.get(best)));
+    }
+
+    /**
+     * Retire une entrée réclamée de tous les index (idempotent)
+     */
+    private void unindex(Arity arity, Slot slot, Tuple tuple) {
+        arity.all.remove(key(slot), slot);
+        for (int i = 0; i < tuple.size(); i++) {
+            Serializable field = tuple.get(i);
+            if (isConcrete(field)) {
+                arity.byPosition.get(i).remove(key(field), slot);
+            }
+        }
+    }
+
+    /**
+     * Compare les champs canoniques du template à l'encodage du tuple, sans le décoder
+     */
+    private static boolean prefilter(ByteBuffer slab, int offset, Probe probe) {
+        int data = offset + 4 * probe.offsets.length;
+        for (int i = 0; i < probe.compared.length; i++) {
+            if (!probe.compared[i]) {
+                continue;
+            }
+            int start = slab.getInt(offset + 4 * i);
+            int end = slab.getInt(offset + 4 * (i + 1));
+            int templateStart = probe.offsets[i];
+            if (end - start != probe.offsets[i + 1] - templateStart) {
+                return false;
+            }
+            for (int k = 0; k < end - start; k++) {
+                if (slab.get(data + start + k) != probe.bytes[templateStart + k]) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Décode le tuple d'un emplacement, s'il passe le préfiltre
+     * @param probe le template préparé, ou null pour décoder sans comparer
+     * @return le tuple, ou null s'il ne passe pas le préfiltre ou s'il est retiré
+     */
+    private static Tuple decode(Slot slot, int arity, Probe probe) {
+        Slab slab;
+        int offset;
+        while (true) {
+            int version = slot.version;
+            if ((version & 1) != 0) {
+                // Déplacement en cours
+                Thread.onSpinWait();
+                continue;
+            }
+            slab = slot.slab;
+            offset = slot.offset;
+            if (slot.version == version) {
+                break;
+            }
+        }
+        // L'ancien bloc reste lisible tant qu'on le référence, même si le tuple vient d'être déplacé
+        if (slab == RELEASED || probe != null && !prefilter(slab.buffer, offset, probe)) {
+            return null;
+        }
+        int header = 4 * (arity + 1);
+        byte[] bytes = new byte[slot.length - header];
+        slab.buffer.get(offset + header, bytes);
+        return TupleCodec.decode(bytes);
+    }
+
+    /**
+     * Renvoie le tuple de l'emplacement s'il correspond au template, null sinon
+     */
+    private static Tuple match(Slot slot, Probe probe) {
+        if (slot.isClaimed()) {
+            return null;
+        }
+        Tuple t = decode(slot, probe.compared.length, probe);
+        return t != null && probe.matcher.matches(t) ? t : null;
+    }
+
+    @Override
+    public Tuple read(Tuple template) {
+        Probe probe = new Probe(template);
+        for (Slot slot : this.candidates(template)) {
+            Tuple t = match(slot, probe);
+            if (t != null && !slot.isClaimed()) {
+                return t;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    Entry takeEntry(Tuple template) {
+        Probe probe = new Probe(template);
+        for (Slot slot : this.candidates(template)) {
+            Tuple t = match(slot, probe);
+            if (t != null && slot.claim()) {
+                this.size.decrementAndGet();
+                this.unindex(this.arities.get(template.size()), slot, t);
+                this.release(slot);
+                return new Entry(slot.id, t);
+            }
+        }
+        return null;
+    }
+
+    @Override
+    Entry removeEntry(Tuple tuple, long id) {
+        Arity arity = this.arities.get(tuple.size());
+        if (arity == null) {
+            return null;
+        }
+        // L'index "all" est rangé par hachage de l'identifiant : seules les collisions sont parcourues
+        for (Slot slot : arity.all.get(Long.hashCode(id))) {
+            if (slot.id == id && slot.claim()) {
+                this.size.decrementAndGet();
+                this.unindex(arity, slot, tuple);
+                this.release(slot);
+                return new Entry(id, tuple);
+            }
+        }
+        return null;
+    }
+
+    @Override
+    List<Entry> takeEntries(Tuple template, int n) {
+        Probe probe = new Probe(template);
+        List<Entry> result = new ArrayList<>();
+        for (Slot slot : this.candidates(template)) {
+            if (result.size() >= n) {
+                break;
+            }
+            Tuple t = match(slot, probe);
+            if (t != null && slot.claim()) {
+                this.size.decrementAndGet();
+                this.unindex(this.arities.get(template.size()), slot, t);
+                this.release(slot);
+                result.add(new Entry(slot.id, t));
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public Iterator<Tuple> iterator(Tuple template) {
+        Probe probe = new Probe(template);
+        Iterator<Slot> candidates = this.candidates(template).iterator();
+        return new Iterator<Tuple>() {
+            private Tuple next = null;
+
+            @Override
+            public boolean hasNext() {
+                while (this.next == null && candidates.hasNext()) {
+                    this.next = match(candidates.next(), probe);
+                }
+                return this.next != null;
+            }
+
+            @Override
+            public Tuple next() {
+                if (!this.hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                Tuple result = this.next;
+                this.next = null;
+                return result;
+            }
+        };
+    }
+
+    @Override
+    List<Entry> entries() {
+        List<Entry> result = new ArrayList<>();
+        for (Map.Entry<Integer, Arity> arity : this.arities.entrySet()) {
+            for (Slot slot : arity.getValue().all.values()) {
+                Tuple t = slot.isClaimed() ? null : decode(slot, arity.getKey(), null);
+                if (t != null) {
+                    result.add(new Entry(slot.id, t));
+                }
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public int size() {
+        return this.size.get();
+    }
+
+}
@@ -0,0 +1,166 @@
+package linda.shm;
+
+import linda.Tuple;
+import linda.shm.SnapshotFile.Record;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Copie d'un espace primaire, tenue à jour par les lots de son journal de réplication (ReplicationLog)
+ * Les tuples répliqués gardent l'identifiant qu'ils ont sur le primaire : un ajout déjà appliqué (état complet
+ * puis journal) est ignoré, un retrait désigne exactement l'entrée ajoutée. Les pages d'un état complet sont
+ * accumulées, puis appliquées ensemble à la dernière.
+ * Un seul thread applique les lots ; l'espace peut être lu pendant ce temps.
+ */
+public class Replica {
+
+    private final CentralizedLinda space;
+
+    /**
+     * Tuples répliqués, par identifiant
+     */
+    private final Map<Long, Tuple> entries = new HashMap<>();
+
+    /**
+     * Identifiant du journal suivi
+     */
+    private long epoch;
+
+    /**
+     * Plus grand mandat de primaire vu dans les lots
+     */
+    private volatile long term = 0;
+
+    /**
+     * Transfert d'état complet en cours (0 aucun) et ses pages déjà reçues
+     */
+    private long transfer = 0;
+    private List<Record> incoming = new ArrayList<>();
+
+    /**
+     * Numéro du dernier enregistrement appliqué, -1 tant qu'aucun état complet n'a été reçu
+     */
+    private volatile long applied = -1;
+
+    /**
+     * Crée une copie vide
+     * @param space l'espace qui reçoit les tuples répliqués
+     */
+    public Replica(CentralizedLinda space) {
+        this.space = space;
+    }
+
+    /**
+     * Renvoie le numéro du dernier enregistrement appliqué
+     * @return le numéro, -1 si la copie attend un état complet
+     */
+    public long applied() {
+        return this.applied;
+    }
+
+    /**
+     * Renvoie le plus grand mandat de primaire vu dans les lots
+     * @return le mandat, 0 si aucun lot n'a été reçu
+     */
+    public long term() {
+        return this.term;
+    }
+
+    /**
+     * Renvoie le transfert d'état complet en cours
+     * @return l'identifiant du transfert, 0 pour en commencer un
+     */
+    public long transfer() {
+        return this.transfer;
+    }
+
+    /**
+     * Renvoie le nombre d'enregistrements reçus du transfert en cours
+     * @return le nombre d'enregistrements
+     */
+    public int received() {
+        return this.incoming.size();
+    }
+
+    /**
+     * Applique un lot du journal, ou une page d'un état complet
+     * Un lot qui ne fait pas suite au dernier appliqué (resynchronisation demandée par le primaire, ou journal
+     * d'un autre primaire) n'est pas appliqué : le prochain lot à demander est alors un état complet.
+     * @param batch le lot (qui suit le dernier enregistrement appliqué, ou page d'un état complet)
+     * @return vrai si la copie a été mise à jour (lot du journal, ou dernière page d'un état complet)
+     * @throws IOException si le lot est mal formé
+     */
+    public boolean apply(ReplicationLog.Batch batch) throws IOException {
+        this.term = Math.max(this.term, batch.getTerm());
+        if (!batch.isFull() && (batch.isResync() || batch.getEpoch() != this.epoch)) {
+            this.applied = -1;
+            this.transfer = 0;
+            this.incoming = new ArrayList<>();
+            return false;
+        }
+        List<Record> records = SnapshotFile.decode(batch.getRecords());
+        if (batch.isFull()) {
+            if (batch.getTransfer() != this.transfer) {
+                // Première page d'un transfert
+                this.transfer = batch.getTransfer();
+                this.incoming = new ArrayList<>();
+            }
+            this.incoming.addAll(records);
+            if (batch.hasMore()) {
+                return false;
+            }
+            this.epoch = batch.getEpoch();
+            this.replace(this.incoming);
+            this.transfer = 0;
+            this.incoming = new ArrayList<>();
+        } else {
+            for (Record r : records) {
+                if (r.op == SnapshotFile.PUT) {
+                    this.put(r.id, r.tuple);
+                } else {
+                    Tuple t = this.entries.remove(r.id);
+                    if (t != null) {
+                        this.space.takeReplicated(r.id, t);
+                    }
+                }
+            }
+        }
+        this.applied = batch.getSeq();
+        return true;
+    }
+
+    private void put(long id, Tuple t) {
+        if (!this.entries.containsKey(id)) {
+            this.entries.put(id, t);
+            this.space.writeReplicated(id, t);
+        }
+    }
+
+    /**
+     * Remplace le contenu de la copie par un état complet, en ne modifiant que les différences
+     * (un tuple de même identifiant mais différent vient d'un autre primaire : il est remplacé)
+     */
+    private void replace(List<Record> records) {
+        Map<Long, Tuple> full = new HashMap<>();
+        for (Record r : records) {
+            full.put(r.id, r.tuple);
+        }
+        Iterator<Map.Entry<Long, Tuple>> it = this.entries.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<Long, Tuple> e = it.next();
+            if (!e.getValue().equals(full.get(e.getKey()))) {
+                it.remove();
+                this.space.takeReplicated(e.getKey(), e.getValue());
+            }
+        }
+        for (Record r : records) {
+            this.put(r.id, r.tuple);
+        }
+    }
+
+}
@@ -0,0 +1,350 @@
+package linda.shm;
+
+import linda.Tuple;
+import linda.shm.SnapshotFile.Record;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Journal de réplication d'un serveur primaire
+ * Observateur de l'espace : chaque ajout et retrait reçoit un numéro croissant et est conservé dans un
+ * tampon circulaire, où les serveurs de secours viennent lire la suite de ce qu'ils ont déjà appliqué
+ * (attente bornée quand ils sont à jour). Un secours trop en retard (enregistrements écrasés) ou arrivé
+ * après un remplacement de l'espace demande un état complet, obtenu par parcours sans verrou comme pour
+ * un instantané complet (voir IncrementalSnapshots) : il est cohérent avec le journal à partir de son numéro,
+ * le secours appliquant les ajouts par identifiant, sans doublon. L'état complet est calculé une fois puis
+ * envoyé par pages (transfert), pour ne pas dépendre d'un seul tableau d'octets.
+ * Chaque journal porte le mandat de son primaire (term) : un secours promu prend un mandat supérieur à tous
+ * ceux qu'il a vus, ce qui permet de reconnaître un ancien primaire revenu après la promotion.
+ */
+public class ReplicationLog implements SpaceObserver {
+
+    /**
+     * Lot d'enregistrements envoyé à un secours
+     */
+    public static final class Batch implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        private final long epoch;
+        private final long term;
+        private final boolean full;
+        private final boolean resync;
+        private final long seq;
+        private final long head;
+        private final int count;
+        private final byte[] records;
+        private final long transfer;
+        private final boolean more;
+
+        private Batch(long epoch, long term, boolean full, boolean resync, long seq, long head, int count,
+                      byte[] records, long transfer, boolean more) {
+            this.epoch = epoch;
+            this.term = term;
+            this.full = full;
+            this.resync = resync;
+            this.seq = seq;
+            this.head = head;
+            this.count = count;
+            this.records = records;
+            this.transfer = transfer;
+            this.more = more;
+        }
+
+        /**
+         * Renvoie l'identifiant du journal (les numéros d'un autre journal, d'un autre primaire, n'ont pas de sens)
+         * @return l'identifiant du journal
+         */
+        public long getEpoch() {
+            return this.epoch;
+        }
+
+        /**
+         * Renvoie le mandat du primaire qui tient le journal
+         * @return le mandat
+         */
+        public long getTerm() {
+            return this.term;
+        }
+
+        /**
+         * Renvoie vrai si le lot est une page d'un état complet (ajouts seulement), qui remplace le contenu
+         * du secours une fois toutes les pages reçues
+         * @return vrai pour un état complet
+         */
+        public boolean isFull() {
+            return this.full;
+        }
+
+        /**
+         * Renvoie vrai si le secours doit demander un état complet (la suite demandée n'est plus disponible)
+         * @return vrai si un état complet est nécessaire
+         */
+        public boolean isResync() {
+            return this.resync;
+        }
+
+        /**
+         * Renvoie le numéro du dernier enregistrement couvert par le lot
+         * @return le numéro
+         */
+        public long getSeq() {
+            return this.seq;
+        }
+
+        /**
+         * Renvoie le dernier numéro du journal au moment de la réponse
+         * @return le numéro
+         */
+        public long getHead() {
+            return this.head;
+        }
+
+        /**
+         * Renvoie le nombre d'enregistrements du lot
+         * @return le nombre d'enregistrements
+         */
+        public int getCount() {
+            return this.count;
+        }
+
+        /**
+         * Renvoie l'identifiant du transfert d'un état complet, à rappeler pour demander la page suivante
+         * @return l'identifiant du transfert, 0 pour un lot du journal
+         */
+        public long getTransfer() {
+            return this.transfer;
+        }
+
+        /**
+         * Renvoie vrai si l'état complet a d'autres pages
+         * @return vrai s'il reste des pages
+         */
+        public boolean hasMore() {
+            return this.more;
+        }
+
+        byte[] getRecords() {
+            return this.records;
+        }
+    }
+
+    /**
+     * État complet en cours d'envoi à un secours
+     */
+    private static final class Transfer {
+        private final long seq;
+        private final List<Record> records;
+
+        private Transfer(long seq, List<Record> records) {
+            this.seq = seq;
+            this.records = records;
+        }
+    }
+
+    /**
+     * Nombre maximum de transferts d'état complet en cours (les plus anciens sont abandonnés, leurs secours
+     * recommencent)
+     */
+    private static final int MAX_TRANSFERS = 4;
+
+    private final CentralizedLinda space;
+
+    /**
+     * Identifiant du journal, tiré au hasard
+     */
+    private final long epoch = ThreadLocalRandom.current().nextLong();
+
+    /**
+     * Mandat du primaire
+     */
+    private final long term;
+
+    /**
+     * Transferts d'état complet en cours, par identifiant (du moins au plus récemment servi)
+     */
+    private final Map<Long, Transfer> transfers = Collections.synchronizedMap(
+            new LinkedHashMap<Long, Transfer>(MAX_TRANSFERS, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Long, Transfer> eldest) {
+                    return this.size() > MAX_TRANSFERS;
+                }
+            });
+
+    /**
+     * Tampon circulaire : l'enregistrement numéro n est à l'indice n % capacité
+     */
+    private final Record[] ring;
+
+    /* Protégés par le verrou de l'objet */
+    private long first = 1;
+    private long last = 0;
+    private int waiting = 0;
+
+    /**
+     * Commence à journaliser les modifications de l'espace
+     * @param space l'espace observé
+     * @param capacity nombre d'enregistrements conservés pour les secours en retard
+     * @param term mandat du primaire (supérieur à celui de tout primaire précédent)
+     */
+    public ReplicationLog(CentralizedLinda space, int capacity, long term) {
+        this.space = space;
+        this.ring = new Record[capacity];
+        this.term = term;
+        space.addObserver(this);
+    }
+
+    private synchronized void append(Record r) {
+        this.last++;
+        this.ring[(int) (this.last % this.ring.length)] = r;
+        if (this.last - this.first >= this.ring.length) {
+            this.first = this.last - this.ring.length + 1;
+        }
+        if (this.waiting > 0) {
+            this.notifyAll();
+        }
+    }
+
+    @Override
+    public void written(long id, Tuple t) {
+        this.append(new Record(SnapshotFile.PUT, id, t));
+    }
+
+    @Override
+    public void taken(long id, Tuple t) {
+        this.append(new Record(SnapshotFile.REMOVE, id, null));
+    }
+
+    @Override
+    public synchronized void reset() {
+        // Les secours doivent reprendre un état complet : un numéro est sauté, qui n'est plus disponible
+        this.last++;
+        this.first = this.last + 1;
+        this.notifyAll();
+    }
+
+    /**
+     * Renvoie le numéro du dernier enregistrement
+     * @return le numéro, 0 si le journal est vide
+     */
+    public synchronized long head() {
+        return this.last;
+    }
+
+    /**
+     * Renvoie le mandat du primaire
+     * @return le mandat
+     */
+    public long term() {
+        return this.term;
+    }
+
+    /**
+     * Renvoie les enregistrements qui suivent un numéro, en attendant s'il n'y en a pas encore
+     * @param after numéro du dernier enregistrement appliqué par le secours
+     * @param max nombre maximum d'enregistrements
+     * @param waitMillis attente maximum s'il n'y a rien de nouveau
+     * @return le lot, éventuellement vide, ou un lot de resynchronisation si la suite n'est plus disponible
+     * @throws InterruptedException si l'attente est interrompue
+     */
+    public Batch read(long after, int max, long waitMillis) throws InterruptedException {
+        List<Record> records = new ArrayList<>();
+        long head;
+        synchronized (this) {
+            long deadline = System.currentTimeMillis() + waitMillis;
+            long remaining = waitMillis;
+            while (after == this.last && remaining > 0) {
+                this.waiting++;
+                try {
+                    this.wait(remaining);
+                } finally {
+                    this.waiting--;
+                }
+                remaining = deadline - System.currentTimeMillis();
+            }
+            head = this.last;
+            if (after < this.first - 1 || after > this.last) {
+                return new Batch(this.epoch, this.term, false, true, after, head, 0, new byte[0], 0, false);
+            }
+            for (long n = after + 1; n <= this.last && records.size() < max; n++) {
+                records.add(this.ring[(int) (n % this.ring.length)]);
+            }
+        }
+        // Encodage hors verrou : les enregistrements ne changent plus
+        return new Batch(this.epoch, this.term, false, false, after + records.size(), head, records.size(),
+                SnapshotFile.encode(records), 0, false);
+    }
+
+    /**
+     * Renvoie une page de l'état complet de l'espace, à compléter par le journal après son numéro
+     * L'état est calculé à la première page d'un transfert, puis conservé jusqu'à l'envoi de la dernière.
+     * @param transfer identifiant du transfert (Batch.getTransfer), 0 pour en commencer un
+     * @param from nombre d'enregistrements déjà reçus
+     * @param max nombre maximum d'enregistrements
+     * @return la page, ou un lot de resynchronisation si le transfert a été abandonné
+     */
+    public Batch full(long transfer, int from, int max) {
+        Transfer t;
+        if (transfer == 0) {
+            t = this.snapshot();
+            do {
+                transfer = ThreadLocalRandom.current().nextLong();
+            } while (transfer == 0);
+            this.transfers.put(transfer, t);
+        } else {
+            t = this.transfers.get(transfer);
+            if (t == null || from > t.records.size()) {
+                return new Batch(this.epoch, this.term, false, true, 0, this.head(), 0, new byte[0], 0, false);
+            }
+        }
+        int to = (int) Math.min(t.records.size(), (long) from + max);
+        boolean more = to < t.records.size();
+        if (!more) {
+            this.transfers.remove(transfer);
+        }
+        List<Record> page = t.records.subList(from, to);
+        return new Batch(this.epoch, this.term, true, false, t.seq, t.seq, page.size(), SnapshotFile.encode(page),
+                transfer, more);
+    }
+
+    /**
+     * Calcule l'état complet de l'espace
+     * Les ajouts signalés avant son numéro mais pas encore visibles pendant le parcours sont repris du journal
+     */
+    private Transfer snapshot() {
+        long seq;
+        Map<Long, Record> inFlight = new LinkedHashMap<>();
+        synchronized (this) {
+            seq = this.last;
+            for (long n = this.first; n <= this.last; n++) {
+                Record r = this.ring[(int) (n % this.ring.length)];
+                if (r.op == SnapshotFile.PUT) {
+                    inFlight.put(r.id, r);
+                } else {
+                    inFlight.remove(r.id);
+                }
+            }
+        }
+        List<Record> records = new ArrayList<>();
+        for (TupleStore.Entry e : this.space.entries()) {
+            inFlight.remove(e.getId());
+            records.add(new Record(SnapshotFile.PUT, e.getId(), e.getTuple()));
+        }
+        records.addAll(inFlight.values());
+        return new Transfer(seq, records);
+    }
+
+    /**
+     * Arrête la journalisation
+     */
+    public void close() {
+        this.space.removeObserver(this);
+        this.transfers.clear();
+    }
+
+}
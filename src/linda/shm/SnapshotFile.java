@@ -0,0 +1,242 @@
+package linda.shm;
+
+import linda.Tuple;
+import linda.TupleCodec;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+/**
+ * Format d'un fichier d'instantané, découpé en paquets décodables indépendamment
+ * En-tête : magique (int), type (octet, complet ou différentiel), chaîne (long), numéro (long)
+ * Puis des paquets : nombre d'enregistrements (int), taille (int), CRC32 (int), contenu
+ * Un enregistrement : opération (octet), identifiant de l'entrée (varlong), tuple (TupleCodec, ajout seulement)
+ */
+final class SnapshotFile {
+
+    static final byte FULL = 1;
+    static final byte DELTA = 2;
+
+    static final byte PUT = 1;
+    static final byte REMOVE = 2;
+
+    private static final int MAGIC = 0x4C534E50;
+
+    /**
+     * Nombre d'enregistrements par paquet
+     */
+    static final int CHUNK_RECORDS = 4096;
+
+    /**
+     * Ajout ou retrait d'une entrée
+     */
+    static final class Record {
+        final byte op;
+        final long id;
+        final Tuple tuple;
+
+        Record(byte op, long id, Tuple tuple) {
+            this.op = op;
+            this.id = id;
+            this.tuple = tuple;
+        }
+    }
+
+    /**
+     * En-tête et paquets encore encodés d'un fichier
+     */
+    static final class Content {
+        final byte kind;
+        final long chain;
+        final long seq;
+        final List<byte[]> chunks;
+
+        private Content(byte kind, long chain, long seq, List<byte[]> chunks) {
+            this.kind = kind;
+            this.chain = chain;
+            this.seq = seq;
+            this.chunks = chunks;
+        }
+    }
+
+    private SnapshotFile() {
+    }
+
+    /**
+     * Écrit un fichier de façon atomique (fichier temporaire puis renommage)
+     * Le contenu est forcé sur le disque avant le renommage, et le répertoire après :
+     * au retour, le fichier survit à une panne et les fichiers qu'il remplace peuvent être supprimés
+     * @param path le fichier
+     * @param kind FULL ou DELTA
+     * @param chain numéro de chaîne
+     * @param seq numéro de l'instantané dans la chaîne
+     * @param records les enregistrements
+     * @throws IOException si l'écriture échoue
+     */
+    static void write(Path path, byte kind, long chain, long seq, Iterator<Record> records) throws IOException {
+        Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel), 1 << 16));
+            out.writeInt(MAGIC);
+            out.writeByte(kind);
+            out.writeLong(chain);
+            out.writeLong(seq);
+            ByteArrayOutputStream chunk = new ByteArrayOutputStream(1 << 16);
+            DataOutputStream chunkOut = new DataOutputStream(chunk);
+            int count = 0;
+            while (records.hasNext()) {
+                writeRecord(chunkOut, records.next());
+                if (++count == CHUNK_RECORDS) {
+                    writeChunk(out, count, chunk);
+                    count = 0;
+                }
+            }
+            if (count > 0) {
+                writeChunk(out, count, chunk);
+            }
+            out.flush();
+            channel.force(true);
+        }
+        Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        syncDirectory(path.toAbsolutePath().getParent());
+    }
+
+    /**
+     * Force sur le disque les entrées d'un répertoire (créations, renommages)
+     * Sans effet sur les systèmes qui ne permettent pas d'ouvrir un répertoire
+     * @param directory le répertoire
+     * @throws IOException si le forçage échoue
+     */
+    static void syncDirectory(Path directory) throws IOException {
+        FileChannel channel;
+        try {
+            channel = FileChannel.open(directory, StandardOpenOption.READ);
+        } catch (IOException e) {
+            return;
+        }
+        try (channel) {
+            channel.force(true);
+        }
+    }
+
+    private static void writeRecord(DataOutputStream out, Record r) throws IOException {
+        out.writeByte(r.op);
+        TupleCodec.writeVarLong(out, r.id);
+        if (r.op == PUT) {
+            TupleCodec.writeTuple(out, r.tuple);
+        }
+    }
+
+    /**
+     * Encode des enregistrements dans un seul paquet (format de decode, sans en-tête ni CRC)
+     * @param records les enregistrements
+     * @return le paquet
+     */
+    static byte[] encode(Iterable<Record> records) {
+        try {
+            ByteArrayOutputStream chunk = new ByteArrayOutputStream(1 << 12);
+            DataOutputStream out = new DataOutputStream(chunk);
+            for (Record r : records) {
+                writeRecord(out, r);
+            }
+            return chunk.toByteArray();
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Cannot encode records", e);
+        }
+    }
+
+    private static void writeChunk(DataOutputStream out, int count, ByteArrayOutputStream chunk) throws IOException {
+        byte[] bytes = chunk.toByteArray();
+        CRC32 crc = new CRC32();
+        crc.update(bytes);
+        out.writeInt(count);
+        out.writeInt(bytes.length);
+        out.writeInt((int) crc.getValue());
+        out.write(bytes);
+        chunk.reset();
+    }
+
+    /**
+     * Lit l'en-tête et les paquets (encore encodés) d'un fichier
+     * @param path le fichier
+     * @return le contenu
+     * @throws IOException si le fichier est illisible ou corrompu
+     */
+    static Content read(Path path) throws IOException {
+        List<byte[]> chunks = new ArrayList<>();
+        long[] header = read(path, chunks::add);
+        return new Content((byte) header[0], header[1], header[2], chunks);
+    }
+
+    /**
+     * Lit un fichier en passant chaque paquet (encore encodé) dès qu'il est lu, pour le décoder en parallèle
+     * @param path le fichier
+     * @param chunks reçoit les paquets, dans l'ordre
+     * @return l'en-tête : type, chaîne, numéro
+     * @throws IOException si le fichier est illisible ou corrompu
+     */
+    static long[] read(Path path, Consumer<byte[]> chunks) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path), 1 << 16))) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException("Not a snapshot: " + path);
+            }
+            byte kind = in.readByte();
+            long chain = in.readLong();
+            long seq = in.readLong();
+            while (true) {
+                int count;
+                try {
+                    count = in.readInt();
+                } catch (EOFException e) {
+                    break;
+                }
+                byte[] bytes = new byte[in.readInt()];
+                int crc = in.readInt();
+                in.readFully(bytes);
+                CRC32 check = new CRC32();
+                check.update(bytes);
+                if ((int) check.getValue() != crc) {
+                    throw new IOException("Corrupted chunk in " + path);
+                }
+                chunks.accept(bytes);
+            }
+            return new long[] { kind, chain, seq };
+        }
+    }
+
+    /**
+     * Décode un paquet (indépendant des autres paquets du fichier)
+     * @param chunk le paquet
+     * @return ses enregistrements, dans l'ordre
+     * @throws IOException si le paquet est mal formé
+     */
+    static List<Record> decode(byte[] chunk) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(chunk));
+        List<Record> records = new ArrayList<>();
+        while (in.available() > 0) {
+            byte op = in.readByte();
+            long id = TupleCodec.readVarLong(in);
+            records.add(new Record(op, id, op == PUT ? TupleCodec.readTuple(in) : null));
+        }
+        return records;
+    }
+
+}
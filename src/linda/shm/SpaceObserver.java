@@ -0,0 +1,35 @@
+package linda.shm;
+
+import linda.Tuple;
+
+/**
+ * Observateur des modifications de l'espace de tuples d'un CentralizedLinda
+ * Appelé dans le thread qui modifie l'espace : doit être rapide et ne jamais bloquer
+ * Les tuples transmis sont ceux de l'espace : ils ne doivent pas être modifiés
+ * Un tuple écrit et directement donné à un take en attente n'entre jamais dans l'espace (aucun appel)
+ * Chaque tuple stocké a un identifiant unique (deux tuples égaux ont des identifiants différents)
+ * L'ajout est signalé juste avant que le tuple devienne visible : le retrait d'un tuple est donc toujours
+ * signalé après son ajout
+ */
+public interface SpaceObserver {
+
+    /**
+     * Un tuple a été ajouté à l'espace
+     * @param id identifiant du tuple stocké
+     * @param t le tuple ajouté
+     */
+    void written(long id, Tuple t);
+
+    /**
+     * Un tuple a été retiré de l'espace
+     * @param id identifiant du tuple stocké
+     * @param t le tuple retiré
+     */
+    void taken(long id, Tuple t);
+
+    /**
+     * L'espace a été remplacé en entier (chargement d'un fichier)
+     */
+    void reset();
+
+}
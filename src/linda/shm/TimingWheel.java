@@ -0,0 +1,137 @@
+package linda.shm;
+
+/**
+ * Roue temporelle hiérarchique : échéances en O(1) à l'insertion et par tick
+ * LEVELS niveaux de SLOTS cases ; une case du niveau l couvre SLOTS^l ticks. Une échéance à moins de SLOTS^(l+1)
+ * ticks va dans le niveau l, à la case de son échéance ; quand le temps entre dans une case d'un niveau supérieur,
+ * ses timers sont redescendus (au plus LEVELS fois par timer). Chaque tick ne traite que la case qui échoit
+ * et, une fois tous les SLOTS ticks, une case à redescendre : le coût ne dépend pas du nombre de timers.
+ * Une échéance au-delà de la portée de la roue (SLOTS^LEVELS ticks) est rangée au plus loin, puis replacée.
+ * Les timers ne sont pas retirés de la roue : un timer annulé ou repoussé est écarté ou replacé quand sa case
+ * échoit (voir Timer.deadline). Non synchronisée : l'appelant protège les accès.
+ */
+class TimingWheel {
+
+    private static final int SLOT_BITS = 6;
+    private static final int SLOTS = 1 << SLOT_BITS;
+    private static final int LEVELS = 4;
+
+    /**
+     * Un timer, chaîné dans sa case
+     */
+    static class Timer {
+        /**
+         * Échéance, en ticks ; peut être repoussée pendant que le timer est dans la roue
+         */
+        volatile long deadline;
+
+        /**
+         * Timer suivant de la même case
+         */
+        private Timer next;
+    }
+
+    /**
+     * Traitement des timers échus
+     */
+    interface Expiry {
+        /**
+         * Appelé pour un timer dont la case échoit
+         * @param timer le timer
+         * @param now le tick courant
+         * @return vrai pour replacer le timer dans la roue (échéance repoussée), faux pour l'oublier
+         */
+        boolean expired(Timer timer, long now);
+    }
+
+    /**
+     * Premier timer de chaque case, par niveau
+     */
+    private final Timer[][] slots = new Timer[LEVELS][SLOTS];
+
+    /**
+     * Dernier tick traité
+     */
+    private long now;
+
+    /**
+     * Crée une roue
+     * @param now le tick courant
+     */
+    TimingWheel(long now) {
+        this.now = now;
+    }
+
+    /**
+     * Renvoie le dernier tick traité
+     */
+    long now() {
+        return this.now;
+    }
+
+    /**
+     * Ajoute un timer ; une échéance passée échoit au prochain tick
+     * @param timer le timer (pas déjà dans la roue)
+     */
+    void add(Timer timer) {
+        this.place(timer, this.now + 1);
+    }
+
+    /**
+     * Range un timer dans la case de son échéance
+     * @param timer le timer
+     * @param earliest premier tick auquel il peut échoir
+     */
+    private void place(Timer timer, long earliest) {
+        long deadline = Math.max(timer.deadline, earliest);
+        long delta = deadline - this.now;
+        int level = 0;
+        while (level < LEVELS - 1 && delta >= 1L << (SLOT_BITS * (level + 1))) {
+            level++;
+        }
+        // Hors de portée : dans la case du dernier niveau qui sera redescendue le plus tard
+        long at = delta < 1L << (SLOT_BITS * LEVELS) ? deadline : this.now + ((long) (SLOTS - 1) << (SLOT_BITS * level));
+        int slot = (int) (at >>> (SLOT_BITS * level)) & (SLOTS - 1);
+        timer.next = this.slots[level][slot];
+        this.slots[level][slot] = timer;
+    }
+
+    /**
+     * Avance la roue jusqu'à un tick, en traitant les timers échus
+     * @param until le tick à atteindre
+     * @param expiry traitement des timers échus
+     */
+    void advance(long until, Expiry expiry) {
+        while (this.now < until) {
+            this.now++;
+            // Redescend les cases supérieures dans lesquelles le temps entre, de la plus haute à la plus basse
+            for (int level = LEVELS - 1; level > 0; level--) {
+                if ((this.now & ((1L << (SLOT_BITS * level)) - 1)) == 0) {
+                    int slot = (int) (this.now >>> (SLOT_BITS * level)) & (SLOTS - 1);
+                    Timer timer = this.detach(level, slot);
+                    while (timer != null) {
+                        Timer next = timer.next;
+                        this.place(timer, this.now);
+                        timer = next;
+                    }
+                }
+            }
+            Timer timer = this.detach(0, (int) this.now & (SLOTS - 1));
+            while (timer != null) {
+                Timer next = timer.next;
+                // Échéance repoussée entre-temps, ou repoussée par le traitement
+                if (timer.deadline > this.now || expiry.expired(timer, this.now)) {
+                    this.place(timer, this.now + 1);
+                }
+                timer = next;
+            }
+        }
+    }
+
+    private Timer detach(int level, int slot) {
+        Timer first = this.slots[level][slot];
+        this.slots[level][slot] = null;
+        return first;
+    }
+
+}
@@ -0,0 +1,213 @@
+package linda.shm;
+
+import linda.Tuple;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Stockage des tuples d'un CentralizedLinda
+ * Deux implémentations, choisies au démarrage par la propriété système linda.store :
+ * heap (par défaut, HeapTupleStore : les tuples restent des objets sur le tas) ou offheap[:N]
+ * (OffHeapTupleStore : tuples encodés hors du tas, dans des blocs de N Mo, 64 par défaut ; la mémoire directe
+ * se borne avec -XX:MaxDirectMemorySize).
+ * Les implémentations ne prennent aucun verrou global ; un tuple n'est renvoyé par take qu'une fois.
+ */
+public abstract class TupleStore {
+
+    /**
+     * Nom de la propriété système choisissant l'implémentation
+     */
+    public static final String PROPERTY = "linda.store";
+
+    /**
+     * Générateur d'identifiants d'entrées, uniques dans la JVM (y compris après un rechargement de l'espace)
+     */
+    private static final AtomicLong ids = new AtomicLong(0);
+
+    /**
+     * Un tuple stocké et son identifiant
+     * L'identifiant distingue deux tuples égaux, pour les observateurs (instantanés incrémentaux)
+     */
+    static class Entry {
+        private final long id;
+        private final Tuple tuple;
+
+        Entry(long id, Tuple tuple) {
+            this.id = id;
+            this.tuple = tuple;
+        }
+
+        long getId() {
+            return this.id;
+        }
+
+        Tuple getTuple() {
+            return this.tuple;
+        }
+    }
+
+    /**
+     * Crée un stockage vide, de l'implémentation choisie par la propriété linda.store
+     * @return le stockage
+     */
+    public static TupleStore create() {
+        String value = System.getProperty(PROPERTY, "heap").trim().toLowerCase();
+        if (value.equals("heap")) {
+            return new HeapTupleStore();
+        } else if (value.equals("offheap")) {
+            return new OffHeapTupleStore(OffHeapTupleStore.DEFAULT_SLAB_SIZE);
+        } else if (value.startsWith("offheap:")) {
+            return new OffHeapTupleStore(Integer.parseInt(value.substring("offheap:".length())) << 20);
+        }
+        throw new IllegalArgumentException("Unknown " + PROPERTY + ": " + value);
+    }
+
+    /**
+     * Réserve un identifiant d'entrée, pour le signaler avant d'ajouter le tuple
+     * @return un nouvel identifiant
+     */
+    static long nextId() {
+        return ids.incrementAndGet();
+    }
+
+    /**
+     * Garantit que les prochains identifiants réservés seront supérieurs à un identifiant venu d'ailleurs
+     * (tuple répliqué depuis un autre serveur)
+     * @param id l'identifiant utilisé
+     */
+    static void reserve(long id) {
+        ids.accumulateAndGet(id, Math::max);
+    }
+
+    /**
+     * Ajoute un tuple à l'espace
+     * @param tuple le tuple à ajouter (non copié)
+     * @return l'identifiant de l'entrée
+     */
+    public long add(Tuple tuple) {
+        return this.add(tuple, nextId());
+    }
+
+    /**
+     * Ajoute un tuple à l'espace avec un identifiant réservé par nextId
+     * @param tuple le tuple à ajouter (non copié)
+     * @param id l'identifiant de l'entrée
+     * @return l'identifiant de l'entrée
+     */
+    abstract long add(Tuple tuple, long id);
+
+    /**
+     * Renvoie un tuple correspondant au template, sans le retirer
+     * @param template le template
+     * @return le tuple stocké (à ne pas modifier), null si aucun
+     */
+    public abstract Tuple read(Tuple template);
+
+    /**
+     * Retire et renvoie un tuple correspondant au template
+     * @param template le template
+     * @return le tuple retiré (non copié), null si aucun
+     */
+    public Tuple take(Tuple template) {
+        Entry entry = this.takeEntry(template);
+        return entry == null ? null : entry.getTuple();
+    }
+
+    /**
+     * Retire et renvoie l'entrée d'un tuple correspondant au template
+     * @param template le template
+     * @return l'entrée retirée, null si aucune
+     */
+    abstract Entry takeEntry(Tuple template);
+
+    /**
+     * Retire une entrée désignée par son identifiant, sans parcourir les candidats (index par identifiant)
+     * @param tuple le tuple de l'entrée (pour la retrouver dans les index)
+     * @param id l'identifiant de l'entrée
+     * @return l'entrée retirée, null si elle n'est pas (ou plus) dans l'espace
+     */
+    abstract Entry removeEntry(Tuple tuple, long id);
+
+    /**
+     * Retire et renvoie au plus n tuples correspondant au template, en un seul parcours des candidats
+     * @param template le template
+     * @param n nombre maximum de tuples
+     * @return les tuples retirés (non copiés)
+     */
+    public Collection<Tuple> takeN(Tuple template, int n) {
+        Collection<Tuple> result = new ArrayList<>();
+        for (Entry entry : this.takeEntries(template, n)) {
+            result.add(entry.getTuple());
+        }
+        return result;
+    }
+
+    /**
+     * Retire et renvoie au plus n entrées correspondant au template, en un seul parcours des candidats
+     * @param template le template
+     * @param n nombre maximum d'entrées
+     * @return les entrées retirées
+     */
+    abstract List<Entry> takeEntries(Tuple template, int n);
+
+    /**
+     * Renvoie tous les tuples correspondant au template, sans les retirer
+     * @param template le template
+     * @return les tuples stockés (à ne pas modifier)
+     */
+    public Collection<Tuple> readAll(Tuple template) {
+        return this.readN(template, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Renvoie au plus n tuples correspondant au template, sans les retirer
+     * @param template le template
+     * @param n nombre maximum de tuples
+     * @return les tuples stockés (à ne pas modifier)
+     */
+    public Collection<Tuple> readN(Tuple template, int n) {
+        Collection<Tuple> result = new ArrayList<>();
+        Iterator<Tuple> it = this.iterator(template);
+        while (result.size() < n && it.hasNext()) {
+            result.add(it.next());
+        }
+        return result;
+    }
+
+    /**
+     * Renvoie un itérateur paresseux sur les tuples correspondant au template
+     * Faiblement cohérent : il peut voir ou non les tuples écrits ou retirés pendant le parcours
+     * @param template le template
+     * @return un itérateur sur les tuples stockés (à ne pas modifier)
+     */
+    public abstract Iterator<Tuple> iterator(Tuple template);
+
+    /**
+     * Renvoie une copie de la liste de tous les tuples stockés
+     * @return les tuples stockés (à ne pas modifier)
+     */
+    public Collection<Tuple> toList() {
+        Collection<Tuple> result = new ArrayList<>();
+        for (Entry entry : this.entries()) {
+            result.add(entry.getTuple());
+        }
+        return result;
+    }
+
+    /**
+     * Renvoie les entrées stockées (parcours faiblement cohérent, sans verrou)
+     * @return les entrées non retirées
+     */
+    abstract List<Entry> entries();
+
+    /**
+     * Renvoie le nombre de tuples stockés
+     * @return le nombre de tuples
+     */
+    public abstract int size();
+
+}
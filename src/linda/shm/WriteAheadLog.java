@@ -0,0 +1,618 @@
+package linda.shm;
+
+import linda.Tuple;
+import linda.TupleCodec;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * Journal (write-ahead log) d'un CentralizedLinda : chaque ajout et retrait de l'espace est journalisé
+ * Observateur de l'espace : l'écrivain ne fait qu'encoder le tuple et l'ajouter à un tampon en mémoire.
+ * Un thread d'écriture vide le tampon dans le segment courant puis fait un fsync, au plus toutes les
+ * syncInterval ms (group commit : un fsync pour toutes les opérations accumulées). Avec syncWrites,
+ * l'écrivain attend en plus que son opération soit sur disque.
+ * Les segments pleins (ou plus vieux que checkpointInterval) sont fermés et repliés en tâche de fond
+ * dans un checkpoint (l'état complet de l'espace), puis supprimés. Au redémarrage, l'espace est
+ * reconstruit à partir du checkpoint et des segments restants, puis compacté.
+ * Format d'un enregistrement : longueur (int), CRC32 (int), opération (octet), tuple (TupleCodec).
+ * Un enregistrement incomplet ou corrompu en fin de journal (arrêt brutal) est ignoré.
+ * Si une écriture échoue, le lot n'est pas considéré comme écrit : avec syncWrites ses écrivains reçoivent
+ * l'erreur (UncheckedIOException), et les opérations suivantes sont refusées jusqu'à ce que le segment ait été
+ * tronqué après son dernier enregistrement complet et remplacé par un nouveau segment.
+ */
+public class WriteAheadLog implements SpaceObserver, Closeable {
+
+    /* Opérations journalisées */
+    private static final byte WRITE = 1;
+    private static final byte TAKE = 2;
+    private static final byte RESET = 3;
+
+    /**
+     * Taille au-delà de laquelle un segment est fermé et replié dans le checkpoint
+     */
+    private static final long SEGMENT_SIZE = 64L << 20;
+
+    /**
+     * Taille du tampon au-delà de laquelle le thread d'écriture est réveillé sans attendre syncInterval
+     */
+    private static final int FLUSH_THRESHOLD = 1 << 20;
+
+    private static final int CHECKPOINT_MAGIC = 0x4C574350;
+    private static final String CHECKPOINT = "checkpoint";
+    private static final String SEGMENT_PREFIX = "wal-";
+    private static final String SEGMENT_SUFFIX = ".log";
+
+    private final CentralizedLinda space;
+    private final Path directory;
+    private final long syncInterval;
+    private final boolean syncWrites;
+    private final long checkpointInterval;
+
+    /**
+     * Protège le tampon et les compteurs ; sert aussi à réveiller le thread d'écriture et les écrivains en attente
+     */
+    private final Object lock = new Object();
+    private byte[] buffer = new byte[64 * 1024];
+    private int length = 0;
+    private long firstAppend;
+    private Batch batch = new Batch();
+    private int waiters = 0;
+    private boolean closed = false;
+    private boolean rotateRequested = false;
+
+    /* Segment courant, utilisé par le seul thread d'écriture */
+    private FileChannel segment;
+    private long segmentNumber;
+    private long segmentBytes;
+    private long segmentOpened;
+
+    private final Thread flusher;
+
+    /**
+     * Replie les segments fermés dans le checkpoint, un à la fois
+     */
+    private final ExecutorService compactor = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "linda-wal-compactor");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * Dernière erreur d'écriture, signalée à la fermeture
+     */
+    private volatile IOException failure;
+
+    /**
+     * Erreur d'écriture pas encore réparée : les ajouts sont refusés tant qu'elle n'est pas nulle
+     */
+    private volatile IOException broken;
+
+    /**
+     * Opérations vidées par un même fsync ; avec syncWrites, leurs écrivains en attendent l'issue
+     */
+    private static final class Batch {
+        private boolean done = false;
+        private IOException error;
+    }
+
+    /**
+     * Restaure l'espace à partir du journal, le compacte, puis journalise les modifications suivantes
+     * L'espace ne doit pas encore être utilisé
+     * @param space l'espace à restaurer et journaliser
+     * @param directory répertoire du journal (créé au besoin)
+     * @param syncIntervalMillis délai maximum avant qu'une opération soit sur disque (fsync)
+     * @param syncWrites vrai pour que chaque écrivain attende que son opération soit sur disque
+     * @param checkpointIntervalMillis âge maximum d'un segment avant d'être replié dans le checkpoint
+     * @return le journal ouvert
+     * @throws IOException si le journal ne peut pas être lu ou créé
+     */
+    public static WriteAheadLog open(CentralizedLinda space, Path directory, long syncIntervalMillis,
+                                     boolean syncWrites, long checkpointIntervalMillis) throws IOException {
+        Files.createDirectories(directory);
+        long last = compact(directory, Long.MAX_VALUE);
+        space.restore(readCheckpoint(directory.resolve(CHECKPOINT)).tuples());
+        WriteAheadLog wal = new WriteAheadLog(space, directory, syncIntervalMillis, syncWrites, checkpointIntervalMillis, last + 1);
+        space.addObserver(wal);
+        return wal;
+    }
+
+    private WriteAheadLog(CentralizedLinda space, Path directory, long syncInterval, boolean syncWrites,
+                          long checkpointInterval, long firstSegment) throws IOException {
+        this.space = space;
+        this.directory = directory;
+        this.syncInterval = syncInterval;
+        this.syncWrites = syncWrites;
+        this.checkpointInterval = checkpointInterval;
+        this.openSegment(firstSegment);
+        this.flusher = new Thread(this::flushLoop, "linda-wal-flusher");
+        this.flusher.setDaemon(true);
+        this.flusher.start();
+    }
+
+    @Override
+    public void written(long id, Tuple t) {
+        this.append(WRITE, t);
+    }
+
+    @Override
+    public void taken(long id, Tuple t) {
+        this.append(TAKE, t);
+    }
+
+    @Override
+    public void reset() {
+        // L'espace a été remplacé : on journalise son nouveau contenu
+        this.append(RESET, null);
+        for (Tuple t : this.space.contents()) {
+            this.append(WRITE, t);
+        }
+    }
+
+    /**
+     * Demande la fermeture du segment courant et son repli dans le checkpoint
+     */
+    public void checkpoint() {
+        synchronized (this.lock) {
+            this.rotateRequested = true;
+            this.lock.notifyAll();
+        }
+    }
+
+    /**
+     * Ajoute une opération au tampon (thread de l'écrivain)
+     * @param op l'opération
+     * @param t le tuple, null pour RESET
+     * @throws UncheckedIOException si le journal est en erreur, ou (syncWrites) si l'opération n'a pas pu être écrite
+     */
+    private void append(byte op, Tuple t) {
+        byte[] payload = t == null ? new byte[0] : TupleCodec.encode(t);
+        CRC32 crc = new CRC32();
+        crc.update(op);
+        crc.update(payload);
+        synchronized (this.lock) {
+            if (this.broken != null) {
+                throw new UncheckedIOException("Write-ahead log unavailable", this.broken);
+            }
+            int size = 9 + payload.length;
+            if (this.length + size > this.buffer.length) {
+                byte[] bigger = new byte[Math.max(this.buffer.length * 2, this.length + size)];
+                System.arraycopy(this.buffer, 0, bigger, 0, this.length);
+                this.buffer = bigger;
+            }
+            if (this.length == 0) {
+                this.firstAppend = System.currentTimeMillis();
+            }
+            ByteBuffer record = ByteBuffer.wrap(this.buffer, this.length, size);
+            record.putInt(1 + payload.length).putInt((int) crc.getValue()).put(op).put(payload);
+            this.length += size;
+            Batch batch = this.batch;
+            if (this.length >= FLUSH_THRESHOLD) {
+                this.lock.notifyAll();
+            }
+            if (this.syncWrites) {
+                // Group commit : un seul fsync pour toutes les opérations en attente
+                this.waiters++;
+                this.lock.notifyAll();
+                boolean interrupted = false;
+                while (!batch.done && !this.closed) {
+                    try {
+                        this.lock.wait();
+                    } catch (InterruptedException e) {
+                        interrupted = true;
+                    }
+                }
+                this.waiters--;
+                if (interrupted) {
+                    Thread.currentThread().interrupt();
+                }
+                if (batch.error != null) {
+                    throw new UncheckedIOException("Write-ahead log write failed", batch.error);
+                }
+            }
+        }
+    }
+
+    /**
+     * Boucle du thread d'écriture : vide le tampon, fsync, change de segment au besoin
+     * Après une erreur d'écriture, répare le segment (au plus une tentative par seconde) avant d'écrire à nouveau
+     */
+    private void flushLoop() {
+        byte[] spare = new byte[this.buffer.length];
+        while (true) {
+            if (this.broken != null && !this.repair()) {
+                synchronized (this.lock) {
+                    if (this.closed) {
+                        return;
+                    }
+                    try {
+                        this.lock.wait(1000);
+                    } catch (InterruptedException e) {
+                    }
+                }
+                continue;
+            }
+            byte[] data;
+            int n;
+            Batch flushed;
+            boolean last;
+            boolean rotate;
+            synchronized (this.lock) {
+                while (!this.closed && !this.rotateRequested) {
+                    long now = System.currentTimeMillis();
+                    // Au plus syncInterval ms après la première opération en attente
+                    long remaining = this.firstAppend + this.syncInterval - now;
+                    if (this.length > 0 && (this.waiters > 0 || this.length >= FLUSH_THRESHOLD || remaining <= 0)) {
+                        break;
+                    }
+                    if (this.length == 0 && this.segmentBytes > 0 && now - this.segmentOpened > this.checkpointInterval) {
+                        break;
+                    }
+                    try {
+                        this.lock.wait(this.length == 0 ? 1000 : remaining);
+                    } catch (InterruptedException e) {
+                    }
+                }
+                data = this.buffer;
+                n = this.length;
+                flushed = this.batch;
+                this.batch = new Batch();
+                last = this.closed;
+                rotate = this.rotateRequested;
+                this.rotateRequested = false;
+                this.buffer = spare.length >= data.length ? spare : new byte[data.length];
+                this.length = 0;
+            }
+            IOException error = null;
+            try {
+                if (n > 0) {
+                    ByteBuffer out = ByteBuffer.wrap(data, 0, n);
+                    while (out.hasRemaining()) {
+                        this.segment.write(out);
+                    }
+                    this.segment.force(false);
+                    this.segmentBytes += n;
+                }
+            } catch (IOException e) {
+                // Le lot n'est pas sur disque : ses écrivains reçoivent l'erreur, les ajouts suivants sont
+                // refusés jusqu'à ce que le segment soit tronqué (un enregistrement à moitié écrit arrêterait le rejeu)
+                error = e;
+                this.failure = e;
+                System.err.println("Write-ahead log error: " + e);
+            }
+            spare = data;
+            synchronized (this.lock) {
+                flushed.done = true;
+                flushed.error = error;
+                if (error != null) {
+                    this.broken = error;
+                }
+                this.lock.notifyAll();
+            }
+            if (last) {
+                return;
+            }
+            boolean old = System.currentTimeMillis() - this.segmentOpened > this.checkpointInterval;
+            if (error == null && this.segmentBytes > 0 && (rotate || old || this.segmentBytes > SEGMENT_SIZE)) {
+                this.rotate();
+            }
+        }
+    }
+
+    /**
+     * Répare le journal après une erreur d'écriture : tronque le segment après son dernier enregistrement
+     * complet, puis passe au segment suivant ; les ajouts sont de nouveau acceptés
+     * @return faux si la réparation a échoué
+     */
+    private boolean repair() {
+        try {
+            this.segment.truncate(this.segmentBytes);
+            this.segment.force(true);
+        } catch (IOException e) {
+            System.err.println("Write-ahead log repair error: " + e);
+            return false;
+        }
+        if (!this.rotate()) {
+            return false;
+        }
+        synchronized (this.lock) {
+            this.broken = null;
+        }
+        return true;
+    }
+
+    /**
+     * Ouvre un nouveau segment, ferme le segment courant et le replie dans le checkpoint en tâche de fond
+     * @return faux si le nouveau segment n'a pas pu être ouvert (le segment courant reste utilisé)
+     */
+    private boolean rotate() {
+        long closedSegment = this.segmentNumber;
+        FileChannel closing = this.segment;
+        try {
+            this.openSegment(closedSegment + 1);
+        } catch (IOException e) {
+            this.failure = e;
+            System.err.println("Write-ahead log error: " + e);
+            return false;
+        }
+        try {
+            closing.close();
+        } catch (IOException e) {
+            System.err.println("Write-ahead log error: " + e);
+        }
+        this.compactor.execute(() -> {
+            try {
+                compact(this.directory, closedSegment);
+            } catch (IOException e) {
+                System.err.println("Write-ahead log compaction error: " + e);
+            }
+        });
+        return true;
+    }
+
+    /**
+     * Ouvre (ou crée) un segment et en fait le segment courant
+     * Le répertoire est forcé sur le disque : un segment créé survit à une panne
+     * @param number numéro du segment
+     * @throws IOException si le segment ne peut pas être ouvert
+     */
+    private void openSegment(long number) throws IOException {
+        FileChannel channel = FileChannel.open(segmentPath(this.directory, number),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        try {
+            SnapshotFile.syncDirectory(this.directory);
+            this.segmentBytes = channel.size();
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        this.segment = channel;
+        this.segmentNumber = number;
+        this.segmentOpened = System.currentTimeMillis();
+    }
+
+    /**
+     * Vide le tampon, ferme le segment et attend la fin du repli en cours
+     * @throws IOException si une écriture a échoué
+     */
+    @Override
+    public void close() throws IOException {
+        this.space.removeObserver(this);
+        synchronized (this.lock) {
+            this.closed = true;
+            this.lock.notifyAll();
+        }
+        try {
+            this.flusher.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        this.segment.close();
+        this.compactor.shutdown();
+        if (this.failure != null) {
+            throw this.failure;
+        }
+    }
+
+    /* Checkpoint et rejeu, utilisés à l'ouverture et par le thread de repli */
+
+    /**
+     * Contenu de l'espace reconstruit : nombre d'exemplaires de chaque tuple, dans l'ordre d'arrivée
+     * Un retrait est toujours journalisé après l'ajout correspondant (voir SpaceObserver) ;
+     * par précaution, un retrait sans ajout rend le compte négatif jusqu'à l'ajout.
+     * Un compte négatif est conservé par le checkpoint (retraits en attente), car l'ajout peut se trouver
+     * dans un segment replié plus tard (journaux écrits avant que cet ordre soit garanti)
+     */
+    private static class Replay {
+        private final Map<Tuple, int[]> counts = new LinkedHashMap<>();
+        private long lastSegment = 0;
+
+        private void add(Tuple t, int delta) {
+            int[] count = this.counts.computeIfAbsent(t, k -> new int[1]);
+            count[0] += delta;
+            if (count[0] == 0) {
+                this.counts.remove(t);
+            }
+        }
+
+        private List<Tuple> tuples() {
+            List<Tuple> result = new ArrayList<>();
+            for (Map.Entry<Tuple, int[]> e : this.counts.entrySet()) {
+                for (int i = 0; i < e.getValue()[0]; i++) {
+                    result.add(i == 0 ? e.getKey() : e.getKey().deepclone());
+                }
+            }
+            return result;
+        }
+
+        /**
+         * Renvoie les retraits en attente de leur ajout, un exemplaire par retrait
+         * @return les tuples dont le compte est négatif
+         */
+        private List<Tuple> pendingTakes() {
+            List<Tuple> result = new ArrayList<>();
+            for (Map.Entry<Tuple, int[]> e : this.counts.entrySet()) {
+                for (int i = 0; i < -e.getValue()[0]; i++) {
+                    result.add(e.getKey());
+                }
+            }
+            return result;
+        }
+    }
+
+    /**
+     * Replie dans le checkpoint les segments jusqu'à upTo, puis les supprime
+     * @param directory répertoire du journal
+     * @param upTo dernier segment à replier
+     * @return le dernier segment replié
+     * @throws IOException si le checkpoint ne peut pas être écrit
+     */
+    private static synchronized long compact(Path directory, long upTo) throws IOException {
+        Path checkpoint = directory.resolve(CHECKPOINT);
+        Replay replay = readCheckpoint(checkpoint);
+        long covered = replay.lastSegment;
+        List<Path> replayed = new ArrayList<>();
+        for (Map.Entry<Long, Path> e : segments(directory).entrySet()) {
+            if (e.getKey() > upTo) {
+                break;
+            }
+            if (e.getKey() > covered) {
+                replaySegment(e.getValue(), replay);
+                replay.lastSegment = e.getKey();
+            }
+            replayed.add(e.getValue());
+        }
+        if (replay.lastSegment != covered) {
+            Path tmp = directory.resolve(CHECKPOINT + ".tmp");
+            try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING)) {
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(channelOutput(channel), 1 << 16));
+                out.writeInt(CHECKPOINT_MAGIC);
+                out.writeLong(replay.lastSegment);
+                TupleCodec.writeTuples(out, replay.tuples());
+                TupleCodec.writeTuples(out, replay.pendingTakes());
+                out.flush();
+                channel.force(true);
+            }
+            Files.move(tmp, checkpoint, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            // Le nouveau checkpoint doit être sur disque avant la suppression des segments qu'il couvre
+            SnapshotFile.syncDirectory(directory);
+        }
+        for (Path p : replayed) {
+            Files.deleteIfExists(p);
+        }
+        return replay.lastSegment;
+    }
+
+    private static Replay readCheckpoint(Path checkpoint) throws IOException {
+        Replay replay = new Replay();
+        if (!Files.exists(checkpoint)) {
+            return replay;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(checkpoint), 1 << 16))) {
+            if (in.readInt() != CHECKPOINT_MAGIC) {
+                throw new IOException("Not a checkpoint: " + checkpoint);
+            }
+            replay.lastSegment = in.readLong();
+            for (Tuple t : TupleCodec.readTuples(in)) {
+                replay.add(t, 1);
+            }
+            Collection<Tuple> pending;
+            try {
+                pending = TupleCodec.readTuples(in);
+            } catch (EOFException e) {
+                // Checkpoint écrit sans les retraits en attente
+                pending = Collections.emptyList();
+            }
+            for (Tuple t : pending) {
+                replay.add(t, -1);
+            }
+        }
+        return replay;
+    }
+
+    private static void replaySegment(Path segment, Replay replay) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(segment), 1 << 16))) {
+            while (true) {
+                int size;
+                try {
+                    size = in.readInt();
+                } catch (EOFException e) {
+                    return;
+                }
+                byte[] payload;
+                int crc;
+                try {
+                    crc = in.readInt();
+                    if (size < 1 || size > (64 << 20)) {
+                        throw new EOFException();
+                    }
+                    payload = new byte[size];
+                    in.readFully(payload);
+                } catch (EOFException e) {
+                    System.err.println("Truncated record ignored at the end of " + segment);
+                    return;
+                }
+                CRC32 check = new CRC32();
+                check.update(payload);
+                if ((int) check.getValue() != crc) {
+                    System.err.println("Corrupted record ignored at the end of " + segment);
+                    return;
+                }
+                byte op = payload[0];
+                if (op == RESET) {
+                    replay.counts.clear();
+                } else {
+                    byte[] encoded = new byte[payload.length - 1];
+                    System.arraycopy(payload, 1, encoded, 0, encoded.length);
+                    replay.add(TupleCodec.decode(encoded), op == WRITE ? 1 : -1);
+                }
+            }
+        }
+    }
+
+    /**
+     * Renvoie les segments du répertoire, par numéro croissant
+     */
+    private static TreeMap<Long, Path> segments(Path directory) throws IOException {
+        TreeMap<Long, Path> result = new TreeMap<>();
+        try (Stream<Path> files = Files.list(directory)) {
+            files.forEach(p -> {
+                String name = p.getFileName().toString();
+                if (name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX)) {
+                    try {
+                        result.put(Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length())), p);
+                    } catch (NumberFormatException e) {
+                    }
+                }
+            });
+        }
+        return result;
+    }
+
+    private static Path segmentPath(Path directory, long number) {
+        return directory.resolve(String.format("%s%06d%s", SEGMENT_PREFIX, number, SEGMENT_SUFFIX));
+    }
+
+    private static OutputStream channelOutput(FileChannel channel) {
+        return new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                this.write(new byte[] { (byte) b }, 0, 1);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                ByteBuffer buf = ByteBuffer.wrap(b, off, len);
+                while (buf.hasRemaining()) {
+                    channel.write(buf);
+                }
+            }
+        };
+    }
+
+}
@@ -0,0 +1,40 @@
+package linda.test;
+
+import linda.AsyncLinda;
+import linda.Tuple;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+public class TestAsync {
+
+    public static void main(String[] a) {
+        //final AsyncLinda linda = new linda.shm.CentralizedLinda();
+        final AsyncLinda linda = new linda.server.LindaClient("rmi://localhost:4000/LindaServer");
+        //final AsyncLinda linda = new linda.server.LindaClient("nio://localhost:4001");
+
+        // Un seul thread lance 500 take en attente, sans bloquer
+        List<CompletableFuture<Tuple>> takes = new ArrayList<>();
+        for (int i = 0; i < 500; i++) {
+            takes.add(linda.takeAsync(new Tuple("async", i)));
+        }
+        System.out.println("(1) 500 takeAsync lancés");
+
+        // Composition : le read ne part qu'une fois l'écriture faite
+        CompletableFuture<Tuple> read = linda.writeAsync(new Tuple("compose", 1))
+                .thenCompose(v -> linda.readAsync(new Tuple("compose", Integer.class)));
+
+        List<CompletableFuture<Void>> writes = new ArrayList<>();
+        for (int i = 0; i < 500; i++) {
+            writes.add(linda.writeAsync(new Tuple("async", i)));
+        }
+        System.out.println("(1) 500 writeAsync lancés");
+
+        CompletableFuture.allOf(writes.toArray(new CompletableFuture<?>[0])).join();
+        CompletableFuture.allOf(takes.toArray(new CompletableFuture<?>[0])).join();
+        System.out.println("(1) Resultat: " + takes.size() + " tuples pris, dernier " + takes.get(499).join());
+        System.out.println("(1) Resultat compose: " + read.join());
+        System.exit(0);
+    }
+}
@@ -0,0 +1,45 @@
+package linda.test;
+
+import linda.Tuple;
+import linda.server.LindaClient;
+import linda.server.TupleCursor;
+
+import java.util.ArrayList;
+import java.util.Collection;
+
+public class TestCursor {
+
+    public static void main(String[] a) {
+        final LindaClient linda = new LindaClient("rmi://localhost:4000/LindaServer");
+
+        Collection<Tuple> batch = new ArrayList<>();
+        for (int i = 0; i < 10000; i++) {
+            batch.add(new Tuple(i, "curseur"));
+        }
+        linda.writeAll(batch);
+
+        Tuple motif = new Tuple(Integer.class, "curseur");
+        System.out.println("readN: " + linda.readN(motif, 10).size() + " tuples (doit être 10)");
+
+        int count = 0;
+        try (TupleCursor cursor = linda.readCursor(motif, 500)) {
+            while (cursor.hasNext()) {
+                cursor.next();
+                count++;
+            }
+        }
+        System.out.println("readCursor: " + count + " tuples (doit être 10000)");
+
+        System.out.println("takeN: " + linda.takeN(motif, 100).size() + " tuples (doit être 100)");
+
+        count = 0;
+        try (TupleCursor cursor = linda.takeCursor(motif, 500)) {
+            while (cursor.hasNext()) {
+                cursor.next();
+                count++;
+            }
+        }
+        System.out.println("takeCursor: " + count + " tuples (doit être 9900)");
+        System.out.println("restants: " + linda.readAll(motif).size() + " tuples (doit être 0)");
+    }
+}
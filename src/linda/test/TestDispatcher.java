@@ -0,0 +1,67 @@
+package linda.test;
+
+import linda.CallbackDispatcher;
+import linda.Linda;
+import linda.Linda.eventMode;
+import linda.Linda.eventTiming;
+import linda.Tuple;
+import linda.shm.CentralizedLinda;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class TestDispatcher {
+
+    public static void main(String[] a) throws Exception {
+        // 2 threads, 100 callbacks en attente au plus, les suivants sont abandonnés
+        CallbackDispatcher dispatcher = new CallbackDispatcher(2, 100, CallbackDispatcher.Overflow.DROP);
+        final Linda linda = new CentralizedLinda(dispatcher);
+
+        // Une rafale : 1000 callbacks read lents réveillés par une seule écriture
+        AtomicInteger called = new AtomicInteger(0);
+        for (int i = 0; i < 1000; i++) {
+            linda.eventRegister(eventMode.READ, eventTiming.FUTURE, new Tuple(Integer.class), t -> {
+                try {
+                    Thread.sleep(1);
+                } catch (InterruptedException e) {
+                }
+                called.incrementAndGet();
+            });
+        }
+        linda.write(new Tuple(1));
+        System.out.println("(1) Ecriture terminée, file: " + dispatcher.queueDepth() + "/" + dispatcher.capacity());
+        Thread.sleep(1000);
+        System.out.println("(1) Resultat: " + called.get() + " appelés, " + dispatcher.dropped() + " abandonnés, file max " + dispatcher.maxQueueDepth());
+
+        // Un take abandonné ne perd pas son tuple
+        for (int i = 0; i < 200; i++) {
+            linda.eventRegister(eventMode.READ, eventTiming.FUTURE, new Tuple("plein"), t -> {
+                try {
+                    Thread.sleep(100);
+                } catch (InterruptedException e) {
+                }
+            });
+        }
+        linda.eventRegister(eventMode.TAKE, eventTiming.FUTURE, new Tuple("plein"), t -> System.out.println("(2) pris " + t));
+        linda.write(new Tuple("plein"));
+        System.out.println("(2) Resultat: tuple toujours présent: " + linda.tryRead(new Tuple("plein")));
+
+        // Appels d'un même callback dans l'ordre, un à la fois
+        CallbackDispatcher serial = new CallbackDispatcher(4, 1000, CallbackDispatcher.Overflow.BLOCK);
+        final Linda linda2 = new CentralizedLinda(serial);
+        StringBuilder order = new StringBuilder();
+        linda.Callback cb = new linda.Callback() {
+            public void call(Tuple t) {
+                order.append(t.get(0)).append(' ');
+            }
+        };
+        for (int i = 0; i < 10; i++) {
+            linda2.eventRegister(eventMode.TAKE, eventTiming.FUTURE, new Tuple(Integer.class), cb);
+        }
+        for (int i = 0; i < 10; i++) {
+            linda2.write(new Tuple(i));
+        }
+        Thread.sleep(200);
+        System.out.println("(3) Resultat: " + order);
+        System.exit(0);
+    }
+}
@@ -0,0 +1,103 @@
+package linda.test;
+
+import linda.LeasedLinda;
+import linda.Tuple;
+import linda.server.LindaClient;
+import linda.server.LindaServerImpl;
+import linda.server.NioLindaServer;
+import linda.shm.CentralizedLinda;
+
+import java.rmi.Naming;
+import java.rmi.registry.LocateRegistry;
+import java.util.Random;
+
+/**
+ * Tuples à durée de vie : expiration, renouvellement, fin du bail au retrait, retrait des index,
+ * puis expiration de nombreux tuples (linda.lease.tick de 10 ms) et baux à distance (RMI sur 4500, NIO sur 4501)
+ */
+public class TestLeases {
+
+    private static final int PORT = 4500;
+    private static final int MANY = 500000;
+
+    public static void main(String[] a) throws Exception {
+        CentralizedLinda linda = new CentralizedLinda();
+        Tuple any = new Tuple(String.class, Integer.class);
+
+        long short1 = linda.write(new Tuple("short", 1), 200);
+        linda.write(new Tuple("short", 2), 200);
+        long renewed = linda.write(new Tuple("renewed", 1), 200);
+        long taken = linda.write(new Tuple("taken", 1), 5000);
+        linda.write(new Tuple("plain", 1));
+        System.out.println("(1) renouvelé: " + linda.renew(renewed, 1000) + " (doit être true)");
+        linda.take(new Tuple("taken", 1));
+        System.out.println("(1) bail d'un tuple retiré: " + linda.renew(taken, 1000) + " (doit être false)");
+        Thread.sleep(400);
+        System.out.println("(1) après 400 ms: " + linda.readAll(any) + " (doit être renewed et plain)");
+        System.out.println("(1) bail expiré: " + linda.renew(short1, 1000) + " (doit être false)");
+        Thread.sleep(1000);
+        System.out.println("(1) après 1400 ms: " + linda.readAll(any) + " (doit être plain)");
+
+        // Bail avancé : le tuple expire plus tôt que prévu
+        long sooner = linda.write(new Tuple("sooner", 1), 60000);
+        linda.renew(sooner, 100);
+        Thread.sleep(300);
+        System.out.println("(2) bail avancé: " + linda.tryRead(new Tuple("sooner", 1)) + " (doit être null)");
+
+        // Index : un tuple expiré n'est plus trouvé par aucune recherche
+        for (int i = 0; i < 100; i++) {
+            linda.write(new Tuple("key", i), 100);
+        }
+        Thread.sleep(300);
+        System.out.println("(3) tryRead: " + linda.tryRead(new Tuple("key", 50)) + ", readAll: "
+                + linda.readAll(new Tuple("key", Integer.class)).size() + ", tryTake: "
+                + linda.tryTake(new Tuple("key", Integer.class)) + ", taille: " + linda.size() + " (doit être 1)");
+
+        // Beaucoup de tuples, échéances réparties sur une seconde
+        Random random = new Random(1);
+        long start = System.nanoTime();
+        for (int i = 0; i < MANY; i++) {
+            linda.write(new Tuple("many", i), 1000 + random.nextInt(1000));
+        }
+        long written = System.nanoTime();
+        System.out.println("(4) " + MANY + " écritures avec bail: " + (written - start) / MANY + " ns/écriture");
+        long probe = 0;
+        int probes = 0;
+        while (linda.size() > 1) {
+            long t0 = System.nanoTime();
+            linda.tryRead(new Tuple("plain", 1));
+            probe += System.nanoTime() - t0;
+            probes++;
+            Thread.sleep(1);
+        }
+        System.out.println("(4) tous expirés " + (System.nanoTime() - written) / 1000000 + " ms après la fin des écritures"
+                + " (dernière échéance à 2000 ms), tryRead pendant l'expiration: " + probe / probes + " ns");
+
+        // À distance
+        LocateRegistry.createRegistry(PORT);
+        LindaServerImpl server = new LindaServerImpl();
+        Naming.rebind("rmi://localhost:" + PORT + "/LindaServer", server);
+        new NioLindaServer(server, PORT + 1).start();
+        for (String uri : new String[] { "rmi://localhost:" + PORT + "/LindaServer", "nio://localhost:" + (PORT + 1) }) {
+            LindaClient client = new LindaClient(uri);
+            long lease = client.write(new Tuple("remote", 1), 200);
+            client.write(new Tuple("remote", 2), 200);
+            boolean ok = client.renew(lease, 1000);
+            Thread.sleep(500);
+            System.out.println("(5) " + uri + ": renouvelé " + ok + ", reste " + client.readAll(any)
+                    + " (doit être remote 1), bail d'un take en attente: "
+                    + takeLease(client) + " (doit être " + LeasedLinda.NO_LEASE + ")");
+            client.take(new Tuple("remote", 1));
+        }
+        System.exit(0);
+    }
+
+    private static long takeLease(LindaClient client) throws Exception {
+        Thread taker = new Thread(() -> client.take(new Tuple("handed", 1)));
+        taker.start();
+        Thread.sleep(200);
+        long lease = client.write(new Tuple("handed", 1), 1000);
+        taker.join();
+        return lease;
+    }
+}
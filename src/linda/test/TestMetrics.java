@@ -0,0 +1,98 @@
+package linda.test;
+
+import linda.Linda;
+import linda.Tuple;
+import linda.server.LindaClient;
+import linda.server.LindaServerImpl;
+import linda.server.NioLindaServer;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+import javax.management.openmbean.TabularData;
+import java.lang.management.ManagementFactory;
+import java.rmi.Naming;
+import java.rmi.registry.LocateRegistry;
+
+/**
+ * Métriques publiées en JMX par un serveur lancé dans ce processus (RMI sur le port 4400 et NIO sur 4401)
+ * Fait des opérations par les deux transports, enregistre des attentes et des callbacks, puis relit les métriques
+ * comme le ferait jconsole, par le serveur de MBeans de la plateforme.
+ */
+public class TestMetrics {
+
+    private static final int PORT = 4400;
+    private static final int OPS = 20000;
+
+    public static void main(String[] a) throws Exception {
+        LocateRegistry.createRegistry(PORT);
+        LindaServerImpl server = new LindaServerImpl();
+        server.registerMBeans("TestMetrics");
+        Naming.rebind("rmi://localhost:" + PORT + "/LindaServer", server);
+        new NioLindaServer(server, PORT + 1).start();
+
+        Linda rmi = new LindaClient("rmi://localhost:" + PORT + "/LindaServer");
+        Linda nio = new LindaClient("nio://localhost:" + (PORT + 1));
+        for (int i = 0; i < 1000; i++) {
+            rmi.write(new Tuple("rmi", i));
+            nio.write(new Tuple("nio", i));
+        }
+        for (int i = 0; i < 500; i++) {
+            rmi.take(new Tuple("rmi", i));
+            nio.tryRead(new Tuple("nio", i));
+        }
+        rmi.readAll(new Tuple("nio", Integer.class));
+        nio.takeN(new Tuple("nio", Integer.class), 10);
+
+        // Attentes jamais satisfaites, et callbacks déclenchés par des écritures
+        for (int i = 0; i < 100; i++) {
+            server.eventRegister(Linda.eventMode.READ, Linda.eventTiming.FUTURE, new Tuple(String.class, Double.class),
+                    (eid, t) -> { }, i);
+        }
+        for (int i = 0; i < 1000; i++) {
+            server.eventRegister(Linda.eventMode.TAKE, Linda.eventTiming.FUTURE, new Tuple("event", i),
+                    (eid, t) -> { }, i);
+            server.write(new Tuple("event", i));
+        }
+        // Une attente take bloquée dans un client NIO
+        new Thread(() -> nio.take(new Tuple("never", 0))).start();
+        Thread.sleep(500);
+
+        MBeanServer mbeans = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = new ObjectName("linda:type=Space,server=\"TestMetrics\",space=default");
+        System.out.println("(1) tuples: " + mbeans.getAttribute(name, "TupleCount") + " (doit être 1490)");
+        System.out.println("(1) attentes read: " + mbeans.getAttribute(name, "PendingReads") + " (doit être 100), take: "
+                + mbeans.getAttribute(name, "PendingTakes") + " (doit être 1)");
+        TabularData operations = (TabularData) mbeans.getAttribute(name, "Operations");
+        for (Object row : operations.values()) {
+            CompositeData op = (CompositeData) ((CompositeData) row).get("value");
+            if ((Long) op.get("count") > 0) {
+                System.out.println("(2) " + ((CompositeData) row).get("key") + ": " + op.get("count") + " ops, p50 "
+                        + op.get("p50Nanos") + " ns, p99 " + op.get("p99Nanos") + " ns, max " + op.get("maxNanos") + " ns");
+            }
+        }
+        CompositeData lag = (CompositeData) mbeans.getAttribute(name, "CallbackDispatchLag");
+        System.out.println("(3) retard des callbacks: " + lag.get("count") + " (doit être 1000), p50 "
+                + lag.get("p50Nanos") + " ns, p99 " + lag.get("p99Nanos") + " ns");
+
+        // Espace nommé créé après la publication : publié lui aussi
+        server.space("jobs").write(new Tuple("job", 1));
+        System.out.println("(4) espace jobs: " + mbeans.getAttribute(
+                new ObjectName("linda:type=Space,server=\"TestMetrics\",space=\"jobs\""), "TupleCount") + " tuple");
+
+        // Coût de la mesure sur une opération locale
+        mbeans.invoke(name, "reset", null, null);
+        for (int i = 0; i < OPS; i++) {
+            server.write(new Tuple("job", i));
+            server.take(new Tuple("job", i));
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < OPS; i++) {
+            server.write(new Tuple("job", i));
+            server.take(new Tuple("job", i));
+        }
+        System.out.println("(5) " + (System.nanoTime() - start) / OPS + " ns/write+take, "
+                + server.getMetrics().getOperations().get("write"));
+        System.exit(0);
+    }
+}
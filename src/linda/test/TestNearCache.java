@@ -0,0 +1,41 @@
+package linda.test;
+
+import linda.Tuple;
+import linda.server.LindaClient;
+
+public class TestNearCache {
+
+    public static void main(String[] a) throws Exception {
+        String uri = a.length > 0 ? a[0] : "rmi://localhost:4000/LindaServer";
+        final LindaClient reader = new LindaClient(uri);
+        final LindaClient writer = new LindaClient(uri);
+        Tuple motif = new Tuple("cache", Integer.class);
+
+        for (int i = 0; i < 10; i++) {
+            writer.write(new Tuple("cache", i));
+        }
+
+        long start = System.nanoTime();
+        for (int i = 0; i < 1000; i++) {
+            reader.readAll(motif);
+        }
+        System.out.println("(1) 1000 readAll sans cache: " + (System.nanoTime() - start) / 1000000 + " ms");
+
+        reader.enableNearCache(100, 1000);
+        start = System.nanoTime();
+        for (int i = 0; i < 1000; i++) {
+            reader.readAll(motif);
+        }
+        System.out.println("(1) 1000 readAll avec cache: " + (System.nanoTime() - start) / 1000000 + " ms");
+
+        // Les écritures et retraits d'un autre client sont poussés dans le cache
+        writer.write(new Tuple("cache", 10));
+        writer.take(new Tuple("cache", 0));
+        Thread.sleep(100);
+        System.out.println("(2) Resultat: " + reader.readAll(motif).size() + " tuples (doit être 10), tryRead " + reader.tryRead(new Tuple("cache", 0)) + " (doit être null)");
+
+        reader.disableNearCache();
+        writer.takeAll(motif);
+        System.exit(0);
+    }
+}
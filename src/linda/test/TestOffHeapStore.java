@@ -0,0 +1,63 @@
+package linda.test;
+
+import linda.Tuple;
+import linda.shm.CentralizedLinda;
+import linda.shm.TupleStore;
+
+import java.lang.management.BufferPoolMXBean;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+
+/**
+ * Remplit un espace puis le fait tourner (écriture + take), avec le stockage choisi en argument :
+ * heap (défaut) ou offheap. À lancer une fois par stockage pour comparer la mémoire du tas et le temps
+ * passé dans le ramasse-miettes (une collection complète parcourt tout le tas).
+ */
+public class TestOffHeapStore {
+
+    private static final int N = 2000000;
+
+    public static void main(String[] a) {
+        String store = a.length > 0 ? a[0] : "heap";
+        System.setProperty(TupleStore.PROPERTY, store);
+        CentralizedLinda linda = new CentralizedLinda();
+
+        long start = System.nanoTime();
+        for (int i = 0; i < N; i++) {
+            linda.write(new Tuple("job", i, "payload-" + i, i * 0.5));
+        }
+        System.out.println("(1) " + store + ": " + N + " writes, " + (System.nanoTime() - start) / N + " ns/write");
+
+        long gcBefore = gcMillis();
+        start = System.nanoTime();
+        for (int i = 0; i < N / 4; i++) {
+            linda.take(new Tuple("job", i, String.class, Double.class));
+            linda.write(new Tuple("job", N + i, "payload-" + i, i * 0.5));
+        }
+        System.out.println("(2) " + N / 4 + " take+write: " + (System.nanoTime() - start) / (N / 4) + " ns/pair, GC "
+                + (gcMillis() - gcBefore) + " ms");
+
+        start = System.nanoTime();
+        System.gc();
+        long fullGc = (System.nanoTime() - start) / 1000000;
+        Runtime rt = Runtime.getRuntime();
+        long direct = 0;
+        for (BufferPoolMXBean pool : ManagementFactory.getPlatformMXBeans(BufferPoolMXBean.class)) {
+            if (pool.getName().equals("direct")) {
+                direct = pool.getMemoryUsed();
+            }
+        }
+        System.out.println("(3) Full GC: " + fullGc + " ms, heap used: " + (rt.totalMemory() - rt.freeMemory()) / (1 << 20)
+                + " MB, direct: " + direct / (1 << 20) + " MB");
+        System.out.println("(4) readAll: " + linda.readAll(new Tuple("job", Integer.class, String.class, Double.class)).size()
+                + " (doit être " + N + ")");
+    }
+
+    private static long gcMillis() {
+        long total = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            total += gc.getCollectionTime();
+        }
+        return total;
+    }
+}
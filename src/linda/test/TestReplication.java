@@ -0,0 +1,124 @@
+package linda.test;
+
+import linda.Tuple;
+import linda.server.LindaClient;
+import linda.server.ReplicatedLinda;
+import linda.server.ReplicationStatus;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Réplication primaire/secours avec des serveurs lancés en processus locaux (StartServer sur les ports 5100,
+ * 5102 et 5104) : propagation des écritures et des retraits, lectures servies par les secours, refus des
+ * écritures sur un secours, puis arrêt brutal du primaire et reprise par le premier secours.
+ */
+public class TestReplication {
+
+    private static final int BASE_PORT = 5100;
+    private static final int N = 1000;
+
+    public static void main(String[] a) throws Exception {
+        String[] uris = new String[3];
+        for (int i = 0; i < 3; i++) {
+            uris[i] = "rmi://localhost:" + (BASE_PORT + 2 * i) + "/LindaServer";
+        }
+        List<Process> servers = new ArrayList<>();
+        try {
+            servers.add(start(BASE_PORT, "--primary"));
+            servers.add(start(BASE_PORT + 2, "--backup-of", uris[0]));
+            servers.add(start(BASE_PORT + 4, "--backup-of", uris[0] + "," + uris[1]));
+            run(uris, servers.get(0));
+        } finally {
+            for (Process p : servers) {
+                p.destroy();
+            }
+        }
+        System.exit(0);
+    }
+
+    /**
+     * Lance un serveur dans un nouveau processus et attend qu'il soit prêt
+     */
+    private static Process start(int port, String... options) throws Exception {
+        String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+        List<String> command = new ArrayList<>(Arrays.asList(java, "-Dlinda.replication.failover=1500",
+                "-cp", System.getProperty("java.class.path"), "linda.server.StartServer", "--port", String.valueOf(port)));
+        command.addAll(Arrays.asList(options));
+        Process p = new ProcessBuilder(command).redirectErrorStream(true).start();
+        BufferedReader out = new BufferedReader(new InputStreamReader(p.getInputStream()));
+        String line;
+        while ((line = out.readLine()) != null && !line.startsWith("The system is ready")) {
+        }
+        if (line == null) {
+            throw new IllegalStateException("Server on port " + port + " did not start");
+        }
+        // Affiche la suite de la sortie du serveur (changements de primaire)
+        Thread drain = new Thread(() -> {
+            try {
+                String l;
+                while ((l = out.readLine()) != null) {
+                    System.out.println("    [" + port + "] " + l);
+                }
+            } catch (Exception e) {
+            }
+        });
+        drain.setDaemon(true);
+        drain.start();
+        return p;
+    }
+
+    private static void run(String[] uris, Process primary) throws Exception {
+        ReplicatedLinda linda = new ReplicatedLinda(10000, uris);
+        LindaClient[] direct = new LindaClient[uris.length];
+        for (int i = 0; i < uris.length; i++) {
+            direct[i] = new LindaClient(uris[i]);
+        }
+        Tuple all = new Tuple("item", Integer.class);
+
+        for (int i = 0; i < N; i++) {
+            linda.write(new Tuple("item", i));
+        }
+        Thread.sleep(500);
+        System.out.println("(1) après " + N + " écritures :");
+        print(linda, direct, all);
+
+        for (int i = 0; i < N / 2; i++) {
+            linda.take(new Tuple("item", i));
+        }
+        Thread.sleep(500);
+        System.out.println("(2) après " + N / 2 + " retraits (doit être " + N / 2 + " partout) :");
+        print(linda, direct, all);
+
+        System.out.println("(3) lectures réparties : " + linda.readAll(all).size() + " " + linda.readAll(all).size() + " "
+                + linda.readAll(all).size() + " " + linda.tryRead(new Tuple("item", N - 1)));
+
+        System.out.println("(4) écriture sur un secours (doit être refusée) :");
+        direct[1].write(new Tuple("item", -1));
+        System.out.println("(4) tryRead sur le primaire : " + direct[0].tryRead(new Tuple("item", -1)) + " (doit être null)");
+
+        System.out.println("(5) arrêt brutal du primaire");
+        primary.destroyForcibly().waitFor();
+        long start = System.currentTimeMillis();
+        linda.write(new Tuple("item", N));
+        System.out.println("(5) écriture reprise après " + (System.currentTimeMillis() - start) + " ms");
+        Thread.sleep(1500);
+        System.out.println("(5) après la reprise (doit être " + (N / 2 + 1) + " sur les deux secours) :");
+        print(linda, direct, all);
+    }
+
+    private static void print(ReplicatedLinda linda, LindaClient[] direct, Tuple all) {
+        ReplicationStatus[] status = linda.status();
+        for (int i = 0; i < direct.length; i++) {
+            if (status[i] == null) {
+                System.out.println("    serveur " + i + " : injoignable");
+            } else {
+                System.out.println("    serveur " + i + " : " + direct[i].readAll(all).size() + " tuples, " + status[i]);
+            }
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package linda.test;
+
+import linda.Executions;
+import linda.Tuple;
+import linda.server.LindaClient;
+import linda.server.LindaServerImpl;
+import linda.server.NioLindaServer;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * 100 000 take bloqués en même temps sur un seul serveur (lancé dans ce processus, client en NIO)
+ * Avec -Dlinda.execution=virtual, chaque take est un appel bloquant dans son propre thread virtuel ;
+ * sinon, les take sont lancés avec takeAsync depuis un seul thread.
+ * Dans les deux cas, le nombre de threads de la JVM reste à peu près constant.
+ * Sans threads virtuels (non demandés, ou indisponibles avant Java 21), seul le chemin takeAsync est couvert.
+ * Usage: java [-Dlinda.execution=virtual] linda.test.TestScaling [nombre de take]
+ */
+public class TestScaling {
+
+    private static final int PORT = 4101;
+
+    public static void main(String[] a) throws Exception {
+        int n = a.length > 0 ? Integer.parseInt(a[0]) : 100000;
+
+        NioLindaServer server = new NioLindaServer(new LindaServerImpl(), PORT);
+        server.start();
+        LindaClient linda = new LindaClient("nio://localhost:" + PORT);
+        System.out.println("Mode: " + Executions.mode() + ", threads at start: " + threads());
+        if (Executions.mode() != Executions.Mode.VIRTUAL) {
+            boolean requested = "virtual".equalsIgnoreCase(System.getProperty(Executions.PROPERTY, "").trim());
+            System.out.println("Blocking takes on virtual threads skipped ("
+                    + (requested ? "not available on this runtime" : "run with -Dlinda.execution=virtual")
+                    + "): only takeAsync is covered");
+        }
+
+        CountDownLatch done = new CountDownLatch(n);
+        long start = System.nanoTime();
+        for (int i = 0; i < n; i++) {
+            Tuple template = new Tuple("scaling", i);
+            if (Executions.mode() == Executions.Mode.VIRTUAL) {
+                Executions.executor().execute(() -> {
+                    linda.take(template);
+                    done.countDown();
+                });
+            } else {
+                CompletableFuture<Tuple> take = linda.takeAsync(template);
+                take.thenRun(done::countDown);
+            }
+        }
+        // Laisse le temps aux enregistrements d'arriver au serveur
+        Thread.sleep(3000);
+        Runtime rt = Runtime.getRuntime();
+        System.out.println(n + " takes blocked, threads: " + threads()
+                + ", heap used: " + (rt.totalMemory() - rt.freeMemory()) / (1024 * 1024) + " MB");
+
+        for (int i = 0; i < n; i += 1000) {
+            Collection<Tuple> batch = new ArrayList<>();
+            for (int j = i; j < Math.min(n, i + 1000); j++) {
+                batch.add(new Tuple("scaling", j));
+            }
+            linda.writeAll(batch);
+        }
+        done.await();
+        System.out.println("All " + n + " takes served in " + (System.nanoTime() - start) / 1000000 + " ms, threads: " + threads());
+        System.exit(0);
+    }
+
+    private static int threads() {
+        return ManagementFactory.getThreadMXBean().getThreadCount();
+    }
+}
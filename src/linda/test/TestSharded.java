@@ -0,0 +1,130 @@
+package linda.test;
+
+import linda.Linda;
+import linda.Tuple;
+import linda.server.LindaClient;
+import linda.server.ShardedLinda;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Espace partitionné sur plusieurs serveurs lancés en processus locaux (StartServer sur les ports 5000, 5002...)
+ * Vérifie la répartition des tuples, le routage par clé, la diffusion des templates sans clé
+ * (readAll, takeAll, take bloquant) et mesure le débit write/take routé.
+ * Argument : nombre de shards (3 par défaut).
+ */
+public class TestSharded {
+
+    private static final int BASE_PORT = 5000;
+    private static final int N = 3000;
+
+    public static void main(String[] a) throws Exception {
+        int n = a.length > 0 ? Integer.parseInt(a[0]) : 3;
+        List<Process> servers = new ArrayList<>();
+        String[] uris = new String[n];
+        try {
+            for (int i = 0; i < n; i++) {
+                int port = BASE_PORT + 2 * i;
+                servers.add(start(port));
+                uris[i] = "nio://localhost:" + (port + 1);
+            }
+            run(uris);
+        } finally {
+            for (Process p : servers) {
+                p.destroy();
+            }
+        }
+        System.exit(0);
+    }
+
+    /**
+     * Lance un serveur dans un nouveau processus et attend qu'il soit prêt
+     */
+    private static Process start(int port) throws Exception {
+        String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+        Process p = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+                "linda.server.StartServer", "--port", String.valueOf(port))
+                .redirectErrorStream(true).start();
+        BufferedReader out = new BufferedReader(new InputStreamReader(p.getInputStream()));
+        String line;
+        while ((line = out.readLine()) != null && !line.startsWith("The system is ready")) {
+        }
+        if (line == null) {
+            throw new IllegalStateException("Server on port " + port + " did not start");
+        }
+        // Vider la sortie du serveur pour qu'il ne bloque pas
+        Thread drain = new Thread(() -> {
+            try {
+                while (out.readLine() != null) {
+                }
+            } catch (Exception e) {
+            }
+        });
+        drain.setDaemon(true);
+        drain.start();
+        return p;
+    }
+
+    private static void run(String[] uris) throws Exception {
+        ShardedLinda linda = new ShardedLinda(1, uris);
+
+        for (int i = 0; i < N; i++) {
+            linda.write(new Tuple("job", i, "payload-" + i));
+        }
+        int total = 0;
+        for (String uri : uris) {
+            int count = new LindaClient(uri).readAll(new Tuple(String.class, Integer.class, String.class)).size();
+            System.out.println("(1) " + uri + ": " + count + " tuples");
+            total += count;
+        }
+        System.out.println("(1) total: " + total + " (doit être " + N + ")");
+
+        // Clé concrète : un seul shard
+        System.out.println("(2) take routé: " + linda.take(new Tuple("job", 42, String.class)));
+        System.out.println("(2) tryRead routé après take: " + linda.tryRead(new Tuple("job", 42, String.class))
+                + " (doit être null)");
+
+        // Clé joker : diffusion à tous les shards
+        Tuple all = new Tuple("job", Integer.class, String.class);
+        System.out.println("(3) readAll diffusé: " + linda.readAll(all).size() + " (doit être " + (N - 1) + ")");
+        System.out.println("(3) takeAll diffusé: " + linda.takeAll(all).size() + " (doit être " + (N - 1) + ")");
+        System.out.println("(3) readAll après takeAll: " + linda.readAll(all).size() + " (doit être 0)");
+
+        // Take bloquant diffusé, réveillé par une écriture sur un shard quelconque
+        CompletableFuture<Tuple> taken = CompletableFuture.supplyAsync(() -> linda.take(new Tuple("late", Integer.class)));
+        Thread.sleep(300);
+        linda.write(new Tuple("late", 7));
+        System.out.println("(4) take bloquant diffusé: " + taken.get());
+        Thread.sleep(300);
+        System.out.println("(4) readAll après take: " + linda.readAll(new Tuple("late", Integer.class)).size()
+                + " (doit être 0)");
+
+        // Callback diffusé : un seul déclenchement, les autres shards gardent leurs tuples
+        List<Tuple> events = new ArrayList<>();
+        linda.eventRegister(Linda.eventMode.TAKE, Linda.eventTiming.FUTURE, new Tuple("event", Integer.class), t -> {
+            synchronized (events) {
+                events.add(t);
+            }
+        });
+        for (int i = 0; i < 20; i++) {
+            linda.write(new Tuple("event", i));
+        }
+        Thread.sleep(500);
+        System.out.println("(5) callbacks: " + events.size() + " (doit être 1), restants: "
+                + linda.readAll(new Tuple("event", Integer.class)).size() + " (doit être 19)");
+
+        // Débit routé
+        long start = System.nanoTime();
+        for (int i = 0; i < N; i++) {
+            linda.write(new Tuple("bench", i));
+            linda.take(new Tuple("bench", i));
+        }
+        System.out.println("(6) " + uris.length + " shards: " + (2L * N * 1_000_000_000L / (System.nanoTime() - start))
+                + " ops/s (write+take routés)");
+    }
+}
@@ -0,0 +1,67 @@
+package linda.test;
+
+import linda.Tuple;
+import linda.shm.CentralizedLinda;
+import linda.shm.IncrementalSnapshots;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Instantanés pendant que des écrivains et des preneurs modifient l'espace : les écrivains ne doivent pas
+ * être bloqués, et l'espace restauré doit être celui du dernier instantané
+ */
+public class TestSnapshot {
+
+    private static final int N = 200000;
+
+    public static void main(String[] a) throws Exception {
+        Path dir = Files.createTempDirectory("linda-snap");
+
+        CentralizedLinda linda = new CentralizedLinda();
+        IncrementalSnapshots snapshots = IncrementalSnapshots.open(linda, dir);
+        for (int i = 0; i < N; i++) {
+            linda.write(new Tuple("base", i));
+        }
+
+        // Un écrivain et un preneur pendant les instantanés ; on garde la pire latence d'écriture
+        long[] worst = new long[1];
+        Thread writer = new Thread(() -> {
+            for (int i = 0; i < N; i++) {
+                long start = System.nanoTime();
+                linda.write(new Tuple("live", i));
+                worst[0] = Math.max(worst[0], System.nanoTime() - start);
+            }
+        });
+        Thread taker = new Thread(() -> {
+            for (int i = 0; i < N; i += 2) {
+                linda.take(new Tuple("base", i));
+            }
+        });
+        writer.start();
+        taker.start();
+        int taken = 0;
+        long start = System.nanoTime();
+        while (writer.isAlive() || taker.isAlive()) {
+            snapshots.snapshot();
+            taken++;
+        }
+        System.out.println("(1) " + taken + " snapshots in " + (System.nanoTime() - start) / 1000000
+                + " ms, worst write: " + worst[0] / 1000 + " us");
+
+        start = System.nanoTime();
+        linda.write(new Tuple("last", 1));
+        long seq = snapshots.snapshot();
+        System.out.println("(2) Quiet snapshot #" + seq + ": " + (System.nanoTime() - start) / 1000 + " us");
+        snapshots.close();
+
+        CentralizedLinda restored = new CentralizedLinda();
+        start = System.nanoTime();
+        IncrementalSnapshots.open(restored, dir).close();
+        System.out.println("(3) Restore: " + (System.nanoTime() - start) / 1000000 + " ms, "
+                + restored.readAll(new Tuple("base", Integer.class)).size() + " base (doit être " + N / 2 + "), "
+                + restored.readAll(new Tuple("live", Integer.class)).size() + " live (doit être " + N + "), "
+                + restored.readAll(new Tuple("last", Integer.class)).size() + " last (doit être 1)");
+        System.exit(0);
+    }
+}
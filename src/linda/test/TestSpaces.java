@@ -0,0 +1,68 @@
+package linda.test;
+
+import linda.Linda;
+import linda.Tuple;
+import linda.server.LindaClient;
+import linda.server.LindaServer;
+import linda.server.LindaServerImpl;
+import linda.server.NioLindaServer;
+
+import java.rmi.Naming;
+import java.rmi.registry.LocateRegistry;
+
+/**
+ * Espaces nommés d'un même serveur (lancé dans ce processus, RMI sur le port 4200 et NIO sur 4201)
+ * Vérifie que les espaces sont isolés, qu'ils s'adressent par l'URI ou par space(nom), puis mesure
+ * write+take dans un espace pendant qu'un autre espace (ou le même) a beaucoup d'attentes en cours.
+ */
+public class TestSpaces {
+
+    private static final int PORT = 4200;
+    private static final int WAITERS = 20000;
+    private static final int OPS = 20000;
+
+    public static void main(String[] a) throws Exception {
+        LocateRegistry.createRegistry(PORT);
+        LindaServerImpl server = new LindaServerImpl();
+        Naming.rebind("rmi://localhost:" + PORT + "/LindaServer", server);
+        new NioLindaServer(server, PORT + 1).start();
+
+        // Isolation, adressage par l'URI (RMI et NIO) et par space(nom)
+        Linda whiteboard = new LindaClient("rmi://localhost:" + PORT + "/LindaServer/Whiteboard");
+        LindaClient root = new LindaClient("nio://localhost:" + (PORT + 1));
+        Linda jobs = root.space("jobs");
+        whiteboard.write(new Tuple("Whiteboard", 1));
+        jobs.write(new Tuple("job", 1));
+        Tuple any = new Tuple(String.class, Integer.class);
+        System.out.println("(1) défaut: " + root.readAll(any).size() + " (doit être 0), Whiteboard: "
+                + whiteboard.readAll(any) + ", jobs: " + jobs.readAll(any));
+        System.out.println("(1) Whiteboard vu en NIO: "
+                + new LindaClient("nio://localhost:" + (PORT + 1) + "/Whiteboard").readAll(any));
+        System.out.println("(1) espaces: " + server.spaceNames());
+
+        // Attentes jamais satisfaites, parcourues à chaque écriture de même arité dans leur espace
+        LindaServer busy = server.space("busy");
+        LindaServer quiet = server.space("quiet");
+        System.out.println("(2) seul:                  " + pairNanos(quiet) + " ns/write+take");
+        for (int i = 0; i < WAITERS; i++) {
+            busy.eventRegister(Linda.eventMode.READ, Linda.eventTiming.FUTURE, new Tuple(String.class, Double.class),
+                    (eid, t) -> { }, i);
+        }
+        System.out.println("(2) " + WAITERS + " attentes ailleurs: " + pairNanos(quiet) + " ns/write+take");
+        System.out.println("(2) " + WAITERS + " attentes ici:     " + pairNanos(busy) + " ns/write+take");
+        System.exit(0);
+    }
+
+    private static long pairNanos(LindaServer space) throws Exception {
+        for (int i = 0; i < OPS / 10; i++) {
+            space.write(new Tuple("warmup", i));
+            space.take(new Tuple("warmup", i));
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < OPS; i++) {
+            space.write(new Tuple("job", i));
+            space.take(new Tuple("job", i));
+        }
+        return (System.nanoTime() - start) / OPS;
+    }
+}
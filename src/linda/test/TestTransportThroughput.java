@@ -0,0 +1,58 @@
+package linda.test;
+
+import linda.Linda;
+import linda.Tuple;
+import linda.server.LindaClient;
+
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Compare le débit des transports RMI et NIO (serveur lancé par StartServer)
+ * Séquentiel : un seul thread enchaîne write/take.
+ * Concurrent : plusieurs threads partagent le même client (requêtes en vol simultanément sur NIO).
+ */
+public class TestTransportThroughput {
+
+    private static final int OPS = 20000;
+    private static final int THREADS = 8;
+
+    public static void main(String[] a) throws Exception {
+        run("rmi://localhost:4000/LindaServer");
+        run("nio://localhost:4001");
+        System.exit(0);
+    }
+
+    private static void run(String uri) throws Exception {
+        Linda linda = new LindaClient(uri);
+
+        // Préchauffage
+        sequential(linda, OPS / 10, "warmup");
+
+        long start = System.nanoTime();
+        sequential(linda, OPS, uri);
+        long seq = System.nanoTime() - start;
+
+        CountDownLatch done = new CountDownLatch(THREADS);
+        start = System.nanoTime();
+        for (int i = 0; i < THREADS; i++) {
+            final String key = uri + "#" + i;
+            new Thread(() -> {
+                sequential(linda, OPS / THREADS, key);
+                done.countDown();
+            }).start();
+        }
+        done.await();
+        long par = System.nanoTime() - start;
+
+        System.out.println(uri);
+        System.out.println("  sequential: " + (OPS * 2 * 1_000_000_000L / seq) + " ops/s");
+        System.out.println("  " + THREADS + " threads:  " + (OPS * 2 * 1_000_000_000L / par) + " ops/s");
+    }
+
+    private static void sequential(Linda linda, int n, String key) {
+        for (int i = 0; i < n; i++) {
+            linda.write(new Tuple(key, i));
+            linda.take(new Tuple(key, Integer.class));
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package linda.test;
+
+import linda.Tuple;
+import linda.shm.CentralizedLinda;
+import linda.shm.WriteAheadLog;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Surcoût du journal par écriture, puis redémarrage : l'espace doit être reconstruit à l'identique
+ */
+public class TestWriteAheadLog {
+
+    private static final int N = 200000;
+
+    public static void main(String[] a) throws Exception {
+        Path dir = Files.createTempDirectory("linda-wal");
+
+        CentralizedLinda linda = new CentralizedLinda();
+        WriteAheadLog wal = WriteAheadLog.open(linda, dir, 10, false, 60000);
+        long start = System.nanoTime();
+        for (int i = 0; i < N; i++) {
+            linda.write(new Tuple("wal", i, "payload"));
+        }
+        long elapsed = System.nanoTime() - start;
+        System.out.println("(1) " + N + " writes: " + elapsed / N + " ns/write");
+        for (int i = 0; i < N; i += 2) {
+            linda.take(new Tuple("wal", i, String.class));
+        }
+        wal.checkpoint();
+        for (int i = 0; i < 10; i++) {
+            linda.write(new Tuple("after", i));
+        }
+        wal.close();
+
+        // Avec attente du fsync (group commit) : quelques écrivains partagent chaque fsync
+        CentralizedLinda synced = new CentralizedLinda();
+        WriteAheadLog syncedWal = WriteAheadLog.open(synced, Files.createTempDirectory("linda-wal-sync"), 0, true, 60000);
+        Thread[] writers = new Thread[8];
+        start = System.nanoTime();
+        for (int w = 0; w < writers.length; w++) {
+            final int id = w;
+            writers[w] = new Thread(() -> {
+                for (int i = 0; i < 500; i++) {
+                    synced.write(new Tuple("sync", id, i));
+                }
+            });
+            writers[w].start();
+        }
+        for (Thread w : writers) {
+            w.join();
+        }
+        System.out.println("(2) 4000 durable writes, 8 threads: " + (System.nanoTime() - start) / 4000 / 1000 + " us/write");
+        syncedWal.close();
+
+        CentralizedLinda restored = new CentralizedLinda();
+        start = System.nanoTime();
+        WriteAheadLog.open(restored, dir, 10, false, 60000).close();
+        System.out.println("(3) Replay: " + (System.nanoTime() - start) / 1000000 + " ms, "
+                + restored.readAll(new Tuple("wal", Integer.class, String.class)).size() + " tuples (doit être " + N / 2 + "), "
+                + restored.readAll(new Tuple("after", Integer.class)).size() + " (doit être 10)");
+        System.exit(0);
+    }
+}
@@ -0,0 +1,52 @@
+package linda.test;
+
+import linda.Linda;
+import linda.Tuple;
+
+import java.util.ArrayList;
+import java.util.Collection;
+
+public class TestWriteAll {
+
+    public static void main(String[] a) {
+        //final Linda linda = new linda.shm.CentralizedLinda();
+        final Linda linda = new linda.server.LindaClient("rmi://localhost:4000/LindaServer");
+
+        new Thread() {
+            public void run() {
+                try {
+                    Thread.sleep(2);
+                } catch (InterruptedException e) {
+                    e.printStackTrace();
+                }
+                // Doit être réveillé par le lot écrit
+                Tuple motif = new Tuple(Integer.class, String.class);
+                Tuple res = linda.take(motif);
+                System.out.println("(1) Resultat:" + res);
+                linda.debug("(1)");
+            }
+        }.start();
+
+        new Thread() {
+            public void run() {
+                try {
+                    Thread.sleep(1000);
+                } catch (InterruptedException e) {
+                    e.printStackTrace();
+                }
+
+                Collection<Tuple> batch = new ArrayList<>();
+                for (int i = 0; i < 1000; i++) {
+                    batch.add(new Tuple(i, "lot"));
+                }
+                System.out.println("(2) writeAll: " + batch.size() + " tuples");
+                linda.writeAll(batch);
+
+                Collection<Tuple> res = linda.readAll(new Tuple(Integer.class, "lot"));
+                System.out.println("(2) readAll: " + res.size() + " tuples (doit être 999)");
+                linda.debug("(2)");
+            }
+        }.start();
+
+    }
+}